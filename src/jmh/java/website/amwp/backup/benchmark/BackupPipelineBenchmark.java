@@ -0,0 +1,115 @@
+package website.amwp.backup.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+import website.amwp.backup.archive.ParallelZipCompressor;
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.drive.ResumableUpload;
+import website.amwp.backup.pipeline.BoundedPipe;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.*;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// A whole world backup without the game: scan, compress on a worker pool and upload to the
+// stub server, either through a local archive file or streamed through a BoundedPipe.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class BackupPipelineBenchmark {
+    @Param({"file", "streaming"})
+    public String mode;
+
+    // deflate: the old fixed level 1, policy: the per extension defaults from the config
+    @Param({"deflate", "policy"})
+    public String codecs;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"64"})
+    public int outputBufferKb;
+
+    private Path root;
+    private Path world;
+    private StubDriveServer server;
+    private HttpClient client;
+    private ExecutorService workers;
+    private ExecutorService uploader;
+    private CodecPolicy policy;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("drivebackup-pipeline");
+        world = SyntheticWorld.create(root.resolve("world"), 3000, 24, 42);
+        server = new StubDriveServer();
+        client = HttpClient.newHttpClient();
+        workers = Executors.newFixedThreadPool(threads);
+        uploader = Executors.newSingleThreadExecutor();
+        // Same rules as the config defaults, BackupConfig itself needs a running game
+        policy = codecs.equals("deflate") ? CodecPolicy.parse("deflate", Map.of(), 1, 0)
+                : CodecPolicy.parse("deflate", Map.of("jar", "store", "png", "store", "dat", "zstd",
+                        "json", "zstd", "mca", "lz4"), 1, 5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workers.shutdownNow();
+        uploader.shutdownNow();
+        server.close();
+        SyntheticWorld.delete(root);
+    }
+
+    @Benchmark
+    public String backup() throws Exception {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        ParallelZipCompressor compressor = new ParallelZipCompressor(workers, threads, policy, Throttle.NONE);
+        ResumableUpload upload = new ResumableUpload(client, server.getUploadUrl(), refresh -> "token",
+                ResumableUpload.DEFAULT_CHUNK_SIZE);
+        upload.start("world.zip", null, "application/zip");
+
+        if (mode.equals("file")) {
+            File archive = root.resolve("world.zip").toFile();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(archive), outputBufferKb * 1024)) {
+                compressor.compress(entries, out);
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(archive), outputBufferKb * 1024)) {
+                return upload.upload(in, 0, archive.length());
+            } finally {
+                Files.delete(archive.toPath());
+            }
+        }
+
+        BoundedPipe pipe = new BoundedPipe(32 * 1024 * 1024);
+        Future<String> result = uploader.submit(() -> {
+            try (InputStream in = pipe.getInputStream()) {
+                return upload.upload(in);
+            } catch (Throwable t) {
+                pipe.fail(t);
+                throw t;
+            }
+        });
+        try (OutputStream out = pipe.getOutputStream()) {
+            compressor.compress(entries, out);
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
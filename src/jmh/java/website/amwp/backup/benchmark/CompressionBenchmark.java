@@ -0,0 +1,55 @@
+package website.amwp.backup.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import website.amwp.backup.archive.codec.CompressionCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Single threaded codec throughput on one entry's worth of data, split into blocks the way
+// ParallelZipCompressor does. Each operation compresses PAYLOAD_SIZE bytes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressionBenchmark {
+    static final int PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    @Param({"store", "deflate:1", "deflate:6", "zstd:1", "zstd:3", "zstd:9:long", "lz4"})
+    public String codec;
+
+    @Param({"64", "256", "1024", "4096"})
+    public int blockKb;
+
+    // region: already compressed chunks with sector padding, nbt: uncompressed NBT-like data
+    @Param({"region", "nbt"})
+    public String payload;
+
+    private CompressionCodec compressionCodec;
+    private byte[] data;
+    private byte[] block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        compressionCodec = CompressionCodec.parse(codec, 1);
+        Random random = new Random(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(PAYLOAD_SIZE);
+        while (out.size() < PAYLOAD_SIZE) {
+            out.writeBytes(payload.equals("region") ? SyntheticWorld.regionFile(random, 64) : SyntheticWorld.nbtLike(random, 1024 * 1024));
+        }
+        data = new byte[PAYLOAD_SIZE];
+        System.arraycopy(out.toByteArray(), 0, data, 0, PAYLOAD_SIZE);
+        block = new byte[blockKb * 1024];
+    }
+
+    @Benchmark
+    public void compress(Blackhole blackhole) throws IOException {
+        for (int offset = 0; offset < data.length; offset += block.length) {
+            int length = Math.min(block.length, data.length - offset);
+            System.arraycopy(data, offset, block, 0, length);
+            blackhole.consume(compressionCodec.compress(block, length, offset + length == data.length));
+        }
+    }
+}
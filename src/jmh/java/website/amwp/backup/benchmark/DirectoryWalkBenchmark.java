@@ -0,0 +1,40 @@
+package website.amwp.backup.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of turning a world directory into archive entries before anything is read
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DirectoryWalkBenchmark {
+    @Param({"1000", "10000"})
+    public int smallFiles;
+
+    private Path world;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        world = SyntheticWorld.create(Files.createTempDirectory("drivebackup-walk"), smallFiles, 16, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticWorld.delete(world);
+    }
+
+    @Benchmark
+    public List<ArchiveEntry> scan() {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        return entries;
+    }
+}
@@ -0,0 +1,60 @@
+package website.amwp.backup.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import website.amwp.backup.dedup.ContentChunker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+// Hashing throughput over PAYLOAD_SIZE bytes fed in bufferKb pieces, plus the dedup chunker
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HashingBenchmark {
+    static final int PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    @Param({"SHA-256", "SHA-1", "MD5", "CRC32", "CRC32C"})
+    public String algorithm;
+
+    @Param({"8", "64", "1024"})
+    public int bufferKb;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new byte[PAYLOAD_SIZE];
+        new Random(11).nextBytes(data);
+    }
+
+    @Benchmark
+    public void hash(Blackhole blackhole) throws NoSuchAlgorithmException {
+        int buffer = bufferKb * 1024;
+        if (algorithm.startsWith("CRC")) {
+            Checksum checksum = algorithm.equals("CRC32") ? new CRC32() : new CRC32C();
+            for (int offset = 0; offset < data.length; offset += buffer) {
+                checksum.update(data, offset, Math.min(buffer, data.length - offset));
+            }
+            blackhole.consume(checksum.getValue());
+        } else {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            for (int offset = 0; offset < data.length; offset += buffer) {
+                digest.update(data, offset, Math.min(buffer, data.length - offset));
+            }
+            blackhole.consume(digest.digest());
+        }
+    }
+
+    @Benchmark
+    public void contentChunker(Blackhole blackhole) throws IOException {
+        new ContentChunker().split(new ByteArrayInputStream(data), (chunk, offset, length) -> blackhole.consume(length));
+    }
+}
@@ -0,0 +1,100 @@
+package website.amwp.backup.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Just enough of Drive's resumable upload protocol to measure the client side: the body is
+// read and thrown away, every chunk is acknowledged with a 308 and the last one with the id.
+final class StubDriveServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+
+    StubDriveServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/upload", this::startSession);
+        server.createContext("/session/", this::receiveChunk);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "StubDrive");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    String getUploadUrl() {
+        return baseUrl() + "/upload";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void startSession(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            drain(exchange.getRequestBody());
+            String id = String.valueOf(nextSession.incrementAndGet());
+            sessions.put(id, 0L);
+            exchange.getResponseHeaders().set("Location", baseUrl() + "/session/" + id);
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    // Content-Range is "bytes first-last/total" or "bytes */total", total may be "*"
+    private void receiveChunk(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String id = exchange.getRequestURI().getPath().substring("/session/".length());
+            Long committed = sessions.get(id);
+            if (committed == null) {
+                drain(exchange.getRequestBody());
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long received = drain(exchange.getRequestBody());
+            String range = exchange.getRequestHeaders().getFirst("Content-Range").substring("bytes ".length());
+            String total = range.substring(range.indexOf('/') + 1);
+            long end = committed + received;
+            sessions.put(id, end);
+
+            if (!total.equals("*") && end == Long.parseLong(total)) {
+                sessions.remove(id);
+                byte[] body = ("{\"id\":\"file-" + id + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+            if (end > 0) {
+                exchange.getResponseHeaders().set("Range", "bytes=0-" + (end - 1));
+            }
+            exchange.sendResponseHeaders(308, -1);
+        }
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+}
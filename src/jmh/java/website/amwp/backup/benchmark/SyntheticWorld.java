@@ -0,0 +1,140 @@
+package website.amwp.backup.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Generates world-shaped test data: lots of small gzipped .dat and .json files next to region
+// files laid out like the real thing (8KB header, zlib chunks padded to 4KB sectors).
+// Everything comes from a fixed seed so runs are comparable.
+final class SyntheticWorld {
+    static final int SECTOR = 4096;
+
+    private SyntheticWorld() {
+    }
+
+    static Path create(Path root, int smallFiles, int regionFiles, long seed) throws IOException {
+        Random random = new Random(seed);
+        Files.createDirectories(root);
+        Files.write(root.resolve("level.dat"), gzip(nbtLike(random, 2048)));
+
+        Path playerdata = Files.createDirectories(root.resolve("playerdata"));
+        Path stats = Files.createDirectories(root.resolve("stats"));
+        Path data = Files.createDirectories(root.resolve("data"));
+        for (int i = 0; i < smallFiles; i++) {
+            String uuid = new UUID(random.nextLong(), random.nextLong()).toString();
+            switch (i % 3) {
+                case 0 -> Files.write(playerdata.resolve(uuid + ".dat"), gzip(nbtLike(random, 1024 + random.nextInt(8192))));
+                case 1 -> Files.write(stats.resolve(uuid + ".json"), statsJson(random));
+                default -> Files.write(data.resolve("map_" + i + ".dat"), gzip(nbtLike(random, 512 + random.nextInt(16384))));
+            }
+        }
+
+        Path region = Files.createDirectories(root.resolve("region"));
+        int side = (int) Math.ceil(Math.sqrt(regionFiles));
+        for (int i = 0; i < regionFiles; i++) {
+            Files.write(region.resolve("r." + (i % side) + "." + (i / side) + ".mca"), regionFile(random, 256));
+        }
+        return root;
+    }
+
+    static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // Region file with the given number of chunks, each zlib compressed and sector aligned
+    static byte[] regionFile(Random random, int chunks) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(2 * SECTOR);
+        int sector = 2;
+        for (int i = 0; i < chunks; i++) {
+            byte[] compressed = zlib(nbtLike(random, 8192 + random.nextInt(24576)));
+            int length = compressed.length + 5;
+            int sectors = (length + SECTOR - 1) / SECTOR;
+            header.putInt(i * 4, (sector << 8) | sectors);
+            header.putInt(SECTOR + i * 4, (int) (System.currentTimeMillis() / 1000));
+
+            ByteBuffer chunk = ByteBuffer.allocate(sectors * SECTOR);
+            chunk.putInt(compressed.length + 1);
+            chunk.put((byte) 2);
+            chunk.put(compressed);
+            body.writeBytes(chunk.array());
+            sector += sectors;
+        }
+        ByteArrayOutputStream file = new ByteArrayOutputStream(header.capacity() + body.size());
+        file.writeBytes(header.array());
+        file.writeBytes(body.toByteArray());
+        return file.toByteArray();
+    }
+
+    // Repetitive palette indices and tag names with some noise, compresses roughly like chunk NBT
+    static byte[] nbtLike(Random random, int size) {
+        byte[] data = new byte[size];
+        String[] tags = {"minecraft:stone", "minecraft:dirt", "minecraft:air", "Palette", "BlockStates", "Heightmaps"};
+        int i = 0;
+        while (i < size) {
+            if (random.nextInt(4) == 0) {
+                byte[] tag = tags[random.nextInt(tags.length)].getBytes(StandardCharsets.US_ASCII);
+                int n = Math.min(tag.length, size - i);
+                System.arraycopy(tag, 0, data, i, n);
+                i += n;
+            } else {
+                int run = Math.min(1 + random.nextInt(32), size - i);
+                byte value = (byte) random.nextInt(random.nextInt(3) == 0 ? 256 : 8);
+                for (int j = 0; j < run; j++) {
+                    data[i++] = value;
+                }
+            }
+        }
+        return data;
+    }
+
+    private static byte[] statsJson(Random random) {
+        StringBuilder json = new StringBuilder("{\"stats\":{\"minecraft:mined\":{");
+        for (int i = 0; i < 40; i++) {
+            json.append(i == 0 ? "" : ",").append("\"minecraft:block_").append(i).append("\":").append(random.nextInt(5000));
+        }
+        return json.append("}},\"DataVersion\":3955}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] zlib(byte[] data) {
+        Deflater deflater = new Deflater(6);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package website.amwp.backup.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import website.amwp.backup.drive.ResumableUpload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Client side cost of the resumable upload protocol against a local stub server, i.e. chunk
+// size versus per request overhead. Network and Drive itself are not part of the number.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadBenchmark {
+    static final int PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    @Param({"1", "8", "32"})
+    public int chunkMb;
+
+    private StubDriveServer server;
+    private HttpClient client;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubDriveServer();
+        client = HttpClient.newHttpClient();
+        data = new byte[PAYLOAD_SIZE];
+        new Random(3).nextBytes(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        ResumableUpload upload = new ResumableUpload(client, server.getUploadUrl(), refresh -> "token", chunkMb * 1024 * 1024);
+        upload.start("bench.zip", null, "application/zip");
+        return upload.upload(new ByteArrayInputStream(data), 0, data.length);
+    }
+}
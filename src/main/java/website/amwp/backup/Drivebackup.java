@@ -15,47 +15,168 @@ import website.amwp.backup.commands.DriveBackupCommand;
 import com.google.api.client.auth.oauth2.Credential;
 import website.amwp.backup.drive.DriveService;
 import website.amwp.backup.config.BackupConfig;
-import com.google.api.client.http.FileContent;
+import website.amwp.backup.crypto.BackupKeyring;
+import website.amwp.backup.crypto.EncryptedArchive;
+import website.amwp.backup.crypto.EncryptingOutputStream;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+import website.amwp.backup.archive.ExcludeFilter;
+import website.amwp.backup.archive.ParallelZipCompressor;
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.catalog.BackupCatalog;
+import website.amwp.backup.dedup.ChunkStore;
+import website.amwp.backup.drive.DriveBatch;
+import website.amwp.backup.drive.DriveMetadataCache;
+import website.amwp.backup.drive.ResumableUpload;
+import website.amwp.backup.drive.UploadQueue;
+import website.amwp.backup.drive.UploadSessionStore;
+import website.amwp.backup.incremental.BackupManifest;
+import website.amwp.backup.incremental.ChangeTracker;
+import website.amwp.backup.integrity.ArchiveChecksums;
+import website.amwp.backup.integrity.BackupVerifier;
+import website.amwp.backup.integrity.ChecksumStore;
+import website.amwp.backup.metrics.BackupMetrics;
+import website.amwp.backup.metrics.BackupRun;
+import website.amwp.backup.metrics.MetricsServer;
+import website.amwp.backup.region.RegionDelta;
+import website.amwp.backup.restore.BackupNames;
+import website.amwp.backup.restore.DriveRestoreSource;
+import website.amwp.backup.restore.FallbackRestoreSource;
+import website.amwp.backup.restore.LocalRestoreSource;
+import website.amwp.backup.restore.ParallelDownloader;
+import website.amwp.backup.restore.PendingRestoreStore;
+import website.amwp.backup.restore.RestoreFilter;
+import website.amwp.backup.restore.WorldRestore;
+import website.amwp.backup.retention.RetentionPlan;
+import website.amwp.backup.retention.RetentionPlanner;
+import website.amwp.backup.retention.Snapshot;
+import website.amwp.backup.retention.SnapshotCatalog;
+import website.amwp.backup.scheduler.BackupJob;
+import website.amwp.backup.scheduler.BackupScheduler;
+import website.amwp.backup.region.RegionFile;
+import website.amwp.backup.region.RegionIndex;
+import website.amwp.backup.pipeline.BoundedPipe;
+import website.amwp.backup.pipeline.TeeOutputStream;
+import website.amwp.backup.progress.BackupProgress;
+import website.amwp.backup.progress.ProgressReporter;
+import website.amwp.backup.snapshot.SnapshotGroup;
+import website.amwp.backup.snapshot.WorldSnapshot;
+import website.amwp.backup.target.BackupTarget;
+import website.amwp.backup.target.BackupTargets;
+import website.amwp.backup.throttle.BandwidthLimiter;
+import website.amwp.backup.throttle.TickGovernor;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
 import java.time.LocalDateTime;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import net.minecraft.text.Text;
+import java.io.FileInputStream;
+import java.nio.file.StandardCopyOption;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
 public class Drivebackup implements ModInitializer {
 	public static final String MOD_ID = "drivebackup";
 	public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
 	private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
-	private Timer backupTimer;
+	private BackupScheduler scheduler;
 	private Drive driveService;
+	private DriveMetadataCache driveCache;
+	private ChunkStore chunkStore;
+	private UploadQueue uploadQueue;
+	private PendingRestoreStore pendingRestores;
+	private SnapshotCatalog localCatalog;
+	private ChecksumStore checksumStore;
+	private BackupCatalog catalog;
+	private BackupVerifier verifier;
+	private ScheduledFuture<?> verifyTask;
+	private volatile BackupKeyring keyring;
+	private final DriveTarget driveTarget = new DriveTarget();
+	private volatile List<BackupTarget> extraTargets = Collections.emptyList();
+	private final Set<String> archivesInFlight = ConcurrentHashMap.newKeySet(); // Written but not uploaded yet
+	private final MetricsServer metricsServer = new MetricsServer(BackupMetrics.getInstance());
 	private static Drivebackup instance;
-	private static final int BUFFER_SIZE = 4096; // 4KB buffer
-	private static final long THROTTLE_DELAY = 50; // 50ms delay between chunks
-	private static final ExecutorService backupExecutor = Executors.newSingleThreadExecutor();
-	private static final net.minecraft.server.MinecraftServer server = null;
+	private static final ExecutorService uploadExecutor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "DriveBackup-Upload");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Shared by every archive being compressed, so parallel jobs split the cores instead of each
+	// starting its own pool. Jobs queue their blocks in turn, which interleaves them fairly.
+	private static final ThreadPoolExecutor compressionExecutor = newCompressionPool();
+	// Background re-checks of stored archives, one at a time and at the lowest priority
+	private static final ScheduledExecutorService verifyExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "DriveBackup-Verify");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	private static final HttpClient httpClient = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(30))
+			.build();
+	private static volatile net.minecraft.server.MinecraftServer server;
 
 	@Override
 	public void onInitialize() {
 		instance = this;
 		LOGGER.info("Initializing DriveBackup mod");
+		uploadQueue = new UploadQueue(this::newResumableUpload, UploadSessionStore.getInstance(),
+				BackupConfig.getInstance().getUploadConcurrency());
+		scheduler = new BackupScheduler(this::performBackup, BackupConfig.getInstance().getBackupConcurrency());
+		pendingRestores = new PendingRestoreStore(
+				FabricLoader.getInstance().getConfigDir().resolve("drivebackup/pending-restores.json"));
+		localCatalog = new SnapshotCatalog(FabricLoader.getInstance().getConfigDir().resolve("drivebackup/local-catalog.json"),
+				FabricLoader.getInstance().getGameDir().resolve("backups"));
+		checksumStore = new ChecksumStore(FabricLoader.getInstance().getConfigDir().resolve("drivebackup/checksums"));
+		catalog = new BackupCatalog(FabricLoader.getInstance().getConfigDir().resolve("drivebackup/catalog"));
+		verifier = new BackupVerifier(checksumStore, new DriveVerifyRemote(),
+				FabricLoader.getInstance().getGameDir().resolve("backups").resolve(".verify"), TickGovernor.getInstance());
+		loadKeyring();
+		registerMetrics();
+		loadTargets();
 
 		// Register the command
 		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
@@ -64,303 +185,1397 @@ public class Drivebackup implements ModInitializer {
 
 		try {
 			setupBackupSchedule();
+			scheduleVerification();
 			registerServerEvents();
+			TickGovernor.getInstance().register();
+			ProgressReporter.getInstance().register(() -> scheduler.getJobs().stream()
+					.filter(job -> job.getState() == BackupJob.State.RUNNING || job.getState() == BackupJob.State.UPLOADING)
+					.map(BackupJob::getTracker)
+					.collect(Collectors.toList()));
 		} catch (Exception e) {
 			LOGGER.error("Failed to initialize DriveBackup", e);
 		}
 
 		// Add shutdown hook to clean up executor
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			backupExecutor.shutdown();
+			scheduler.shutdown();
+			uploadExecutor.shutdown();
+			compressionExecutor.shutdownNow();
+			verifyExecutor.shutdownNow();
+			uploadQueue.shutdown();
+			extraTargets.forEach(BackupTarget::shutdown);
+			metricsServer.stop();
 		}));
 	}
 
-	private void initializeDriveService() throws Exception {
+	private void registerMetrics() {
+		BackupMetrics metrics = BackupMetrics.getInstance();
+		metrics.registerGauge("drivebackup_jobs_queued", "Backup jobs waiting for a worker",
+				() -> scheduler.getJobs().stream().filter(job -> job.getState() == BackupJob.State.QUEUED).count());
+		metrics.registerGauge("drivebackup_jobs_running", "Backup jobs compressing or uploading",
+				() -> scheduler.getJobs().stream().filter(job -> job.getState() == BackupJob.State.RUNNING
+						|| job.getState() == BackupJob.State.UPLOADING).count());
+		metrics.registerGauge("drivebackup_upload_queue_depth", "Archives waiting for an upload slot",
+				uploadQueue::getQueueDepth);
+		metrics.registerGauge("drivebackup_uploads_active", "Uploads in progress",
+				() -> ResumableUpload.getActiveUploads().size());
+		metrics.registerGauge("drivebackup_upload_rate_bytes", "Current upload throughput in bytes per second",
+				() -> (long) BandwidthLimiter.getInstance().getBytesPerSecond());
+		metrics.registerCounter("drivebackup_upload_retries_total", "Upload requests retried after a failure",
+				ResumableUpload::getTotalRetries);
+		metricsServer.start(BackupConfig.getInstance().getMetricsPort());
+	}
+
+	public static void restartMetricsServer() {
+		if (instance != null) {
+			instance.metricsServer.start(BackupConfig.getInstance().getMetricsPort());
+		}
+	}
+
+	// Built once, every backup and restore shares the client and its metadata cache
+	private synchronized void initializeDriveService() throws Exception {
 		if (driveService == null) {
 			final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
 
 			// Initialize the Drive service
 			driveService = new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, getCredentials())
 					.setApplicationName("Minecraft Backup Mod")
+					.setRootUrl(BackupConfig.getInstance().getDriveRootUrl())
 					.build();
+			driveCache = new DriveMetadataCache(driveService,
+					FabricLoader.getInstance().getConfigDir().resolve("drivebackup/drive-cache.json"));
 		}
 	}
 
 	private void setupBackupSchedule() {
-		backupTimer = new Timer("BackupTimer", true);
-		backupTimer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				performBackup();
+		BackupConfig config = BackupConfig.getInstance();
+		try {
+			scheduler.schedule(config.getBackupCron(), config.getBackupInterval());
+		} catch (IllegalArgumentException e) {
+			LOGGER.error("Invalid backup cron '{}', falling back to the interval: {}", config.getBackupCron(), e.getMessage());
+			scheduler.schedule(null, config.getBackupInterval());
+		}
+	}
+
+	// Applies interval or cron changes without a restart
+	public static void rescheduleBackups() {
+		if (instance != null) {
+			instance.setupBackupSchedule();
+		}
+	}
+
+	// Builds the enabled targets from the config. Ones being replaced finish what they have queued.
+	private synchronized void loadTargets() {
+		List<BackupTarget> targets = new ArrayList<>();
+		for (BackupConfig.TargetConfig target : BackupConfig.getInstance().getTargets()) {
+			if (!target.enabled) {
+				continue;
+			}
+			try {
+				targets.add(BackupTargets.create(target));
+			} catch (IllegalArgumentException e) {
+				LOGGER.error("Ignoring backup target {}: {}", target.name, e.getMessage());
 			}
-		}, BackupConfig.getInstance().getBackupInterval(),
-				BackupConfig.getInstance().getBackupInterval());
+		}
+		List<BackupTarget> previous = extraTargets;
+		extraTargets = Collections.unmodifiableList(targets);
+		previous.forEach(BackupTarget::shutdown);
+	}
+
+	public static void reloadTargets() {
+		if (instance != null) {
+			instance.loadTargets();
+		}
+	}
+
+	// Google Drive first, it is where streaming, dedup and restores work
+	private List<BackupTarget> getTargets() {
+		List<BackupTarget> targets = new ArrayList<>();
+		targets.add(driveTarget);
+		targets.addAll(extraTargets);
+		return targets;
+	}
+
+	// Kept loaded even with encryption off, restores of older encrypted backups still need it
+	private void loadKeyring() {
+		keyring = new BackupKeyring(BackupConfig.getInstance().getEncryptionKeyPath());
+		verifier.setKeyring(keyring);
+	}
+
+	public static void reloadKeyring() {
+		if (instance != null) {
+			instance.loadKeyring();
+		}
+	}
+
+	public static BackupKeyring getKeyring() {
+		return instance != null ? instance.keyring : null;
+	}
+
+	public static BackupScheduler getScheduler() {
+		return instance != null ? instance.scheduler : null;
 	}
 
 	private void registerServerEvents() {
-		ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
-			LOGGER.info("Server stopping, performing final backup");
+		ServerLifecycleEvents.SERVER_STARTED.register(startedServer -> {
+			server = startedServer;
+			startChangeTracking();
+			scheduler.submit("resume-uploads", Integer.MAX_VALUE, job -> {
+				resumePendingUploads();
+				return null;
+			});
+		});
+
+		// The final backup runs once the worlds are saved and closed, and holds up the
+		// shutdown for at most the configured time so it isn't cut off halfway
+		ServerLifecycleEvents.SERVER_STOPPED.register(stoppedServer -> {
+			server = null;
+			LOGGER.info("Server stopped, performing final backup");
 			performBackup();
-			if (backupTimer != null) {
-				backupTimer.cancel();
+			try {
+				long timeout = BackupConfig.getInstance().getShutdownBackupTimeout() * 1000L;
+				if (!scheduler.awaitIdle(timeout)) {
+					LOGGER.warn("Final backup did not finish within {} seconds, cancelling it", timeout / 1000);
+					scheduler.cancelAll();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			applyPendingRestores();
 		});
 	}
 
-	public static void performManualBackup() {
-		if (instance != null) {
-			instance.performBackup();
+	// Restarted whenever its settings change. Every world gets walked once before the tracker
+	// is trusted with it.
+	private void startChangeTracking() {
+		BackupConfig config = BackupConfig.getInstance();
+		Path gameDir = FabricLoader.getInstance().getGameDir();
+		List<Path> worlds = new ArrayList<>();
+		for (String worldName : config.getWorldsToBackup()) {
+			worlds.add(gameDir.resolve(worldName));
+		}
+		ChangeTracker.getInstance().start(worlds, config.getChangeTracking(), config.getFullRescanHours());
+	}
+
+	public static void restartChangeTracking() {
+		if (instance != null && server != null) {
+			instance.startChangeTracking();
+		}
+	}
+
+	// Completes with the run's jobs once every one of them has finished, failed or not
+	public static CompletableFuture<List<BackupJob>> performManualBackup() {
+		if (instance == null) {
+			return CompletableFuture.failedFuture(new IllegalStateException("DriveBackup is not initialized"));
+		}
+		if (!BackupConfig.getInstance().isAuthenticated()) {
+			return CompletableFuture.failedFuture(new IllegalStateException("Not authenticated, use /drivebackup auth first"));
 		}
+		List<BackupJob> jobs = instance.performBackup();
+		return CompletableFuture.allOf(jobs.stream().map(BackupJob::getCompletion).toArray(CompletableFuture[]::new))
+				.thenApply(done -> jobs);
 	}
 
-	private void performBackup() {
-		backupExecutor.submit(() -> {
+	// Backups of the world in Drive and in the local backups folder, listed off the server thread
+	public static CompletableFuture<List<BackupNames.ArchiveName>> listRestoreSnapshots(String worldName) {
+		return CompletableFuture.supplyAsync(() -> {
+			ExecutorService workers = newRestorePool();
 			try {
-				BackupConfig config = BackupConfig.getInstance();
-				if (!config.isAuthenticated()) {
-					LOGGER.warn("Backup skipped: Not authenticated. Use /drivebackup auth to set up Google Drive.");
-					return;
-				}
+				return instance.newWorldRestore(workers).listSnapshots("worlds/" + worldName);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			} finally {
+				workers.shutdownNow();
+			}
+		}, uploadExecutor);
+	}
 
-				// Announce backup start
-				broadcastMessage("§6[Backup] Starting backup process. Server might experience slight lag...");
+	// Downloads and extracts the backup while the server runs. A world that isn't loaded is
+	// swapped right away, the live one once the server stops.
+	public static BackupJob requestRestore(String worldName, String snapshot, RestoreFilter filter) {
+		if (instance == null) {
+			return null;
+		}
+		return instance.scheduler.submit("restore/" + worldName, Integer.MAX_VALUE, job -> {
+			instance.stageRestore(worldName, snapshot, filter, job);
+			return null;
+		});
+	}
 
-				initializeDriveService();
-				Path gameDir = FabricLoader.getInstance().getGameDir();
-
-				// Backup specified worlds
-				for (String worldName : config.getWorldsToBackup()) {
-					Path worldPath = gameDir.resolve(worldName);
-					if (Files.exists(worldPath) && Files.isDirectory(worldPath)) {
-						broadcastMessage("§7[Backup] Backing up world: " + worldName);
-						backupDirectory(worldPath.toFile(), "worlds/" + worldName);
-						Thread.sleep(1000); // Wait 1 second between world backups
-					} else {
-						LOGGER.warn("World '{}' not found", worldName);
-					}
-				}
+	public static boolean cancelRestore(String worldName) {
+		if (instance == null) {
+			return false;
+		}
+		PendingRestoreStore.PendingRestore pending = instance.pendingRestores.remove(worldName);
+		if (pending == null) {
+			return false;
+		}
+		deleteRestoreWork(Path.of(pending.stagedPath));
+		return true;
+	}
 
-				// Backup mods if enabled
-				if (config.isBackupMods()) {
-					Path modsDir = gameDir.resolve("mods");
-					if (Files.exists(modsDir)) {
-						broadcastMessage("§7[Backup] Backing up mods folder...");
-						backupDirectory(modsDir.toFile(), "mods");
-					}
-				}
+	public static List<PendingRestoreStore.PendingRestore> getPendingRestores() {
+		return instance != null ? instance.pendingRestores.list() : Collections.emptyList();
+	}
 
-				config.setLastBackupTime(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-				broadcastMessage("§a[Backup] Backup completed successfully!");
-				
-			} catch (Exception e) {
-				LOGGER.error("Failed to perform backup: {}", e.getMessage());
-				broadcastMessage("§c[Backup] Backup failed: " + e.getMessage());
+	private void stageRestore(String worldName, String snapshot, RestoreFilter filter, BackupJob job) throws IOException {
+		broadcastMessage("§7[Backup] Preparing restore of " + worldName + " (" + snapshot + ", " + filter + ")...");
+		ExecutorService workers = newRestorePool();
+		try {
+			WorldRestore restore = newWorldRestore(workers);
+			Path staged = restore.stage("worlds/" + worldName, snapshot, filter, job::setProgress);
+			Path worldDir = FabricLoader.getInstance().getGameDir().resolve(worldName);
+			if (!WorldRestore.isLocked(worldDir)) {
+				Path previous = restore.swap(worldDir, staged, filter);
+				deleteRestoreWork(staged);
+				broadcastMessage("§a[Backup] Restored " + worldName
+						+ (previous != null ? ", the old world was kept as " + previous.getFileName() : ""));
+				return;
+			}
+
+			PendingRestoreStore.PendingRestore pending = new PendingRestoreStore.PendingRestore();
+			pending.world = worldName;
+			pending.snapshot = snapshot;
+			pending.stagedPath = staged.toString();
+			pending.filter = filter.toString();
+			pending.created = System.currentTimeMillis();
+			PendingRestoreStore.PendingRestore replaced = pendingRestores.remove(worldName);
+			if (replaced != null && !replaced.stagedPath.equals(pending.stagedPath)) {
+				deleteRestoreWork(Path.of(replaced.stagedPath));
 			}
+			pendingRestores.add(pending);
+			broadcastMessage("§a[Backup] Restore of " + worldName + " is ready and will be applied when the server stops");
+		} catch (IOException e) {
+			LOGGER.error("Failed to restore {}", worldName, e);
+			broadcastMessage("§c[Backup] Failed to restore " + worldName + ": " + e.getMessage());
+			throw e;
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	// Runs after the final backup, once the worlds are closed and their locks released
+	private void applyPendingRestores() {
+		List<PendingRestoreStore.PendingRestore> pending = pendingRestores.list();
+		if (pending.isEmpty()) {
+			return;
+		}
+		ExecutorService workers = newRestorePool();
+		try {
+			WorldRestore restore = new WorldRestore(null, null, workers);
+			for (PendingRestoreStore.PendingRestore entry : pending) {
+				Path staged = Path.of(entry.stagedPath);
+				if (!Files.isDirectory(staged)) {
+					LOGGER.warn("Dropping restore of {}, the staged files are gone", entry.world);
+					pendingRestores.remove(entry.world);
+					continue;
+				}
+				try {
+					Path worldDir = FabricLoader.getInstance().getGameDir().resolve(entry.world);
+					Path previous = restore.swap(worldDir, staged, RestoreFilter.parse(entry.filter));
+					pendingRestores.remove(entry.world);
+					deleteRestoreWork(staged);
+					LOGGER.info("Restored {} to {}{}", entry.world, entry.snapshot,
+							previous != null ? ", the old world was kept as " + previous.getFileName() : "");
+				} catch (IOException | IllegalArgumentException e) {
+					// Kept, so the next stop (or the offline tool) can try again
+					LOGGER.error("Failed to restore {}", entry.world, e);
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	private WorldRestore newWorldRestore(ExecutorService workers) throws IOException {
+		BackupConfig config = BackupConfig.getInstance();
+		Path backupsDir = FabricLoader.getInstance().getGameDir().resolve("backups");
+		ParallelDownloader downloader = new ParallelDownloader(httpClient, DriveService::getAccessToken, workers,
+				ParallelDownloader.DEFAULT_SEGMENT_SIZE, config.getUploadMaxRetries());
+		DriveRestoreSource drive = new DriveRestoreSource(httpClient, config.getDriveRootUrl(),
+				DriveService::getAccessToken, "MinecraftBackups", downloader);
+		WorldRestore restore = new WorldRestore(new FallbackRestoreSource(new LocalRestoreSource(backupsDir), drive),
+				backupsDir.resolve(".restore"), workers);
+		restore.setKeyring(keyring);
+		if (config.isDedupBackups() || Files.isDirectory(backupsDir.resolve("dedup"))) {
+			restore.setChunkStore(getChunkStore());
+		}
+		return restore;
+	}
+
+	private static ExecutorService newRestorePool() {
+		AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(BackupConfig.getInstance().getRestoreThreads(), r -> {
+			Thread thread = new Thread(r, "DriveBackup-Restore-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		});
 	}
 
-	private void backupDirectory(File directory, String backupType) {
+	// The staged world sits in backups/.restore/<name>/staged/<world>
+	private static void deleteRestoreWork(Path stagedWorld) {
+		try {
+			WorldRestore.deleteRecursively(stagedWorld.getParent().getParent());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to clean up {}", stagedWorld, e);
+		}
+	}
+
+	// Queues one job per world plus one for the mods folder. Targets that are still waiting
+	// from an earlier run are coalesced by the scheduler.
+	private List<BackupJob> performBackup() {
+		BackupConfig config = BackupConfig.getInstance();
+		if (!config.isAuthenticated()) {
+			LOGGER.warn("Backup skipped: Not authenticated. Use /drivebackup auth to set up Google Drive.");
+			return Collections.emptyList();
+		}
+
+		// Announce backup start
+		broadcastMessage("§6[Backup] Starting backup process. Server might experience slight lag...");
+
+		Path gameDir = FabricLoader.getInstance().getGameDir();
+		List<BackupJob> jobs = new ArrayList<>();
+		scheduler.setConcurrency(config.getBackupConcurrency());
+
+		List<Path> worlds = new ArrayList<>();
+		for (String worldName : config.getWorldsToBackup()) {
+			Path worldPath = gameDir.resolve(worldName);
+			if (Files.exists(worldPath) && Files.isDirectory(worldPath)) {
+				worlds.add(worldPath);
+			} else {
+				LOGGER.warn("World '{}' not found", worldName);
+			}
+		}
+
+		// Each world is a job of its own. With coordinated snapshots the first one to run
+		// stages all of them at once, so linked worlds match each other.
+		// Changes are taken when the jobs are queued and topped up inside the snapshot, once the
+		// flush has written everything, so saves made while a job waits aren't lost
+		Map<Path, ChangeTracker.Changes> worldChanges = new HashMap<>();
+		for (Path worldPath : worlds) {
+			worldChanges.put(worldPath, ChangeTracker.getInstance().begin(worldPath));
+		}
+		SnapshotGroup group = null;
+		if (config.isCoordinatedSnapshots() && worlds.size() > 1 && !WorldSnapshot.MODE_LIVE.equals(config.getSnapshotMode())) {
+			group = new SnapshotGroup(server, worlds, gameDir.resolve("backups").resolve(".staging"), config.getSnapshotMode(),
+					world -> worldChanges.get(world).topUp());
+		}
+		SnapshotGroup snapshotGroup = group;
+		for (Path worldPath : worlds) {
+			String worldName = worldPath.getFileName().toString();
+			ChangeTracker.Changes changes = worldChanges.get(worldPath);
+			BackupJob worldJob = scheduler.submit("worlds/" + worldName, config.getBackupPriority(worldName), job -> {
+				return backupDirectory(worldPath.toFile(), "worlds/" + worldName, true, job, snapshotGroup, changes);
+			});
+			worldJob.getCompletion().thenRun(() ->
+					ChangeTracker.getInstance().finish(changes, worldJob.getState() == BackupJob.State.DONE));
+			jobs.add(worldJob);
+		}
+
+		// Backup mods if enabled
+		if (config.isBackupMods()) {
+			Path modsDir = gameDir.resolve("mods");
+			if (Files.exists(modsDir)) {
+				jobs.add(scheduler.submit("mods", config.getBackupPriority("mods"), job -> {
+					return backupDirectory(modsDir.toFile(), "mods", false, job, null, null);
+				}));
+			}
+		}
+
+		CompletableFuture.allOf(jobs.stream().map(BackupJob::getCompletion).toArray(CompletableFuture[]::new))
+				.thenRun(() -> {
+					if (snapshotGroup != null) {
+						snapshotGroup.discardUnclaimed();
+					}
+					if (jobs.stream().allMatch(job -> job.getState() == BackupJob.State.DONE)) {
+						config.setLastBackupTime(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+						broadcastMessage("§a[Backup] Backup completed successfully!");
+					} else {
+						broadcastMessage("§c[Backup] Backup finished with errors, see /drivebackup jobs");
+					}
+				});
+		return jobs;
+	}
+
+	// Completes once the archive is uploaded and recorded, exceptionally (after reporting) on failure
+	private CompletableFuture<Void> backupDirectory(File directory, String backupType, boolean isWorld, BackupJob job,
+			SnapshotGroup group, ChangeTracker.Changes changes) {
+		BackupRun run = BackupMetrics.getInstance().startRun(backupType);
+		return backupDirectory(directory, backupType, isWorld, job, group, changes, run)
+				.whenComplete((result, e) -> run.finish(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+	}
+
+	private CompletableFuture<Void> backupDirectory(File directory, String backupType, boolean isWorld, BackupJob job,
+			SnapshotGroup group, ChangeTracker.Changes changes, BackupRun run) {
+		WorldSnapshot snapshot = null;
 		try {
 			if (!directory.exists() || !directory.isDirectory()) {
-				LOGGER.error("Invalid directory: {}", directory.getAbsolutePath());
-				return;
+				throw new IOException("Invalid directory: " + directory.getAbsolutePath());
+			}
+
+			initializeDriveService();
+			BackupConfig config = BackupConfig.getInstance();
+			File source = directory;
+			if (isWorld && !WorldSnapshot.MODE_LIVE.equals(config.getSnapshotMode())) {
+				// Stage a consistent copy while saving is paused and back up from that
+				job.setProgress("staging snapshot");
+				Path stagingRoot = FabricLoader.getInstance().getGameDir().resolve("backups").resolve(".staging");
+				long snapshotStart = System.nanoTime();
+				snapshot = group != null ? group.claim(directory.toPath())
+						: WorldSnapshot.take(server, directory.toPath(), stagingRoot, config.getSnapshotMode(), world -> {
+							if (changes != null) {
+								changes.topUp();
+							}
+						});
+				run.recordStage("snapshot", System.nanoTime() - snapshotStart);
+				run.setSavingPausedMillis(snapshot.getFrozenMillis());
+				LOGGER.info("Saving was paused for {} ms while staging {}", snapshot.getFrozenMillis(), backupType);
+				source = snapshot.getDirectory().toFile();
+			} else if (changes != null) {
+				changes.topUp(); // Live world, the scan below is as close to the data as it gets
+			}
+
+			// An incremental backup of a tracked world only looks at the files the server saved
+			BackupManifest manifest = BackupManifest.getInstance();
+			boolean tracked = changes != null && changes.isTracked() && config.isIncrementalBackups()
+					&& !config.isDedupBackups() && !manifest.isFullBackupDue(backupType, config.getFullBackupInterval());
+			long scanStart = System.nanoTime();
+			List<ArchiveEntry> entries = new ArrayList<>();
+			if (tracked) {
+				job.setProgress("collecting " + changes.size() + " changed files");
+				changes.collect(source.toPath(), directory.getName(), entries, config.getExcludePatterns(),
+						manifest.getRecordedNames(backupType));
+			} else {
+				job.setProgress("scanning files");
+				DirectoryScanner.collect(source, directory.getName(), entries, ExcludeFilter.of(config.getExcludePatterns()));
+				if (changes != null) {
+					changes.markFullScan();
+				}
+			}
+			run.recordStage("scan", System.nanoTime() - scanStart);
+
+			if (config.isDedupBackups()) {
+				job.setProgress("storing chunks");
+				long dedupStart = System.nanoTime();
+				dedupBackup(entries, backupType);
+				run.recordStage("dedup", System.nanoTime() - dedupStart);
+				return CompletableFuture.completedFuture(null);
+			}
+
+			// Work out what changed since the last backup when incremental backups are on
+			BackupManifest.Diff diff = null;
+			boolean incremental = false;
+			if (config.isIncrementalBackups()) {
+				String prefix = directory.getName() + "/";
+				diff = tracked ? manifest.diff(backupType, entries, name -> name.startsWith(prefix)
+						&& changes.isUnchanged(name.substring(prefix.length()))) : manifest.diff(backupType, entries);
+				incremental = !manifest.isFullBackupDue(backupType, config.getFullBackupInterval());
+				if (incremental && diff.isEmpty()) {
+					broadcastMessage("§7[Backup] No changes in " + backupType + " since the last backup, skipping");
+					return CompletableFuture.completedFuture(null);
+				}
 			}
 
 			String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
-			String zipFileName = backupType.replace('/', '-') + "_" + timestamp + ".zip";
+			String zipFileName = backupType.replace('/', '-') + "_" + timestamp
+					+ (incremental ? BackupManifest.INCREMENTAL_SUFFIX : ".zip")
+					+ (config.isEncryptBackups() ? EncryptedArchive.SUFFIX : "");
+			RegionIndex regions = null;
+			if (diff != null && config.isRegionDeltas()) {
+				regions = RegionIndex.load(FabricLoader.getInstance().getConfigDir()
+						.resolve("drivebackup/regions/" + backupType.replace('/', '-') + ".bin.gz"));
+			}
+			if (diff != null) {
+				entries = buildArchiveEntries(entries, diff, backupType, incremental, regions);
+			}
 
 			// Create backups directory and zip file
 			Path backupsDir = FabricLoader.getInstance().getGameDir().resolve("backups");
 			Files.createDirectories(backupsDir);
 			File zipFile = backupsDir.resolve(zipFileName).toFile();
 
-			// Create zip file
-			broadcastMessage("§7[Backup] Creating zip file for " + backupType + "...");
-			zipDirectory(directory, zipFile);
+			// Local retention leaves the archive alone until every target has it
+			List<BackupTarget> targets = getTargets();
+			archivesInFlight.add(zipFileName);
+			CompletableFuture<List<String>> stored;
+			ArchiveChecksums checksums;
+			try {
+				if (config.isStreamingUpload()) {
+					// Compress straight into the upload session. Other targets are fed from a local
+					// copy once the stream is done, so the archive is still compressed only once.
+					boolean spool = config.isKeepLocalCopy() || targets.size() > 1;
+					BackupProgress progress = beginCompression(job, "compressing and uploading", entries);
+					checksums = streamToGoogleDrive(entries, zipFileName, spool ? zipFile : null, run, progress);
+					broadcastMessage("§a[Backup] Successfully uploaded " + backupType);
+					applyRetention(driveTarget, backupType);
+					if (spool) {
+						localCatalog.add(zipFile);
+						job.setProgress("storing on targets");
+						stored = storeOnTargets(zipFile, zipFileName, backupType, targets.subList(1, targets.size()), run);
+					} else {
+						stored = CompletableFuture.completedFuture(Collections.emptyList());
+					}
+				} else {
+					// Create zip file
+					BackupProgress progress = beginCompression(job, "compressing", entries);
+					try (FileOutputStream fos = new FileOutputStream(zipFile);
+						 BufferedOutputStream bos = new BufferedOutputStream(fos, 64 * 1024)) {
+						checksums = zipDirectory(entries, zipFileName, bos, run, progress);
+					}
 
-			if (!zipFile.exists() || zipFile.length() == 0) {
-				LOGGER.error("Failed to create backup zip file");
-				return;
+					if (!zipFile.exists() || zipFile.length() == 0) {
+						throw new IOException("Failed to create backup zip file");
+					}
+					localCatalog.add(zipFile);
+
+					// Only Google Drive's upload reports how far it got
+					job.setProgress(targets.size() > 1 ? "uploading to " + targets.size() + " targets" : "uploading",
+							zipFile.length(), 0).trackBytes(uploadedBytes(zipFileName));
+					stored = storeOnTargets(zipFile, zipFileName, backupType, targets, run);
+				}
+			} catch (Exception e) {
+				archivesInFlight.remove(zipFileName);
+				throw e;
 			}
 
-			// Upload to Google Drive
-			broadcastMessage("§7[Backup] Uploading " + zipFileName + " to Google Drive...");
-			uploadToGoogleDrive(zipFile, zipFileName);
-			broadcastMessage("§a[Backup] Successfully uploaded " + backupType);
+			// The manifest only moves on once every target has the archive. If one failed the
+			// next backup covers the same changes again, and the local copy is kept.
+			RegionIndex uploadedRegions = regions;
+			BackupManifest.Diff uploadedDiff = diff;
+			boolean full = !incremental;
+			List<ArchiveEntry> archived = entries;
+			ArchiveChecksums archivedChecksums = checksums;
+			int storing = config.isStreamingUpload() ? targets.size() - 1 : targets.size();
+			boolean streamed = config.isStreamingUpload();
+			return stored.thenAccept(failed -> {
+				// Catalogued once any target has it, a streamed archive is already in Google Drive
+				if (streamed || failed.size() < storing) {
+					recordInCatalog(zipFileName, backupType, full, archived, archivedChecksums);
+				}
+				if (!failed.isEmpty()) {
+					throw new CompletionException(new IOException("Not stored on " + String.join(", ", failed)));
+				}
+				try {
+					if (uploadedRegions != null) {
+						uploadedRegions.save();
+					}
+					if (uploadedDiff != null) {
+						manifest.commit(uploadedDiff, zipFileName, full);
+					}
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
 
-			// Cleanup old backups
-			cleanupOldBackups(backupType, 1);
+				deleteLocalCopy(zipFile);
+				applyLocalRetention(backupType);
+			}).whenComplete((result, e) -> {
+				archivesInFlight.remove(zipFileName);
+				if (e != null) {
+					reportFailure(backupType, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e, job);
+				}
+			});
 
 		} catch (Exception e) {
-			LOGGER.error("Failed to backup {}: {}", backupType, e.getMessage());
-			broadcastMessage("§c[Backup] Failed to backup " + backupType + ": " + e.getMessage());
+			reportFailure(backupType, e, job);
+			return CompletableFuture.failedFuture(e);
+		} finally {
+			if (snapshot != null) {
+				try {
+					snapshot.close();
+				} catch (IOException e) {
+					LOGGER.warn("Failed to remove staged snapshot: {}", e.getMessage());
+				}
+			}
 		}
 	}
 
-	private void uploadToGoogleDrive(File zipFile, String fileName) throws Exception {
-		// Create file metadata
-		com.google.api.services.drive.model.File fileMetadata = new com.google.api.services.drive.model.File();
-		fileMetadata.setName(fileName);
+	// A backup that can't be catalogued is still a good backup, the catalog only answers questions about them
+	private void recordInCatalog(String archive, String backupType, boolean full, List<ArchiveEntry> entries,
+			ArchiveChecksums checksums) {
+		List<BackupCatalog.FileRecord> files = new ArrayList<>();
+		for (ArchiveEntry entry : entries) {
+			if (!entry.isDirectory()) {
+				ArchiveChecksums.EntryChecksum checksum = checksums.entries.get(entry.getName());
+				files.add(new BackupCatalog.FileRecord(entry.getName(), entry.getSize(), checksum != null ? checksum.sha256 : null));
+			}
+		}
+		int flags = (full ? 0 : BackupCatalog.FLAG_INCREMENTAL)
+				| (EncryptedArchive.isEncrypted(archive) ? BackupCatalog.FLAG_ENCRYPTED : 0);
+		try {
+			catalog.add(archive, backupType, checksums.created, checksums.size, flags, files, Collections.emptyList());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to record {} in the backup catalog: {}", archive, e.getMessage());
+		}
+	}
 
-		String folderId = findOrCreateFolder("MinecraftBackups");
-		if (folderId != null) {
-			fileMetadata.setParents(Collections.singletonList(folderId));
+	private void removeFromCatalog(String name) {
+		try {
+			catalog.remove(name);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to remove {} from the backup catalog: {}", name, e.getMessage());
 		}
+	}
 
-		// Create file content with default chunk size (which is usually 10MB)
-		FileContent mediaContent = new FileContent("application/zip", zipFile);
+	// Starts a stage that the compressor advances as it reads and writes the entries
+	private static BackupProgress beginCompression(BackupJob job, String stage, List<ArchiveEntry> entries) {
+		long bytes = 0;
+		long files = 0;
+		for (ArchiveEntry entry : entries) {
+			if (!entry.isDirectory()) {
+				bytes += entry.getSize();
+				files++;
+			}
+		}
+		return job.setProgress(stage, bytes, files);
+	}
 
-		// Upload file with progress monitoring
-		driveService.files().create(fileMetadata, mediaContent)
-				.setFields("id")
-				.execute();
+	// Bytes of the archive Google Drive has received. Kept once the upload is no longer active,
+	// so the stage doesn't drop back to zero while other targets are still storing it.
+	private static LongSupplier uploadedBytes(String fileName) {
+		AtomicLong uploaded = new AtomicLong();
+		return () -> {
+			for (ResumableUpload upload : ResumableUpload.getActiveUploads()) {
+				if (fileName.equals(upload.getFileName())) {
+					uploaded.accumulateAndGet(upload.getBytesUploaded(), Math::max);
+				}
+			}
+			return uploaded.get();
+		};
 	}
 
-	private void zipDirectory(File directoryToZip, File zipFile) throws IOException {
-		try (FileOutputStream fos = new FileOutputStream(zipFile);
-			 BufferedOutputStream bos = new BufferedOutputStream(fos);
-			 ZipOutputStream zos = new ZipOutputStream(bos)) {
-			
-			zos.setLevel(1); // Use fastest compression level to reduce CPU usage
-			zipFile(directoryToZip, directoryToZip.getName(), zos);
+	private void reportFailure(String backupType, Throwable e, BackupJob job) {
+		if (job.isCancelRequested()) {
+			broadcastMessage("§7[Backup] Backup of " + backupType + " cancelled");
+			return;
 		}
+		job.setProgress(e.getMessage());
+		LOGGER.error("Failed to backup {}: {}", backupType, e.getMessage());
+		broadcastMessage("§c[Backup] Failed to backup " + backupType + ": " + e.getMessage());
 	}
 
-	private void zipFile(File fileToZip, String fileName, ZipOutputStream zos) throws IOException {
-		if (fileToZip.isHidden()) {
-			return;
+	// Hands the archive to every target at once. Each one stores it on its own threads, so a slow
+	// target only delays its own copy, and one that fails is reported without stopping the
+	// others. Completes with the names of the targets that failed.
+	private CompletableFuture<List<String>> storeOnTargets(File archive, String fileName, String backupType,
+			List<BackupTarget> targets, BackupRun run) {
+		long size = archive.length();
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for (BackupTarget target : targets) {
+			long start = System.nanoTime();
+			CompletableFuture<Void> stored;
+			try {
+				stored = target.store(archive, fileName);
+			} catch (RuntimeException e) {
+				stored = CompletableFuture.failedFuture(e);
+			}
+			results.add(stored.handle((result, e) -> {
+				if (e != null) {
+					Throwable cause = rootCause(e);
+					LOGGER.error("Failed to store {} on {}: {}", fileName, target.getName(), cause.getMessage());
+					broadcastMessage("§c[Backup] Failed to store " + backupType + " on " + describeTarget(target)
+							+ ": " + cause.getMessage());
+					return target.getName();
+				}
+				if (target == driveTarget) {
+					run.recordStage("upload", System.nanoTime() - start);
+					run.addBytesUploaded(size);
+					broadcastMessage("§a[Backup] Successfully uploaded " + backupType);
+				} else {
+					run.recordStage("target_" + target.getName(), System.nanoTime() - start);
+					broadcastMessage("§a[Backup] Stored " + backupType + " on " + target.getName());
+				}
+				applyRetention(target, backupType);
+				return null;
+			}));
+		}
+		return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+				.thenApply(done -> results.stream().map(CompletableFuture::join)
+						.filter(Objects::nonNull).collect(Collectors.toList()));
+	}
+
+	private static Throwable rootCause(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+			e = e.getCause();
 		}
+		return e;
+	}
 
-		if (fileToZip.isDirectory()) {
-			if (fileName.endsWith("/")) {
-				zos.putNextEntry(new ZipEntry(fileName));
-			} else {
-				zos.putNextEntry(new ZipEntry(fileName + "/"));
+	private String describeTarget(BackupTarget target) {
+		return target == driveTarget ? "Google Drive" : target.getName();
+	}
+
+	// Stores the directory as a snapshot in the deduplicating chunk store, which only
+	// uploads chunks that no earlier snapshot of any world has stored yet
+	private void dedupBackup(List<ArchiveEntry> entries, String backupType) throws Exception {
+		BackupConfig config = BackupConfig.getInstance();
+		String prefix = backupType.replace('/', '-');
+		String snapshotName = prefix + "_"
+				+ LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+
+		ChunkStore store = getChunkStore();
+		ChunkStore.Result result = store.backup(snapshotName, backupType, entries);
+		broadcastMessage(String.format("§a[Backup] Stored %s: %d new chunks, %d reused, %.1f MB uploaded",
+				backupType, result.newChunks, result.reusedChunks, result.uploadedBytes / (1024.0 * 1024.0)));
+		recordInCatalog(store, store.readSnapshot(snapshotName), result.totalBytes);
+
+		List<String> snapshots = store.listSnapshots(prefix);
+		int removable = snapshots.size() - config.getSnapshotKeepCount();
+		for (int i = 0; i < removable; i++) {
+			store.deleteSnapshot(snapshots.get(i));
+			removeFromCatalog(snapshots.get(i));
+		}
+		if (removable > 0) {
+			store.collectGarbage();
+		}
+	}
+
+	// Files of a deduplicated snapshot have no hash of their own, their chunks are recorded instead
+	private void recordInCatalog(ChunkStore store, website.amwp.backup.dedup.Snapshot snapshot, long size) {
+		List<BackupCatalog.FileRecord> files = new ArrayList<>();
+		List<BackupCatalog.ChunkRecord> chunks = new ArrayList<>();
+		for (website.amwp.backup.dedup.Snapshot.FileEntry file : snapshot.files) {
+			files.add(new BackupCatalog.FileRecord(file.path, file.size, null));
+			for (String hash : file.chunks) {
+				ChunkStore.ChunkLocation location = store.getLocation(hash);
+				chunks.add(new BackupCatalog.ChunkRecord(hash, location != null ? location.size : 0));
 			}
-			zos.closeEntry();
+		}
+		try {
+			catalog.add(snapshot.name, snapshot.backupType, snapshot.created, size, BackupCatalog.FLAG_DEDUP, files, chunks);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to record {} in the backup catalog: {}", snapshot.name, e.getMessage());
+		}
+	}
 
-			File[] children = fileToZip.listFiles();
-			if (children != null) {
-				for (File childFile : children) {
-					zipFile(childFile, fileName + "/" + childFile.getName(), zos);
+	private synchronized ChunkStore getChunkStore() throws IOException {
+		if (chunkStore == null) {
+			Path root = FabricLoader.getInstance().getGameDir().resolve("backups").resolve("dedup");
+			chunkStore = new ChunkStore(root, new DriveChunkRemote(), BackupConfig.getInstance().getCompressionLevel());
+			chunkStore.setThrottle(TickGovernor.getInstance());
+		}
+		return chunkStore;
+	}
+
+	// Keeps the chunk store's packs, snapshots and index in MinecraftBackups/chunks
+	private class DriveChunkRemote implements ChunkStore.Remote {
+		private String folderId;
+
+		private String folder() throws IOException {
+			if (folderId == null) {
+				String parent = findOrCreateFolder("MinecraftBackups");
+				folderId = findOrCreateFolder("chunks", parent);
+				if (folderId == null) {
+					throw new IOException("Could not find or create the chunks folder on Google Drive");
+				}
+			}
+			return folderId;
+		}
+
+		@Override
+		public void upload(String name, File file) throws IOException {
+			List<DriveMetadataCache.RemoteFile> existing = findByName(name);
+
+			// Same rate limit and retries as archive uploads
+			ResumableUpload upload = newResumableUpload();
+			upload.start(name, folder(), "application/octet-stream");
+			String fileId;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+				fileId = upload.upload(in, 0, file.length());
+			}
+			driveCache.recordUpload(folder(), fileId, name, "application/octet-stream", file.length());
+
+			// Replace older copies, left behind by an earlier attempt that failed part way
+			deleteDriveFiles(existing.stream().map(old -> old.id).collect(Collectors.toList()));
+		}
+
+		@Override
+		public List<String> list() throws IOException {
+			return driveCache.listFiles(folder()).stream().map(file -> file.name).collect(Collectors.toList());
+		}
+
+		@Override
+		public void download(String name, Path target) throws IOException {
+			List<DriveMetadataCache.RemoteFile> files = findByName(name);
+			if (files.isEmpty()) {
+				throw new FileNotFoundException(name + " is not in the chunks folder on Google Drive");
+			}
+			// Newest copy, should an old one have survived
+			try (InputStream in = openMedia(files.get(files.size() - 1).id, name)) {
+				Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		@Override
+		public void delete(String name) throws IOException {
+			deleteAll(Collections.singletonList(name));
+		}
+
+		@Override
+		public void deleteAll(Collection<String> names) throws IOException {
+			List<String> ids = new ArrayList<>();
+			for (String name : names) {
+				findByName(name).forEach(file -> ids.add(file.id));
+			}
+			deleteDriveFiles(ids);
+		}
+
+		private List<DriveMetadataCache.RemoteFile> findByName(String name) throws IOException {
+			return driveCache.findByName(folder(), name);
+		}
+	}
+
+	// Archives in MinecraftBackups, uploaded through the shared upload queue. Listings come from
+	// the metadata cache, so planning retention costs at most one changes-feed call.
+	private class DriveTarget implements BackupTarget {
+		@Override
+		public String getName() {
+			return "drive";
+		}
+
+		@Override
+		public CompletableFuture<Void> store(File archive, String fileName) {
+			return uploadToGoogleDrive(archive, fileName).thenApply(id -> null);
+		}
+
+		@Override
+		public List<Snapshot> list(String prefix) throws IOException {
+			String folderId = findOrCreateFolder("MinecraftBackups");
+			if (folderId == null) {
+				throw new IOException("Backup folder not found on Google Drive");
+			}
+			List<Snapshot> snapshots = new ArrayList<>();
+			for (DriveMetadataCache.RemoteFile file : driveCache.listFiles(folderId)) {
+				Snapshot snapshot = Snapshot.of(file.name, file.size, file.id);
+				if (snapshot != null && snapshot.prefix().equals(prefix)) {
+					snapshots.add(snapshot);
+				}
+			}
+			return snapshots;
+		}
+
+		@Override
+		public void delete(List<Snapshot> snapshots) throws IOException {
+			deleteDriveFiles(snapshots.stream().map(Snapshot::location).collect(Collectors.toList()));
+		}
+	}
+
+	// Contents of a Drive file as one stream
+	private InputStream openMedia(String fileId, String name) throws IOException {
+		URI uri = URI.create(BackupConfig.getInstance().getDriveRootUrl() + "drive/v3/files/" + fileId + "?alt=media");
+		try {
+			HttpResponse<InputStream> response = httpClient.send(mediaRequest(uri, false), HttpResponse.BodyHandlers.ofInputStream());
+			if (response.statusCode() == 401) {
+				// Access token expired, refresh once and retry
+				response.body().close();
+				response = httpClient.send(mediaRequest(uri, true), HttpResponse.BodyHandlers.ofInputStream());
+			}
+			if (response.statusCode() != 200) {
+				response.body().close();
+				throw new IOException("Download of " + name + " failed: HTTP " + response.statusCode());
+			}
+			return response.body();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Download interrupted");
+		}
+	}
+
+	private static HttpRequest mediaRequest(URI uri, boolean refresh) throws IOException {
+		return HttpRequest.newBuilder(uri)
+				.header("Authorization", "Bearer " + DriveService.getAccessToken(refresh))
+				.timeout(Duration.ofMinutes(5))
+				.GET()
+				.build();
+	}
+
+	// Archives in MinecraftBackups as the verifier sees them, each downloaded in one stream
+	private class DriveVerifyRemote implements BackupVerifier.Remote {
+		@Override
+		public List<BackupVerifier.StoredArchive> list() throws IOException {
+			initializeDriveServiceQuietly();
+			String folderId = findOrCreateFolder("MinecraftBackups");
+			if (folderId == null) {
+				throw new IOException("Backup folder not found on Google Drive");
+			}
+			List<BackupVerifier.StoredArchive> archives = new ArrayList<>();
+			for (DriveMetadataCache.RemoteFile file : driveCache.listFiles(folderId)) {
+				if (Snapshot.of(file.name, file.size, file.id) != null) {
+					archives.add(new BackupVerifier.StoredArchive(file.name, file.id, file.size, file.md5));
+				}
+			}
+			return archives;
+		}
+
+		@Override
+		public InputStream open(BackupVerifier.StoredArchive archive) throws IOException {
+			return openMedia(archive.id(), archive.name());
+		}
+
+		private void initializeDriveServiceQuietly() throws IOException {
+			try {
+				initializeDriveService();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("Failed to connect to Google Drive: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private CompletableFuture<String> uploadToGoogleDrive(File zipFile, String fileName) {
+		uploadQueue.setConcurrency(BackupConfig.getInstance().getUploadConcurrency());
+		String folderId = findOrCreateFolder("MinecraftBackups");
+		long size = zipFile.length();
+		ArchiveChecksums checksums = checksumStore.get(fileName);
+		String md5 = checksums != null ? checksums.md5 : null;
+
+		// A retried backup may find its archive already uploaded
+		try {
+			for (DriveMetadataCache.RemoteFile existing : driveCache.findByName(folderId, fileName)) {
+				if (existing.size == size && (md5 == null || existing.md5 == null || existing.md5.equalsIgnoreCase(md5))) {
+					LOGGER.info("{} is already in Google Drive, skipping the upload", fileName);
+					return CompletableFuture.completedFuture(existing.id);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not check Google Drive for {}: {}", fileName, e.getMessage());
+		}
+
+		return uploadQueue.submit(zipFile, fileName, folderId)
+				.thenApply(id -> {
 					try {
-						Thread.sleep(10); // Small delay between files
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						break;
+						driveCache.recordUpload(folderId, id, fileName, "application/zip", size,
+								checkDriveChecksum(id, fileName, md5));
+					} catch (IOException e) {
+						throw new CompletionException(e);
 					}
-				}
+					return id;
+				});
+	}
+
+	// Drive hashes what it stored. Comparing that with the MD5 taken while compressing catches
+	// corruption anywhere between the compressor and Drive, the bad copy is removed right away.
+	private String checkDriveChecksum(String fileId, String fileName, String expectedMd5) throws IOException {
+		String md5 = driveService.files().get(fileId).setFields("id,size,md5Checksum").execute().getMd5Checksum();
+		if (expectedMd5 != null && md5 != null && !md5.equalsIgnoreCase(expectedMd5)) {
+			deleteDriveFiles(Collections.singletonList(fileId));
+			throw new IOException("Google Drive stored " + fileName + " with MD5 " + md5 + " instead of " + expectedMd5);
+		}
+		return md5;
+	}
+
+	// Continues uploads cut off by the last shutdown before any new backup runs
+	private void resumePendingUploads() {
+		if (!BackupConfig.getInstance().isAuthenticated()) {
+			return;
+		}
+		for (CompletableFuture<String> resumed : uploadQueue.resumePending()) {
+			try {
+				resumed.join();
+			} catch (CompletionException e) {
+				LOGGER.error("Failed to resume upload: {}", e.getCause().getMessage());
 			}
+		}
+	}
+
+	private void deleteLocalCopy(File zipFile) {
+		if (BackupConfig.getInstance().isKeepLocalCopy()) {
 			return;
 		}
+		try {
+			Files.deleteIfExists(zipFile.toPath());
+			localCatalog.remove(zipFile.getName());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to delete local backup {}: {}", zipFile.getName(), e.getMessage());
+		}
+	}
 
-		try (FileInputStream fis = new FileInputStream(fileToZip);
-			 BufferedInputStream bis = new BufferedInputStream(fis)) {
-			
-			ZipEntry zipEntry = new ZipEntry(fileName);
-			zos.putNextEntry(zipEntry);
-			
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int length;
-			long bytesWritten = 0;
-			
-			while ((length = bis.read(buffer)) >= 0) {
-				zos.write(buffer, 0, length);
-				bytesWritten += length;
-				
-				// Throttle after every 1MB
-				if (bytesWritten >= 1024 * 1024) {
-					try {
-						Thread.sleep(THROTTLE_DELAY);
-						bytesWritten = 0;
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						break;
+	private ResumableUpload newResumableUpload() {
+		BackupConfig config = BackupConfig.getInstance();
+		ResumableUpload upload = new ResumableUpload(httpClient,
+				config.getDriveRootUrl() + "upload/drive/v3/files", DriveService::getAccessToken,
+				config.getUploadChunkSize());
+		upload.setMaxRetries(config.getUploadMaxRetries());
+		upload.setThrottle(TickGovernor.getInstance());
+		upload.setBandwidthLimiter(BandwidthLimiter.getInstance());
+		return upload;
+	}
+
+	// Compression and upload overlap here, so "stream" covers both and "compress" includes
+	// time spent waiting for the upload to drain the pipe
+	private ArchiveChecksums streamToGoogleDrive(List<ArchiveEntry> entries, String fileName, File localCopy, BackupRun run,
+			BackupProgress progress) throws Exception {
+		long start = System.nanoTime();
+		BackupConfig config = BackupConfig.getInstance();
+		ResumableUpload upload = newResumableUpload();
+		String folderId = findOrCreateFolder("MinecraftBackups");
+		upload.start(fileName, folderId, "application/zip");
+
+		BoundedPipe pipe = new BoundedPipe(config.getStreamBufferSize());
+		ArchiveChecksums checksums;
+		Future<String> uploadResult = uploadExecutor.submit(() -> {
+			try (InputStream in = pipe.getInputStream()) {
+				return upload.upload(in);
+			} catch (Throwable t) {
+				pipe.fail(t);
+				throw t;
+			}
+		});
+
+		try (OutputStream out = localCopy == null ? pipe.getOutputStream()
+				: new TeeOutputStream(pipe.getOutputStream(),
+						new BufferedOutputStream(new FileOutputStream(localCopy), 64 * 1024))) {
+			checksums = zipDirectory(entries, fileName, out, run, progress);
+		} catch (Exception e) {
+			pipe.fail(e);
+			uploadResult.cancel(true);
+			throw e;
+		}
+
+		String fileId;
+		try {
+			fileId = uploadResult.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Upload failed: " + e.getCause().getMessage(), e.getCause());
+		}
+		driveCache.recordUpload(folderId, fileId, fileName, "application/zip", upload.getBytesUploaded(),
+				checkDriveChecksum(fileId, fileName, checksums.md5));
+		run.recordStage("stream", System.nanoTime() - start);
+		run.addBytesUploaded(upload.getBytesUploaded());
+		return checksums;
+	}
+
+	// Records the archive's checksums once it is complete. The MD5 is taken from the bytes as they
+	// are stored, the entry hashes on the workers as each block is compressed. Encrypted archives
+	// are encrypted on the way out, so nothing unencrypted reaches the disk or the upload.
+	private ArchiveChecksums zipDirectory(List<ArchiveEntry> entries, String fileName, OutputStream out, BackupRun run,
+			BackupProgress progress) throws IOException {
+		BackupConfig config = BackupConfig.getInstance();
+		int threads = config.getCompressionThreads();
+		resizeCompressionPool(threads);
+
+		CodecPolicy policy = CodecPolicy.parse(config.getDefaultCodec(), config.getCodecPolicy(),
+				config.getCompressionLevel(), config.getProbeMinSavingsPercent());
+		ParallelZipCompressor compressor = new ParallelZipCompressor(compressionExecutor, threads, policy, TickGovernor.getInstance());
+		compressor.setProgress(progress);
+		MessageDigest md5 = ArchiveChecksums.md5();
+		OutputStream stored = new DigestOutputStream(out, md5);
+		EncryptingOutputStream encrypted = null;
+		if (EncryptedArchive.isEncrypted(fileName)) {
+			encrypted = new EncryptingOutputStream(stored, keyring.current(), EncryptedArchive.DEFAULT_SEGMENT_SIZE);
+		}
+		long start = System.nanoTime();
+		compressor.compress(entries, encrypted != null ? encrypted : stored);
+		if (encrypted != null) {
+			encrypted.finish();
+		}
+		run.recordStage("compress", System.nanoTime() - start);
+		run.addBytesRead(compressor.getBytesRead());
+		run.addBytesCompressed(compressor.getBytesWritten());
+
+		ArchiveChecksums checksums = new ArchiveChecksums();
+		checksums.archive = fileName;
+		checksums.size = encrypted != null ? encrypted.getBytesWritten() : compressor.getBytesWritten();
+		checksums.md5 = HexFormat.of().formatHex(md5.digest());
+		checksums.created = System.currentTimeMillis();
+		checksums.entries = compressor.getEntryChecksums();
+		checksumStore.save(checksums);
+		return checksums;
+	}
+
+	private static ThreadPoolExecutor newCompressionPool() {
+		AtomicInteger threadCount = new AtomicInteger();
+		int threads = BackupConfig.getInstance().getCompressionThreads();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread thread = new Thread(r, "DriveBackup-Compress-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static synchronized void resizeCompressionPool(int threads) {
+		if (threads > compressionExecutor.getMaximumPoolSize()) {
+			compressionExecutor.setMaximumPoolSize(threads);
+			compressionExecutor.setCorePoolSize(threads);
+		} else if (threads < compressionExecutor.getMaximumPoolSize()) {
+			compressionExecutor.setCorePoolSize(threads);
+			compressionExecutor.setMaximumPoolSize(threads);
+		}
+	}
+
+	// Incremental archives only carry changed files, full ones everything. Both get a small
+	// metadata entry so a restore can tell them apart and replay deletions. With region deltas
+	// on, changed region files in incremental archives only carry their changed chunks.
+	private List<ArchiveEntry> buildArchiveEntries(List<ArchiveEntry> entries, BackupManifest.Diff diff,
+			String backupType, boolean incremental, RegionIndex regions) throws IOException {
+		BackupManifest.TypeManifest previous = BackupManifest.getInstance().get(backupType);
+		JsonObject metadata = new JsonObject();
+		metadata.addProperty("backupType", backupType);
+		metadata.addProperty("kind", incremental ? "incremental" : "full");
+		metadata.addProperty("created", System.currentTimeMillis());
+		if (incremental) {
+			metadata.addProperty("base", previous.lastFullBackupName);
+			metadata.addProperty("parent", previous.lastBackupName);
+			JsonArray deleted = new JsonArray();
+			diff.getDeleted().forEach(deleted::add);
+			metadata.add("deleted", deleted);
+		}
+
+		List<ArchiveEntry> result = new ArrayList<>();
+		if (regions == null) {
+			result.addAll(incremental ? diff.getChanged() : entries);
+		} else if (!incremental) {
+			regions.clear();
+			for (ArchiveEntry entry : entries) {
+				if (isRegionFile(entry)) {
+					regions.put(entry.getName(), RegionIndex.RegionState.of(RegionFile.read(entry.getFile())));
+				}
+				result.add(entry);
+			}
+		} else {
+			diff.getDeleted().forEach(regions::remove);
+			for (ArchiveEntry entry : diff.getChanged()) {
+				RegionIndex.RegionState state = isRegionFile(entry) ? regions.get(entry.getName()) : null;
+				if (state == null) {
+					if (isRegionFile(entry)) {
+						regions.put(entry.getName(), RegionIndex.RegionState.of(RegionFile.read(entry.getFile())));
 					}
+					result.add(entry);
+					continue;
+				}
+
+				byte[] delta = RegionDelta.diff(RegionFile.read(entry.getFile()), state);
+				if (delta.length < entry.getSize()) {
+					result.add(ArchiveEntry.bytes(entry.getName() + RegionDelta.SUFFIX, delta, entry.getLastModified()));
+				} else {
+					result.add(entry);
 				}
 			}
 		}
+
+		result.add(ArchiveEntry.bytes(BackupManifest.METADATA_ENTRY,
+				metadata.toString().getBytes(StandardCharsets.UTF_8), System.currentTimeMillis()));
+		return result;
 	}
 
-	private void cleanupOldBackups(String backupType, int keepCount) {
+	private static boolean isRegionFile(ArchiveEntry entry) {
+		return entry.getFile() != null && entry.getName().endsWith(".mca");
+	}
+
+	// Each location has its own policy. In dry-run mode the plans are only logged.
+	private void applyLocalRetention(String backupType) {
 		try {
-			// Cleanup local backups
-			
-			Path backupsDir = FabricLoader.getInstance().getGameDir().resolve("backups");
-			if (Files.exists(backupsDir)) {
-				String prefix = backupType.replace('/', '-');
-				File[] backupFiles = backupsDir.toFile()
-						.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".zip"));
-
-				if (backupFiles != null && backupFiles.length > keepCount) {
-					Arrays.sort(backupFiles, Comparator.comparingLong(File::lastModified));
-					for (int i = 0; i < backupFiles.length - keepCount; i++) {
-						Files.deleteIfExists(backupFiles[i].toPath());
-					}
+			RetentionPlan local = planLocalRetention(backupType);
+			if (BackupConfig.getInstance().isRetentionDryRun()) {
+				describePlan("local", backupType, local, false).forEach(LOGGER::info);
+			} else {
+				for (Snapshot snapshot : local.getDelete()) {
+					Files.deleteIfExists(Path.of(snapshot.location()));
+					localCatalog.remove(snapshot.name());
 				}
 			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to clean up local backups of {}: {}", backupType, e.getMessage());
+		}
+	}
 
-			// Cleanup Google Drive backups
-			String folderId = findOrCreateFolder("MinecraftBackups");
-			if (folderId != null) {
-				cleanupGoogleDriveBackups(backupType, folderId, keepCount);
+	// Runs right after the target stored a new archive, a target that failed keeps what it has
+	private void applyRetention(BackupTarget target, String backupType) {
+		try {
+			RetentionPlan plan = planTargetRetention(target, backupType);
+			if (BackupConfig.getInstance().isRetentionDryRun()) {
+				describePlan(describeTarget(target), backupType, plan, false).forEach(LOGGER::info);
+			} else if (!plan.getDelete().isEmpty()) {
+				target.delete(plan.getDelete());
+				// The catalog follows Google Drive, where every backup is stored
+				if (target == driveTarget) {
+					plan.getDelete().forEach(snapshot -> removeFromCatalog(snapshot.name()));
+				}
 			}
 		} catch (Exception e) {
-			LOGGER.error("Failed to cleanup old backups: {}", e.getMessage());
+			LOGGER.error("Failed to clean up {} backups of {}: {}", describeTarget(target), backupType, e.getMessage());
+		}
+	}
+
+	private RetentionPlan planLocalRetention(String backupType) {
+		Set<String> pinned = new HashSet<>(archivesInFlight);
+		for (UploadSessionStore.PendingUpload pending : UploadSessionStore.getInstance().list()) {
+			pinned.add(new File(pending.localPath).getName());
+		}
+		return RetentionPlanner.plan(localCatalog.list(BackupNames.prefix(backupType)),
+				BackupConfig.getInstance().getRetention("local"), pinned);
+	}
+
+	private RetentionPlan planTargetRetention(BackupTarget target, String backupType) throws IOException {
+		String location = target == driveTarget ? "remote" : target.getName();
+		return RetentionPlanner.plan(target.list(BackupNames.prefix(backupType)),
+				BackupConfig.getInstance().getRetention(location), Collections.emptySet());
+	}
+
+	private static List<String> describePlan(String location, String backupType, RetentionPlan plan, boolean withKept) {
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("Retention of %s in %s: keeping %d (%.1f MB), deleting %d", backupType, location,
+				plan.getKeep().size(), plan.getKeptBytes() / (1024.0 * 1024.0), plan.getDelete().size()));
+		if (withKept) {
+			for (Snapshot snapshot : plan.getKeep()) {
+				lines.add("  keep " + snapshot.name() + " (" + plan.getReason(snapshot) + ")");
+			}
+		}
+		for (Snapshot snapshot : plan.getDelete()) {
+			lines.add("  delete " + snapshot.name() + " (" + plan.getReason(snapshot) + ")");
+		}
+		return lines;
+	}
+
+	// Catalog lookups read the mapped index files, which can page in from disk, so they run
+	// off the server thread like the other queries
+	public static <T> CompletableFuture<T> queryCatalog(BackupCatalog.Query<T> query) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return query.run(instance.catalog);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, uploadExecutor);
+	}
+
+	// What retention would do to one backup type right now, computed off the server thread
+	public static CompletableFuture<List<String>> previewRetention(String backupType) {
+		return CompletableFuture.supplyAsync(() -> {
+			List<String> lines = new ArrayList<>(describePlan("local", backupType,
+					instance.planLocalRetention(backupType), true));
+			for (BackupTarget target : instance.getTargets()) {
+				try {
+					if (target == instance.driveTarget) {
+						instance.initializeDriveService();
+					}
+					lines.addAll(describePlan(instance.describeTarget(target), backupType,
+							instance.planTargetRetention(target, backupType), true));
+				} catch (Exception e) {
+					lines.add(instance.describeTarget(target) + ": " + e.getMessage());
+				}
+			}
+			return lines;
+		}, uploadExecutor);
+	}
+
+	private void scheduleVerification() {
+		if (verifyTask != null) {
+			verifyTask.cancel(false);
 		}
+		long hours = BackupConfig.getInstance().getVerifyIntervalHours();
+		verifyTask = hours > 0 ? verifyExecutor.scheduleAtFixedRate(this::runScheduledVerification, hours, hours, TimeUnit.HOURS) : null;
 	}
 
-	private void cleanupGoogleDriveBackups(String backupType, String folderId, int keepCount) throws IOException {
-		String query = String.format(
-				"name contains '%s' and '%s' in parents and mimeType='application/zip' and trashed=false",
-				backupType.replace('/', '-'), folderId);
+	// Applies verification interval changes without a restart
+	public static void rescheduleVerification() {
+		if (instance != null) {
+			instance.scheduleVerification();
+		}
+	}
 
-		com.google.api.services.drive.model.FileList result = driveService.files().list()
-				.setQ(query)
-				.setOrderBy("modifiedTime")
-				.setFields("files(id, modifiedTime)")
-				.execute();
+	private void runScheduledVerification() {
+		BackupConfig config = BackupConfig.getInstance();
+		if (!config.isAuthenticated()) {
+			return;
+		}
+		try {
+			for (BackupVerifier.Result result : verify(null)) {
+				if (!result.ok()) {
+					broadcastMessage("§c[Backup] Stored backup " + result.archive() + " failed verification: " + result.message());
+				}
+			}
+			pruneChecksums();
+		} catch (Exception e) {
+			LOGGER.warn("Background verification failed: {}", e.getMessage());
+		}
+	}
 
-		List<com.google.api.services.drive.model.File> files = result.getFiles();
-		if (files != null && files.size() > keepCount) {
-			files.sort((a, b) -> a.getModifiedTime().toStringRfc3339()
-					.compareTo(b.getModifiedTime().toStringRfc3339()));
+	// A random sample of stored archives when archive is null
+	private List<BackupVerifier.Result> verify(String archive) throws IOException {
+		BackupConfig config = BackupConfig.getInstance();
+		verifier.setRateLimit(config.getVerifyRateMb() * 1024L * 1024L);
+		List<BackupVerifier.Result> results = archive != null ? List.of(verifier.verify(archive))
+				: verifier.verifySample(config.getVerifySamples());
+		for (BackupVerifier.Result result : results) {
+			if (result.ok()) {
+				LOGGER.info("Verified {}: {}", result.archive(), result.message());
+			} else {
+				LOGGER.error("Verification of {} failed: {}", result.archive(), result.message());
+			}
+		}
+		return results;
+	}
+
+	// Checksums are kept while any target or the local folder still has the archive
+	private void pruneChecksums() throws IOException {
+		Set<String> prefixes = new HashSet<>();
+		for (String archive : checksumStore.list()) {
+			Snapshot snapshot = Snapshot.of(archive, 0, null);
+			if (snapshot != null) {
+				prefixes.add(snapshot.prefix());
+			}
+		}
+		Set<String> kept = new HashSet<>(archivesInFlight);
+		for (String prefix : prefixes) {
+			localCatalog.list(prefix).forEach(snapshot -> kept.add(snapshot.name()));
+			for (BackupTarget target : getTargets()) {
+				target.list(prefix).forEach(snapshot -> kept.add(snapshot.name()));
+			}
+		}
+		int removed = checksumStore.retainOnly(kept);
+		if (removed > 0) {
+			LOGGER.info("Removed checksums of {} archives no longer stored", removed);
+		}
+	}
 
-			for (int i = 0; i < files.size() - keepCount; i++) {
-				driveService.files().delete(files.get(i).getId()).execute();
+	// Runs on the verification thread, so it waits for a background check already under way
+	public static CompletableFuture<List<BackupVerifier.Result>> verifyArchives(String archive) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return instance.verify(archive);
+			} catch (IOException e) {
+				throw new CompletionException(e);
 			}
+		}, verifyExecutor);
+	}
+
+	public static List<BackupVerifier.Result> getVerificationResults() {
+		return instance != null ? instance.verifier.getRecentResults() : Collections.emptyList();
+	}
+
+	public static void rescanLocalBackups() {
+		if (instance != null) {
+			instance.localCatalog.rescan();
+		}
+	}
+
+	// One batch request per hundred files, only the failed deletes are retried
+	private void deleteDriveFiles(List<String> fileIds) throws IOException {
+		if (fileIds.isEmpty()) {
+			return;
+		}
+		DriveBatch batch = new DriveBatch(driveService, BackupConfig.getInstance().getUploadMaxRetries());
+		fileIds.forEach(batch::delete);
+		DriveBatch.Result result = batch.execute();
+		result.getSucceeded().keySet().forEach(driveCache::recordDelete);
+		if (!result.getFailed().isEmpty()) {
+			throw new IOException("Failed to delete " + result.getFailed().size() + " of " + fileIds.size()
+					+ " files from Google Drive: " + result.getFailed().values().iterator().next());
 		}
 	}
 
 	private String findOrCreateFolder(String folderName) {
+		return findOrCreateFolder(folderName, null);
+	}
+
+	// Answered from the metadata cache after the first lookup
+	private String findOrCreateFolder(String folderName, String parentId) {
 		try {
-			// First try to find the folder
-			String query = "mimeType='application/vnd.google-apps.folder' and name='" + folderName
-					+ "' and trashed=false";
-			com.google.api.services.drive.model.File folder = driveService.files().list()
-					.setQ(query)
-					.setSpaces("drive")
-					.setFields("files(id)")
-					.execute()
-					.getFiles()
-					.stream()
-					.findFirst()
-					.orElse(null);
-
-			if (folder != null) {
-				return folder.getId();
-			}
-
-			// If folder doesn't exist, create it
-			com.google.api.services.drive.model.File folderMetadata = new com.google.api.services.drive.model.File();
-			folderMetadata.setName(folderName);
-			folderMetadata.setMimeType("application/vnd.google-apps.folder");
-
-			folder = driveService.files().create(folderMetadata)
-					.setFields("id")
-					.execute();
-
-			return folder.getId();
+			return driveCache.getFolder(folderName, parentId);
 		} catch (Exception e) {
 			LOGGER.error("Failed to find or create folder: {}", e.getMessage());
 			return null;
@@ -371,22 +1586,8 @@ public class Drivebackup implements ModInitializer {
 		return DriveService.getCredentials();
 	}
 
-	// Add this helper method to broadcast messages to all players
+	// Sent from the server thread on its next tick, or only logged while no server is running
 	private void broadcastMessage(String message) {
-		try {
-			// Try to get the server instance from the mod loader
-			net.minecraft.server.MinecraftServer currentServer = (net.minecraft.server.MinecraftServer) 
-				FabricLoader.getInstance().getGameInstance();
-			
-			if (currentServer != null) {
-				currentServer.execute(() -> {
-					currentServer.getPlayerManager().broadcast(
-						Text.literal(message), false);
-				});
-			}
-		} catch (Exception e) {
-			// If broadcasting fails, just log it
-			LOGGER.info(message);
-		}
+		ProgressReporter.getInstance().broadcast(message);
 	}
 }
\ No newline at end of file
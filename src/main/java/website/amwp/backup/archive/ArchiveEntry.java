@@ -0,0 +1,61 @@
+package website.amwp.backup.archive;
+
+import java.io.File;
+
+public class ArchiveEntry {
+    private final String name;
+    private final File file;
+    private final byte[] data;
+    private final long size;
+    private final long lastModified;
+
+    private ArchiveEntry(String name, File file, byte[] data, long size, long lastModified) {
+        this.name = name;
+        this.file = file;
+        this.data = data;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public static ArchiveEntry directory(String name, long lastModified) {
+        return new ArchiveEntry(name.endsWith("/") ? name : name + "/", null, null, 0, lastModified);
+    }
+
+    public static ArchiveEntry file(String name, File file) {
+        return new ArchiveEntry(name, file, null, file.length(), file.lastModified());
+    }
+
+    // Size and time already known, e.g. from the attributes of a directory walk
+    public static ArchiveEntry file(String name, File file, long size, long lastModified) {
+        return new ArchiveEntry(name, file, null, size, lastModified);
+    }
+
+    // Entry generated in memory, e.g. backup metadata
+    public static ArchiveEntry bytes(String name, byte[] data, long lastModified) {
+        return new ArchiveEntry(name, null, data, data.length, lastModified);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDirectory() {
+        return file == null && data == null;
+    }
+}
@@ -0,0 +1,85 @@
+package website.amwp.backup.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+
+// Turns a directory tree into archive entries, skipping hidden and excluded files. Sizes, times
+// and the hidden flag all come from the attributes the walk reads anyway, so each file costs one
+// stat instead of one per question asked about it.
+public class DirectoryScanner {
+    private DirectoryScanner() {
+    }
+
+    public static void collect(File fileToZip, String fileName, List<ArchiveEntry> entries) {
+        collect(fileToZip, fileName, entries, ExcludeFilter.NONE);
+    }
+
+    public static void collect(File fileToZip, String fileName, List<ArchiveEntry> entries, ExcludeFilter excludes) {
+        Path root = fileToZip.toPath();
+        try {
+            // Links are followed like before, the walk stops at cycles instead of recursing forever
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+                private final Deque<String> names = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (isHidden(dir, attrs) || (!names.isEmpty() && excludes.excludes(root.relativize(dir), true))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    String name = names.isEmpty() ? fileName : names.peek() + "/" + dir.getFileName();
+                    names.push(name);
+                    entries.add(ArchiveEntry.directory(name, attrs.lastModifiedTime().toMillis()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isHidden(file, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (names.isEmpty()) {
+                        entries.add(ArchiveEntry.file(fileName, file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    } else if (!excludes.excludes(root.relativize(file), false)) {
+                        entries.add(ArchiveEntry.file(names.peek() + "/" + file.getFileName(), file.toFile(),
+                                attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Vanished or unreadable, left out like listFiles() did
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    names.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // What File.isHidden() answers, without asking the filesystem again
+    private static boolean isHidden(Path path, BasicFileAttributes attrs) {
+        if (attrs instanceof DosFileAttributes dos) {
+            return dos.isHidden();
+        }
+        Path name = path.getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+}
@@ -0,0 +1,61 @@
+package website.amwp.backup.archive;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Glob patterns for files left out of backups, gitignore style: "session.lock" or "*.tmp" match
+// a name at any depth, "data/*.dat" matches relative to the backed up folder and a trailing
+// slash ("logs/") only matches directories, whose contents are skipped along with them
+public class ExcludeFilter {
+    public static final ExcludeFilter NONE = new ExcludeFilter(Collections.emptyList());
+
+    private final List<Rule> rules;
+
+    private record Rule(PathMatcher matcher, boolean byName, boolean directoryOnly) {
+    }
+
+    private ExcludeFilter(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static ExcludeFilter of(List<String> patterns) {
+        List<Rule> rules = new ArrayList<>();
+        for (String pattern : patterns) {
+            String glob = pattern.trim();
+            boolean directoryOnly = glob.endsWith("/");
+            while (glob.endsWith("/")) {
+                glob = glob.substring(0, glob.length() - 1);
+            }
+            while (glob.startsWith("/")) {
+                glob = glob.substring(1);
+            }
+            if (glob.isEmpty()) {
+                continue;
+            }
+            rules.add(new Rule(FileSystems.getDefault().getPathMatcher("glob:" + glob), !glob.contains("/"), directoryOnly));
+        }
+        return new ExcludeFilter(rules);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    // relative is the path below the backed up folder
+    public boolean excludes(Path relative, boolean directory) {
+        for (Rule rule : rules) {
+            if (rule.directoryOnly && !directory) {
+                continue;
+            }
+            Path subject = rule.byName ? relative.getFileName() : relative;
+            if (subject != null && rule.matcher.matches(subject)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
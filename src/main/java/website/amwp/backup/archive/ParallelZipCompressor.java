@@ -0,0 +1,350 @@
+package website.amwp.backup.archive;
+
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.archive.codec.CompressionCodec;
+import website.amwp.backup.archive.codec.StoreCodec;
+import website.amwp.backup.integrity.ArchiveChecksums;
+import website.amwp.backup.progress.BackupProgress;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+// Compresses archive entries on a worker pool and writes them into a single ZIP in order.
+// Files larger than the codec's block size are split into blocks that are compressed
+// independently (like pigz) so one big region file can keep several cores busy. Every block is
+// hashed on the worker that compresses it, giving each entry a SHA-256 without a second read.
+public class ParallelZipCompressor {
+    private static final long ZIP64_THRESHOLD = 0xF0000000L;
+    private static final int WINDOW_BLOCKS_PER_WORKER = 32;
+
+    // Each worker reads into the same array block after block, the codecs copy what they keep
+    private static final ThreadLocal<byte[]> INPUT_BUFFERS = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final ExecutorService workers;
+    private final int parallelism;
+    private final CodecPolicy policy;
+    private final Throttle throttle;
+    private BackupProgress progress;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private long bytesWritten;
+    private final Map<String, ArchiveChecksums.EntryChecksum> entryChecksums = new LinkedHashMap<>();
+
+    // Running CRC, size and hash of block hashes of the multi-block entry currently being written
+    private long pendingCrc;
+    private long pendingSize;
+    private MessageDigest pendingHash;
+
+    public ParallelZipCompressor(ExecutorService workers, int parallelism, CodecPolicy policy, Throttle throttle) {
+        this.workers = workers;
+        this.parallelism = Math.max(1, parallelism);
+        this.policy = policy;
+        this.throttle = throttle;
+    }
+
+    // Counts bytes read and files written into the progress of the current stage
+    public void setProgress(BackupProgress progress) {
+        this.progress = progress;
+    }
+
+    // Uncompressed bytes read from the entries so far
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    // Size of the archive written by the last compress() call
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // SHA-256 of every file entry written so far, by entry name
+    public Map<String, ArchiveChecksums.EntryChecksum> getEntryChecksums() {
+        return entryChecksums;
+    }
+
+    // Blocks are read and compressed ahead of the writer, so workers are already reading the next
+    // files while earlier ones are written. The window is bounded by bytes, two blocks per worker
+    // like before, and by count, so a run of small files is read far ahead while large blocks
+    // still bound the memory held by finished but unwritten blocks.
+    public void compress(List<ArchiveEntry> entries, OutputStream out) throws IOException {
+        ZipArchiveWriter writer = new ZipArchiveWriter(out);
+        int maxBlocks = parallelism * WINDOW_BLOCKS_PER_WORKER;
+        Deque<Future<CompressedBlock>> inFlight = new ArrayDeque<>();
+        Deque<Integer> inFlightLengths = new ArrayDeque<>();
+        long inFlightBytes = 0;
+
+        try {
+            for (ArchiveEntry entry : entries) {
+                if (entry.isDirectory()) {
+                    inFlight.add(CompletableFuture.completedFuture(new CompressedBlock(entry, 0, true)));
+                    inFlightLengths.add(0);
+                } else {
+                    long size = entry.getSize();
+                    EntryCodec codec = new EntryCodec(entry, policy.select(entry.getName()));
+                    int blockSize = codec.selected.getBlockSize();
+                    int blocks = (int) Math.max(1, (size + blockSize - 1) / blockSize);
+                    for (int i = 0; i < blocks; i++) {
+                        long offset = (long) i * blockSize;
+                        int length = (int) Math.min(blockSize, size - offset);
+                        boolean last = i == blocks - 1;
+                        int index = i;
+                        long maxBytes = parallelism * 2L * blockSize;
+                        while (!inFlight.isEmpty() && (inFlight.size() >= maxBlocks || inFlightBytes + length > maxBytes)) {
+                            writeBlock(writer, await(inFlight.poll()));
+                            inFlightBytes -= inFlightLengths.poll();
+                        }
+                        inFlight.add(workers.submit(() -> compressBlock(entry, codec, index, offset, length, last, blockSize)));
+                        inFlightLengths.add(length);
+                        inFlightBytes += length;
+                    }
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeBlock(writer, await(inFlight.poll()));
+            }
+            writer.finish();
+            bytesWritten = writer.getBytesWritten();
+        } finally {
+            for (Future<CompressedBlock> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void writeBlock(ZipArchiveWriter writer, CompressedBlock block) throws IOException {
+        ArchiveEntry entry = block.entry;
+        if (entry.isDirectory()) {
+            writer.writeDirectory(entry.getName(), entry.getLastModified());
+            return;
+        }
+
+        int method = block.codec.getMethod();
+        if (block.last && progress != null) {
+            progress.addFile();
+        }
+        if (block.index == 0 && block.last) {
+            entryChecksums.put(entry.getName(), new ArchiveChecksums.EntryChecksum(hex(block.sha256), 0));
+            writer.writeEntry(entry.getName(), method, entry.getLastModified(), block.crc,
+                    block.uncompressedLength, block.data.length, Collections.singletonList(block.data));
+            return;
+        }
+
+        if (block.index == 0) {
+            writer.beginEntry(entry.getName(), method, entry.getLastModified(), entry.getSize() >= ZIP64_THRESHOLD);
+            pendingCrc = 0;
+            pendingSize = 0;
+            pendingHash = ArchiveChecksums.sha256();
+        }
+        writer.writeEntryData(block.data, 0, block.data.length);
+        pendingCrc = crc32Combine(pendingCrc, block.crc, block.uncompressedLength);
+        pendingSize += block.uncompressedLength;
+        pendingHash.update(block.sha256);
+        if (block.last) {
+            writer.endEntry(pendingCrc, pendingSize);
+            entryChecksums.put(entry.getName(), new ArchiveChecksums.EntryChecksum(hex(pendingHash.digest()), block.blockSize));
+        }
+    }
+
+    private CompressedBlock compressBlock(ArchiveEntry entry, EntryCodec codec, int index, long offset, int length,
+                                          boolean last, int blockSize) throws IOException {
+        throttle.acquireWorker();
+        long start = System.nanoTime();
+        CompressedBlock block = new CompressedBlock(entry, index, last);
+        block.blockSize = blockSize;
+        try {
+            byte[] input = INPUT_BUFFERS.get();
+            if (input.length < length) {
+                input = new byte[length];
+                INPUT_BUFFERS.set(input);
+            }
+            int read = read(entry, offset, input, length);
+            bytesRead.add(read);
+            if (progress != null) {
+                progress.addBytes(read);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(input, 0, read);
+
+            MessageDigest hash = ArchiveChecksums.sha256();
+            hash.update(input, 0, read);
+
+            block.codec = codec.get();
+            block.crc = crc.getValue();
+            block.sha256 = hash.digest();
+            block.uncompressedLength = read;
+            block.data = block.codec.compress(input, read, last);
+        } finally {
+            throttle.releaseWorker();
+        }
+        throttle.pace(System.nanoTime() - start);
+        return block;
+    }
+
+    // Positional reads, so the blocks of one file can be read by several workers at once. The
+    // heap array goes through the JDK's per-thread direct buffer, nothing is allocated per read.
+    private static int read(ArchiveEntry entry, long offset, byte[] input, int length) throws IOException {
+        if (entry.getData() != null) {
+            int copied = (int) Math.max(0, Math.min(length, entry.getData().length - offset));
+            System.arraycopy(entry.getData(), (int) offset, input, 0, copied);
+            return copied;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(input, 0, length);
+        try (FileChannel channel = FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break; // File shrank since it was scanned, keep what is there
+                }
+            }
+        }
+        return buffer.position();
+    }
+
+    private static CompressedBlock await(Future<CompressedBlock> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compression interrupted");
+            }
+            throw new IOException("Compression failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    // zlib's crc32_combine: CRC of A+B from crc(A), crc(B) and len(B)
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
+    // Codec chosen for one entry. The probe runs once, in whichever block task gets here first,
+    // and compresses a sample from the middle of the entry where region files keep chunk data.
+    private final class EntryCodec {
+        final ArchiveEntry entry;
+        final CompressionCodec selected;
+        private CompressionCodec resolved;
+
+        EntryCodec(ArchiveEntry entry, CompressionCodec selected) {
+            this.entry = entry;
+            this.selected = selected;
+        }
+
+        synchronized CompressionCodec get() throws IOException {
+            if (resolved == null) {
+                resolved = policy.shouldProbe(selected, entry.getSize()) ? probe() : selected;
+            }
+            return resolved;
+        }
+
+        private CompressionCodec probe() throws IOException {
+            byte[] sample = new byte[(int) Math.min(CodecPolicy.PROBE_SAMPLE_SIZE, entry.getSize())];
+            long offset = Math.max(0, entry.getSize() / 2 - sample.length / 2);
+            int read = read(entry, offset, sample, sample.length);
+            if (read == 0) {
+                return selected;
+            }
+            byte[] compressed = selected.compress(sample, read, true);
+            return policy.isWorthCompressing(read, compressed.length) ? selected : StoreCodec.INSTANCE;
+        }
+    }
+
+    private static class CompressedBlock {
+        final ArchiveEntry entry;
+        final int index;
+        final boolean last;
+        CompressionCodec codec;
+        long crc;
+        byte[] sha256;
+        int blockSize;
+        int uncompressedLength;
+        byte[] data;
+
+        CompressedBlock(ArchiveEntry entry, int index, boolean last) {
+            this.entry = entry;
+            this.index = index;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package website.amwp.backup.archive;
+
+import website.amwp.backup.archive.codec.CompressionCodec;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Reads archives written by ZipArchiveWriter, including entries compressed with zstd or LZ4
+// which java.util.zip refuses to open. Entry streams use positional reads, so several entries
+// can be read at the same time.
+public class ZipArchiveReader implements AutoCloseable {
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int END_SIZE = 22;
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public ZipArchiveReader(File archive) throws IOException {
+        this.channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    // Decompressed contents of the entry, the CRC is checked once the stream is read to the end
+    public InputStream getInputStream(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != 0x04034b50) {
+            throw new IOException("Bad local header for " + entry.name);
+        }
+        long dataStart = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        InputStream raw = new BufferedInputStream(new RangeInputStream(dataStart, entry.compressedSize), 64 * 1024);
+        return new CrcCheckingInputStream(CompressionCodec.forMethod(entry.method).decompress(raw), entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long size = channel.size();
+        int tailLength = (int) Math.min(size, END_SIZE + 0xFFFF);
+        ByteBuffer tail = read(size - tailLength, tailLength);
+        int end = -1;
+        for (int i = tailLength - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == 0x06054b50) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("Not a ZIP archive");
+        }
+
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long centralSize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long centralStart = tail.getInt(end + 16) & ZIP64_MAGIC;
+        long endOffset = size - tailLength + end;
+        if ((count == ZIP64_MAGIC_COUNT || centralSize == ZIP64_MAGIC || centralStart == ZIP64_MAGIC) && endOffset >= 20) {
+            ByteBuffer locator = read(endOffset - 20, 20);
+            if (locator.getInt(0) == 0x07064b50) {
+                ByteBuffer end64 = read(locator.getLong(8), 56);
+                if (end64.getInt(0) != 0x06064b50) {
+                    throw new IOException("Bad ZIP64 end of central directory");
+                }
+                count = end64.getLong(32);
+                centralSize = end64.getLong(40);
+                centralStart = end64.getLong(48);
+            }
+        }
+
+        ByteBuffer central = read(centralStart, Math.toIntExact(centralSize));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (central.getInt(pos) != 0x02014b50) {
+                throw new IOException("Bad central directory entry at " + (centralStart + pos));
+            }
+            int method = central.getShort(pos + 10) & 0xFFFF;
+            int dosTime = central.getInt(pos + 12);
+            long crc = central.getInt(pos + 16) & ZIP64_MAGIC;
+            long compressedSize = central.getInt(pos + 20) & ZIP64_MAGIC;
+            long uncompressedSize = central.getInt(pos + 24) & ZIP64_MAGIC;
+            int nameLength = central.getShort(pos + 28) & 0xFFFF;
+            int extraLength = central.getShort(pos + 30) & 0xFFFF;
+            int commentLength = central.getShort(pos + 32) & 0xFFFF;
+            long localOffset = central.getInt(pos + 42) & ZIP64_MAGIC;
+
+            byte[] nameBytes = new byte[nameLength];
+            central.get(pos + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // ZIP64 extra field only carries the values that overflowed, in this order
+            int extra = pos + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = central.getShort(extra) & 0xFFFF;
+                int length = central.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (uncompressedSize == ZIP64_MAGIC) {
+                        uncompressedSize = central.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = central.getLong(field);
+                        field += 8;
+                    }
+                    if (localOffset == ZIP64_MAGIC) {
+                        localOffset = central.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            entries.put(name, new Entry(name, method, dosTime, crc, compressedSize, uncompressedSize, localOffset));
+            pos = extraEnd + commentLength;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static long fromDosTime(int dosTime) {
+        LocalDateTime time = LocalDateTime.of(
+                ((dosTime >> 25) & 0x7F) + 1980,
+                Math.max(1, (dosTime >> 21) & 0x0F),
+                Math.max(1, (dosTime >> 16) & 0x1F),
+                (dosTime >> 11) & 0x1F,
+                (dosTime >> 5) & 0x3F,
+                (dosTime << 1) & 0x3E);
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getTime() {
+            return fromDosTime(dosTime);
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    // Raw bytes of one entry, read with positional reads so streams don't share a file pointer
+    private class RangeInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        RangeInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    private static class CrcCheckingInputStream extends FilterInputStream {
+        private final CRC32 crc = new CRC32();
+        private final Entry entry;
+        private long read;
+
+        CrcCheckingInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                verify();
+            } else {
+                crc.update(b);
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                verify();
+            } else {
+                crc.update(b, off, n);
+                read += n;
+            }
+            return n;
+        }
+
+        private void verify() throws IOException {
+            if (read != entry.size || crc.getValue() != entry.crc) {
+                throw new IOException("Corrupt entry " + entry.name);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package website.amwp.backup.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+// Low level ZIP writer for entries whose payload has already been compressed elsewhere.
+// ZipOutputStream insists on compressing the data itself, which is exactly what the
+// parallel engine has to avoid, so the headers are written by hand here (ZIP64 aware).
+public class ZipArchiveWriter implements AutoCloseable {
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+    public static final int METHOD_ZSTD = 93;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private final OutputStream out;
+    private final List<CentralEntry> entries = new ArrayList<>();
+    private long offset = 0;
+    private CentralEntry openEntry;
+    private boolean finished = false;
+
+    public ZipArchiveWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public long getBytesWritten() {
+        return offset;
+    }
+
+    public void writeDirectory(String name, long lastModified) throws IOException {
+        String dirName = name.endsWith("/") ? name : name + "/";
+        writeEntry(dirName, METHOD_STORED, lastModified, 0, 0, 0, null);
+    }
+
+    // Writes a complete entry in one go when the CRC and sizes are already known
+    public void writeEntry(String name, int method, long lastModified, long crc, long size,
+                           long compressedSize, List<byte[]> data) throws IOException {
+        ensureNoOpenEntry();
+        CentralEntry entry = new CentralEntry(name, method, lastModified, offset);
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = compressedSize;
+        entry.zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        writeLocalHeader(entry);
+        if (data != null) {
+            for (byte[] part : data) {
+                write(part, 0, part.length);
+            }
+        }
+        entries.add(entry);
+    }
+
+    // Starts an entry whose CRC and sizes are only known once all of its blocks are written.
+    // The values are then emitted in a trailing data descriptor.
+    public void beginEntry(String name, int method, long lastModified, boolean zip64) throws IOException {
+        ensureNoOpenEntry();
+        CentralEntry entry = new CentralEntry(name, method, lastModified, offset);
+        entry.flags |= FLAG_DATA_DESCRIPTOR;
+        entry.zip64 = zip64;
+        writeLocalHeader(entry);
+        openEntry = entry;
+    }
+
+    public void writeEntryData(byte[] data, int off, int len) throws IOException {
+        if (openEntry == null) {
+            throw new IllegalStateException("No open entry");
+        }
+        write(data, off, len);
+        openEntry.compressedSize += len;
+    }
+
+    public void endEntry(long crc, long size) throws IOException {
+        if (openEntry == null) {
+            throw new IllegalStateException("No open entry");
+        }
+        CentralEntry entry = openEntry;
+        entry.crc = crc;
+        entry.size = size;
+        if (!entry.zip64 && (size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC)) {
+            throw new IOException("Entry " + entry.name + " grew past 4 GiB without ZIP64 being reserved");
+        }
+
+        ByteBuffer buf = buffer(entry.zip64 ? 24 : 16);
+        buf.putInt(0x08074b50);
+        buf.putInt((int) crc);
+        if (entry.zip64) {
+            buf.putLong(entry.compressedSize);
+            buf.putLong(size);
+        } else {
+            buf.putInt((int) entry.compressedSize);
+            buf.putInt((int) size);
+        }
+        write(buf);
+        entries.add(entry);
+        openEntry = null;
+    }
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        ensureNoOpenEntry();
+
+        long centralStart = offset;
+        for (CentralEntry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = offset - centralStart;
+
+        boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT
+                || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = offset;
+            ByteBuffer end64 = buffer(56);
+            end64.putInt(0x06064b50);
+            end64.putLong(44);
+            end64.putShort((short) 45);
+            end64.putShort((short) 45);
+            end64.putInt(0);
+            end64.putInt(0);
+            end64.putLong(entries.size());
+            end64.putLong(entries.size());
+            end64.putLong(centralSize);
+            end64.putLong(centralStart);
+            write(end64);
+
+            ByteBuffer locator = buffer(20);
+            locator.putInt(0x07064b50);
+            locator.putInt(0);
+            locator.putLong(zip64EndOffset);
+            locator.putInt(1);
+            write(locator);
+        }
+
+        ByteBuffer end = buffer(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        end.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+        end.putInt((int) Math.min(centralStart, ZIP64_MAGIC));
+        end.putShort((short) 0);
+        write(end);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeLocalHeader(CentralEntry entry) throws IOException {
+        boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        int extraLength = entry.zip64 ? 20 : 0;
+        ByteBuffer buf = buffer(30 + entry.nameBytes.length + extraLength);
+        buf.putInt(0x04034b50);
+        buf.putShort((short) versionNeeded(entry.method, entry.zip64));
+        buf.putShort((short) entry.flags);
+        buf.putShort((short) entry.method);
+        buf.putInt(entry.dosTime);
+        buf.putInt(descriptor ? 0 : (int) entry.crc);
+        if (entry.zip64) {
+            buf.putInt((int) ZIP64_MAGIC);
+            buf.putInt((int) ZIP64_MAGIC);
+        } else {
+            buf.putInt(descriptor ? 0 : (int) entry.compressedSize);
+            buf.putInt(descriptor ? 0 : (int) entry.size);
+        }
+        buf.putShort((short) entry.nameBytes.length);
+        buf.putShort((short) extraLength);
+        buf.put(entry.nameBytes);
+        if (entry.zip64) {
+            buf.putShort((short) 0x0001);
+            buf.putShort((short) 16);
+            buf.putLong(descriptor ? 0 : entry.size);
+            buf.putLong(descriptor ? 0 : entry.compressedSize);
+        }
+        write(buf);
+    }
+
+    private void writeCentralHeader(CentralEntry entry) throws IOException {
+        boolean sizeOverflow = entry.size >= ZIP64_MAGIC;
+        boolean compressedOverflow = entry.compressedSize >= ZIP64_MAGIC;
+        boolean offsetOverflow = entry.localHeaderOffset >= ZIP64_MAGIC;
+        int extraData = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        int extraLength = extraData > 0 ? extraData + 4 : 0;
+        boolean needs64 = extraLength > 0 || entry.zip64;
+
+        ByteBuffer buf = buffer(46 + entry.nameBytes.length + extraLength);
+        buf.putInt(0x02014b50);
+        buf.putShort((short) 63);
+        buf.putShort((short) versionNeeded(entry.method, needs64));
+        buf.putShort((short) entry.flags);
+        buf.putShort((short) entry.method);
+        buf.putInt(entry.dosTime);
+        buf.putInt((int) entry.crc);
+        buf.putInt((int) (compressedOverflow ? ZIP64_MAGIC : entry.compressedSize));
+        buf.putInt((int) (sizeOverflow ? ZIP64_MAGIC : entry.size));
+        buf.putShort((short) entry.nameBytes.length);
+        buf.putShort((short) extraLength);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putInt(entry.name.endsWith("/") ? 0x10 : 0);
+        buf.putInt((int) (offsetOverflow ? ZIP64_MAGIC : entry.localHeaderOffset));
+        buf.put(entry.nameBytes);
+        if (extraLength > 0) {
+            buf.putShort((short) 0x0001);
+            buf.putShort((short) extraData);
+            if (sizeOverflow) buf.putLong(entry.size);
+            if (compressedOverflow) buf.putLong(entry.compressedSize);
+            if (offsetOverflow) buf.putLong(entry.localHeaderOffset);
+        }
+        write(buf);
+    }
+
+    // Zstd entries need APPNOTE 6.3.7 (version 63) to be read
+    private static int versionNeeded(int method, boolean zip64) {
+        if (method == METHOD_ZSTD) {
+            return 63;
+        }
+        return zip64 ? 45 : 20;
+    }
+
+    private void ensureNoOpenEntry() {
+        if (openEntry != null) {
+            throw new IllegalStateException("Entry " + openEntry.name + " is still open");
+        }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        write(buf.array(), 0, buf.position());
+    }
+
+    private void write(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+        offset += len;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static int toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((time.getYear() - 1980) << 25)
+                | (time.getMonthValue() << 21)
+                | (time.getDayOfMonth() << 16)
+                | (time.getHour() << 11)
+                | (time.getMinute() << 5)
+                | (time.getSecond() >> 1);
+    }
+
+    private static class CentralEntry {
+        final String name;
+        final byte[] nameBytes;
+        final int method;
+        final int dosTime;
+        final long localHeaderOffset;
+        int flags = FLAG_UTF8;
+        long crc;
+        long size;
+        long compressedSize;
+        boolean zip64;
+
+        CentralEntry(String name, int method, long lastModified, long localHeaderOffset) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.dosTime = toDosTime(lastModified);
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package website.amwp.backup.archive.codec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Picks the codec for an entry from its file extension. Entries above PROBE_MIN_SIZE also get
+// a sample compressed first, and are stored as they are if the codec barely shrinks it.
+public class CodecPolicy {
+    public static final int PROBE_MIN_SIZE = 16 * 1024;
+    public static final int PROBE_SAMPLE_SIZE = 64 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+
+    private final CompressionCodec defaultCodec;
+    private final Map<String, CompressionCodec> byExtension;
+    private final int probeMinSavingsPercent;
+
+    public CodecPolicy(CompressionCodec defaultCodec, Map<String, CompressionCodec> byExtension, int probeMinSavingsPercent) {
+        this.defaultCodec = defaultCodec;
+        this.byExtension = byExtension;
+        this.probeMinSavingsPercent = probeMinSavingsPercent;
+    }
+
+    // Same codec for everything, no probing
+    public static CodecPolicy of(CompressionCodec codec) {
+        return new CodecPolicy(codec, Map.of(), 0);
+    }
+
+    // Builds the policy from config strings, skipping (and logging) specs that don't parse
+    public static CodecPolicy parse(String defaultSpec, Map<String, String> specs, int defaultDeflateLevel,
+                                    int probeMinSavingsPercent) {
+        CompressionCodec defaultCodec;
+        try {
+            defaultCodec = CompressionCodec.parse(defaultSpec, defaultDeflateLevel);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid default codec '{}', using deflate: {}", defaultSpec, e.getMessage());
+            defaultCodec = CompressionCodec.parse("deflate", defaultDeflateLevel);
+        }
+
+        Map<String, CompressionCodec> byExtension = new HashMap<>();
+        for (Map.Entry<String, String> spec : specs.entrySet()) {
+            try {
+                byExtension.put(normalizeExtension(spec.getKey()), CompressionCodec.parse(spec.getValue(), defaultDeflateLevel));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Ignoring codec '{}' for .{}: {}", spec.getValue(), spec.getKey(), e.getMessage());
+            }
+        }
+        return new CodecPolicy(defaultCodec, byExtension, probeMinSavingsPercent);
+    }
+
+    public CompressionCodec select(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        if (dot > slash + 1) {
+            CompressionCodec codec = byExtension.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return defaultCodec;
+    }
+
+    public boolean shouldProbe(CompressionCodec codec, long size) {
+        return probeMinSavingsPercent > 0 && codec.getMethod() != CompressionCodec.METHOD_STORED
+                && size >= PROBE_MIN_SIZE;
+    }
+
+    // Whether the sample shrank enough to be worth compressing the whole entry
+    public boolean isWorthCompressing(int sampleLength, int compressedLength) {
+        return compressedLength <= sampleLength * (100L - probeMinSavingsPercent) / 100;
+    }
+
+    public static String normalizeExtension(String extension) {
+        String normalized = extension.trim().toLowerCase(Locale.ROOT);
+        return normalized.startsWith(".") ? normalized.substring(1) : normalized;
+    }
+}
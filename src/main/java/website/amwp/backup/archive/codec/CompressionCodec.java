@@ -0,0 +1,87 @@
+package website.amwp.backup.archive.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+// How the payload of one archive entry is compressed. Entries are compressed in blocks on
+// several threads and the blocks are written back to back, so every codec has to produce
+// output that still decodes as one stream when concatenated.
+public interface CompressionCodec {
+    int METHOD_STORED = 0;
+    int METHOD_DEFLATED = 8;
+    int METHOD_ZSTD = 93;
+    // APPNOTE has no id for LZ4, this one is our own and only read back by ZipArchiveReader
+    int METHOD_LZ4 = 0x4C34;
+
+    // ZIP compression method written to the entry headers
+    int getMethod();
+
+    // Spec string this codec was parsed from, e.g. "zstd:9:long"
+    String getName();
+
+    // Largest slice of an entry handed to compress() at once
+    default int getBlockSize() {
+        return 1024 * 1024;
+    }
+
+    // The caller reuses input once this returns, the result must not share it
+    byte[] compress(byte[] input, int length, boolean last) throws IOException;
+
+    InputStream decompress(InputStream in) throws IOException;
+
+    // Parses "store", "deflate[:level]", "zstd[:level][:long]" or "lz4"
+    static CompressionCodec parse(String spec, int defaultDeflateLevel) {
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+        try {
+            switch (parts[0]) {
+                case "store":
+                    return StoreCodec.INSTANCE;
+                case "deflate": {
+                    int level = parts.length > 1 ? Integer.parseInt(parts[1]) : defaultDeflateLevel;
+                    if (level < 0 || level > 9) {
+                        throw new IllegalArgumentException("Deflate level must be between 0 and 9");
+                    }
+                    return level == 0 ? StoreCodec.INSTANCE : new DeflateCodec(level);
+                }
+                case "zstd": {
+                    int level = ZstdCodec.DEFAULT_LEVEL;
+                    boolean longDistance = false;
+                    for (int i = 1; i < parts.length; i++) {
+                        if (parts[i].equals("long")) {
+                            longDistance = true;
+                        } else {
+                            level = Integer.parseInt(parts[i]);
+                        }
+                    }
+                    if (level < 1 || level > 22) {
+                        throw new IllegalArgumentException("Zstd level must be between 1 and 22");
+                    }
+                    return new ZstdCodec(level, longDistance);
+                }
+                case "lz4":
+                    return Lz4Codec.INSTANCE;
+                default:
+                    throw new IllegalArgumentException("Unknown codec: " + parts[0]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid codec level in " + spec);
+        }
+    }
+
+    // Decoder for a method found in an existing archive
+    static CompressionCodec forMethod(int method) throws IOException {
+        switch (method) {
+            case METHOD_STORED:
+                return StoreCodec.INSTANCE;
+            case METHOD_DEFLATED:
+                return new DeflateCodec(6);
+            case METHOD_ZSTD:
+                return new ZstdCodec(ZstdCodec.DEFAULT_LEVEL, false);
+            case METHOD_LZ4:
+                return Lz4Codec.INSTANCE;
+            default:
+                throw new IOException("Unsupported compression method " + method);
+        }
+    }
+}
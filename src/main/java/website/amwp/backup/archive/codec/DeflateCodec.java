@@ -0,0 +1,58 @@
+package website.amwp.backup.archive.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class DeflateCodec implements CompressionCodec {
+    private final int level;
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int getMethod() {
+        return METHOD_DEFLATED;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int length, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setInput(input, 0, length);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                // Sync flush ends the block on a byte boundary without setting BFINAL,
+                // so the next block's deflate stream can simply be appended
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(true), 64 * 1024);
+    }
+}
@@ -0,0 +1,41 @@
+package website.amwp.backup.archive.codec;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// LZ4 frame format, one frame per block. Much faster than deflate, mostly useful to squeeze
+// the sector padding out of region files whose chunks are already compressed.
+public class Lz4Codec implements CompressionCodec {
+    public static final Lz4Codec INSTANCE = new Lz4Codec();
+
+    private Lz4Codec() {
+    }
+
+    @Override
+    public int getMethod() {
+        return METHOD_LZ4;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int length, boolean last) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+        try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_1MB)) {
+            lz4.write(input, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new LZ4FrameInputStream(in);
+    }
+}
@@ -0,0 +1,32 @@
+package website.amwp.backup.archive.codec;
+
+import java.io.InputStream;
+
+public class StoreCodec implements CompressionCodec {
+    public static final StoreCodec INSTANCE = new StoreCodec();
+
+    private StoreCodec() {
+    }
+
+    @Override
+    public int getMethod() {
+        return METHOD_STORED;
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int length, boolean last) {
+        byte[] copy = new byte[length];
+        System.arraycopy(input, 0, copy, 0, length);
+        return copy;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return in;
+    }
+}
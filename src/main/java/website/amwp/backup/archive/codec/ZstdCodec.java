@@ -0,0 +1,62 @@
+package website.amwp.backup.archive.codec;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Every block becomes its own zstd frame. Concatenated frames are a valid zstd stream, so
+// the blocks of an entry can be compressed independently just like the deflate ones.
+public class ZstdCodec implements CompressionCodec {
+    public static final int DEFAULT_LEVEL = 3;
+    // With long distance matching blocks are made bigger, matches can't reach across frames
+    private static final int LONG_BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final int LONG_WINDOW_LOG = 24;
+
+    private final int level;
+    private final boolean longDistance;
+
+    public ZstdCodec(int level, boolean longDistance) {
+        this.level = level;
+        this.longDistance = longDistance;
+    }
+
+    @Override
+    public int getMethod() {
+        return METHOD_ZSTD;
+    }
+
+    @Override
+    public String getName() {
+        return "zstd:" + level + (longDistance ? ":long" : "");
+    }
+
+    @Override
+    public int getBlockSize() {
+        return longDistance ? LONG_BLOCK_SIZE : CompressionCodec.super.getBlockSize();
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int length, boolean last) throws IOException {
+        try (ZstdCompressCtx ctx = new ZstdCompressCtx()) {
+            ctx.setLevel(level);
+            if (longDistance) {
+                ctx.setLong(LONG_WINDOW_LOG);
+            }
+            byte[] output = new byte[(int) Zstd.compressBound(length)];
+            int written = ctx.compressByteArray(output, 0, output.length, input, 0, length);
+            byte[] result = new byte[written];
+            System.arraycopy(output, 0, result, 0, written);
+            return result;
+        } catch (RuntimeException e) {
+            throw new IOException("Zstd compression failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in);
+    }
+}
@@ -0,0 +1,672 @@
+package website.amwp.backup.catalog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Local record of every backup: the snapshots, the files each one stored and the chunks the
+// deduplicated ones reference, so questions about past backups don't need Google Drive.
+//   catalog.log       append-only log of every record, the source of truth
+//   index/segments    the segments covering the log, and up to where they cover it
+//   index/N.*         sorted, memory-mapped record files, see CatalogSegment
+// Each snapshot is written to the log and then as a small segment of its own. Once there are
+// more than a few segments they are merged into one, leaving out removed snapshots. Only path
+// names and the snapshot table live on the heap, entries stay in the mapped files however
+// many there are. After a crash, committed log records the segments miss are indexed again.
+public class BackupCatalog {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+
+    public static final int FLAG_INCREMENTAL = 1;
+    public static final int FLAG_DEDUP = 2;
+    public static final int FLAG_ENCRYPTED = 4;
+
+    private static final byte[] MAGIC = {'D', 'B', 'C', 'A', 'T', 1};
+    private static final byte PATH = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte FILE = 3;
+    private static final byte CHUNK = 4;
+    private static final byte REMOVE = 5;
+    private static final byte COMMIT = 6;
+    private static final int MAX_SEGMENTS = 8;
+
+    public record SnapshotInfo(int id, String name, String backupType, long created, long size, int files, int flags) {
+        public boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    // sha256 is the hex SHA-256 of the contents, null when it isn't known
+    public record FileRecord(String path, long size, String sha256) {
+    }
+
+    public record ChunkRecord(String sha256, int size) {
+    }
+
+    public record FileHit(SnapshotInfo snapshot, String path, long size, long hash) {
+        // First 16 hex digits of the SHA-256, or "-" when it isn't known
+        public String hashPrefix() {
+            return hash == 0 ? "-" : hex(hash);
+        }
+    }
+
+    public record Usage(int snapshots, long files, long totalBytes, long uniqueBytes) {
+    }
+
+    public interface Query<T> {
+        T run(BackupCatalog catalog) throws IOException;
+    }
+
+    private final Path logPath;
+    private final Path indexDir;
+    private boolean loaded;
+
+    // Everything on the heap is per path or per snapshot, never per entry
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Integer> pathIds = new HashMap<>();
+    private final List<SnapshotInfo> snapshots = new ArrayList<>();
+    private final Map<String, Integer> snapshotIds = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private final List<CatalogSegment> segments = new ArrayList<>();
+    private long indexedOffset;
+    private long nextGeneration;
+
+    public BackupCatalog(Path directory) {
+        this.logPath = directory.resolve("catalog.log");
+        this.indexDir = directory.resolve("index");
+    }
+
+    // Records a snapshot and its contents, ignoring one recorded before under the same name
+    public synchronized void add(String name, String backupType, long created, long size, int flags,
+                                 List<FileRecord> files, List<ChunkRecord> chunks) throws IOException {
+        load();
+        if (snapshotIds.containsKey(name)) {
+            return;
+        }
+        int snapshotId = snapshots.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + files.size() * 32 + chunks.size() * 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        List<String> newPaths = new ArrayList<>();
+        Map<String, Integer> assigned = new HashMap<>();
+        int[] fileIds = new int[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            String path = files.get(i).path();
+            Integer id = pathIds.get(path);
+            if (id == null) {
+                id = assigned.get(path);
+            }
+            if (id == null) {
+                id = paths.size() + newPaths.size();
+                assigned.put(path, id);
+                newPaths.add(path);
+                out.writeByte(PATH);
+                out.writeInt(id);
+                out.writeUTF(path);
+            }
+            fileIds[i] = id;
+        }
+
+        SnapshotInfo info = new SnapshotInfo(snapshotId, name, backupType, created, size, files.size(), flags);
+        out.writeByte(SNAPSHOT);
+        out.writeInt(snapshotId);
+        out.writeLong(created);
+        out.writeUTF(name);
+        out.writeUTF(backupType);
+        out.writeByte(flags);
+        out.writeLong(size);
+        out.writeInt(files.size());
+
+        ByteBuffer fileRecords = ByteBuffer.allocate(files.size() * CatalogSegment.FILE_RECORD);
+        for (int i = 0; i < files.size(); i++) {
+            FileRecord file = files.get(i);
+            long hash = hash(file.sha256());
+            out.writeByte(FILE);
+            out.writeInt(snapshotId);
+            out.writeInt(fileIds[i]);
+            out.writeLong(file.size());
+            out.writeLong(hash);
+            fileRecords.putInt(fileIds[i]).putInt(snapshotId).putLong(file.size()).putLong(hash);
+        }
+        ByteBuffer chunkRecords = ByteBuffer.allocate(chunks.size() * CatalogSegment.CHUNK_RECORD);
+        for (ChunkRecord chunk : chunks) {
+            long hash = hash(chunk.sha256());
+            out.writeByte(CHUNK);
+            out.writeInt(snapshotId);
+            out.writeLong(hash);
+            out.writeInt(chunk.size());
+            chunkRecords.putLong(hash).putInt(snapshotId).putInt(chunk.size());
+        }
+        out.writeByte(COMMIT);
+        long end = append(bytes);
+
+        for (String path : newPaths) {
+            pathIds.put(path, paths.size());
+            paths.add(path);
+        }
+        snapshots.add(info);
+        snapshotIds.put(name, snapshotId);
+        addSegment(fileRecords, chunkRecords, end);
+    }
+
+    // Forgets a snapshot that was deleted, its entries go with the next merge
+    public synchronized void remove(String name) throws IOException {
+        load();
+        Integer id = snapshotIds.get(name);
+        if (id == null || removed.get(id)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVE);
+        out.writeInt(id);
+        out.writeByte(COMMIT);
+        long end = append(bytes);
+        removed.set(id);
+        if (indexedOffset == end - bytes.size()) {
+            // Nothing to index in these records, the segments still cover all of the log
+            indexedOffset = end;
+            writeManifest();
+        }
+    }
+
+    public synchronized boolean contains(String name) throws IOException {
+        load();
+        Integer id = snapshotIds.get(name);
+        return id != null && !removed.get(id);
+    }
+
+    // Newest first. backupType may be null for all of them.
+    public synchronized List<SnapshotInfo> list(String backupType, long since, int limit) throws IOException {
+        load();
+        List<SnapshotInfo> result = new ArrayList<>();
+        for (int id = snapshots.size() - 1; id >= 0 && result.size() < limit; id--) {
+            SnapshotInfo info = snapshots.get(id);
+            if (!removed.get(id) && info.created() >= since && (backupType == null || backupType.equals(info.backupType()))) {
+                result.add(info);
+            }
+        }
+        result.sort(Comparator.comparingLong(SnapshotInfo::created).reversed());
+        return result;
+    }
+
+    // Snapshots that stored path, newest first, optionally only where its hash starts with hashPrefix
+    public synchronized List<FileHit> findPath(String path, String hashPrefix, int limit) throws IOException {
+        load();
+        Integer pathId = pathIds.get(path);
+        List<FileHit> hits = new ArrayList<>();
+        if (pathId == null) {
+            return hits;
+        }
+        String prefix = normalizePrefix(hashPrefix);
+        for (CatalogSegment segment : segments) {
+            ByteBuffer files = segment.files;
+            for (int i = segment.findPath(pathId); i < segment.fileCount(); i++) {
+                int position = i * CatalogSegment.FILE_RECORD;
+                if (files.getInt(position) != pathId) {
+                    break;
+                }
+                int snapshotId = files.getInt(position + 4);
+                long hash = files.getLong(position + 16);
+                if (!removed.get(snapshotId) && (prefix.isEmpty() || (hash != 0 && hex(hash).startsWith(prefix)))) {
+                    hits.add(new FileHit(snapshots.get(snapshotId), path, files.getLong(position + 8), hash));
+                }
+            }
+        }
+        return newestFirst(hits, limit);
+    }
+
+    // Files of any snapshot whose hash starts with hashPrefix, newest first
+    public synchronized List<FileHit> findHash(String hashPrefix, int limit) throws IOException {
+        load();
+        String prefix = normalizePrefix(hashPrefix);
+        if (prefix.isEmpty()) {
+            throw new IllegalArgumentException("Not a hex hash: " + hashPrefix);
+        }
+        long low = Long.parseUnsignedLong((prefix + "0000000000000000").substring(0, 16), 16);
+        long high = Long.parseUnsignedLong((prefix + "ffffffffffffffff").substring(0, 16), 16);
+        List<FileHit> hits = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            ByteBuffer hashes = segment.hashes;
+            for (int i = segment.findHash(low); i < segment.fileCount(); i++) {
+                int position = i * CatalogSegment.FILE_RECORD;
+                long hash = hashes.getLong(position + 16);
+                if (Long.compareUnsigned(hash, high) > 0) {
+                    break;
+                }
+                int snapshotId = hashes.getInt(position + 4);
+                if (!removed.get(snapshotId)) {
+                    hits.add(new FileHit(snapshots.get(snapshotId), paths.get(hashes.getInt(position)),
+                            hashes.getLong(position + 8), hash));
+                }
+            }
+        }
+        return newestFirst(hits, limit);
+    }
+
+    // Size of the snapshots since the given time, and what is left once contents stored more
+    // than once are counted once. Walks the hash-ordered records, where copies of the same
+    // contents are next to each other, so it needs no memory for the hashes already seen.
+    public synchronized Usage usage(long since) throws IOException {
+        load();
+        BitSet window = new BitSet();
+        int count = 0;
+        for (SnapshotInfo info : snapshots) {
+            if (!removed.get(info.id()) && info.created() >= since) {
+                window.set(info.id());
+                count++;
+            }
+        }
+        long[] totals = new long[3]; // files, total bytes, unique bytes
+        long[] last = {0, 0};
+        boolean[] seen = {false, false};
+        List<ByteBuffer> hashes = new ArrayList<>();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            hashes.add(segment.hashes);
+            chunks.add(segment.chunks);
+        }
+        CatalogSegment.merge(hashes, CatalogSegment.FILE_RECORD, CatalogSegment.BY_HASH, (buffer, position) -> {
+            if (!window.get(buffer.getInt(position + 4))) {
+                return;
+            }
+            long size = buffer.getLong(position + 8);
+            long hash = buffer.getLong(position + 16);
+            totals[0]++;
+            totals[1] += size;
+            // Deduplicated files have no hash of their own, their chunks are counted below
+            if (hash != 0 && (!seen[0] || hash != last[0])) {
+                totals[2] += size;
+                last[0] = hash;
+                seen[0] = true;
+            }
+        });
+        CatalogSegment.merge(chunks, CatalogSegment.CHUNK_RECORD, CatalogSegment.BY_CHUNK, (buffer, position) -> {
+            if (!window.get(buffer.getInt(position + 8))) {
+                return;
+            }
+            long hash = buffer.getLong(position);
+            if (!seen[1] || hash != last[1]) {
+                totals[2] += buffer.getInt(position + 12);
+                last[1] = hash;
+                seen[1] = true;
+            }
+        });
+        return new Usage(count, totals[0], totals[1], totals[2]);
+    }
+
+    public synchronized int getSnapshotCount() throws IOException {
+        load();
+        return snapshots.size() - removed.cardinality();
+    }
+
+    public synchronized int getPathCount() throws IOException {
+        load();
+        return paths.size();
+    }
+
+    // File and chunk records in the index, removed snapshots included until they are merged away
+    public synchronized long getRecordCount() throws IOException {
+        load();
+        long records = 0;
+        for (CatalogSegment segment : segments) {
+            records += segment.fileCount() + segment.chunkCount();
+        }
+        return records;
+    }
+
+    private static List<FileHit> newestFirst(List<FileHit> hits, int limit) {
+        hits.sort(Comparator.comparingLong((FileHit hit) -> hit.snapshot().created()).reversed());
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    // Only the first 64 bits of a hash are indexed, longer prefixes are cut to that
+    private static String normalizePrefix(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        String hex = prefix.trim().toLowerCase(Locale.ROOT);
+        if (!hex.matches("[0-9a-f]*")) {
+            throw new IllegalArgumentException("Not a hex hash: " + prefix);
+        }
+        return hex.length() > 16 ? hex.substring(0, 16) : hex;
+    }
+
+    static long hash(String sha256) {
+        if (sha256 == null || sha256.length() < 16) {
+            return 0;
+        }
+        return Long.parseUnsignedLong(sha256.substring(0, 16), 16);
+    }
+
+    static String hex(long hash) {
+        return String.format("%016x", hash);
+    }
+
+    // Appends committed records to the log and makes sure they are on disk, returns the new end
+    private long append(ByteArrayOutputStream bytes) throws IOException {
+        try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            long start = log.size();
+            try {
+                ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+                long position = start;
+                while (data.hasRemaining()) {
+                    position += log.write(data, position);
+                }
+                log.force(false);
+                return position;
+            } catch (IOException e) {
+                log.truncate(start);
+                throw e;
+            }
+        }
+    }
+
+    private void addSegment(ByteBuffer fileRecords, ByteBuffer chunkRecords, long coveredOffset) throws IOException {
+        long generation = nextGeneration++;
+        CatalogSegment.write(indexDir.resolve(generation + CatalogSegment.FILES),
+                sorted(fileRecords, CatalogSegment.FILE_RECORD, CatalogSegment.BY_PATH));
+        CatalogSegment.write(indexDir.resolve(generation + CatalogSegment.HASHES),
+                sorted(fileRecords, CatalogSegment.FILE_RECORD, CatalogSegment.BY_HASH));
+        CatalogSegment.write(indexDir.resolve(generation + CatalogSegment.CHUNKS),
+                sorted(chunkRecords, CatalogSegment.CHUNK_RECORD, CatalogSegment.BY_CHUNK));
+        segments.add(CatalogSegment.open(indexDir, generation));
+        indexedOffset = coveredOffset;
+        if (segments.size() > MAX_SEGMENTS) {
+            compact();
+        } else {
+            writeManifest();
+        }
+    }
+
+    // Merges the newer segments into one, dropping the records of removed snapshots. The oldest
+    // segment only takes part once the others together have grown as large as it is, so the bulk
+    // of the catalog isn't rewritten every few backups.
+    private void compact() throws IOException {
+        long newer = 0;
+        for (int i = 1; i < segments.size(); i++) {
+            newer += segments.get(i).fileCount() + segments.get(i).chunkCount();
+        }
+        CatalogSegment oldest = segments.get(0);
+        int first = oldest.fileCount() + oldest.chunkCount() > newer ? 1 : 0;
+        List<CatalogSegment> merged = new ArrayList<>(segments.subList(first, segments.size()));
+
+        long generation = nextGeneration++;
+        List<ByteBuffer> files = new ArrayList<>();
+        List<ByteBuffer> hashes = new ArrayList<>();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (CatalogSegment segment : merged) {
+            files.add(segment.files);
+            hashes.add(segment.hashes);
+            chunks.add(segment.chunks);
+        }
+        CatalogSegment.merge(indexDir.resolve(generation + CatalogSegment.FILES), files, CatalogSegment.FILE_RECORD,
+                CatalogSegment.BY_PATH, (buffer, position) -> !removed.get(buffer.getInt(position + 4)));
+        CatalogSegment.merge(indexDir.resolve(generation + CatalogSegment.HASHES), hashes, CatalogSegment.FILE_RECORD,
+                CatalogSegment.BY_HASH, (buffer, position) -> !removed.get(buffer.getInt(position + 4)));
+        CatalogSegment.merge(indexDir.resolve(generation + CatalogSegment.CHUNKS), chunks, CatalogSegment.CHUNK_RECORD,
+                CatalogSegment.BY_CHUNK, (buffer, position) -> !removed.get(buffer.getInt(position + 8)));
+        segments.subList(first, segments.size()).clear();
+        segments.add(CatalogSegment.open(indexDir, generation));
+        writeManifest();
+        for (CatalogSegment segment : merged) {
+            deleteSegment(segment.generation);
+        }
+    }
+
+    // Sorts the records of one snapshot, few enough that boxing their positions is fine
+    private static ByteBuffer sorted(ByteBuffer records, int recordSize, CatalogSegment.Order order) {
+        int count = records.position() / recordSize;
+        List<Integer> positions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            positions.add(i * recordSize);
+        }
+        positions.sort((a, b) -> order.compare(records, a, records, b));
+        ByteBuffer result = ByteBuffer.allocate(count * recordSize);
+        byte[] record = new byte[recordSize];
+        for (int position : positions) {
+            records.get(position, record);
+            result.put(record);
+        }
+        return result;
+    }
+
+    // A mapped file can't be deleted on every platform while it is mapped. What is left behind
+    // isn't in the manifest and is removed the next time the catalog is loaded.
+    private void deleteSegment(long generation) {
+        for (String suffix : List.of(CatalogSegment.FILES, CatalogSegment.HASHES, CatalogSegment.CHUNKS)) {
+            try {
+                Files.deleteIfExists(indexDir.resolve(generation + suffix));
+            } catch (IOException e) {
+                LOGGER.debug("Catalog segment {} is still in use, removing it later", generation);
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Path manifest = indexDir.resolve("segments");
+        Path temp = indexDir.resolve("segments.tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeLong(indexedOffset);
+            out.writeLong(nextGeneration);
+            out.writeInt(segments.size());
+            for (CatalogSegment segment : segments) {
+                out.writeLong(segment.generation);
+            }
+        }
+        try {
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        Files.createDirectories(indexDir);
+        if (!Files.exists(logPath)) {
+            Files.write(logPath, MAGIC);
+        }
+
+        Set<String> live = new HashSet<>(List.of("segments"));
+        Path manifest = indexDir.resolve("segments");
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+                indexedOffset = in.readLong();
+                nextGeneration = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long generation = in.readLong();
+                    segments.add(CatalogSegment.open(indexDir, generation));
+                    live.add(generation + CatalogSegment.FILES);
+                    live.add(generation + CatalogSegment.HASHES);
+                    live.add(generation + CatalogSegment.CHUNKS);
+                }
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDir)) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        ByteArrayOutputStream unindexedFiles = new ByteArrayOutputStream();
+        ByteArrayOutputStream unindexedChunks = new ByteArrayOutputStream();
+        long committed = replay(unindexedFiles, unindexedChunks);
+        loaded = true;
+        if (committed < Files.size(logPath)) {
+            LOGGER.warn("Dropping {} bytes of an unfinished catalog write", Files.size(logPath) - committed);
+            try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                log.truncate(committed);
+            }
+        }
+        if (committed > indexedOffset) {
+            // Written to the log, but not yet to a segment when the server stopped
+            addSegment(ByteBuffer.wrap(unindexedFiles.toByteArray()).position(unindexedFiles.size()),
+                    ByteBuffer.wrap(unindexedChunks.toByteArray()).position(unindexedChunks.size()), committed);
+        }
+    }
+
+    // Reads the snapshot table and path names back from the log, and the entries past what the
+    // segments cover. Returns the end of the last commit, anything after it is incomplete.
+    private long replay(ByteArrayOutputStream unindexedFiles, ByteArrayOutputStream unindexedChunks) throws IOException {
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(logPath), 256 * 1024));
+             DataInputStream in = new DataInputStream(counter)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a backup catalog: " + logPath);
+            }
+            long committed = counter.count;
+            List<String> pendingPaths = new ArrayList<>();
+            List<SnapshotInfo> pendingSnapshots = new ArrayList<>();
+            List<Integer> pendingRemoves = new ArrayList<>();
+            DataOutputStream files = new DataOutputStream(unindexedFiles);
+            DataOutputStream chunks = new DataOutputStream(unindexedChunks);
+            int filesMark = 0;
+            int chunksMark = 0;
+            try {
+                while (true) {
+                    long start = counter.count;
+                    int type = in.read();
+                    if (type < 0) {
+                        break;
+                    }
+                    boolean indexed = start < indexedOffset;
+                    switch (type) {
+                        case PATH -> {
+                            in.readInt();
+                            pendingPaths.add(in.readUTF());
+                        }
+                        case SNAPSHOT -> {
+                            int id = in.readInt();
+                            long created = in.readLong();
+                            String name = in.readUTF();
+                            String backupType = in.readUTF();
+                            int flags = in.readByte();
+                            long size = in.readLong();
+                            pendingSnapshots.add(new SnapshotInfo(id, name, backupType, created, size, in.readInt(), flags));
+                        }
+                        case FILE -> {
+                            if (indexed) {
+                                in.skipNBytes(24);
+                            } else {
+                                int snapshotId = in.readInt();
+                                files.writeInt(in.readInt());
+                                files.writeInt(snapshotId);
+                                files.writeLong(in.readLong());
+                                files.writeLong(in.readLong());
+                            }
+                        }
+                        case CHUNK -> {
+                            if (indexed) {
+                                in.skipNBytes(16);
+                            } else {
+                                int snapshotId = in.readInt();
+                                chunks.writeLong(in.readLong());
+                                chunks.writeInt(snapshotId);
+                                chunks.writeInt(in.readInt());
+                            }
+                        }
+                        case REMOVE -> pendingRemoves.add(in.readInt());
+                        case COMMIT -> {
+                            for (String path : pendingPaths) {
+                                pathIds.put(path, paths.size());
+                                paths.add(path);
+                            }
+                            for (SnapshotInfo info : pendingSnapshots) {
+                                snapshotIds.put(info.name(), info.id());
+                                snapshots.add(info);
+                            }
+                            pendingRemoves.forEach(removed::set);
+                            pendingPaths.clear();
+                            pendingSnapshots.clear();
+                            pendingRemoves.clear();
+                            filesMark = unindexedFiles.size();
+                            chunksMark = unindexedChunks.size();
+                            committed = counter.count;
+                        }
+                        default -> throw new IOException("Unknown catalog record " + type);
+                    }
+                }
+            } catch (EOFException e) {
+                // Cut off in the middle of a record, ends at the last commit
+            } catch (IOException e) {
+                LOGGER.warn("Catalog log is damaged after byte {}: {}", committed, e.getMessage());
+            }
+            truncate(unindexedFiles, filesMark);
+            truncate(unindexedChunks, chunksMark);
+            return committed;
+        }
+    }
+
+    private static void truncate(ByteArrayOutputStream bytes, int size) {
+        if (bytes.size() > size) {
+            byte[] kept = Arrays.copyOf(bytes.toByteArray(), size);
+            bytes.reset();
+            bytes.writeBytes(kept);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package website.amwp.backup.catalog;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// One generation of the catalog's index: three files of fixed size records, each sorted for
+// the lookups made on it and memory-mapped, so searching them only touches the pages a binary
+// search lands on.
+//   N.files    path id, snapshot id, size, hash     sorted by path id, snapshot id
+//   N.hashes   the same records                     sorted by hash, snapshot id, path id
+//   N.chunks   hash, snapshot id, size              sorted by hash, snapshot id
+// Hashes are the first 64 bits of a SHA-256 and compared unsigned, so they sort like hex.
+final class CatalogSegment {
+    static final int FILE_RECORD = 24;
+    static final int CHUNK_RECORD = 16;
+
+    static final String FILES = ".files";
+    static final String HASHES = ".hashes";
+    static final String CHUNKS = ".chunks";
+
+    // Orders the record at a's position ai against the one at b's position bi
+    interface Order {
+        int compare(ByteBuffer a, int ai, ByteBuffer b, int bi);
+    }
+
+    interface Sink {
+        void accept(ByteBuffer buffer, int position) throws IOException;
+    }
+
+    interface Filter {
+        boolean keep(ByteBuffer buffer, int position);
+    }
+
+    static final Order BY_PATH = (a, ai, b, bi) -> {
+        int c = Integer.compare(a.getInt(ai), b.getInt(bi));
+        return c != 0 ? c : Integer.compare(a.getInt(ai + 4), b.getInt(bi + 4));
+    };
+
+    static final Order BY_HASH = (a, ai, b, bi) -> {
+        int c = Long.compareUnsigned(a.getLong(ai + 16), b.getLong(bi + 16));
+        if (c == 0) {
+            c = Integer.compare(a.getInt(ai + 4), b.getInt(bi + 4));
+        }
+        return c != 0 ? c : Integer.compare(a.getInt(ai), b.getInt(bi));
+    };
+
+    static final Order BY_CHUNK = (a, ai, b, bi) -> {
+        int c = Long.compareUnsigned(a.getLong(ai), b.getLong(bi));
+        return c != 0 ? c : Integer.compare(a.getInt(ai + 8), b.getInt(bi + 8));
+    };
+
+    final long generation;
+    final ByteBuffer files;
+    final ByteBuffer hashes;
+    final ByteBuffer chunks;
+
+    private CatalogSegment(long generation, ByteBuffer files, ByteBuffer hashes, ByteBuffer chunks) {
+        this.generation = generation;
+        this.files = files;
+        this.hashes = hashes;
+        this.chunks = chunks;
+    }
+
+    static CatalogSegment open(Path directory, long generation) throws IOException {
+        return new CatalogSegment(generation, map(directory.resolve(generation + FILES)),
+                map(directory.resolve(generation + HASHES)), map(directory.resolve(generation + CHUNKS)));
+    }
+
+    int fileCount() {
+        return files.capacity() / FILE_RECORD;
+    }
+
+    int chunkCount() {
+        return chunks.capacity() / CHUNK_RECORD;
+    }
+
+    // Index of the first file record at or after pathId in .files
+    int findPath(int pathId) {
+        int low = 0;
+        int high = fileCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (files.getInt(mid * FILE_RECORD) < pathId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first file record whose hash is at or after hash in .hashes
+    int findHash(long hash) {
+        int low = 0;
+        int high = fileCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(hashes.getLong(mid * FILE_RECORD + 16), hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Writes a sorted buffer of records to a new file, in place of any earlier one
+    static void write(Path path, ByteBuffer records) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = records.duplicate();
+            data.flip();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Merges sorted files of records into one, keeping those the filter keeps
+    static void merge(Path path, List<ByteBuffer> inputs, int recordSize, Order order, Filter filter) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 256 * 1024)) {
+            byte[] record = new byte[recordSize];
+            merge(inputs, recordSize, order, (buffer, position) -> {
+                if (filter.keep(buffer, position)) {
+                    buffer.get(position, record);
+                    out.write(record);
+                }
+            });
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Hands every record of the sorted inputs to sink in merged order. There are only a few
+    // inputs, so the smallest head is found by looking at each of them.
+    static void merge(List<ByteBuffer> inputs, int recordSize, Order order, Sink sink) throws IOException {
+        int[] positions = new int[inputs.size()];
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < inputs.size(); i++) {
+                if (positions[i] >= inputs.get(i).capacity()) {
+                    continue;
+                }
+                if (next < 0 || order.compare(inputs.get(i), positions[i], inputs.get(next), positions[next]) < 0) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            sink.accept(inputs.get(next), positions[next]);
+            positions[next] += recordSize;
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path.getFileName() + " is larger than 2 GB");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
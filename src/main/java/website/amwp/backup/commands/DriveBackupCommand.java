@@ -1,6 +1,8 @@
 package website.amwp.backup.commands;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.LongArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import net.minecraft.server.command.ServerCommandSource;
@@ -8,16 +10,43 @@ import net.minecraft.text.Text;
 import net.minecraft.text.ClickEvent;
 import net.minecraft.text.Style;
 import website.amwp.backup.Drivebackup;
+import website.amwp.backup.archive.ExcludeFilter;
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.archive.codec.CompressionCodec;
+import website.amwp.backup.catalog.BackupCatalog;
 import website.amwp.backup.config.BackupConfig;
+import website.amwp.backup.crypto.BackupKeyring;
 import website.amwp.backup.drive.DriveService;
+import website.amwp.backup.drive.ResumableUpload;
+import website.amwp.backup.incremental.ChangeTracker;
+import website.amwp.backup.integrity.BackupVerifier;
+import website.amwp.backup.progress.ProgressReporter;
+import website.amwp.backup.restore.BackupNames;
+import website.amwp.backup.restore.PendingRestoreStore;
+import website.amwp.backup.restore.RestoreFilter;
+import website.amwp.backup.scheduler.BackupJob;
+import website.amwp.backup.scheduler.BackupScheduler;
+import website.amwp.backup.scheduler.CronExpression;
+import website.amwp.backup.target.BackupTargets;
+import website.amwp.backup.throttle.BandwidthLimiter;
+import website.amwp.backup.throttle.TickGovernor;
 
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static net.minecraft.server.command.CommandManager.literal;
 import static net.minecraft.server.command.CommandManager.argument;
 
 public class DriveBackupCommand {
+    private static final int MAX_LISTED_SNAPSHOTS = 20;
+    private static final int MAX_FOUND_FILES = 10;
+    private static final int DEFAULT_LIST_DAYS = 7;
+
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
         dispatcher.register(literal("drivebackup")
             .requires(source -> source.hasPermissionLevel(4))
@@ -54,32 +83,416 @@ public class DriveBackupCommand {
                     })))
             .then(literal("backup")
                 .executes(context -> {
-                    try {
-                        context.getSource().sendMessage(Text.literal("§6Starting manual backup..."));
-                        Drivebackup.performManualBackup();
-                        String time = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                        BackupConfig.getInstance().setLastBackupTime(time);
-                        context.getSource().sendMessage(Text.literal("§aBackup completed successfully!"));
-                        return 1;
-                    } catch (Exception e) {
-                        context.getSource().sendError(Text.literal("Failed to perform backup: " + e.getMessage()));
+                    ServerCommandSource source = context.getSource();
+                    source.sendMessage(Text.literal("§6Starting manual backup..."));
+                    // Reported on the server thread once every job of the run is done, the last backup time
+                    // is set by the run itself
+                    Drivebackup.performManualBackup().whenCompleteAsync((jobs, error) -> {
+                        if (error != null) {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            source.sendError(Text.literal("Failed to perform backup: " + cause.getMessage()));
+                            return;
+                        }
+                        List<BackupJob> failed = jobs.stream()
+                            .filter(job -> job.getState() != BackupJob.State.DONE)
+                            .collect(Collectors.toList());
+                        if (jobs.isEmpty()) {
+                            source.sendMessage(Text.literal("§7Nothing to back up, none of the configured worlds exist"));
+                        } else if (failed.isEmpty()) {
+                            source.sendMessage(Text.literal("§aBackup completed successfully!"));
+                        } else {
+                            source.sendError(Text.literal("Backup of " + failed.size() + " of " + jobs.size() + " targets did not complete"));
+                            for (BackupJob job : failed) {
+                                source.sendMessage(Text.literal("§c" + job.getTarget() + " " + job.getState().name().toLowerCase() +
+                                    (job.getProgress().isEmpty() ? "" : ": §7" + job.getProgress())));
+                            }
+                        }
+                    }, source.getServer()::execute);
+                    return 1;
+                }))
+            .then(literal("jobs")
+                .executes(context -> {
+                    BackupScheduler scheduler = Drivebackup.getScheduler();
+                    if (scheduler == null) {
+                        context.getSource().sendError(Text.literal("Backup scheduler is not running"));
                         return 0;
                     }
+                    LocalDateTime nextRun = scheduler.getNextRun();
+                    context.getSource().sendMessage(Text.literal("§6Backup jobs: §7next run " +
+                        (nextRun != null ? nextRun.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) : "not scheduled")));
+                    List<BackupJob> jobs = scheduler.getJobs();
+                    if (jobs.isEmpty()) {
+                        context.getSource().sendMessage(Text.literal("§7No jobs"));
+                    }
+                    for (BackupJob job : jobs) {
+                        String color = switch (job.getState()) {
+                            case RUNNING, UPLOADING -> "§e";
+                            case DONE -> "§a";
+                            case FAILED -> "§c";
+                            default -> "§7";
+                        };
+                        long since = job.getStartedAt() > 0 ? job.getStartedAt() : job.getQueuedAt();
+                        long end = job.isFinished() ? job.getFinishedAt() : System.currentTimeMillis();
+                        context.getSource().sendMessage(Text.literal("§7#" + job.getId() + " " + job.getTarget() + " " +
+                            color + job.getState() + "§7 " + formatDuration((end - since) / 1000) +
+                            (job.getProgress().isEmpty() ? "" : " - " + job.getProgress())));
+                    }
+                    return 1;
                 }))
+            .then(literal("cancel")
+                .then(argument("id", IntegerArgumentType.integer(1))
+                    .executes(context -> {
+                        int id = IntegerArgumentType.getInteger(context, "id");
+                        BackupScheduler scheduler = Drivebackup.getScheduler();
+                        if (scheduler != null && scheduler.cancel(id)) {
+                            context.getSource().sendMessage(Text.literal("§aCancelling job #" + id));
+                            return 1;
+                        }
+                        context.getSource().sendError(Text.literal("No queued or running job #" + id));
+                        return 0;
+                    })))
+            .then(literal("uploads")
+                .executes(context -> {
+                    BandwidthLimiter limiter = BandwidthLimiter.getInstance();
+                    context.getSource().sendMessage(Text.literal("§6Uploads: §7" +
+                        formatRate(limiter.getBytesPerSecond()) + " (limit " + formatLimit(limiter.getRate()) + ")"));
+                    List<ResumableUpload> uploads = ResumableUpload.getActiveUploads();
+                    if (uploads.isEmpty()) {
+                        context.getSource().sendMessage(Text.literal("§7No uploads running"));
+                    }
+                    for (ResumableUpload upload : uploads) {
+                        double rate = upload.getBytesPerSecond();
+                        long total = upload.getTotalSize();
+                        String progress = formatSize(upload.getBytesUploaded()) +
+                            (total >= 0 ? " / " + formatSize(total) : "");
+                        String eta = total < 0 ? "size not known yet"
+                            : rate > 0 ? "ETA " + formatDuration((long) ((total - upload.getBytesUploaded()) / rate))
+                            : "ETA unknown";
+                        context.getSource().sendMessage(Text.literal("§7- " + upload.getFileName() + ": " +
+                            progress + " at " + formatRate(rate) + ", " + eta));
+                    }
+                    return 1;
+                }))
+            .then(literal("restore")
+                .then(literal("list")
+                    .then(argument("world", StringArgumentType.word())
+                        .executes(context -> {
+                            String world = StringArgumentType.getString(context, "world");
+                            ServerCommandSource source = context.getSource();
+                            source.sendMessage(Text.literal("§7Looking for backups of " + world + "..."));
+                            Drivebackup.listRestoreSnapshots(world).whenCompleteAsync((snapshots, error) -> {
+                                if (error != null) {
+                                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                                    source.sendError(Text.literal("Failed to list backups: " + cause.getMessage()));
+                                    return;
+                                }
+                                if (snapshots.isEmpty()) {
+                                    source.sendMessage(Text.literal("§7No backups of " + world));
+                                    return;
+                                }
+                                source.sendMessage(Text.literal("§6Backups of " + world + ": §7" + snapshots.size() +
+                                    (snapshots.size() > MAX_LISTED_SNAPSHOTS ? ", newest " + MAX_LISTED_SNAPSHOTS + " shown" : "")));
+                                for (BackupNames.ArchiveName name : snapshots.subList(
+                                        Math.max(0, snapshots.size() - MAX_LISTED_SNAPSHOTS), snapshots.size())) {
+                                    source.sendMessage(Text.literal("§7- " + name.timestamp() +
+                                        (name.chunked() ? " deduplicated" : name.incremental() ? " incremental" : " full")));
+                                }
+                            }, source.getServer()::execute);
+                            return 1;
+                        })))
+                .then(literal("pending")
+                    .executes(context -> {
+                        List<PendingRestoreStore.PendingRestore> pending = Drivebackup.getPendingRestores();
+                        if (pending.isEmpty()) {
+                            context.getSource().sendMessage(Text.literal("§7No restores waiting for the server to stop"));
+                        }
+                        for (PendingRestoreStore.PendingRestore restore : pending) {
+                            context.getSource().sendMessage(Text.literal("§7- " + restore.world + " to " +
+                                restore.snapshot + " (" + restore.filter + ")"));
+                        }
+                        return 1;
+                    }))
+                .then(literal("cancel")
+                    .then(argument("world", StringArgumentType.word())
+                        .executes(context -> {
+                            String world = StringArgumentType.getString(context, "world");
+                            if (Drivebackup.cancelRestore(world)) {
+                                context.getSource().sendMessage(Text.literal("§aCancelled the pending restore of " + world));
+                                return 1;
+                            }
+                            context.getSource().sendError(Text.literal("No pending restore of " + world));
+                            return 0;
+                        })))
+                .then(argument("world", StringArgumentType.word())
+                    .then(argument("snapshot", StringArgumentType.word())
+                        .executes(context -> startRestore(context.getSource(),
+                            StringArgumentType.getString(context, "world"),
+                            StringArgumentType.getString(context, "snapshot"), null))
+                        .then(argument("filter", StringArgumentType.greedyString())
+                            .executes(context -> startRestore(context.getSource(),
+                                StringArgumentType.getString(context, "world"),
+                                StringArgumentType.getString(context, "snapshot"),
+                                StringArgumentType.getString(context, "filter")))))))
+            .then(literal("retention")
+                .then(literal("preview")
+                    .then(argument("target", StringArgumentType.word())
+                        .executes(context -> {
+                            String target = StringArgumentType.getString(context, "target");
+                            String backupType = target.equals("mods") ? "mods" : "worlds/" + target;
+                            ServerCommandSource source = context.getSource();
+                            Drivebackup.previewRetention(backupType).whenCompleteAsync((lines, error) -> {
+                                if (error != null) {
+                                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                                    source.sendError(Text.literal("Failed to plan retention: " + cause.getMessage()));
+                                    return;
+                                }
+                                for (String line : lines) {
+                                    source.sendMessage(Text.literal((line.startsWith(" ") ? "§7" : "§6") + line));
+                                }
+                            }, source.getServer()::execute);
+                            return 1;
+                        })))
+                .then(literal("rescan")
+                    .executes(context -> {
+                        Drivebackup.rescanLocalBackups();
+                        context.getSource().sendMessage(Text.literal("§aRebuilt the index of local backups"));
+                        return 1;
+                    })))
+            .then(literal("list")
+                .executes(context -> listCatalog(context.getSource(), DEFAULT_LIST_DAYS))
+                .then(argument("days", IntegerArgumentType.integer(1, 3650))
+                    .executes(context -> listCatalog(context.getSource(), IntegerArgumentType.getInteger(context, "days")))))
+            .then(literal("find")
+                .then(literal("hash")
+                    .then(argument("hash", StringArgumentType.word())
+                        .executes(context -> findInCatalog(context.getSource(), null, StringArgumentType.getString(context, "hash")))))
+                // "world/region/r.0.0.mca" or "world/region/r.0.0.mca@3fa2" for one version of it
+                .then(argument("path", StringArgumentType.greedyString())
+                    .executes(context -> {
+                        String query = StringArgumentType.getString(context, "path");
+                        int at = query.lastIndexOf('@');
+                        return findInCatalog(context.getSource(), at >= 0 ? query.substring(0, at) : query,
+                            at >= 0 ? query.substring(at + 1) : null);
+                    })))
+            .then(literal("verify")
+                .executes(context -> startVerify(context.getSource(), null))
+                .then(literal("status")
+                    .executes(context -> {
+                        List<BackupVerifier.Result> results = Drivebackup.getVerificationResults();
+                        if (results.isEmpty()) {
+                            context.getSource().sendMessage(Text.literal("§7No backups verified since the server started"));
+                        }
+                        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+                        for (BackupVerifier.Result result : results) {
+                            String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(result.checkedAt()),
+                                ZoneId.systemDefault()).format(format);
+                            context.getSource().sendMessage(Text.literal((result.ok() ? "§a" : "§c") + result.archive() +
+                                " §7" + time + ": " + result.message()));
+                        }
+                        return 1;
+                    }))
+                .then(argument("archive", StringArgumentType.word())
+                    .executes(context -> startVerify(context.getSource(),
+                        StringArgumentType.getString(context, "archive")))))
+            .then(literal("keys")
+                .then(literal("list")
+                    .executes(context -> {
+                        BackupKeyring keyring = Drivebackup.getKeyring();
+                        try {
+                            List<BackupKeyring.Key> keys = keyring.list();
+                            if (keys.isEmpty()) {
+                                context.getSource().sendMessage(Text.literal("§7No encryption keys in " + keyring.getPath()));
+                                return 1;
+                            }
+                            String current = keyring.current().id();
+                            context.getSource().sendMessage(Text.literal("§6Encryption keys in " + keyring.getPath() + ":"));
+                            DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+                            for (BackupKeyring.Key key : keys) {
+                                context.getSource().sendMessage(Text.literal("§7- " + key.id() + " created " +
+                                    LocalDateTime.ofInstant(Instant.ofEpochMilli(key.created()), ZoneId.systemDefault()).format(format) +
+                                    (key.id().equals(current) ? " §a(current)" : "")));
+                            }
+                            return 1;
+                        } catch (IOException e) {
+                            context.getSource().sendError(Text.literal("Failed to read keys: " + e.getMessage()));
+                            return 0;
+                        }
+                    }))
+                .then(literal("rotate")
+                    .executes(context -> {
+                        BackupKeyring keyring = Drivebackup.getKeyring();
+                        try {
+                            BackupKeyring.Key key = keyring.rotate();
+                            context.getSource().sendMessage(Text.literal("§aNew backups are encrypted with " + key.id() +
+                                ", older keys stay in the keyfile for existing backups"));
+                            context.getSource().sendMessage(Text.literal("§7Keep a copy of " + keyring.getPath() +
+                                " away from the backups, they can't be restored without it"));
+                            return 1;
+                        } catch (IOException e) {
+                            context.getSource().sendError(Text.literal("Failed to rotate keys: " + e.getMessage()));
+                            return 0;
+                        }
+                    })))
+            .then(literal("target")
+                .then(literal("list")
+                    .executes(context -> {
+                        List<BackupConfig.TargetConfig> targets = BackupConfig.getInstance().getTargets();
+                        context.getSource().sendMessage(Text.literal("§6Backup targets:"));
+                        context.getSource().sendMessage(Text.literal("§7- drive: Google Drive"));
+                        for (BackupConfig.TargetConfig target : targets) {
+                            String where = BackupTargets.TYPE_S3.equals(target.type)
+                                ? target.endpoint + " bucket " + target.bucket : target.path;
+                            context.getSource().sendMessage(Text.literal("§7- " + target.name + ": " + target.type + " " +
+                                where + (target.enabled ? "" : " §c(disabled)")));
+                        }
+                        return 1;
+                    }))
+                .then(literal("add")
+                    .then(literal("directory")
+                        .then(argument("name", StringArgumentType.word())
+                            .then(argument("path", StringArgumentType.greedyString())
+                                .executes(context -> {
+                                    BackupConfig.TargetConfig target = new BackupConfig.TargetConfig(
+                                        StringArgumentType.getString(context, "name"), BackupTargets.TYPE_DIRECTORY);
+                                    target.path = StringArgumentType.getString(context, "path");
+                                    return addTarget(context.getSource(), target);
+                                }))))
+                    .then(literal("s3")
+                        .then(argument("name", StringArgumentType.word())
+                            .then(argument("bucket", StringArgumentType.word())
+                                .then(argument("endpoint", StringArgumentType.greedyString())
+                                    .executes(context -> {
+                                        BackupConfig.TargetConfig target = new BackupConfig.TargetConfig(
+                                            StringArgumentType.getString(context, "name"), BackupTargets.TYPE_S3);
+                                        target.bucket = StringArgumentType.getString(context, "bucket");
+                                        target.endpoint = StringArgumentType.getString(context, "endpoint");
+                                        return addTarget(context.getSource(), target);
+                                    }))))))
+                .then(literal("credentials")
+                    .then(argument("name", StringArgumentType.word())
+                        .then(argument("accessKey", StringArgumentType.word())
+                            .then(argument("secretKey", StringArgumentType.greedyString())
+                                .executes(context -> {
+                                    BackupConfig config = BackupConfig.getInstance();
+                                    BackupConfig.TargetConfig target = config.getTarget(StringArgumentType.getString(context, "name"));
+                                    if (target == null || !BackupTargets.TYPE_S3.equals(target.type)) {
+                                        context.getSource().sendError(Text.literal("No S3 target with that name"));
+                                        return 0;
+                                    }
+                                    target.accessKey = StringArgumentType.getString(context, "accessKey");
+                                    target.secretKey = StringArgumentType.getString(context, "secretKey");
+                                    config.save();
+                                    Drivebackup.reloadTargets();
+                                    context.getSource().sendMessage(Text.literal("§aCredentials set for " + target.name));
+                                    return 1;
+                                })))))
+                .then(literal("toggle")
+                    .then(argument("name", StringArgumentType.word())
+                        .executes(context -> {
+                            BackupConfig config = BackupConfig.getInstance();
+                            BackupConfig.TargetConfig target = config.getTarget(StringArgumentType.getString(context, "name"));
+                            if (target == null) {
+                                context.getSource().sendError(Text.literal("No target with that name"));
+                                return 0;
+                            }
+                            target.enabled = !target.enabled;
+                            config.save();
+                            Drivebackup.reloadTargets();
+                            context.getSource().sendMessage(Text.literal("§aTarget " + target.name + " " +
+                                (target.enabled ? "enabled" : "disabled")));
+                            return 1;
+                        })))
+                .then(literal("remove")
+                    .then(argument("name", StringArgumentType.word())
+                        .executes(context -> {
+                            String name = StringArgumentType.getString(context, "name");
+                            if (!BackupConfig.getInstance().removeTarget(name)) {
+                                context.getSource().sendError(Text.literal("No target with that name"));
+                                return 0;
+                            }
+                            Drivebackup.reloadTargets();
+                            context.getSource().sendMessage(Text.literal("§aRemoved target " + name +
+                                ", archives already stored there are left alone"));
+                            return 1;
+                        }))))
             .then(literal("config")
+                .then(literal("retention")
+                    .then(literal("dryrun")
+                        .executes(context -> {
+                            BackupConfig config = BackupConfig.getInstance();
+                            config.setRetentionDryRun(!config.isRetentionDryRun());
+                            context.getSource().sendMessage(Text.literal("§aRetention dry run " +
+                                (config.isRetentionDryRun() ? "enabled, nothing will be deleted" : "disabled")));
+                            return 1;
+                        }))
+                    .then(argument("location", StringArgumentType.word())
+                        .then(argument("setting", StringArgumentType.word())
+                            .then(argument("value", LongArgumentType.longArg(0))
+                                .executes(context -> {
+                                    String location = StringArgumentType.getString(context, "location");
+                                    String setting = StringArgumentType.getString(context, "setting");
+                                    long value = LongArgumentType.getLong(context, "value");
+                                    BackupConfig config = BackupConfig.getInstance();
+                                    if (!location.equals("local") && !location.equals("remote") && config.getTarget(location) == null) {
+                                        context.getSource().sendError(Text.literal("Location must be local, remote or a target name"));
+                                        return 0;
+                                    }
+                                    try {
+                                        config.setRetention(location, setting, value);
+                                    } catch (IllegalArgumentException e) {
+                                        context.getSource().sendError(Text.literal(
+                                            "Setting must be last, hourly, daily, weekly, monthly or quota"));
+                                        return 0;
+                                    }
+                                    context.getSource().sendMessage(Text.literal("§a" + location + " retention: " +
+                                        config.getRetention(location).describe()));
+                                    return 1;
+                                })))))
                 .then(literal("interval")
                     .then(argument("minutes", LongArgumentType.longArg(1))
                         .executes(context -> {
                             long minutes = LongArgumentType.getLong(context, "minutes");
                             BackupConfig.getInstance().setBackupInterval(minutes * 60000);
+                            Drivebackup.rescheduleBackups();
                             context.getSource().sendMessage(Text.literal("§aBackup interval set to " + minutes + " minutes"));
                             return 1;
                         })))
+                .then(literal("cron")
+                    .then(argument("expression", StringArgumentType.greedyString())
+                        .executes(context -> {
+                            String expression = StringArgumentType.getString(context, "expression");
+                            if (expression.equals("off")) {
+                                expression = "";
+                            } else {
+                                try {
+                                    CronExpression.parse(expression);
+                                } catch (IllegalArgumentException e) {
+                                    context.getSource().sendError(Text.literal(e.getMessage()));
+                                    return 0;
+                                }
+                            }
+                            BackupConfig.getInstance().setBackupCron(expression);
+                            Drivebackup.rescheduleBackups();
+                            context.getSource().sendMessage(Text.literal(expression.isEmpty()
+                                ? "§aBackups run on the interval again" : "§aBackups scheduled at '" + expression + "'"));
+                            return 1;
+                        })))
+                .then(literal("priority")
+                    .then(argument("target", StringArgumentType.word())
+                        .then(argument("priority", IntegerArgumentType.integer())
+                            .executes(context -> {
+                                String target = StringArgumentType.getString(context, "target");
+                                int priority = IntegerArgumentType.getInteger(context, "priority");
+                                BackupConfig.getInstance().setBackupPriority(target, priority);
+                                context.getSource().sendMessage(Text.literal("§aPriority of " + target + " set to " + priority));
+                                return 1;
+                            }))))
                 .then(literal("addworld")
                     .then(argument("worldname", StringArgumentType.word())
                         .executes(context -> {
                             String worldName = StringArgumentType.getString(context, "worldname");
                             BackupConfig.getInstance().addWorldToBackup(worldName);
+                            Drivebackup.restartChangeTracking();
                             context.getSource().sendMessage(Text.literal("§aAdded world '" + worldName + "' to backup list"));
                             return 1;
                         })))
@@ -88,9 +501,45 @@ public class DriveBackupCommand {
                         .executes(context -> {
                             String worldName = StringArgumentType.getString(context, "worldname");
                             BackupConfig.getInstance().removeWorldFromBackup(worldName);
+                            Drivebackup.restartChangeTracking();
                             context.getSource().sendMessage(Text.literal("§aRemoved world '" + worldName + "' from backup list"));
                             return 1;
                         })))
+                .then(literal("exclude")
+                    .executes(context -> {
+                        List<String> patterns = BackupConfig.getInstance().getExcludePatterns();
+                        context.getSource().sendMessage(Text.literal(patterns.isEmpty() ? "§7Nothing is excluded from backups"
+                            : "§6Excluded from backups: §7" + String.join(", ", patterns)));
+                        return 1;
+                    })
+                    .then(literal("add")
+                        .then(argument("pattern", StringArgumentType.greedyString())
+                            .executes(context -> {
+                                String pattern = StringArgumentType.getString(context, "pattern").trim();
+                                try {
+                                    ExcludeFilter.of(List.of(pattern));
+                                } catch (IllegalArgumentException e) {
+                                    context.getSource().sendError(Text.literal("Invalid pattern: " + e.getMessage()));
+                                    return 0;
+                                }
+                                if (!BackupConfig.getInstance().addExcludePattern(pattern)) {
+                                    context.getSource().sendError(Text.literal(pattern + " is already excluded"));
+                                    return 0;
+                                }
+                                context.getSource().sendMessage(Text.literal("§aExcluding " + pattern + " from backups"));
+                                return 1;
+                            })))
+                    .then(literal("remove")
+                        .then(argument("pattern", StringArgumentType.greedyString())
+                            .executes(context -> {
+                                String pattern = StringArgumentType.getString(context, "pattern").trim();
+                                if (!BackupConfig.getInstance().removeExcludePattern(pattern)) {
+                                    context.getSource().sendError(Text.literal(pattern + " is not excluded"));
+                                    return 0;
+                                }
+                                context.getSource().sendMessage(Text.literal("§a" + pattern + " is backed up again"));
+                                return 1;
+                            }))))
                 .then(literal("togglemods")
                     .executes(context -> {
                         BackupConfig config = BackupConfig.getInstance();
@@ -99,16 +548,382 @@ public class DriveBackupCommand {
                             (config.isBackupMods() ? "enabled" : "disabled")));
                         return 1;
                     }))
+                .then(literal("streaming")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setStreamingUpload(!config.isStreamingUpload());
+                        context.getSource().sendMessage(Text.literal("§aStreaming upload " +
+                            (config.isStreamingUpload() ? "enabled" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("keeplocal")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setKeepLocalCopy(!config.isKeepLocalCopy());
+                        context.getSource().sendMessage(Text.literal("§aLocal backup copies " +
+                            (config.isKeepLocalCopy() ? "enabled" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("incremental")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setIncrementalBackups(!config.isIncrementalBackups());
+                        context.getSource().sendMessage(Text.literal("§aIncremental backups " +
+                            (config.isIncrementalBackups() ? "enabled" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("regiondeltas")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setRegionDeltas(!config.isRegionDeltas());
+                        context.getSource().sendMessage(Text.literal("§aRegion chunk deltas " +
+                            (config.isRegionDeltas() ? "enabled" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("fullinterval")
+                    .then(argument("hours", LongArgumentType.longArg(1))
+                        .executes(context -> {
+                            long hours = LongArgumentType.getLong(context, "hours");
+                            BackupConfig.getInstance().setFullBackupInterval(hours * 3600000);
+                            context.getSource().sendMessage(Text.literal("§aFull backup interval set to " + hours + " hours"));
+                            return 1;
+                        })))
+                .then(literal("dedup")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setDedupBackups(!config.isDedupBackups());
+                        context.getSource().sendMessage(Text.literal("§aDeduplicated snapshots " +
+                            (config.isDedupBackups() ? "enabled" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("snapshots")
+                    .then(argument("count", IntegerArgumentType.integer(1))
+                        .executes(context -> {
+                            int count = IntegerArgumentType.getInteger(context, "count");
+                            BackupConfig.getInstance().setSnapshotKeepCount(count);
+                            context.getSource().sendMessage(Text.literal("§aKeeping " + count + " snapshots per backup"));
+                            return 1;
+                        })))
+                .then(literal("snapshot")
+                    .then(argument("mode", StringArgumentType.word())
+                        .executes(context -> {
+                            String mode = StringArgumentType.getString(context, "mode");
+                            if (!mode.equals("auto") && !mode.equals("copy") && !mode.equals("live")) {
+                                context.getSource().sendError(Text.literal("Snapshot mode must be auto, copy or live"));
+                                return 0;
+                            }
+                            BackupConfig.getInstance().setSnapshotMode(mode);
+                            context.getSource().sendMessage(Text.literal("§aWorld snapshot mode set to " + mode));
+                            return 1;
+                        })))
+                .then(literal("progress")
+                    .then(argument("display", StringArgumentType.word())
+                        .executes(context -> {
+                            String display = StringArgumentType.getString(context, "display");
+                            if (!display.equals(ProgressReporter.DISPLAY_BOSSBAR) && !display.equals(ProgressReporter.DISPLAY_ACTIONBAR)
+                                    && !display.equals(ProgressReporter.DISPLAY_OFF)) {
+                                context.getSource().sendError(Text.literal("Progress display must be bossbar, actionbar or off"));
+                                return 0;
+                            }
+                            BackupConfig.getInstance().setProgressDisplay(display);
+                            context.getSource().sendMessage(Text.literal("§aBackup progress display set to " + display));
+                            return 1;
+                        })))
+                .then(literal("tracking")
+                    .then(argument("mode", StringArgumentType.word())
+                        .executes(context -> {
+                            String mode = StringArgumentType.getString(context, "mode");
+                            if (!mode.equals(ChangeTracker.MODE_HOOKS) && !mode.equals(ChangeTracker.MODE_WATCH)
+                                    && !mode.equals(ChangeTracker.MODE_OFF)) {
+                                context.getSource().sendError(Text.literal("Change tracking must be hooks, watch or off"));
+                                return 0;
+                            }
+                            BackupConfig.getInstance().setChangeTracking(mode);
+                            Drivebackup.restartChangeTracking();
+                            context.getSource().sendMessage(Text.literal("§aChange tracking set to " + mode +
+                                (mode.equals(ChangeTracker.MODE_OFF) ? "" : "§7, the next backup scans every world once")));
+                            return 1;
+                        })))
+                .then(literal("rescan")
+                    .then(argument("hours", IntegerArgumentType.integer(1, 720))
+                        .executes(context -> {
+                            int hours = IntegerArgumentType.getInteger(context, "hours");
+                            BackupConfig.getInstance().setFullRescanHours(hours);
+                            ChangeTracker.getInstance().setRescanHours(hours);
+                            context.getSource().sendMessage(Text.literal("§aWorlds are scanned in full every " + hours + " hours"));
+                            return 1;
+                        })))
+                .then(literal("budget")
+                    .then(argument("ms", IntegerArgumentType.integer(5, 1000))
+                        .executes(context -> {
+                            int ms = IntegerArgumentType.getInteger(context, "ms");
+                            BackupConfig.getInstance().setTickBudgetMs(ms);
+                            context.getSource().sendMessage(Text.literal("§aTick budget set to " + ms + " ms"));
+                            return 1;
+                        })))
+                .then(literal("metrics")
+                    .then(argument("port", IntegerArgumentType.integer(0, 65535))
+                        .executes(context -> {
+                            int port = IntegerArgumentType.getInteger(context, "port");
+                            BackupConfig.getInstance().setMetricsPort(port);
+                            Drivebackup.restartMetricsServer();
+                            context.getSource().sendMessage(Text.literal(port == 0 ? "§aMetrics endpoint disabled"
+                                : "§aMetrics served on http://127.0.0.1:" + port + "/metrics"));
+                            return 1;
+                        })))
+                .then(literal("chunksize")
+                    .then(argument("mb", IntegerArgumentType.integer(1, 1024))
+                        .executes(context -> {
+                            int mb = IntegerArgumentType.getInteger(context, "mb");
+                            BackupConfig.getInstance().setUploadChunkMb(mb);
+                            context.getSource().sendMessage(Text.literal("§aUpload chunk size set to " + mb + " MB"));
+                            return 1;
+                        })))
+                .then(literal("uploads")
+                    .then(argument("count", IntegerArgumentType.integer(1, 16))
+                        .executes(context -> {
+                            int count = IntegerArgumentType.getInteger(context, "count");
+                            BackupConfig.getInstance().setUploadConcurrency(count);
+                            context.getSource().sendMessage(Text.literal("§aUploading up to " + count + " archives at once"));
+                            return 1;
+                        })))
+                .then(literal("ratelimit")
+                    .then(argument("mbps", DoubleArgumentType.doubleArg(0))
+                        .executes(context -> {
+                            double mbps = DoubleArgumentType.getDouble(context, "mbps");
+                            BackupConfig.getInstance().setUploadRateLimitMb(mbps);
+                            context.getSource().sendMessage(Text.literal("§aUpload limit outside windows set to " +
+                                (mbps > 0 ? mbps + " MB/s" : "unlimited")));
+                            return 1;
+                        })))
+                .then(literal("window")
+                    .then(literal("add")
+                        .then(argument("from", IntegerArgumentType.integer(0, 23))
+                            .then(argument("to", IntegerArgumentType.integer(0, 24))
+                                .then(argument("mbps", DoubleArgumentType.doubleArg(0))
+                                    .executes(context -> {
+                                        int from = IntegerArgumentType.getInteger(context, "from");
+                                        int to = IntegerArgumentType.getInteger(context, "to") % 24;
+                                        double mbps = DoubleArgumentType.getDouble(context, "mbps");
+                                        BackupConfig.getInstance().addUploadRateWindow(new BackupConfig.RateWindow(
+                                            String.format("%02d:00", from), String.format("%02d:00", to), mbps));
+                                        context.getSource().sendMessage(Text.literal(String.format(
+                                            "§aUploads limited to %s from %02d:00 to %02d:00",
+                                            mbps > 0 ? mbps + " MB/s" : "unlimited", from, to)));
+                                        return 1;
+                                    })))))
+                    .then(literal("clear")
+                        .executes(context -> {
+                            BackupConfig.getInstance().clearUploadRateWindows();
+                            context.getSource().sendMessage(Text.literal("§aUpload rate windows cleared"));
+                            return 1;
+                        })))
+                .then(literal("restorethreads")
+                    .then(argument("count", IntegerArgumentType.integer(1))
+                        .executes(context -> {
+                            int count = IntegerArgumentType.getInteger(context, "count");
+                            BackupConfig.getInstance().setRestoreThreads(count);
+                            context.getSource().sendMessage(Text.literal("§aRestore threads set to " + count));
+                            return 1;
+                        })))
+                .then(literal("jobs")
+                    .then(argument("count", IntegerArgumentType.integer(1, 16))
+                        .executes(context -> {
+                            int count = IntegerArgumentType.getInteger(context, "count");
+                            BackupConfig.getInstance().setBackupConcurrency(count);
+                            BackupScheduler scheduler = Drivebackup.getScheduler();
+                            if (scheduler != null) {
+                                scheduler.setConcurrency(count);
+                            }
+                            context.getSource().sendMessage(Text.literal("§aUp to " + count + " backup jobs run at once"));
+                            return 1;
+                        })))
+                .then(literal("coordinated")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        config.setCoordinatedSnapshots(!config.isCoordinatedSnapshots());
+                        context.getSource().sendMessage(Text.literal("§aCoordinated world snapshots " +
+                            (config.isCoordinatedSnapshots() ? "enabled, all worlds are staged at the same moment" : "disabled")));
+                        return 1;
+                    }))
+                .then(literal("encryption")
+                    .executes(context -> {
+                        BackupConfig config = BackupConfig.getInstance();
+                        if (config.isEncryptBackups()) {
+                            config.setEncryptBackups(false);
+                            context.getSource().sendMessage(Text.literal("§aEncryption disabled, existing encrypted backups " +
+                                "still need the keyfile to be restored"));
+                            return 1;
+                        }
+                        BackupKeyring keyring = Drivebackup.getKeyring();
+                        try {
+                            BackupKeyring.Key key = keyring.current();
+                            config.setEncryptBackups(true);
+                            context.getSource().sendMessage(Text.literal("§aBackups are now encrypted with " + key.id()));
+                            context.getSource().sendMessage(Text.literal("§7Keep a copy of " + keyring.getPath() +
+                                " away from the backups, they can't be restored without it"));
+                            return 1;
+                        } catch (IOException e) {
+                            context.getSource().sendError(Text.literal("Failed to set up the keyfile: " + e.getMessage()));
+                            return 0;
+                        }
+                    }))
+                .then(literal("keyfile")
+                    .then(argument("path", StringArgumentType.greedyString())
+                        .executes(context -> {
+                            String path = StringArgumentType.getString(context, "path");
+                            BackupConfig.getInstance().setEncryptionKeyFile(path);
+                            Drivebackup.reloadKeyring();
+                            context.getSource().sendMessage(Text.literal("§aKeyfile set to " +
+                                BackupConfig.getInstance().getEncryptionKeyPath()));
+                            return 1;
+                        })))
+                .then(literal("verify")
+                    .then(literal("interval")
+                        .then(argument("hours", IntegerArgumentType.integer(0))
+                            .executes(context -> {
+                                int hours = IntegerArgumentType.getInteger(context, "hours");
+                                BackupConfig.getInstance().setVerifyIntervalHours(hours);
+                                Drivebackup.rescheduleVerification();
+                                context.getSource().sendMessage(Text.literal(hours > 0
+                                    ? "§aStored backups are verified every " + hours + " hours"
+                                    : "§aBackground verification disabled"));
+                                return 1;
+                            })))
+                    .then(literal("samples")
+                        .then(argument("count", IntegerArgumentType.integer(1, 100))
+                            .executes(context -> {
+                                int count = IntegerArgumentType.getInteger(context, "count");
+                                BackupConfig.getInstance().setVerifySamples(count);
+                                context.getSource().sendMessage(Text.literal("§aVerifying " + count + " random backups each time"));
+                                return 1;
+                            })))
+                    .then(literal("rate")
+                        .then(argument("mbps", IntegerArgumentType.integer(0))
+                            .executes(context -> {
+                                int mbps = IntegerArgumentType.getInteger(context, "mbps");
+                                BackupConfig.getInstance().setVerifyRateMb(mbps);
+                                context.getSource().sendMessage(Text.literal("§aVerification downloads limited to " +
+                                    (mbps > 0 ? mbps + " MB/s" : "unlimited")));
+                                return 1;
+                            }))))
+                .then(literal("threads")
+                    .then(argument("count", IntegerArgumentType.integer(1))
+                        .executes(context -> {
+                            int count = IntegerArgumentType.getInteger(context, "count");
+                            BackupConfig.getInstance().setCompressionThreads(count);
+                            context.getSource().sendMessage(Text.literal("§aCompression threads set to " + count));
+                            return 1;
+                        })))
+                .then(literal("level")
+                    .then(argument("level", IntegerArgumentType.integer(0, 9))
+                        .executes(context -> {
+                            int level = IntegerArgumentType.getInteger(context, "level");
+                            BackupConfig.getInstance().setCompressionLevel(level);
+                            context.getSource().sendMessage(Text.literal("§aCompression level set to " + level));
+                            return 1;
+                        })))
+                .then(literal("codec")
+                    .then(argument("extension", StringArgumentType.word())
+                        .then(argument("codec", StringArgumentType.greedyString())
+                            .executes(context -> {
+                                String extension = CodecPolicy.normalizeExtension(StringArgumentType.getString(context, "extension"));
+                                String codec = StringArgumentType.getString(context, "codec").trim();
+                                BackupConfig config = BackupConfig.getInstance();
+                                if (codec.equals("off") && !extension.equals("default")) {
+                                    config.removeCodec(extension);
+                                    context.getSource().sendMessage(Text.literal("§a." + extension + " files use the default codec"));
+                                    return 1;
+                                }
+                                int method;
+                                try {
+                                    method = CompressionCodec.parse(codec, config.getCompressionLevel()).getMethod();
+                                } catch (IllegalArgumentException e) {
+                                    context.getSource().sendMessage(Text.literal("§c" + e.getMessage()));
+                                    return 0;
+                                }
+                                if (extension.equals("default")) {
+                                    config.setDefaultCodec(codec);
+                                    context.getSource().sendMessage(Text.literal("§aDefault codec set to " + codec));
+                                } else {
+                                    config.setCodec(extension, codec);
+                                    context.getSource().sendMessage(Text.literal("§a." + extension + " files now use " + codec));
+                                }
+                                if (method != CompressionCodec.METHOD_STORED && method != CompressionCodec.METHOD_DEFLATED) {
+                                    context.getSource().sendMessage(Text.literal("§6Archives with " + codec +
+                                        " entries no longer open in standard unzip tools, only DriveBackup can restore them"));
+                                }
+                                return 1;
+                            }))))
+                .then(literal("probe")
+                    .then(argument("percent", IntegerArgumentType.integer(0, 100))
+                        .executes(context -> {
+                            int percent = IntegerArgumentType.getInteger(context, "percent");
+                            BackupConfig.getInstance().setProbeMinSavingsPercent(percent);
+                            context.getSource().sendMessage(Text.literal(percent == 0 ? "§aCompression probe disabled"
+                                : "§aFiles that shrink less than " + percent + "% are stored uncompressed"));
+                            return 1;
+                        })))
                 .then(literal("status")
                     .executes(context -> {
                         BackupConfig config = BackupConfig.getInstance();
                         context.getSource().sendMessage(Text.literal("§6Backup Configuration:"));
                         context.getSource().sendMessage(Text.literal("§7- Authenticated: " + 
                             (config.isAuthenticated() ? "§aYes" : "§cNo")));
-                        context.getSource().sendMessage(Text.literal("§7- Backup Interval: " + 
-                            (config.getBackupInterval() / 60000) + " minutes"));
+                        context.getSource().sendMessage(Text.literal("§7- Backup Schedule: " +
+                            (config.getBackupCron().isEmpty() ? "every " + (config.getBackupInterval() / 60000) + " minutes"
+                                : "cron '" + config.getBackupCron() + "'")));
                         context.getSource().sendMessage(Text.literal("§7- Backup Mods: " + 
                             (config.isBackupMods() ? "§aYes" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- Compression: " +
+                            config.getDefaultCodec() + " on " + config.getCompressionThreads() + " threads, " +
+                            config.getCodecPolicy().size() + " extension rules, probe " +
+                            (config.getProbeMinSavingsPercent() > 0 ? config.getProbeMinSavingsPercent() + "%" : "off")));
+                        context.getSource().sendMessage(Text.literal("§7- Throttle: " +
+                            TickGovernor.getInstance().describe()));
+                        context.getSource().sendMessage(Text.literal("§7- Uploads: " +
+                            config.getUploadConcurrency() + " at once, " + config.getUploadChunkMb() + " MB chunks"));
+                        context.getSource().sendMessage(Text.literal("§7- Upload Limit: " +
+                            formatLimit(BandwidthLimiter.getInstance().getRate()) + " now"));
+                        for (BackupConfig.RateWindow window : config.getUploadRateWindows()) {
+                            context.getSource().sendMessage(Text.literal("§7  " + window.start + "-" + window.end + ": " +
+                                (window.mbPerSecond > 0 ? window.mbPerSecond + " MB/s" : "unlimited")));
+                        }
+                        context.getSource().sendMessage(Text.literal("§7- Streaming Upload: " +
+                            (config.isStreamingUpload() ? "§aYes" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- Keep Local Copy: " +
+                            (config.isKeepLocalCopy() ? "§aYes" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- Incremental Backups: " +
+                            (config.isIncrementalBackups() ? "§aYes §7(full every " +
+                                (config.getFullBackupInterval() / 3600000) + " hours" +
+                                (config.isRegionDeltas() ? ", region deltas" : "") + ")" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- Deduplicated Snapshots: " +
+                            (config.isDedupBackups() ? "§aYes §7(keeping " + config.getSnapshotKeepCount() + ")" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- World Snapshots: " +
+                            config.getSnapshotMode() + (config.isCoordinatedSnapshots() ? ", coordinated" : "")));
+                        context.getSource().sendMessage(Text.literal("§7- Parallel Jobs: " +
+                            config.getBackupConcurrency()));
+                        context.getSource().sendMessage(Text.literal("§7- Progress Display: " + config.getProgressDisplay()));
+                        context.getSource().sendMessage(Text.literal("§7- Change Tracking: " +
+                            (config.getChangeTracking().equals(ChangeTracker.MODE_OFF) ? "§cOff" : config.getChangeTracking() +
+                                " §7(full scan every " + config.getFullRescanHours() + " hours)")));
+                        context.getSource().sendMessage(Text.literal("§7- Encryption: " +
+                            (config.isEncryptBackups() ? "§aYes §7(AES-256-GCM, keys in " + config.getEncryptionKeyPath() + ")" : "§cNo")));
+                        context.getSource().sendMessage(Text.literal("§7- Verification: " +
+                            (config.getVerifyIntervalHours() > 0 ? config.getVerifySamples() + " random backups every " +
+                                config.getVerifyIntervalHours() + " hours at " +
+                                (config.getVerifyRateMb() > 0 ? config.getVerifyRateMb() + " MB/s" : "full speed") : "§cOff")));
+                        context.getSource().sendMessage(Text.literal("§7- Metrics: " +
+                            (config.getMetricsPort() > 0 ? "http://127.0.0.1:" + config.getMetricsPort() + "/metrics" : "off")));
+                        context.getSource().sendMessage(Text.literal("§7- Retention: local " +
+                            config.getRetention("local").describe() + "; Drive " + config.getRetention("remote").describe() +
+                            (config.isRetentionDryRun() ? " §e(dry run)" : "")));
+                        context.getSource().sendMessage(Text.literal("§7- Targets: Google Drive" +
+                            config.getTargets().stream().filter(target -> target.enabled)
+                                .map(target -> ", " + target.name + " (" + config.getRetention(target.name).describe() + ")")
+                                .collect(Collectors.joining())));
+                        context.getSource().sendMessage(Text.literal("§7- Excluded: " +
+                            (config.getExcludePatterns().isEmpty() ? "nothing" : String.join(", ", config.getExcludePatterns()))));
                         context.getSource().sendMessage(Text.literal("§7- Worlds to backup: " + 
                             String.join(", ", config.getWorldsToBackup())));
                         if (!config.getLastBackupTime().isEmpty()) {
@@ -118,4 +933,139 @@ public class DriveBackupCommand {
                         return 1;
                     }))));
     }
-} 
\ No newline at end of file
+
+    private static int addTarget(ServerCommandSource source, BackupConfig.TargetConfig target) {
+        if (target.name.equals("local") || target.name.equals("remote") || target.name.equals("drive")) {
+            source.sendError(Text.literal("local, remote and drive are reserved names"));
+            return 0;
+        }
+        try {
+            BackupTargets.create(target).shutdown();
+        } catch (IllegalArgumentException e) {
+            source.sendError(Text.literal("Invalid target: " + e.getMessage()));
+            return 0;
+        }
+        BackupConfig.getInstance().addTarget(target);
+        Drivebackup.reloadTargets();
+        source.sendMessage(Text.literal("§aAdded " + target.type + " target " + target.name +
+            ", new backups are stored there too"));
+        return 1;
+    }
+
+    private static String formatLimit(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? formatRate(bytesPerSecond) : "unlimited";
+    }
+
+    private static String formatRate(double bytesPerSecond) {
+        return String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024));
+    }
+
+    private static String formatSize(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    // Backups of the last days from the local catalog, and how much of their size is unique
+    private static int listCatalog(ServerCommandSource source, int days) {
+        long since = System.currentTimeMillis() - days * 86_400_000L;
+        Drivebackup.queryCatalog(catalog -> new CatalogListing(catalog.list(null, since, MAX_LISTED_SNAPSHOTS),
+            catalog.usage(since), catalog.getSnapshotCount())
+        ).whenCompleteAsync((listing, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.literal("Failed to read the backup catalog: " + cause.getMessage()));
+                return;
+            }
+            BackupCatalog.Usage usage = listing.usage();
+            source.sendMessage(Text.literal("§6Backups of the last " + days + " days: §7" + usage.snapshots() + " of " +
+                listing.total() + " catalogued, " + usage.files() + " files, " + formatSize(usage.totalBytes()) + " (" +
+                formatSize(usage.uniqueBytes()) + " unique)"));
+            DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+            for (BackupCatalog.SnapshotInfo snapshot : listing.snapshots()) {
+                source.sendMessage(Text.literal("§7- " + snapshot.name() + " §8" +
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(snapshot.created()), ZoneId.systemDefault()).format(format) +
+                    " §7" + snapshot.files() + " files, " + formatSize(snapshot.size()) +
+                    (snapshot.hasFlag(BackupCatalog.FLAG_INCREMENTAL) ? ", incremental" : "") +
+                    (snapshot.hasFlag(BackupCatalog.FLAG_DEDUP) ? ", deduplicated" : "") +
+                    (snapshot.hasFlag(BackupCatalog.FLAG_ENCRYPTED) ? ", encrypted" : "")));
+            }
+            if (usage.snapshots() > listing.snapshots().size()) {
+                source.sendMessage(Text.literal("§7Newest " + listing.snapshots().size() + " shown"));
+            }
+        }, source.getServer()::execute);
+        return 1;
+    }
+
+    private record CatalogListing(List<BackupCatalog.SnapshotInfo> snapshots, BackupCatalog.Usage usage, int total) {
+    }
+
+    // Which backups stored a path, or contents with a hash, newest first
+    private static int findInCatalog(ServerCommandSource source, String path, String hash) {
+        Drivebackup.queryCatalog(catalog -> path != null
+            ? catalog.findPath(path.trim(), hash, MAX_FOUND_FILES)
+            : catalog.findHash(hash, MAX_FOUND_FILES)
+        ).whenCompleteAsync((hits, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.literal("Failed to search the backup catalog: " + cause.getMessage()));
+                return;
+            }
+            String query = path != null ? path.trim() + (hash != null ? " at " + hash : "") : "hash " + hash;
+            if (hits.isEmpty()) {
+                source.sendMessage(Text.literal("§7No backup has " + query));
+                return;
+            }
+            source.sendMessage(Text.literal("§6Backups with " + query + ":"));
+            for (BackupCatalog.FileHit hit : hits) {
+                source.sendMessage(Text.literal("§7- " + hit.snapshot().name() + (path == null ? " §f" + hit.path() : "") +
+                    " §7" + formatSize(hit.size()) + " §8" + hit.hashPrefix()));
+            }
+        }, source.getServer()::execute);
+        return 1;
+    }
+
+    // Downloads run in the background, results arrive as they finish
+    private static int startVerify(ServerCommandSource source, String archive) {
+        if (!BackupConfig.getInstance().isAuthenticated()) {
+            source.sendError(Text.literal("Not authenticated with Google Drive"));
+            return 0;
+        }
+        source.sendMessage(Text.literal("§7Verifying " + (archive != null ? archive : "random stored backups") + "..."));
+        Drivebackup.verifyArchives(archive).whenCompleteAsync((results, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.literal("Verification failed: " + cause.getMessage()));
+                return;
+            }
+            if (results.isEmpty()) {
+                source.sendMessage(Text.literal("§7No backups stored on Google Drive"));
+            }
+            for (BackupVerifier.Result result : results) {
+                source.sendMessage(Text.literal((result.ok() ? "§a" : "§c") + result.archive() + ": " + result.message()));
+            }
+        }, source.getServer()::execute);
+        return 1;
+    }
+
+    private static int startRestore(ServerCommandSource source, String world, String snapshot, String filterSpec) {
+        RestoreFilter filter;
+        try {
+            filter = RestoreFilter.parse(filterSpec);
+        } catch (IllegalArgumentException e) {
+            source.sendError(Text.literal("Invalid filter: " + e.getMessage()));
+            return 0;
+        }
+        BackupJob job = Drivebackup.requestRestore(world, snapshot, filter);
+        if (job == null) {
+            source.sendError(Text.literal("Backup scheduler is not running"));
+            return 0;
+        }
+        source.sendMessage(Text.literal("§aRestore of " + world + " queued as job #" + job.getId() +
+            ", follow it with /drivebackup jobs"));
+        return 1;
+    }
+
+    private static String formatDuration(long seconds) {
+        return seconds >= 3600 ? String.format("%dh %02dm", seconds / 3600, seconds / 60 % 60)
+            : String.format("%dm %02ds", seconds / 60, seconds % 60);
+    }
+}
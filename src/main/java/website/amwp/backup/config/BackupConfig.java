@@ -3,11 +3,16 @@ package website.amwp.backup.config;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import net.fabricmc.loader.api.FabricLoader;
+import website.amwp.backup.retention.RetentionPolicy;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BackupConfig {
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
@@ -18,8 +23,110 @@ public class BackupConfig {
     private boolean isAuthenticated = false;
     private long backupInterval = 3600000; // 1 hour in milliseconds
     private List<String> worldsToBackup = new ArrayList<>();
+    private List<String> excludePatterns = new ArrayList<>(List.of("session.lock", "*.tmp")); // Globs, e.g. "logs/"
     private boolean backupMods = true;
     private String lastBackupTime = "";
+    private int compressionThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int compressionLevel = 1; // Fastest deflate level, keeps CPU usage low
+    private String defaultCodec = "deflate"; // store, deflate[:level], zstd[:level][:long] or lz4 (zstd and lz4 need DriveBackup to restore)
+    private Map<String, String> codecPolicy = defaultCodecPolicy();
+    private int probeMinSavingsPercent = 5; // Entries whose sample shrinks less than this are stored, 0 to disable
+    private boolean streamingUpload = false;
+    private boolean keepLocalCopy = true;
+    private int streamBufferMb = 32;
+    private String driveRootUrl = "https://www.googleapis.com/";
+    private boolean incrementalBackups = false;
+    private long fullBackupInterval = 86400000; // 24 hours in milliseconds
+    private boolean regionDeltas = false;
+    private boolean dedupBackups = false;
+    private int snapshotKeepCount = 48;
+    private String snapshotMode = "auto"; // auto, copy or live
+    private int tickBudgetMs = 40; // Backups back off when ticks get close to this
+    private int uploadChunkMb = 8;
+    private int uploadConcurrency = 2;
+    private int uploadMaxRetries = 8;
+    private double uploadRateLimitMb = 0; // MB/s outside any window, 0 for unlimited
+    private List<RateWindow> uploadRateWindows = new ArrayList<>();
+    private String backupCron = ""; // e.g. "0 */6 * * *", empty to use backupInterval
+    private int shutdownBackupTimeout = 300; // Seconds the final backup may hold up a shutdown
+    private Map<String, Integer> backupPriorities = new HashMap<>(); // World name or "mods", higher runs first
+    private int backupConcurrency = 2; // World and mod backups compressing at the same time
+    private boolean coordinatedSnapshots = false; // Stage all worlds of a run at one point in time
+    private int verifyIntervalHours = 24; // Re-check random stored archives this often, 0 to disable
+    private int verifySamples = 1; // Archives checked each time
+    private int verifyRateMb = 2; // Download rate of checks in MB/s, 0 for unlimited
+    private boolean encryptBackups = false; // AES-GCM after compression, archives get a .enc suffix
+    private String encryptionKeyFile = "drivebackup/backup-keys.json"; // Relative to the config folder
+    private int metricsPort = 9464; // Prometheus endpoint on 127.0.0.1, 0 to disable
+    private int restoreThreads = 4; // Parallel downloads and extraction during a restore
+    private String progressDisplay = "bossbar"; // Live progress for operators: bossbar, actionbar or off
+    private String changeTracking = "hooks"; // How incremental backups find changed files: hooks, watch or off
+    private int fullRescanHours = 24; // Walk every world anyway this often, in case tracking missed something
+    private RetentionPolicy localRetention = new RetentionPolicy(1, 0, 0, 0, 0, 0);
+    private RetentionPolicy remoteRetention = new RetentionPolicy(1, 24, 7, 4, 6, 0);
+    private boolean retentionDryRun = false; // Only log what retention would delete
+    private List<TargetConfig> targets = new ArrayList<>(); // Stored in addition to Google Drive
+
+    // Upload rate limit for part of the day, e.g. 18:00-23:00 at 5 MB/s. A window whose end is
+    // before its start runs over midnight. 0 MB/s means unlimited.
+    public static class RateWindow {
+        public String start;
+        public String end;
+        public double mbPerSecond;
+
+        public RateWindow(String start, String end, double mbPerSecond) {
+            this.start = start;
+            this.end = end;
+            this.mbPerSecond = mbPerSecond;
+        }
+
+        public boolean contains(LocalTime time) {
+            LocalTime from = LocalTime.parse(start);
+            LocalTime to = LocalTime.parse(end);
+            if (from.isBefore(to)) {
+                return !time.isBefore(from) && time.isBefore(to);
+            }
+            return !time.isBefore(from) || time.isBefore(to);
+        }
+    }
+
+    // A place archives are copied to besides Google Drive: a local or network directory, or an
+    // S3-compatible bucket. Each one has its own retention policy.
+    public static class TargetConfig {
+        public String name;
+        public String type; // directory or s3
+        public boolean enabled = true;
+        public String path; // directory
+        public String endpoint; // s3, e.g. https://s3.eu-central-1.amazonaws.com or http://127.0.0.1:9000
+        public String region = "us-east-1";
+        public String bucket;
+        public String prefix = ""; // Prepended to every object key
+        public String accessKey;
+        public String secretKey;
+        public boolean pathStyle = true; // endpoint/bucket/key rather than bucket.endpoint/key
+        public RetentionPolicy retention = new RetentionPolicy(1, 24, 7, 4, 6, 0);
+
+        public TargetConfig(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        // Lets Gson fill in the defaults above for fields missing from the file
+        private TargetConfig() {
+        }
+    }
+
+    // Already compressed formats are stored, everything else is deflated, so archives open in
+    // any unzip tool. zstd (e.g. for .dat and .json) or lz4 (e.g. for .mca, whose chunks are
+    // zlib compressed already) are opt-in through /drivebackup config codec: they are smaller
+    // or faster, but only DriveBackup's own restore can read those entries.
+    private static Map<String, String> defaultCodecPolicy() {
+        Map<String, String> policy = new HashMap<>();
+        for (String extension : new String[]{"jar", "zip", "png", "jpg", "ogg", "gz", "zst"}) {
+            policy.put(extension, "store");
+        }
+        return policy;
+    }
 
     public static BackupConfig getInstance() {
         if (instance == null) {
@@ -92,6 +199,30 @@ public class BackupConfig {
         }
     }
 
+    public List<String> getExcludePatterns() {
+        return excludePatterns != null ? excludePatterns : List.of();
+    }
+
+    public boolean addExcludePattern(String pattern) {
+        if (excludePatterns == null) {
+            excludePatterns = new ArrayList<>();
+        }
+        if (excludePatterns.contains(pattern)) {
+            return false;
+        }
+        excludePatterns.add(pattern);
+        save();
+        return true;
+    }
+
+    public boolean removeExcludePattern(String pattern) {
+        if (excludePatterns != null && excludePatterns.remove(pattern)) {
+            save();
+            return true;
+        }
+        return false;
+    }
+
     public boolean isBackupMods() {
         return backupMods;
     }
@@ -109,4 +240,445 @@ public class BackupConfig {
         this.lastBackupTime = lastBackupTime;
         save();
     }
-} 
\ No newline at end of file
+
+    public int getCompressionThreads() {
+        return Math.max(1, compressionThreads);
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+        save();
+    }
+
+    public int getCompressionLevel() {
+        return Math.max(0, Math.min(9, compressionLevel));
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        save();
+    }
+
+    public String getDefaultCodec() {
+        return defaultCodec == null || defaultCodec.isEmpty() ? "deflate" : defaultCodec;
+    }
+
+    public void setDefaultCodec(String defaultCodec) {
+        this.defaultCodec = defaultCodec;
+        save();
+    }
+
+    // File extension (without the dot) to codec spec
+    public Map<String, String> getCodecPolicy() {
+        if (codecPolicy == null) {
+            codecPolicy = defaultCodecPolicy();
+        }
+        return codecPolicy;
+    }
+
+    public void setCodec(String extension, String codec) {
+        getCodecPolicy().put(extension, codec);
+        save();
+    }
+
+    public void removeCodec(String extension) {
+        if (getCodecPolicy().remove(extension) != null) {
+            save();
+        }
+    }
+
+    public int getProbeMinSavingsPercent() {
+        return Math.max(0, Math.min(100, probeMinSavingsPercent));
+    }
+
+    public void setProbeMinSavingsPercent(int probeMinSavingsPercent) {
+        this.probeMinSavingsPercent = probeMinSavingsPercent;
+        save();
+    }
+
+    public boolean isStreamingUpload() {
+        return streamingUpload;
+    }
+
+    public void setStreamingUpload(boolean streamingUpload) {
+        this.streamingUpload = streamingUpload;
+        save();
+    }
+
+    public boolean isKeepLocalCopy() {
+        return keepLocalCopy;
+    }
+
+    public void setKeepLocalCopy(boolean keepLocalCopy) {
+        this.keepLocalCopy = keepLocalCopy;
+        save();
+    }
+
+    public int getStreamBufferSize() {
+        return Math.max(1, streamBufferMb) * 1024 * 1024;
+    }
+
+    // Overridable so the Drive endpoints can be pointed at a local stand-in server
+    public String getDriveRootUrl() {
+        if (driveRootUrl == null || driveRootUrl.isEmpty()) {
+            return "https://www.googleapis.com/";
+        }
+        return driveRootUrl.endsWith("/") ? driveRootUrl : driveRootUrl + "/";
+    }
+
+    public boolean isIncrementalBackups() {
+        return incrementalBackups;
+    }
+
+    public void setIncrementalBackups(boolean incrementalBackups) {
+        this.incrementalBackups = incrementalBackups;
+        save();
+    }
+
+    public long getFullBackupInterval() {
+        return fullBackupInterval;
+    }
+
+    public void setFullBackupInterval(long fullBackupInterval) {
+        this.fullBackupInterval = fullBackupInterval;
+        save();
+    }
+
+    // Only takes effect together with incremental backups
+    public boolean isRegionDeltas() {
+        return regionDeltas;
+    }
+
+    public void setRegionDeltas(boolean regionDeltas) {
+        this.regionDeltas = regionDeltas;
+        save();
+    }
+
+    public boolean isDedupBackups() {
+        return dedupBackups;
+    }
+
+    public void setDedupBackups(boolean dedupBackups) {
+        this.dedupBackups = dedupBackups;
+        save();
+    }
+
+    public int getSnapshotKeepCount() {
+        return Math.max(1, snapshotKeepCount);
+    }
+
+    public void setSnapshotKeepCount(int snapshotKeepCount) {
+        this.snapshotKeepCount = snapshotKeepCount;
+        save();
+    }
+
+    public String getSnapshotMode() {
+        return snapshotMode == null ? "auto" : snapshotMode;
+    }
+
+    public void setSnapshotMode(String snapshotMode) {
+        this.snapshotMode = snapshotMode;
+        save();
+    }
+
+    public String getProgressDisplay() {
+        return progressDisplay == null ? "bossbar" : progressDisplay;
+    }
+
+    public void setProgressDisplay(String progressDisplay) {
+        this.progressDisplay = progressDisplay;
+        save();
+    }
+
+    public String getChangeTracking() {
+        return changeTracking == null ? "hooks" : changeTracking;
+    }
+
+    public void setChangeTracking(String changeTracking) {
+        this.changeTracking = changeTracking;
+        save();
+    }
+
+    public int getFullRescanHours() {
+        return Math.max(1, fullRescanHours);
+    }
+
+    public void setFullRescanHours(int fullRescanHours) {
+        this.fullRescanHours = fullRescanHours;
+        save();
+    }
+
+    public int getTickBudgetMs() {
+        return Math.max(5, tickBudgetMs);
+    }
+
+    public void setTickBudgetMs(int tickBudgetMs) {
+        this.tickBudgetMs = tickBudgetMs;
+        save();
+    }
+
+    // Upload chunk size in bytes, Drive wants multiples of 256KB
+    public int getUploadChunkSize() {
+        return Math.max(1, Math.min(uploadChunkMb, 1024)) * 1024 * 1024;
+    }
+
+    public int getUploadChunkMb() {
+        return uploadChunkMb;
+    }
+
+    public void setUploadChunkMb(int uploadChunkMb) {
+        this.uploadChunkMb = uploadChunkMb;
+        save();
+    }
+
+    public int getUploadConcurrency() {
+        return Math.max(1, uploadConcurrency);
+    }
+
+    public void setUploadConcurrency(int uploadConcurrency) {
+        this.uploadConcurrency = uploadConcurrency;
+        save();
+    }
+
+    public int getBackupConcurrency() {
+        return Math.max(1, backupConcurrency);
+    }
+
+    public void setBackupConcurrency(int backupConcurrency) {
+        this.backupConcurrency = backupConcurrency;
+        save();
+    }
+
+    public boolean isCoordinatedSnapshots() {
+        return coordinatedSnapshots;
+    }
+
+    public void setCoordinatedSnapshots(boolean coordinatedSnapshots) {
+        this.coordinatedSnapshots = coordinatedSnapshots;
+        save();
+    }
+
+    public int getVerifyIntervalHours() {
+        return Math.max(0, verifyIntervalHours);
+    }
+
+    public void setVerifyIntervalHours(int verifyIntervalHours) {
+        this.verifyIntervalHours = verifyIntervalHours;
+        save();
+    }
+
+    public int getVerifySamples() {
+        return Math.max(1, verifySamples);
+    }
+
+    public void setVerifySamples(int verifySamples) {
+        this.verifySamples = verifySamples;
+        save();
+    }
+
+    public boolean isEncryptBackups() {
+        return encryptBackups;
+    }
+
+    public void setEncryptBackups(boolean encryptBackups) {
+        this.encryptBackups = encryptBackups;
+        save();
+    }
+
+    public String getEncryptionKeyFile() {
+        return encryptionKeyFile;
+    }
+
+    public Path getEncryptionKeyPath() {
+        return FabricLoader.getInstance().getConfigDir().resolve(encryptionKeyFile);
+    }
+
+    public void setEncryptionKeyFile(String encryptionKeyFile) {
+        this.encryptionKeyFile = encryptionKeyFile;
+        save();
+    }
+
+    public int getVerifyRateMb() {
+        return Math.max(0, verifyRateMb);
+    }
+
+    public void setVerifyRateMb(int verifyRateMb) {
+        this.verifyRateMb = verifyRateMb;
+        save();
+    }
+
+    public int getUploadMaxRetries() {
+        return Math.max(0, uploadMaxRetries);
+    }
+
+    public void setUploadMaxRetries(int uploadMaxRetries) {
+        this.uploadMaxRetries = uploadMaxRetries;
+        save();
+    }
+
+    // MB/s allowed at the given time of day, 0 for unlimited
+    public double getUploadRateLimit(LocalTime time) {
+        if (uploadRateWindows != null) {
+            for (RateWindow window : uploadRateWindows) {
+                try {
+                    if (window.contains(time)) {
+                        return Math.max(0, window.mbPerSecond);
+                    }
+                } catch (DateTimeParseException e) {
+                    // Ignore windows with unparseable times
+                }
+            }
+        }
+        return Math.max(0, uploadRateLimitMb);
+    }
+
+    public double getUploadRateLimitMb() {
+        return uploadRateLimitMb;
+    }
+
+    public void setUploadRateLimitMb(double uploadRateLimitMb) {
+        this.uploadRateLimitMb = uploadRateLimitMb;
+        save();
+    }
+
+    public List<RateWindow> getUploadRateWindows() {
+        if (uploadRateWindows == null) {
+            uploadRateWindows = new ArrayList<>();
+        }
+        return uploadRateWindows;
+    }
+
+    public void addUploadRateWindow(RateWindow window) {
+        getUploadRateWindows().add(window);
+        save();
+    }
+
+    public void clearUploadRateWindows() {
+        getUploadRateWindows().clear();
+        save();
+    }
+
+    public String getBackupCron() {
+        return backupCron == null ? "" : backupCron;
+    }
+
+    public void setBackupCron(String backupCron) {
+        this.backupCron = backupCron;
+        save();
+    }
+
+    public int getShutdownBackupTimeout() {
+        return Math.max(0, shutdownBackupTimeout);
+    }
+
+    public void setShutdownBackupTimeout(int shutdownBackupTimeout) {
+        this.shutdownBackupTimeout = shutdownBackupTimeout;
+        save();
+    }
+
+    public int getBackupPriority(String target) {
+        return backupPriorities == null ? 0 : backupPriorities.getOrDefault(target, 0);
+    }
+
+    public void setBackupPriority(String target, int priority) {
+        if (backupPriorities == null) {
+            backupPriorities = new HashMap<>();
+        }
+        backupPriorities.put(target, priority);
+        save();
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+        save();
+    }
+
+    public int getRestoreThreads() {
+        return Math.max(1, restoreThreads);
+    }
+
+    public void setRestoreThreads(int restoreThreads) {
+        this.restoreThreads = restoreThreads;
+        save();
+    }
+
+    // "local" for the backups folder, "remote" for Google Drive, otherwise a target's name
+    public RetentionPolicy getRetention(String location) {
+        TargetConfig target = getTarget(location);
+        if (target != null) {
+            if (target.retention == null) {
+                target.retention = new RetentionPolicy(1, 24, 7, 4, 6, 0);
+            }
+            return target.retention;
+        }
+        if (location.equals("local")) {
+            if (localRetention == null) {
+                localRetention = new RetentionPolicy(1, 0, 0, 0, 0, 0);
+            }
+            return localRetention;
+        }
+        if (remoteRetention == null) {
+            remoteRetention = new RetentionPolicy(1, 24, 7, 4, 6, 0);
+        }
+        return remoteRetention;
+    }
+
+    public void setRetention(String location, String setting, long value) {
+        RetentionPolicy policy = getRetention(location);
+        int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, value));
+        switch (setting) {
+            case "last" -> policy.keepLast = Math.max(1, count);
+            case "hourly" -> policy.hourly = count;
+            case "daily" -> policy.daily = count;
+            case "weekly" -> policy.weekly = count;
+            case "monthly" -> policy.monthly = count;
+            case "quota" -> policy.maxTotalMb = Math.max(0, value);
+            default -> throw new IllegalArgumentException("Unknown retention setting " + setting);
+        }
+        save();
+    }
+
+    public boolean isRetentionDryRun() {
+        return retentionDryRun;
+    }
+
+    public void setRetentionDryRun(boolean retentionDryRun) {
+        this.retentionDryRun = retentionDryRun;
+        save();
+    }
+
+    public List<TargetConfig> getTargets() {
+        if (targets == null) {
+            targets = new ArrayList<>();
+        }
+        return targets;
+    }
+
+    public TargetConfig getTarget(String name) {
+        for (TargetConfig target : getTargets()) {
+            if (target.name.equals(name)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    // Replaces a target of the same name
+    public void addTarget(TargetConfig target) {
+        getTargets().removeIf(existing -> existing.name.equals(target.name));
+        getTargets().add(target);
+        save();
+    }
+
+    public boolean removeTarget(String name) {
+        boolean removed = getTargets().removeIf(target -> target.name.equals(name));
+        if (removed) {
+            save();
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,156 @@
+package website.amwp.backup.crypto;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+// Archive encryption keys, kept in a JSON file of their own so they can be stored away from the
+// backups. New archives use the current key. Rotating adds a new current key and keeps the old
+// ones, archives written with them stay restorable. Losing the file loses the encrypted backups.
+public class BackupKeyring {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int KEY_BYTES = 32;
+
+    private final Path path;
+    private final SecureRandom random = new SecureRandom();
+    private KeyFile keys;
+
+    public record Key(String id, SecretKey secret, long created) {
+    }
+
+    private static class KeyFile {
+        String current;
+        List<StoredKey> keys = new ArrayList<>();
+    }
+
+    private static class StoredKey {
+        String id;
+        String key; // Base64
+        long created;
+    }
+
+    public BackupKeyring(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized boolean exists() {
+        return Files.exists(path);
+    }
+
+    // The key new archives are encrypted with, created on first use
+    public synchronized Key current() throws IOException {
+        KeyFile file = load();
+        if (file.current == null) {
+            return rotate();
+        }
+        return get(file.current);
+    }
+
+    public synchronized Key get(String id) throws IOException {
+        for (StoredKey key : load().keys) {
+            if (key.id.equals(id)) {
+                return toKey(key);
+            }
+        }
+        throw new IOException("Key " + id + " is not in " + path);
+    }
+
+    public synchronized List<Key> list() throws IOException {
+        List<Key> result = new ArrayList<>();
+        for (StoredKey key : load().keys) {
+            result.add(toKey(key));
+        }
+        return result;
+    }
+
+    // Makes a new key current. Earlier keys are kept for the archives they encrypted.
+    public synchronized Key rotate() throws IOException {
+        KeyFile file = load();
+        byte[] secret = new byte[KEY_BYTES];
+        random.nextBytes(secret);
+        StoredKey key = new StoredKey();
+        key.id = "key-" + (file.keys.size() + 1);
+        key.key = Base64.getEncoder().encodeToString(secret);
+        key.created = System.currentTimeMillis();
+        file.keys.add(key);
+        file.current = key.id;
+        save(file);
+        return toKey(key);
+    }
+
+    // An unreadable file is reported rather than replaced, it may hold the only copy of a key
+    private KeyFile load() throws IOException {
+        if (keys != null) {
+            return keys;
+        }
+        if (!Files.exists(path)) {
+            keys = new KeyFile();
+            return keys;
+        }
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            KeyFile loaded = GSON.fromJson(reader, KeyFile.class);
+            if (loaded == null || loaded.keys == null) {
+                throw new IOException("No keys in " + path);
+            }
+            keys = loaded;
+            return keys;
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable keyfile " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void save(KeyFile file) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX filesystem, the file keeps the directory's permissions
+            }
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(file, writer);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Key toKey(StoredKey key) throws IOException {
+        byte[] secret;
+        try {
+            secret = Base64.getDecoder().decode(key.key);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Key " + key.id + " is not valid Base64");
+        }
+        if (secret.length != KEY_BYTES) {
+            throw new IOException("Key " + key.id + " is not a 256 bit key");
+        }
+        return new Key(key.id, new SecretKeySpec(secret, "AES"), key.created);
+    }
+}
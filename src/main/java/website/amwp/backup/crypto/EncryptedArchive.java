@@ -0,0 +1,269 @@
+package website.amwp.backup.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Archives encrypted after compression with AES-256-GCM in independently authenticated segments:
+//   header   "DBENC", version, segment size, key id, salt, nonce prefix
+//   segments each segment size bytes of the archive encrypted, plus a 16 byte tag, the last shorter
+// Every archive gets its own key, derived from the keyring key and the salt with HKDF-SHA256. A
+// segment's nonce is the prefix, the segment's index and whether it is the last one, and the
+// header is authenticated with every segment. Segments can't be reordered, dropped or swapped
+// between archives and truncation is detected, yet any segment can be decrypted on its own,
+// so ranges can be fetched and decrypted in parallel.
+public final class EncryptedArchive {
+    public static final String SUFFIX = ".enc";
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int TAG_BYTES = 16;
+
+    private static final byte[] MAGIC = {'D', 'B', 'E', 'N', 'C'};
+    private static final byte VERSION = 1;
+    private static final int SALT_BYTES = 16;
+    private static final int PREFIX_BYTES = 7;
+    private static final int MAX_HEADER_BYTES = MAGIC.length + 1 + 4 + 1 + 255 + SALT_BYTES + PREFIX_BYTES;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private EncryptedArchive() {
+    }
+
+    public static final class Header {
+        private final byte[] bytes;
+        private final int segmentSize;
+        private final String keyId;
+        private final byte[] salt;
+        private final byte[] noncePrefix;
+
+        private Header(byte[] bytes, int segmentSize, String keyId, byte[] salt, byte[] noncePrefix) {
+            this.bytes = bytes;
+            this.segmentSize = segmentSize;
+            this.keyId = keyId;
+            this.salt = salt;
+            this.noncePrefix = noncePrefix;
+        }
+
+        public int length() {
+            return bytes.length;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public String getKeyId() {
+            return keyId;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        // Segments in an encrypted file of this size, the last one possibly short
+        public long segmentCount(long fileSize) throws IOException {
+            long ciphertext = fileSize - bytes.length;
+            long stride = segmentSize + TAG_BYTES;
+            long count = Math.max(1, (ciphertext + stride - 1) / stride);
+            long last = ciphertext - (count - 1) * stride;
+            if (last < TAG_BYTES) {
+                throw new IOException("Encrypted archive is truncated");
+            }
+            return count;
+        }
+    }
+
+    public static boolean isEncrypted(String name) {
+        return name.endsWith(SUFFIX);
+    }
+
+    // "world_..._incr.zip.enc" is "world_..._incr.zip" once decrypted
+    public static String plainName(String name) {
+        return isEncrypted(name) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    // Size of the encrypted form of plainSize bytes
+    public static long encryptedSize(long plainSize, Header header) {
+        long segments = Math.max(1, (plainSize + header.segmentSize - 1) / header.segmentSize);
+        return header.length() + plainSize + segments * TAG_BYTES;
+    }
+
+    public static Header newHeader(String keyId, int segmentSize) {
+        byte[] id = keyId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > 255) {
+            throw new IllegalArgumentException("Key id is too long");
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] prefix = new byte[PREFIX_BYTES];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(prefix);
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 1 + 4 + 1 + id.length + SALT_BYTES + PREFIX_BYTES);
+        buffer.put(MAGIC).put(VERSION).putInt(segmentSize).put((byte) id.length).put(id).put(salt).put(prefix);
+        return new Header(buffer.array(), segmentSize, keyId, salt, prefix);
+    }
+
+    public static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_HEADER_BYTES, channel.size()));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an encrypted archive");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported encrypted archive version " + version);
+            }
+            int segmentSize = buffer.getInt();
+            if (segmentSize <= 0) {
+                throw new IOException("Invalid segment size " + segmentSize);
+            }
+            byte[] id = new byte[buffer.get() & 0xFF];
+            buffer.get(id);
+            byte[] salt = new byte[SALT_BYTES];
+            buffer.get(salt);
+            byte[] prefix = new byte[PREFIX_BYTES];
+            buffer.get(prefix);
+            byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+            return new Header(bytes, segmentSize, new String(id, StandardCharsets.UTF_8), salt, prefix);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Encrypted archive header is truncated");
+        }
+    }
+
+    // HKDF-SHA256 with the header as context, a single output block is a whole AES-256 key
+    public static SecretKey deriveKey(SecretKey master, Header header) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(header.salt, "HmacSHA256"));
+            byte[] pseudoRandomKey = mac.doFinal(master.getEncoded());
+            mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+            mac.update(header.bytes);
+            mac.update((byte) 1);
+            return new SecretKeySpec(mac.doFinal(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void init(Cipher cipher, int mode, SecretKey archiveKey, Header header, long index, boolean last) {
+        if (index > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Archive has too many segments");
+        }
+        byte[] nonce = ByteBuffer.allocate(12).put(header.noncePrefix).putInt((int) index).put((byte) (last ? 1 : 0)).array();
+        try {
+            cipher.init(mode, archiveKey, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+            cipher.updateAAD(header.bytes);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Decrypts and authenticates one segment into output, returning the plaintext length
+    public static int decryptSegment(Cipher cipher, SecretKey archiveKey, Header header, long index, boolean last,
+                                     byte[] ciphertext, int length, byte[] output) throws IOException {
+        init(cipher, Cipher.DECRYPT_MODE, archiveKey, header, index, last);
+        try {
+            return cipher.doFinal(ciphertext, 0, length, output, 0);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Segment " + index + " of the encrypted archive failed authentication");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt segment " + index + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Decrypts the whole file. With workers the segments are split into runs decrypted in
+    // parallel, each written straight to its place in the target.
+    public static void decrypt(Path source, Path target, BackupKeyring keyring, ExecutorService workers) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            Header header = readHeader(in);
+            SecretKey key = deriveKey(keyring.get(header.keyId).secret(), header);
+            long segments = header.segmentCount(in.size());
+
+            int runs = workers == null ? 1 : (int) Math.min(segments, Runtime.getRuntime().availableProcessors());
+            long perRun = (segments + runs - 1) / runs;
+            if (runs == 1) {
+                decryptRun(in, out, header, key, 0, segments, segments);
+                return;
+            }
+            List<Future<?>> results = new ArrayList<>();
+            for (long first = 0; first < segments; first += perRun) {
+                long from = first;
+                long to = Math.min(segments, first + perRun);
+                results.add(workers.submit(() -> {
+                    decryptRun(in, out, header, key, from, to, segments);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                results.forEach(result -> result.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Decryption interrupted");
+            } catch (ExecutionException e) {
+                results.forEach(result -> result.cancel(true));
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+    }
+
+    private static void decryptRun(FileChannel in, FileChannel out, Header header, SecretKey key,
+                                   long from, long to, long segments) throws IOException {
+        Cipher cipher = newCipher();
+        int stride = header.segmentSize + TAG_BYTES;
+        byte[] ciphertext = new byte[stride];
+        byte[] plaintext = new byte[header.segmentSize];
+        for (long index = from; index < to; index++) {
+            long position = header.length() + index * stride;
+            ByteBuffer buffer = ByteBuffer.wrap(ciphertext, 0, (int) Math.min(stride, in.size() - position));
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Encrypted archive is truncated");
+                }
+            }
+            int length = decryptSegment(cipher, key, header, index, index == segments - 1, ciphertext, buffer.limit(), plaintext);
+            ByteBuffer data = ByteBuffer.wrap(plaintext, 0, length);
+            long outPosition = index * header.segmentSize;
+            while (data.hasRemaining()) {
+                outPosition += out.write(data, outPosition);
+            }
+        }
+    }
+}
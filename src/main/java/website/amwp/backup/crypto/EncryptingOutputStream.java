@@ -0,0 +1,102 @@
+package website.amwp.backup.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+// Encrypts what is written to it into the format of EncryptedArchive. A full segment is only
+// encrypted once more data arrives, so the last one can be marked as such. finish() writes it
+// and leaves the underlying stream open, close() closes both.
+public class EncryptingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final EncryptedArchive.Header header;
+    private final SecretKey archiveKey;
+    private final Cipher cipher = EncryptedArchive.newCipher();
+    private final byte[] segment;
+    private final byte[] encrypted;
+    private int filled;
+    private long index;
+    private long bytesWritten;
+    private boolean finished;
+
+    public EncryptingOutputStream(OutputStream out, BackupKeyring.Key key, int segmentSize) throws IOException {
+        this.out = out;
+        this.header = EncryptedArchive.newHeader(key.id(), segmentSize);
+        this.archiveKey = EncryptedArchive.deriveKey(key.secret(), header);
+        this.segment = new byte[segmentSize];
+        this.encrypted = new byte[segmentSize + EncryptedArchive.TAG_BYTES];
+        out.write(header.getBytes());
+        bytesWritten = header.length();
+    }
+
+    // Encrypted bytes written so far, the header included
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        if (filled == segment.length) {
+            encryptSegment(false);
+        }
+        segment[filled++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        while (len > 0) {
+            if (filled == segment.length) {
+                encryptSegment(false);
+            }
+            int n = Math.min(len, segment.length - filled);
+            System.arraycopy(b, off, segment, filled, n);
+            filled += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void finish() throws IOException {
+        if (!finished) {
+            encryptSegment(true);
+            finished = true;
+            out.flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void encryptSegment(boolean last) throws IOException {
+        EncryptedArchive.init(cipher, Cipher.ENCRYPT_MODE, archiveKey, header, index, last);
+        int length;
+        try {
+            length = cipher.doFinal(segment, 0, filled, encrypted, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt segment " + index + ": " + e.getMessage(), e);
+        }
+        out.write(encrypted, 0, length);
+        bytesWritten += length;
+        filled = 0;
+        index++;
+    }
+}
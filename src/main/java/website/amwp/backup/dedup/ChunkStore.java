@@ -0,0 +1,625 @@
+package website.amwp.backup.dedup;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+// Deduplicating backup store. Files are cut into content-defined chunks that are stored once
+// by SHA-256, locally as one file per chunk and remotely bundled into pack files so a backup
+// costs a handful of uploads instead of one per chunk. A snapshot is just a list of hashes.
+// A store that has lost its local files starts over from the remote copies of the index and
+// snapshots, and restores read their chunks back out of the packs.
+public class ChunkStore {
+    public static final String SNAPSHOT_SUFFIX = ".snapshot.json.gz";
+    public static final String PACK_PREFIX = "pack-";
+    public static final String PACK_SUFFIX = ".pack";
+    public static final String INDEX_NAME = "chunk-index.json.gz";
+    public static final String INDEX_PREFIX = "chunk-index-";
+    public static final String INDEX_SUFFIX = ".json.gz";
+    private static final long PACK_TARGET_SIZE = 32L * 1024 * 1024;
+    private static final double REPACK_THRESHOLD = 0.5; // Repack once half of a pack is garbage
+    private static final Gson GSON = new Gson();
+    private static final Type INDEX_TYPE = new TypeToken<Map<String, ChunkLocation>>() {}.getType();
+
+    // Where chunks, snapshot manifests and the chunk index get uploaded to
+    public interface Remote {
+        void upload(String name, File file) throws IOException;
+
+        void delete(String name) throws IOException;
+
+        default void deleteAll(Collection<String> names) throws IOException {
+            for (String name : names) {
+                delete(name);
+            }
+        }
+
+        // Names of everything stored
+        List<String> list() throws IOException;
+
+        // Writes a stored file to target
+        void download(String name, Path target) throws IOException;
+    }
+
+    public static class ChunkLocation {
+        public String pack;
+        public long offset;
+        public int length;
+        public int size;
+    }
+
+    public static class Result {
+        public int files;
+        public int newChunks;
+        public int reusedChunks;
+        public long totalBytes;
+        public long uploadedBytes;
+    }
+
+    private final Path chunksDir;
+    private final Path snapshotsDir;
+    private final Path packsDir;
+    private final Path indexPath;
+    private final Remote remote;
+    private final int level;
+    private final Map<String, ChunkLocation> index;
+    private Throttle throttle = Throttle.NONE;
+    private long indexVersion = -1;
+
+    public ChunkStore(Path root, Remote remote, int level) throws IOException {
+        this.chunksDir = root.resolve("chunks");
+        this.snapshotsDir = root.resolve("snapshots");
+        this.packsDir = root.resolve("packs");
+        this.indexPath = root.resolve(INDEX_NAME);
+        this.remote = remote;
+        this.level = level;
+        Files.createDirectories(chunksDir);
+        Files.createDirectories(snapshotsDir);
+        Files.createDirectories(packsDir);
+        this.index = loadIndex();
+    }
+
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    public synchronized Result backup(String name, String backupType, List<ArchiveEntry> entries) throws IOException {
+        Snapshot snapshot = new Snapshot();
+        snapshot.name = name;
+        snapshot.backupType = backupType;
+        snapshot.created = System.currentTimeMillis();
+
+        Result result = new Result();
+        ContentChunker chunker = new ContentChunker();
+        PackSink sink = new PackSink(result);
+
+        try {
+            for (ArchiveEntry entry : entries) {
+                if (entry.isDirectory()) {
+                    snapshot.directories.add(entry.getName());
+                    continue;
+                }
+
+                Snapshot.FileEntry file = new Snapshot.FileEntry();
+                file.path = entry.getName();
+                file.lastModified = entry.getLastModified();
+
+                try (InputStream in = entry.getData() != null ? new ByteArrayInputStream(entry.getData())
+                        : new BufferedInputStream(new FileInputStream(entry.getFile()), 64 * 1024)) {
+                    long[] busySince = {System.nanoTime()};
+                    chunker.split(in, (data, offset, length) -> {
+                        pace(busySince);
+                        String hash = sha256(data, offset, length);
+                        file.chunks.add(hash);
+                        file.size += length;
+                        if (index.containsKey(hash) || sink.pending.containsKey(hash)) {
+                            result.reusedChunks++;
+                            if (!Files.exists(chunkPath(hash))) {
+                                storeLocal(hash, compress(data, offset, length));
+                            }
+                            return;
+                        }
+                        byte[] compressed = compress(data, offset, length);
+                        storeLocal(hash, compressed);
+                        sink.add(hash, compressed, length);
+                        result.newChunks++;
+                    });
+                }
+
+                snapshot.files.add(file);
+                result.files++;
+                result.totalBytes += file.size;
+            }
+            sink.flush();
+        } finally {
+            sink.discard();
+        }
+
+        // The snapshot is only written once every chunk it needs is safely stored
+        Path snapshotFile = snapshotsDir.resolve(name + SNAPSHOT_SUFFIX);
+        writeGzipJson(snapshotFile, snapshot);
+        remote.upload(name + SNAPSHOT_SUFFIX, snapshotFile.toFile());
+        saveIndex();
+        return result;
+    }
+
+    // Snapshot names for a backup type, oldest first. Names are "<prefix>_<timestamp>" and the
+    // prefix is matched exactly so "world" doesn't pick up "world_nether" snapshots.
+    public synchronized List<String> listSnapshots(String prefix) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(snapshotsDir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.endsWith(SNAPSHOT_SUFFIX))
+                    .map(file -> file.substring(0, file.length() - SNAPSHOT_SUFFIX.length()))
+                    .filter(snapshot -> snapshot.startsWith(prefix + "_")
+                            && snapshot.length() == prefix.length() + 20)
+                    .forEach(names::add);
+        }
+        names.sort(Comparator.naturalOrder()); // Timestamps sort chronologically
+        return names;
+    }
+
+    public synchronized Snapshot readSnapshot(String name) throws IOException {
+        return readGzipJson(snapshotsDir.resolve(name + SNAPSHOT_SUFFIX), Snapshot.class);
+    }
+
+    // Removes the snapshot manifest only, call collectGarbage() afterwards to free chunks
+    public synchronized void deleteSnapshot(String name) throws IOException {
+        remote.delete(name + SNAPSHOT_SUFFIX);
+        Files.deleteIfExists(snapshotsDir.resolve(name + SNAPSHOT_SUFFIX));
+    }
+
+    public synchronized void collectGarbage() throws IOException {
+        Set<String> live = new HashSet<>();
+        try (Stream<Path> files = Files.list(snapshotsDir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (path.getFileName().toString().endsWith(SNAPSHOT_SUFFIX)) {
+                    Snapshot snapshot = readGzipJson(path, Snapshot.class);
+                    for (Snapshot.FileEntry file : snapshot.files) {
+                        live.addAll(file.chunks);
+                    }
+                }
+            }
+        }
+
+        // Local chunks nobody references any more
+        try (Stream<Path> dirs = Files.list(chunksDir)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                try (Stream<Path> chunks = Files.list(dir)) {
+                    for (Path chunk : (Iterable<Path>) chunks::iterator) {
+                        if (!live.contains(chunk.getFileName().toString())) {
+                            Files.deleteIfExists(chunk);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Remote packs: drop the ones that are all garbage, rewrite the ones that are mostly garbage
+        Map<String, List<String>> byPack = new HashMap<>();
+        index.forEach((hash, location) -> byPack.computeIfAbsent(location.pack, k -> new ArrayList<>()).add(hash));
+        List<String> deadPacks = new ArrayList<>();
+        for (Map.Entry<String, List<String>> pack : byPack.entrySet()) {
+            long total = 0;
+            long liveBytes = 0;
+            List<String> liveHashes = new ArrayList<>();
+            for (String hash : pack.getValue()) {
+                int length = index.get(hash).length;
+                total += length;
+                if (live.contains(hash)) {
+                    liveBytes += length;
+                    liveHashes.add(hash);
+                }
+            }
+
+            if (liveHashes.isEmpty()) {
+                deadPacks.add(pack.getKey());
+            } else if (liveBytes < total * REPACK_THRESHOLD && liveHashes.stream().allMatch(h -> Files.exists(chunkPath(h)))) {
+                repack(pack.getKey(), pack.getValue(), liveHashes);
+            }
+        }
+        remote.deleteAll(deadPacks);
+        for (String pack : deadPacks) {
+            byPack.get(pack).forEach(index::remove);
+        }
+        saveIndex();
+    }
+
+    // Rebuilds the files of a snapshot that match include under target. Chunks come from the
+    // local store when it has them and otherwise out of the packs they were uploaded in, each
+    // pack downloaded once and read at the offsets the index recorded.
+    public synchronized void restore(String name, Path target, Predicate<String> include) throws IOException {
+        Path snapshotFile = snapshotsDir.resolve(name + SNAPSHOT_SUFFIX);
+        if (!Files.exists(snapshotFile)) {
+            fetch(name + SNAPSHOT_SUFFIX, snapshotFile);
+        }
+        Snapshot snapshot = readGzipJson(snapshotFile, Snapshot.class);
+        for (String dir : snapshot.directories) {
+            if (include.test(dir)) {
+                Files.createDirectories(target.resolve(dir));
+            }
+        }
+
+        Path downloads = Files.createTempDirectory(packsDir, "restore");
+        Map<String, FileChannel> packs = new HashMap<>();
+        try {
+            for (Snapshot.FileEntry file : snapshot.files) {
+                if (!include.test(file.path)) {
+                    continue;
+                }
+                Path out = target.resolve(file.path).normalize();
+                if (!out.startsWith(target)) {
+                    throw new IOException("Snapshot " + name + " has a file outside the world: " + file.path);
+                }
+                Files.createDirectories(out.getParent());
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out), 64 * 1024)) {
+                    for (String hash : file.chunks) {
+                        os.write(readChunk(hash, file.path, packs, downloads));
+                    }
+                }
+                out.toFile().setLastModified(file.lastModified);
+            }
+        } finally {
+            for (FileChannel pack : packs.values()) {
+                pack.close();
+            }
+            try (Stream<Path> files = Files.list(downloads)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(downloads);
+        }
+    }
+
+    public synchronized ChunkLocation getLocation(String hash) {
+        return index.get(hash);
+    }
+
+    private byte[] readChunk(String hash, String path, Map<String, FileChannel> packs, Path downloads) throws IOException {
+        ChunkLocation location = index.get(hash);
+        byte[] compressed;
+        if (Files.exists(chunkPath(hash))) {
+            compressed = Files.readAllBytes(chunkPath(hash));
+        } else if (location != null) {
+            FileChannel pack = packs.get(location.pack);
+            if (pack == null) {
+                Path file = downloads.resolve(location.pack);
+                fetch(location.pack, file);
+                pack = FileChannel.open(file, StandardOpenOption.READ);
+                packs.put(location.pack, pack);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            while (buffer.hasRemaining()) {
+                if (pack.read(buffer, location.offset + buffer.position()) < 0) {
+                    throw new EOFException("Pack " + location.pack + " ends before chunk " + hash + " of " + path);
+                }
+            }
+            compressed = buffer.array();
+        } else {
+            throw new FileNotFoundException("Chunk " + hash + " of " + path + " is neither stored locally nor in a pack");
+        }
+
+        byte[] data = decompress(compressed, location != null ? location.size : -1);
+        if (!sha256(data, 0, data.length).equals(hash)) {
+            throw new IOException("Chunk " + hash + " of " + path + " is corrupt");
+        }
+        return data;
+    }
+
+    private void repack(String oldPack, List<String> allHashes, List<String> liveHashes) throws IOException {
+        PackWriter pack = new PackWriter(packsDir);
+        Map<String, ChunkLocation> moved = new HashMap<>();
+        try {
+            for (String hash : liveHashes) {
+                ChunkLocation location = new ChunkLocation();
+                location.size = index.get(hash).size;
+                byte[] compressed = Files.readAllBytes(chunkPath(hash));
+                location.length = compressed.length;
+                moved.put(hash, location);
+                pack.add(hash, compressed, location);
+            }
+            uploadPack(pack, moved);
+        } catch (IOException e) {
+            pack.discard();
+            throw e;
+        }
+        for (String hash : allHashes) {
+            if (!moved.containsKey(hash)) {
+                index.remove(hash);
+            }
+        }
+        remote.delete(oldPack);
+    }
+
+    private void uploadPack(PackWriter pack, Map<String, ChunkLocation> pending) throws IOException {
+        File file = pack.finish();
+        try {
+            remote.upload(file.getName(), file);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+        for (String hash : pack.hashes) {
+            ChunkLocation location = pending.remove(hash);
+            location.pack = file.getName();
+            index.put(hash, location);
+        }
+    }
+
+    // Reading, hashing and compressing since the last chunk count as busy time
+    private void pace(long[] busySince) throws IOException {
+        throttle.pace(System.nanoTime() - busySince[0]);
+        busySince[0] = System.nanoTime();
+    }
+
+    private Path chunkPath(String hash) {
+        return chunksDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private void storeLocal(String hash, byte[] compressed) throws IOException {
+        Path path = chunkPath(hash);
+        if (Files.exists(path)) {
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(hash + ".tmp");
+        Files.write(temp, compressed);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] compress(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompress(byte[] compressed, int size) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? size : compressed.length * 2);
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated chunk");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private Map<String, ChunkLocation> loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            bootstrap();
+        }
+        if (!Files.exists(indexPath)) {
+            return new HashMap<>();
+        }
+        Map<String, ChunkLocation> loaded = readGzipJson(indexPath, INDEX_TYPE);
+        return loaded != null ? loaded : new HashMap<>();
+    }
+
+    // Without a local index the store is either new or has lost its files. Whatever the remote
+    // already holds is fetched, so chunks in its packs aren't uploaded again and its snapshots
+    // can be listed and restored.
+    private void bootstrap() throws IOException {
+        String newest = null;
+        for (String name : remote.list()) {
+            if (indexVersion(name) > indexVersion) {
+                newest = name;
+                indexVersion = indexVersion(name);
+            }
+            if (name.endsWith(SNAPSHOT_SUFFIX) && !Files.exists(snapshotsDir.resolve(name))) {
+                fetch(name, snapshotsDir.resolve(name));
+            }
+        }
+        if (newest != null) {
+            fetch(newest, indexPath);
+        }
+    }
+
+    // Uploaded under a new name every time and older copies deleted afterwards, so a crash in
+    // between leaves two copies of which the newest is used rather than none
+    private void saveIndex() throws IOException {
+        writeGzipJson(indexPath, index);
+        long version = Math.max(System.currentTimeMillis(), indexVersion + 1);
+        String name = INDEX_PREFIX + version + INDEX_SUFFIX;
+        remote.upload(name, indexPath.toFile());
+        indexVersion = version;
+        List<String> older = new ArrayList<>();
+        for (String other : remote.list()) {
+            if (!other.equals(name) && indexVersion(other) >= 0) {
+                older.add(other);
+            }
+        }
+        remote.deleteAll(older);
+    }
+
+    // Version of a remote index copy, -1 for other files. The unversioned name earlier
+    // releases uploaded is the oldest.
+    static long indexVersion(String name) {
+        if (name.equals(INDEX_NAME)) {
+            return 0;
+        }
+        if (!name.startsWith(INDEX_PREFIX) || !name.endsWith(INDEX_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(INDEX_PREFIX.length(), name.length() - INDEX_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void fetch(String name, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            remote.download(name, temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeGzipJson(Path path, Object value) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8)) {
+            GSON.toJson(value, writer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> T readGzipJson(Path path, Type type) throws IOException {
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, type);
+        }
+    }
+
+    static String sha256(byte[] data, int offset, int length) {
+        return HexFormat.of().formatHex(newDigest().digest(slice(data, offset, length)));
+    }
+
+    private static byte[] slice(byte[] data, int offset, int length) {
+        if (offset == 0 && length == data.length) {
+            return data;
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Collects new chunks into packs and uploads each pack once it reaches the target size
+    private class PackSink {
+        final Map<String, ChunkLocation> pending = new HashMap<>();
+        private final Result result;
+        private PackWriter current;
+
+        PackSink(Result result) {
+            this.result = result;
+        }
+
+        void add(String hash, byte[] compressed, int size) throws IOException {
+            ChunkLocation location = new ChunkLocation();
+            location.length = compressed.length;
+            location.size = size;
+            pending.put(hash, location);
+            if (current == null) {
+                current = new PackWriter(packsDir);
+            }
+            current.add(hash, compressed, location);
+            if (current.size() >= PACK_TARGET_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if (current != null) {
+                result.uploadedBytes += current.size();
+                PackWriter pack = current;
+                current = null;
+                uploadPack(pack, pending);
+            }
+        }
+
+        void discard() {
+            if (current != null) {
+                current.discard();
+                current = null;
+            }
+        }
+    }
+
+    // Appends compressed chunks to a temporary pack file, named after its content once finished
+    private static class PackWriter {
+        final List<String> hashes = new ArrayList<>();
+        private final Path temp;
+        private final DigestOutputStream out;
+        private long size = 0;
+
+        PackWriter(Path dir) throws IOException {
+            this.temp = Files.createTempFile(dir, "pack", ".tmp");
+            this.out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024), newDigest());
+        }
+
+        void add(String hash, byte[] compressed, ChunkLocation location) throws IOException {
+            location.offset = size;
+            out.write(compressed);
+            size += compressed.length;
+            hashes.add(hash);
+        }
+
+        long size() {
+            return size;
+        }
+
+        File finish() throws IOException {
+            out.close();
+            String name = PACK_PREFIX + HexFormat.of().formatHex(out.getMessageDigest().digest()).substring(0, 32) + PACK_SUFFIX;
+            Path target = temp.resolveSibling(name);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            return target.toFile();
+        }
+
+        void discard() {
+            try {
+                out.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
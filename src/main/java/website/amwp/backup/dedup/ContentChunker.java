@@ -0,0 +1,83 @@
+package website.amwp.backup.dedup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+// Content-defined chunking with a gear rolling hash (FastCDC style). Cut points depend on
+// the bytes around them rather than their offset, so inserting data into a file only
+// changes the chunks next to the edit and everything else still deduplicates.
+public class ContentChunker {
+    public static final int MIN_SIZE = 256 * 1024;
+    public static final int AVG_SIZE = 1024 * 1024;
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    // Normalized chunking: harder to cut before the average size, easier after it
+    private static final long MASK_SMALL = topBits(22);
+    private static final long MASK_LARGE = topBits(18);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x44726976654261L); // Fixed seed, cut points must never change
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public interface ChunkConsumer {
+        void accept(byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    public void split(InputStream in, ChunkConsumer consumer) throws IOException {
+        int length = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && length < buffer.length) {
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    length += n;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+
+            int cut = findCut(buffer, length);
+            consumer.accept(buffer, 0, cut);
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+        }
+    }
+
+    static int findCut(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+
+        long fingerprint = 0;
+        int normal = Math.min(AVG_SIZE, length);
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[i] & 0xFF];
+            if ((fingerprint & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[i] & 0xFF];
+            if ((fingerprint & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    // The high bits of the gear hash depend on the last 64 bytes, the low ones only on the last few
+    private static long topBits(int bits) {
+        return ((1L << bits) - 1) << (64 - bits);
+    }
+}
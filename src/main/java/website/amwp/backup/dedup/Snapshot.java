@@ -0,0 +1,20 @@
+package website.amwp.backup.dedup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A backup in the chunk store: the file tree plus, for every file, the hashes of its chunks
+public class Snapshot {
+    public String name;
+    public String backupType;
+    public long created;
+    public List<String> directories = new ArrayList<>();
+    public List<FileEntry> files = new ArrayList<>();
+
+    public static class FileEntry {
+        public String path;
+        public long size;
+        public long lastModified;
+        public List<String> chunks = new ArrayList<>();
+    }
+}
@@ -0,0 +1,179 @@
+package website.amwp.backup.drive;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Sends many small Drive requests as batches of up to 100 per HTTP call. Requests that fail
+// with a rate limit or server error are retried on their own in a later batch; the ones that
+// succeeded are not sent again. Whatever still fails is reported in the Result.
+public class DriveBatch {
+    private static final int MAX_BATCH_SIZE = 100; // Drive rejects larger batches
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 32000;
+
+    private final Drive drive;
+    private final int maxRetries;
+    private final List<Operation<?>> operations = new ArrayList<>();
+
+    public interface RequestFactory<T> {
+        AbstractGoogleJsonClientRequest<T> create() throws IOException;
+    }
+
+    public static class Result {
+        private final Map<String, Object> succeeded;
+        private final Map<String, String> failed;
+
+        Result(Map<String, Object> succeeded, Map<String, String> failed) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+        }
+
+        // Keys of the requests that went through, with the response (null for deletes)
+        public Map<String, Object> getSucceeded() {
+            return Collections.unmodifiableMap(succeeded);
+        }
+
+        // Keys of the requests that gave up, with the last error
+        public Map<String, String> getFailed() {
+            return Collections.unmodifiableMap(failed);
+        }
+    }
+
+    public DriveBatch(Drive drive, int maxRetries) {
+        this.drive = drive;
+        this.maxRetries = maxRetries;
+    }
+
+    // Keyed by file id. A file that is already gone counts as deleted.
+    public DriveBatch delete(String fileId) {
+        operations.add(new Operation<Void>(fileId, true, () -> drive.files().delete(fileId)));
+        return this;
+    }
+
+    // Keyed by the folder name, the response carries the new folder's id
+    public DriveBatch createFolder(String name, String parentId) {
+        File folder = new File();
+        folder.setName(name);
+        folder.setMimeType("application/vnd.google-apps.folder");
+        if (parentId != null) {
+            folder.setParents(Collections.singletonList(parentId));
+        }
+        operations.add(new Operation<File>(name, false, () -> drive.files().create(folder).setFields("id")));
+        return this;
+    }
+
+    // Keyed by file id, only the fields set in metadata are changed
+    public DriveBatch update(String fileId, File metadata) {
+        operations.add(new Operation<File>(fileId, false, () -> drive.files().update(fileId, metadata).setFields("id")));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public Result execute() throws IOException {
+        Map<String, Object> succeeded = new LinkedHashMap<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        List<Operation<?>> pending = new ArrayList<>(operations);
+        operations.clear();
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<Operation<?>> retry = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i += MAX_BATCH_SIZE) {
+                List<Operation<?>> slice = pending.subList(i, Math.min(pending.size(), i + MAX_BATCH_SIZE));
+                BatchRequest batch = drive.batch();
+                for (Operation<?> operation : slice) {
+                    operation.queue(batch, succeeded, failed, retry);
+                }
+                try {
+                    batch.execute();
+                } catch (IOException e) {
+                    // The batch itself didn't go through, retry everything in it that has no answer
+                    for (Operation<?> operation : slice) {
+                        if (!succeeded.containsKey(operation.key) && !failed.containsKey(operation.key)
+                                && !retry.contains(operation)) {
+                            operation.lastError = e.getMessage();
+                            retry.add(operation);
+                        }
+                    }
+                }
+            }
+
+            if (!retry.isEmpty() && attempt >= maxRetries) {
+                for (Operation<?> operation : retry) {
+                    failed.put(operation.key, operation.lastError);
+                }
+                break;
+            }
+            if (!retry.isEmpty()) {
+                backoff(attempt);
+            }
+            pending = retry;
+        }
+        return new Result(succeeded, failed);
+    }
+
+    private static boolean isRetryable(GoogleJsonError error) {
+        int code = error.getCode();
+        String message = error.getMessage() != null ? error.getMessage().toLowerCase(Locale.ROOT) : "";
+        return code == 429 || code >= 500 || (code == 403 && message.contains("rate limit"));
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        delay += ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Drive batch interrupted");
+        }
+    }
+
+    private static class Operation<T> {
+        final String key;
+        final boolean missingIsSuccess;
+        final RequestFactory<T> factory;
+        String lastError;
+
+        Operation(String key, boolean missingIsSuccess, RequestFactory<T> factory) {
+            this.key = key;
+            this.missingIsSuccess = missingIsSuccess;
+            this.factory = factory;
+        }
+
+        // Requests are built again on every attempt, a queued request can't be reused
+        void queue(BatchRequest batch, Map<String, Object> succeeded, Map<String, String> failed,
+                   List<Operation<?>> retry) throws IOException {
+            factory.create().queue(batch, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T response, HttpHeaders headers) {
+                    succeeded.put(key, response);
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders headers) {
+                    lastError = error.getCode() + " " + error.getMessage();
+                    if (error.getCode() == 404 && missingIsSuccess) {
+                        succeeded.put(key, null);
+                    } else if (isRetryable(error)) {
+                        retry.add(Operation.this);
+                    } else {
+                        failed.put(key, lastError);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package website.amwp.backup.drive;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.FileList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+// Local copy of the Drive folders and files the mod works with. Folder ids are looked up once,
+// a folder's files are listed once, and after that the changes feed brings in whatever changed
+// since the saved page token. Retention and "already uploaded?" checks then cost one changes
+// call instead of a listing per backup. Our own uploads and deletes are recorded directly.
+public class DriveMetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+    private static final String FILE_FIELDS = "id,name,parents,size,md5Checksum,modifiedTime,mimeType,trashed";
+    private static final long MIN_SYNC_INTERVAL_MILLIS = 15000;
+    private static final int MAX_BATCH_RETRIES = 5;
+
+    private final Drive drive;
+    private final Path path;
+    private State state = new State();
+    private long lastSync;
+
+    public static class RemoteFile {
+        public String id;
+        public String name;
+        public String mimeType;
+        public long size;
+        public String md5; // Drive's md5Checksum, null for folders and files listed before it was kept
+        public long modified;
+    }
+
+    private static class State {
+        String pageToken;
+        Map<String, String> folders = new HashMap<>(); // "<parent id>/<name>" to folder id
+        Map<String, Map<String, RemoteFile>> files = new HashMap<>(); // folder id to its files by id
+    }
+
+    public DriveMetadataCache(Drive drive, Path path) {
+        this.drive = drive;
+        this.path = path;
+        load();
+    }
+
+    // Id of the folder, created if Drive doesn't have it yet. parentId null means My Drive.
+    public synchronized String getFolder(String name, String parentId) throws IOException {
+        return getFolders(List.of(name), parentId).get(name);
+    }
+
+    // Looks up every folder that isn't cached with one query and creates the missing ones in one batch
+    public synchronized Map<String, String> getFolders(Collection<String> names, String parentId) throws IOException {
+        String parentKey = parentId != null ? parentId : "root";
+        Map<String, String> result = new LinkedHashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String name : names) {
+            String cached = state.folders.get(parentKey + "/" + name);
+            if (cached != null) {
+                result.put(name, cached);
+            } else {
+                missing.add(name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        StringBuilder query = new StringBuilder("mimeType='" + FOLDER_MIME_TYPE + "' and trashed=false and (");
+        int i = 0;
+        for (String name : missing) {
+            query.append(i++ > 0 ? " or " : "").append("name='").append(escape(name)).append("'");
+        }
+        query.append(")");
+        if (parentId != null) {
+            query.append(" and '").append(parentId).append("' in parents");
+        }
+        String pageToken = null;
+        do {
+            FileList page = drive.files().list()
+                    .setQ(query.toString())
+                    .setSpaces("drive")
+                    .setPageSize(1000)
+                    .setPageToken(pageToken)
+                    .setFields("nextPageToken,files(id,name)")
+                    .execute();
+            if (page.getFiles() != null) {
+                for (com.google.api.services.drive.model.File folder : page.getFiles()) {
+                    if (missing.remove(folder.getName())) {
+                        result.put(folder.getName(), folder.getId());
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        Map<String, String> failed = Collections.emptyMap();
+        if (!missing.isEmpty()) {
+            DriveBatch batch = new DriveBatch(drive, MAX_BATCH_RETRIES);
+            missing.forEach(name -> batch.createFolder(name, parentId));
+            DriveBatch.Result created = batch.execute();
+            created.getSucceeded().forEach((name, folder) ->
+                    result.put(name, ((com.google.api.services.drive.model.File) folder).getId()));
+            failed = created.getFailed();
+        }
+        result.forEach((name, id) -> state.folders.put(parentKey + "/" + name, id));
+        save();
+        if (!failed.isEmpty()) {
+            throw new IOException("Failed to create folders " + failed);
+        }
+        return result;
+    }
+
+    // Files directly in the folder, oldest first
+    public synchronized List<RemoteFile> listFiles(String folderId) throws IOException {
+        sync(false);
+        Map<String, RemoteFile> files = state.files.get(folderId);
+        if (files == null) {
+            files = listFolder(folderId);
+            state.files.put(folderId, files);
+            save();
+        }
+        List<RemoteFile> result = new ArrayList<>(files.values());
+        result.sort(Comparator.comparingLong((RemoteFile file) -> file.modified).thenComparing(file -> file.name));
+        return result;
+    }
+
+    public synchronized List<RemoteFile> findByName(String folderId, String name) throws IOException {
+        List<RemoteFile> result = new ArrayList<>();
+        for (RemoteFile file : listFiles(folderId)) {
+            if (file.name.equals(name)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void recordUpload(String folderId, String fileId, String name, String mimeType, long size) {
+        recordUpload(folderId, fileId, name, mimeType, size, null);
+    }
+
+    public synchronized void recordUpload(String folderId, String fileId, String name, String mimeType, long size, String md5) {
+        Map<String, RemoteFile> files = state.files.get(folderId);
+        if (files == null || fileId == null) {
+            return; // Listed in full the first time the folder is needed
+        }
+        RemoteFile file = new RemoteFile();
+        file.id = fileId;
+        file.name = name;
+        file.mimeType = mimeType;
+        file.size = size;
+        file.md5 = md5;
+        file.modified = System.currentTimeMillis();
+        files.put(fileId, file);
+        save();
+    }
+
+    public synchronized void recordDelete(String fileId) {
+        if (forget(fileId)) {
+            save();
+        }
+    }
+
+    // Brings the cache up to date with the changes feed. Calls within a few seconds of the last
+    // one are skipped unless forced, a backup asks several times in a row.
+    public synchronized void sync(boolean force) throws IOException {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastSync < MIN_SYNC_INTERVAL_MILLIS) {
+            return;
+        }
+        lastSync = now;
+
+        if (state.pageToken == null) {
+            // Take the token before any listing so nothing that changes in between is missed
+            state.pageToken = drive.changes().getStartPageToken().execute().getStartPageToken();
+            state.files.clear();
+            save();
+            return;
+        }
+
+        String previous = state.pageToken;
+        String token = previous;
+        boolean changed = false;
+        try {
+            while (token != null) {
+                ChangeList page = drive.changes().list(token)
+                        .setSpaces("drive")
+                        .setPageSize(1000)
+                        .setFields("nextPageToken,newStartPageToken,changes(fileId,removed,file(" + FILE_FIELDS + "))")
+                        .execute();
+                if (page.getChanges() != null) {
+                    for (Change change : page.getChanges()) {
+                        changed |= apply(change);
+                    }
+                }
+                if (page.getNewStartPageToken() != null) {
+                    state.pageToken = page.getNewStartPageToken();
+                    break;
+                }
+                token = page.getNextPageToken();
+            }
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() != 400 && e.getStatusCode() != 404 && e.getStatusCode() != 410) {
+                throw e;
+            }
+            // The saved token is no longer valid, start over with fresh listings
+            LOGGER.warn("Drive changes token expired, rebuilding the metadata cache");
+            state = new State();
+            lastSync = 0;
+            sync(true);
+            return;
+        }
+        if (changed || !previous.equals(state.pageToken)) {
+            save();
+        }
+    }
+
+    private boolean apply(Change change) {
+        com.google.api.services.drive.model.File file = change.getFile();
+        boolean gone = Boolean.TRUE.equals(change.getRemoved()) || file == null || Boolean.TRUE.equals(file.getTrashed());
+        if (gone) {
+            return forget(change.getFileId());
+        }
+        if (FOLDER_MIME_TYPE.equals(file.getMimeType())) {
+            // A renamed folder is looked up again on next use
+            return state.folders.entrySet().removeIf(entry -> entry.getValue().equals(file.getId())
+                    && !entry.getKey().endsWith("/" + file.getName()));
+        }
+
+        boolean changed = forget(file.getId());
+        if (file.getParents() != null) {
+            for (String parent : file.getParents()) {
+                Map<String, RemoteFile> files = state.files.get(parent);
+                if (files != null) {
+                    files.put(file.getId(), toRemoteFile(file));
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean forget(String fileId) {
+        boolean changed = state.folders.values().removeIf(id -> id.equals(fileId));
+        changed |= state.files.remove(fileId) != null;
+        for (Map<String, RemoteFile> files : state.files.values()) {
+            changed |= files.remove(fileId) != null;
+        }
+        return changed;
+    }
+
+    private Map<String, RemoteFile> listFolder(String folderId) throws IOException {
+        Map<String, RemoteFile> files = new HashMap<>();
+        String pageToken = null;
+        do {
+            FileList page = drive.files().list()
+                    .setQ("'" + folderId + "' in parents and trashed=false")
+                    .setSpaces("drive")
+                    .setPageSize(1000)
+                    .setPageToken(pageToken)
+                    .setFields("nextPageToken,files(" + FILE_FIELDS + ")")
+                    .execute();
+            if (page.getFiles() != null) {
+                for (com.google.api.services.drive.model.File file : page.getFiles()) {
+                    files.put(file.getId(), toRemoteFile(file));
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return files;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private static RemoteFile toRemoteFile(com.google.api.services.drive.model.File file) {
+        RemoteFile remote = new RemoteFile();
+        remote.id = file.getId();
+        remote.name = file.getName();
+        remote.mimeType = file.getMimeType();
+        remote.size = file.getSize() != null ? file.getSize() : -1;
+        remote.md5 = file.getMd5Checksum();
+        remote.modified = file.getModifiedTime() != null ? file.getModifiedTime().getValue() : 0;
+        return remote;
+    }
+
+    private void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Reader reader = new FileReader(path.toFile())) {
+            State loaded = GSON.fromJson(reader, State.class);
+            if (loaded != null && loaded.folders != null && loaded.files != null) {
+                state = loaded;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable Drive metadata cache: {}", e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = new FileWriter(temp.toFile())) {
+                GSON.toJson(state, writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
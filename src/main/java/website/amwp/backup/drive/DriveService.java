@@ -21,11 +21,19 @@ public class DriveService {
     private static final String TOKENS_DIRECTORY_PATH = "tokens";
     private static GoogleAuthorizationCodeFlow flow;
     private static Credential credential;
+    private static Path configDirOverride;
+
+    // Lets the offline restore tool use the server's credentials without a running game
+    public static void setConfigDir(Path configDir) {
+        configDirOverride = configDir;
+        flow = null;
+        credential = null;
+    }
 
     private static void initializeFlow() throws Exception {
         if (flow != null) return;
 
-        Path configDir = FabricLoader.getInstance().getConfigDir();
+        Path configDir = configDirOverride != null ? configDirOverride : FabricLoader.getInstance().getConfigDir();
         File credentialsFile = configDir.resolve("drivebackup/credentials.json").toFile();
 
         if (!credentialsFile.exists()) {
@@ -75,4 +83,23 @@ public class DriveService {
         }
         return credential;
     }
-}
\ No newline at end of file
+
+    public static String getAccessToken(boolean forceRefresh) throws IOException {
+        Credential current;
+        try {
+            current = getCredentials();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to load credentials: " + e.getMessage(), e);
+        }
+
+        Long expiresIn = current.getExpiresInSeconds();
+        if (forceRefresh || current.getAccessToken() == null || (expiresIn != null && expiresIn < 60)) {
+            if (!current.refreshToken()) {
+                throw new IOException("Failed to refresh access token. Please run /drivebackup auth again");
+            }
+        }
+        return current.getAccessToken();
+    }
+}
@@ -0,0 +1,370 @@
+package website.amwp.backup.drive;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import website.amwp.backup.throttle.BandwidthLimiter;
+import website.amwp.backup.throttle.Throttle;
+import website.amwp.backup.throttle.TransferMeter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Drive resumable upload session driven by hand so the archive can be streamed in
+// while it is still being written. The total size is only announced with the last chunk
+// unless the caller knows it up front. Failed chunks are retried with exponential backoff
+// after asking the server how much it actually persisted.
+public class ResumableUpload {
+    public static final int CHUNK_GRANULARITY = 256 * 1024; // Drive requires chunks in multiples of 256KB
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 64000;
+
+    public interface TokenSource {
+        String getAccessToken(boolean forceRefresh) throws IOException;
+    }
+
+    // The session URI is no longer valid (expired after a week, or cancelled)
+    public static class SessionExpiredException extends IOException {
+        public SessionExpiredException(String message) {
+            super(message);
+        }
+    }
+
+    // Result of asking the server about a session: bytes persisted, or the id once complete
+    public static class Status {
+        public final long committed;
+        public final String fileId;
+
+        Status(long committed, String fileId) {
+            this.committed = committed;
+            this.fileId = fileId;
+        }
+    }
+
+    private static final Set<ResumableUpload> ACTIVE = ConcurrentHashMap.newKeySet();
+    private static final LongAdder RETRIES = new LongAdder();
+
+    private final HttpClient client;
+    private final String uploadUrl;
+    private final TokenSource tokens;
+    private final int chunkSize;
+    private String sessionUri;
+    private volatile long bytesUploaded = 0;
+    private Throttle throttle = Throttle.NONE;
+    private BandwidthLimiter limiter;
+    private int maxRetries = 8;
+    private String fileName;
+    private volatile long totalSize = -1;
+    private final TransferMeter meter = new TransferMeter();
+
+    public ResumableUpload(HttpClient client, String uploadUrl, TokenSource tokens, int chunkSize) {
+        this.client = client;
+        this.uploadUrl = uploadUrl;
+        this.tokens = tokens;
+        this.chunkSize = Math.max(CHUNK_GRANULARITY, chunkSize / CHUNK_GRANULARITY * CHUNK_GRANULARITY);
+    }
+
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    public String getSessionUri() {
+        return sessionUri;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    // -1 while the archive is still being written
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public double getBytesPerSecond() {
+        return meter.getBytesPerSecond();
+    }
+
+    // Uploads currently sending data, for progress reporting
+    public static List<ResumableUpload> getActiveUploads() {
+        return new ArrayList<>(ACTIVE);
+    }
+
+    // Requests retried by any upload since startup
+    public static long getTotalRetries() {
+        return RETRIES.sum();
+    }
+
+    public String start(String fileName, String parentId, String mimeType) throws IOException {
+        this.fileName = fileName;
+        JsonObject metadata = new JsonObject();
+        metadata.addProperty("name", fileName);
+        metadata.addProperty("mimeType", mimeType);
+        if (parentId != null) {
+            JsonArray parents = new JsonArray();
+            parents.add(parentId);
+            metadata.add("parents", parents);
+        }
+
+        String url = uploadUrl + (uploadUrl.contains("?") ? "&" : "?") + "uploadType=resumable";
+        int failures = 0;
+        while (true) {
+            HttpResponse<String> response;
+            try {
+                response = send(token -> HttpRequest.newBuilder(URI.create(url))
+                        .header("Authorization", "Bearer " + token)
+                        .header("Content-Type", "application/json; charset=UTF-8")
+                        .header("X-Upload-Content-Type", mimeType)
+                        .POST(HttpRequest.BodyPublishers.ofString(metadata.toString()))
+                        .build());
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failures = backoff(failures, e.toString());
+                continue;
+            }
+
+            if (response.statusCode() == 200) {
+                sessionUri = response.headers().firstValue("Location")
+                        .orElseThrow(() -> new IOException("Upload session response had no Location header"));
+                return sessionUri;
+            }
+            if (!isRetryable(response.statusCode())) {
+                throw new IOException("Failed to start upload session: HTTP " + response.statusCode() + " " + response.body());
+            }
+            failures = backoff(failures, "HTTP " + response.statusCode());
+        }
+    }
+
+    // Attaches to a session started earlier, e.g. before a server restart
+    public void resume(String sessionUri, String fileName) {
+        this.sessionUri = sessionUri;
+        this.fileName = fileName;
+    }
+
+    // Asks the server how much of the upload it has. totalSize may be -1 when unknown.
+    public Status queryStatus(long totalSize) throws IOException {
+        HttpResponse<String> response = putChunk(new byte[0], 0, "bytes */" + (totalSize >= 0 ? totalSize : "*"));
+        int status = response.statusCode();
+        if (status == 200 || status == 201) {
+            return new Status(totalSize, parseId(response));
+        }
+        if (status == 308) {
+            return new Status(committedBytes(response), null);
+        }
+        if (status == 404 || status == 410) {
+            throw new SessionExpiredException("Upload session expired: HTTP " + status);
+        }
+        throw new IOException("Upload status query failed: HTTP " + status);
+    }
+
+    // Uploads everything from the stream and returns the Drive file id
+    public String upload(InputStream in) throws IOException {
+        return upload(in, 0, -1);
+    }
+
+    // Uploads the stream starting at offset, which must be what the server has already persisted.
+    // totalSize may be -1 when the length is only known at the end.
+    public String upload(InputStream in, long offset, long totalSize) throws IOException {
+        if (sessionUri == null) {
+            throw new IllegalStateException("Upload session not started");
+        }
+        this.totalSize = totalSize;
+        this.bytesUploaded = offset;
+        ACTIVE.add(this);
+        try {
+            return uploadChunks(in, offset, totalSize);
+        } finally {
+            ACTIVE.remove(this);
+        }
+    }
+
+    private String uploadChunks(InputStream in, long offset, long totalSize) throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        long position = offset;
+        int filled = 0; // Bytes at the front of chunk the server has not acknowledged yet
+        boolean eof = false;
+        boolean finalizeSent = false;
+        int failures = 0;
+
+        while (true) {
+            if (!eof && filled < chunkSize) {
+                filled += readFully(in, chunk, filled, chunkSize - filled);
+                eof = filled < chunkSize;
+            }
+            String total = eof ? String.valueOf(position + filled) : totalSize >= 0 ? String.valueOf(totalSize) : "*";
+            String range = filled == 0 ? "bytes */" + total
+                    : "bytes " + position + "-" + (position + filled - 1) + "/" + total;
+            if (filled == 0) {
+                if (finalizeSent) {
+                    throw new IOException("Server did not finalize upload after last chunk");
+                }
+                finalizeSent = true;
+            }
+
+            long committed;
+            HttpResponse<String> response = null;
+            String failure;
+            try {
+                long start = System.nanoTime();
+                response = putChunk(chunk, filled, range);
+                throttle.pace(System.nanoTime() - start);
+                failure = "HTTP " + response.statusCode();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e.toString(); // Connection dropped, the chunk may or may not have landed
+            }
+
+            int status = response != null ? response.statusCode() : -1;
+            if (status == 200 || status == 201) {
+                bytesUploaded = position + filled;
+                return parseId(response);
+            }
+            if (status == 404 || status == 410) {
+                throw new SessionExpiredException("Upload session expired: HTTP " + status);
+            }
+            if (status == 308) {
+                committed = committedBytes(response);
+                failures = 0;
+            } else if (status == -1 || isRetryable(status)) {
+                failures = backoff(failures, failure);
+                Status current = queryStatusWithRetry(eof ? position + filled : totalSize);
+                if (current.fileId != null) {
+                    bytesUploaded = position + filled;
+                    return current.fileId;
+                }
+                committed = current.committed;
+            } else {
+                throw new IOException("Upload failed: HTTP " + status + " " + response.body());
+            }
+
+            int acknowledged = (int) (committed - position);
+            if (acknowledged < 0 || acknowledged > filled) {
+                throw new IOException("Server acknowledged unexpected range up to " + committed);
+            }
+            filled -= acknowledged;
+            System.arraycopy(chunk, acknowledged, chunk, 0, filled);
+            position = committed;
+            bytesUploaded = position;
+        }
+    }
+
+    private Status queryStatusWithRetry(long totalSize) throws IOException {
+        int failures = 0;
+        while (true) {
+            try {
+                return queryStatus(totalSize);
+            } catch (InterruptedIOException | SessionExpiredException e) {
+                throw e;
+            } catch (IOException e) {
+                failures = backoff(failures, e.getMessage());
+            }
+        }
+    }
+
+    // Sleeps 1s, 2s, 4s ... up to 64s plus jitter, or gives up after maxRetries attempts
+    private int backoff(int failures, String reason) throws IOException {
+        if (failures >= maxRetries) {
+            throw new IOException("Upload failed after " + failures + " retries: " + reason);
+        }
+        RETRIES.increment();
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures, 16));
+        delay += ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+        return failures + 1;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 408 || status >= 500;
+    }
+
+    private HttpResponse<String> putChunk(byte[] chunk, int length, String range) throws IOException {
+        return send(token -> HttpRequest.newBuilder(URI.create(sessionUri))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Range", range)
+                .timeout(Duration.ofMinutes(5))
+                .PUT(body(chunk, length))
+                .build());
+    }
+
+    // With a limiter the chunk is fed to the connection at the allowed rate instead of at once
+    private HttpRequest.BodyPublisher body(byte[] chunk, int length) {
+        if (limiter == null || length == 0) {
+            return HttpRequest.BodyPublishers.ofByteArray(chunk, 0, length);
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(
+                () -> limiter.limit(new ByteArrayInputStream(chunk, 0, length), meter)), length);
+    }
+
+    private HttpResponse<String> send(Function<String, HttpRequest> request) throws IOException {
+        try {
+            HttpResponse<String> response = client.send(request.apply(tokens.getAccessToken(false)),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 401) {
+                // Access token expired mid upload, refresh once and retry
+                response = client.send(request.apply(tokens.getAccessToken(true)),
+                        HttpResponse.BodyHandlers.ofString());
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+    }
+
+    private static String parseId(HttpResponse<String> response) {
+        return JsonParser.parseString(response.body()).getAsJsonObject().get("id").getAsString();
+    }
+
+    // Parses "Range: bytes=0-12345" from a 308 response into the number of bytes persisted
+    static long committedBytes(HttpResponse<?> response) {
+        return response.headers().firstValue("Range")
+                .map(range -> Long.parseLong(range.substring(range.indexOf('-') + 1).trim()) + 1)
+                .orElse(0L);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buffer, off + total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,153 @@
+package website.amwp.backup.drive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Uploads finished archives from disk a few at a time. Drive only accepts the chunks of one
+// file in order, so the parallelism is across archives: while one world uploads the next one
+// is compressed and queued. Every session is recorded in the UploadSessionStore until it
+// completes, and resumePending() continues those after a restart.
+public class UploadQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final long SESSION_LIFETIME_MILLIS = TimeUnit.DAYS.toMillis(6); // Drive keeps them a week
+
+    private final Supplier<ResumableUpload> uploads;
+    private final UploadSessionStore sessions;
+    private final ThreadPoolExecutor pool;
+
+    public UploadQueue(Supplier<ResumableUpload> uploads, UploadSessionStore sessions, int concurrency) {
+        this.uploads = uploads;
+        this.sessions = sessions;
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, concurrency);
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "DriveBackup-Upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    public void setConcurrency(int concurrency) {
+        int threads = Math.max(1, concurrency);
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    // Queues the file for upload and completes with its Drive file id
+    public CompletableFuture<String> submit(File file, String fileName, String parentId) {
+        UploadSessionStore.PendingUpload pending = new UploadSessionStore.PendingUpload();
+        pending.fileName = fileName;
+        pending.localPath = file.getAbsolutePath();
+        pending.parentId = parentId;
+        pending.size = file.length();
+        return submit(pending);
+    }
+
+    // Continues every upload a previous run left unfinished
+    public List<CompletableFuture<String>> resumePending() {
+        List<CompletableFuture<String>> resumed = new ArrayList<>();
+        for (UploadSessionStore.PendingUpload pending : sessions.list()) {
+            File file = new File(pending.localPath);
+            if (!file.exists() || file.length() != pending.size) {
+                LOGGER.warn("Dropping unfinished upload of {}, the local archive is gone", pending.fileName);
+                sessions.remove(pending);
+                continue;
+            }
+            LOGGER.info("Resuming upload of {}", pending.fileName);
+            resumed.add(submit(pending));
+        }
+        return resumed;
+    }
+
+    // Uploads waiting for a free slot
+    public long getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private CompletableFuture<String> submit(UploadSessionStore.PendingUpload pending) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return run(pending);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    private String run(UploadSessionStore.PendingUpload pending) throws IOException {
+        File file = new File(pending.localPath);
+        if (!file.exists()) {
+            sessions.remove(pending);
+            throw new FileNotFoundException(pending.localPath);
+        }
+
+        // A session that expires underneath us is started over once
+        for (int attempt = 0; ; attempt++) {
+            ResumableUpload upload = uploads.get();
+            long offset = 0;
+            if (pending.sessionUri != null && System.currentTimeMillis() - pending.started < SESSION_LIFETIME_MILLIS) {
+                upload.resume(pending.sessionUri, pending.fileName);
+                try {
+                    ResumableUpload.Status status = upload.queryStatus(pending.size);
+                    if (status.fileId != null) {
+                        sessions.remove(pending);
+                        return status.fileId;
+                    }
+                    offset = status.committed;
+                } catch (ResumableUpload.SessionExpiredException e) {
+                    pending.sessionUri = null;
+                }
+            } else {
+                pending.sessionUri = null;
+            }
+
+            if (pending.sessionUri == null) {
+                pending.sessionUri = upload.start(pending.fileName, pending.parentId, "application/zip");
+                pending.started = System.currentTimeMillis();
+            }
+            sessions.add(pending);
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.position(offset);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+                String fileId = upload.upload(in, offset, pending.size);
+                sessions.remove(pending);
+                return fileId;
+            } catch (ResumableUpload.SessionExpiredException e) {
+                if (attempt > 0) {
+                    sessions.remove(pending);
+                    throw e;
+                }
+                pending.sessionUri = null;
+            }
+        }
+    }
+}
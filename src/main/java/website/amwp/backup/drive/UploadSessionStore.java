@@ -0,0 +1,85 @@
+package website.amwp.backup.drive;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Upload sessions of local archives that have not finished yet, so an upload cut off by a
+// server restart can pick up where it stopped. Drive keeps a session for about a week.
+public class UploadSessionStore {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type LIST_TYPE = new TypeToken<List<PendingUpload>>() {}.getType();
+    private static final Path STORE_PATH = FabricLoader.getInstance().getConfigDir().resolve("drivebackup/uploads.json");
+    private static UploadSessionStore instance;
+
+    private final List<PendingUpload> uploads = new ArrayList<>();
+
+    public static class PendingUpload {
+        public String fileName;
+        public String localPath;
+        public String parentId;
+        public String sessionUri;
+        public long size;
+        public long started;
+    }
+
+    public static synchronized UploadSessionStore getInstance() {
+        if (instance == null) {
+            instance = new UploadSessionStore();
+            instance.load();
+        }
+        return instance;
+    }
+
+    public synchronized List<PendingUpload> list() {
+        return new ArrayList<>(uploads);
+    }
+
+    public synchronized void add(PendingUpload upload) {
+        uploads.removeIf(existing -> existing.localPath.equals(upload.localPath));
+        uploads.add(upload);
+        save();
+    }
+
+    public synchronized void remove(PendingUpload upload) {
+        if (uploads.remove(upload)) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(STORE_PATH)) {
+            return;
+        }
+        try (Reader reader = new FileReader(STORE_PATH.toFile())) {
+            List<PendingUpload> loaded = GSON.fromJson(reader, LIST_TYPE);
+            if (loaded != null) {
+                uploads.addAll(loaded);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(STORE_PATH.getParent());
+            Path temp = STORE_PATH.resolveSibling("uploads.json.tmp");
+            try (Writer writer = new FileWriter(temp.toFile())) {
+                GSON.toJson(uploads, writer);
+            }
+            Files.move(temp, STORE_PATH, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
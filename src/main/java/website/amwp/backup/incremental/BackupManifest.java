@@ -0,0 +1,217 @@
+package website.amwp.backup.incremental;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.fabricmc.loader.api.FabricLoader;
+import website.amwp.backup.archive.ArchiveEntry;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// Per-file index of what the last backup of each backup type contained. Lives next to
+// config.json and is only updated after a backup has been uploaded successfully.
+public class BackupManifest {
+    public static final String METADATA_ENTRY = ".drivebackup/backup.json";
+    public static final String INCREMENTAL_SUFFIX = "_incr.zip";
+
+    private static final Gson GSON = new GsonBuilder().create();
+    private static BackupManifest instance;
+
+    private Map<String, TypeManifest> backups = new HashMap<>();
+    private transient Path path;
+
+    public static class TypeManifest {
+        public Map<String, FileRecord> files = new HashMap<>();
+        public long lastFullBackupTime = 0;
+        public String lastFullBackupName = "";
+        public String lastBackupName = "";
+    }
+
+    public static class FileRecord {
+        public long size;
+        public long lastModified;
+        public String hash;
+
+        public FileRecord(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    public static class Diff {
+        private final String backupType;
+        private final Map<String, FileRecord> newState;
+        private final List<ArchiveEntry> changed;
+        private final List<String> deleted;
+
+        Diff(String backupType, Map<String, FileRecord> newState, List<ArchiveEntry> changed, List<String> deleted) {
+            this.backupType = backupType;
+            this.newState = newState;
+            this.changed = changed;
+            this.deleted = deleted;
+        }
+
+        public List<ArchiveEntry> getChanged() {
+            return changed;
+        }
+
+        public List<String> getDeleted() {
+            return deleted;
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && deleted.isEmpty();
+        }
+    }
+
+    public static synchronized BackupManifest getInstance() {
+        if (instance == null) {
+            instance = load(FabricLoader.getInstance().getConfigDir().resolve("drivebackup/manifest.json"));
+        }
+        return instance;
+    }
+
+    static BackupManifest load(Path path) {
+        BackupManifest manifest = null;
+        if (path.toFile().exists()) {
+            try (Reader reader = new BufferedReader(new FileReader(path.toFile()))) {
+                manifest = GSON.fromJson(reader, BackupManifest.class);
+            } catch (Exception e) {
+                // A broken manifest only costs us one full backup
+                e.printStackTrace();
+            }
+        }
+        if (manifest == null) {
+            manifest = new BackupManifest();
+        }
+        manifest.path = path;
+        return manifest;
+    }
+
+    private void save() {
+        try {
+            path.getParent().toFile().mkdirs();
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = new BufferedWriter(new FileWriter(temp.toFile()))) {
+                GSON.toJson(this, writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized TypeManifest get(String backupType) {
+        return backups.computeIfAbsent(backupType, k -> new TypeManifest());
+    }
+
+    // Names of the files the last backup of the type had
+    public synchronized Set<String> getRecordedNames(String backupType) {
+        TypeManifest type = backups.get(backupType);
+        return type != null ? new HashSet<>(type.files.keySet()) : new HashSet<>();
+    }
+
+    public synchronized boolean isFullBackupDue(String backupType, long fullBackupInterval) {
+        TypeManifest type = backups.get(backupType);
+        if (type == null || type.files.isEmpty() || type.lastFullBackupName.isEmpty()) {
+            return true;
+        }
+        return System.currentTimeMillis() - type.lastFullBackupTime >= fullBackupInterval;
+    }
+
+    // Compares the current files against the manifest. Size and mtime are checked first and
+    // only files whose stat changed get hashed, so unchanged region files are never read.
+    public Diff diff(String backupType, List<ArchiveEntry> entries) throws IOException {
+        return diff(backupType, entries, name -> false);
+    }
+
+    // entries may leave out files that unchanged says haven't changed since the last backup,
+    // they are kept as they were instead of counted as deleted
+    public Diff diff(String backupType, List<ArchiveEntry> entries, Predicate<String> unchanged) throws IOException {
+        Map<String, FileRecord> previous;
+        synchronized (this) {
+            previous = new HashMap<>(get(backupType).files);
+        }
+
+        Map<String, FileRecord> newState = new HashMap<>();
+        List<ArchiveEntry> changed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        for (ArchiveEntry entry : entries) {
+            if (entry.getFile() == null) {
+                continue;
+            }
+            String name = entry.getName();
+            seen.add(name);
+
+            FileRecord old = previous.get(name);
+            if (old != null && old.size == entry.getSize() && old.lastModified == entry.getLastModified()) {
+                newState.put(name, old);
+                continue;
+            }
+
+            String hash = hash(entry.getFile());
+            newState.put(name, new FileRecord(entry.getSize(), entry.getLastModified(), hash));
+            if (old == null || !hash.equals(old.hash)) {
+                changed.add(entry);
+            }
+        }
+
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, FileRecord> entry : previous.entrySet()) {
+            String name = entry.getKey();
+            if (seen.contains(name)) {
+                continue;
+            }
+            if (unchanged.test(name)) {
+                newState.put(name, entry.getValue());
+            } else {
+                deleted.add(name);
+            }
+        }
+        deleted.sort(null);
+        return new Diff(backupType, newState, changed, deleted);
+    }
+
+    // Records the state of a backup once it is safely stored
+    public synchronized void commit(Diff diff, String backupName, boolean full) {
+        TypeManifest type = get(diff.backupType);
+        type.files = diff.newState;
+        type.lastBackupName = backupName;
+        if (full) {
+            type.lastFullBackupName = backupName;
+            type.lastFullBackupTime = System.currentTimeMillis();
+        }
+        save();
+    }
+
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
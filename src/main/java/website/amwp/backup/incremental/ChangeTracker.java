@@ -0,0 +1,462 @@
+package website.amwp.backup.incremental;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+import website.amwp.backup.archive.ExcludeFilter;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the files of each world the server wrote since its last backup, so an incremental
+// backup can take its changes from here instead of stat'ing every file of the world.
+//   hooks  the server's own saves report region, entity, poi and player files (see the mixins),
+//          the few other files of the world are still walked
+//   watch  a WatchService reports every file of the world, nothing is walked
+// Until a backup of the world has run on a full scan while tracking was on, after a watch
+// overflow, a failed backup or when the rescan interval is up, the next backup walks the world
+// again and starts over from there.
+public class ChangeTracker {
+    public static final String MODE_OFF = "off";
+    public static final String MODE_HOOKS = "hooks";
+    public static final String MODE_WATCH = "watch";
+
+    // Written by the saves the hooks report, matched by name at any depth like exclude patterns
+    public static final List<String> HOOKED_DIRECTORIES = List.of("region/", "entities/", "poi/", "playerdata/",
+            "stats/", "advancements/");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final ChangeTracker INSTANCE = new ChangeTracker();
+
+    private final Map<Path, World> worlds = new ConcurrentHashMap<>();
+    // Directory the server writes into -> its world and name below the world, filled on first use
+    private final Map<Path, Location> locations = new ConcurrentHashMap<>();
+    // .mcc file the region file wrote during the chunk save in progress on this thread
+    private final ThreadLocal<Path> externalChunk = new ThreadLocal<>();
+    private volatile String mode = MODE_OFF;
+    private volatile long rescanInterval;
+
+    // Watch mode only
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedKeys = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    private static class World {
+        final Path root;
+        volatile Set<String> dirty = ConcurrentHashMap.newKeySet();
+        boolean complete; // Guarded by the tracker
+        long lastFullScan;
+        int outstanding;
+
+        World(Path root) {
+            this.root = root;
+        }
+    }
+
+    private record Location(World world, String prefix) {
+    }
+
+    // What one backup of a world takes from the tracker. Files reported after it was taken are
+    // left for the next backup, so a write racing the backup is at worst backed up twice.
+    public static class Changes {
+        private final World world;
+        private final Set<String> dirty;
+        private final String mode;
+        private final boolean tracked;
+        private final long takenAt = System.currentTimeMillis();
+        private final Set<String> recheck = new HashSet<>(); // Recorded .mcc files of changed regions
+        private volatile boolean used;
+        private volatile boolean fullScan;
+
+        private Changes(World world, Set<String> dirty, String mode, boolean tracked) {
+            this.world = world;
+            this.dirty = dirty;
+            this.mode = mode;
+            this.tracked = tracked;
+        }
+
+        // Adds the files reported since begin(). Called once the server's saves are flushed and
+        // paused, right before the world is staged or walked, so the backup sees every file the
+        // server wrote up to the moment it copies.
+        public void topUp() {
+            INSTANCE.topUp(this);
+        }
+
+        // false when this backup has to walk the world
+        public boolean isTracked() {
+            return tracked;
+        }
+
+        public int size() {
+            return dirty.size();
+        }
+
+        // The backup walked the whole world, the tracker can start over from it
+        public void markFullScan() {
+            used = true;
+            fullScan = true;
+        }
+
+        // Entries for the files that may have changed: the reported ones that still exist, plus
+        // in hooks mode the files of the directories the hooks don't cover. recorded are the
+        // entry names of the last backup.
+        public void collect(Path source, String fileName, List<ArchiveEntry> entries, List<String> excludePatterns,
+                Collection<String> recorded) {
+            used = true;
+            ExcludeFilter excludes = ExcludeFilter.of(excludePatterns);
+            Set<String> candidates = new HashSet<>(dirty);
+            if (MODE_HOOKS.equals(mode)) {
+                List<String> skipped = new ArrayList<>(excludePatterns);
+                skipped.addAll(HOOKED_DIRECTORIES);
+                DirectoryScanner.collect(source.toFile(), fileName, entries, ExcludeFilter.of(skipped));
+                // Only new .mcc files are reported, one is removed when its chunk fits the region
+                // again. So the existing ones of every changed region are looked at as well.
+                String prefix = fileName + "/";
+                for (String name : recorded) {
+                    if (name.endsWith(".mcc") && name.startsWith(prefix)) {
+                        String relative = name.substring(prefix.length());
+                        String region = regionOf(relative);
+                        if (region != null && dirty.contains(region)) {
+                            recheck.add(relative);
+                        }
+                    }
+                }
+                candidates.addAll(recheck);
+            }
+            for (String relative : candidates) {
+                if (!covers(relative) || isExcluded(relative, excludes)) {
+                    continue;
+                }
+                Path file = source.resolve(relative);
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        entries.add(ArchiveEntry.file(fileName + "/" + relative, file.toFile(), attrs.size(),
+                                attrs.lastModifiedTime().toMillis()));
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted, the manifest diff drops it
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to read {}", file, e);
+                }
+            }
+        }
+
+        // For the manifest diff: true for files the tracker knows are unchanged since the last
+        // backup, which are missing from collect()'s entries without having been deleted
+        public boolean isUnchanged(String relative) {
+            return covers(relative) && !dirty.contains(relative) && !recheck.contains(relative);
+        }
+
+        // "DIM-1/region/c.40.-3.mcc" -> "DIM-1/region/r.1.-1.mca"
+        private static String regionOf(String relative) {
+            int slash = relative.lastIndexOf('/');
+            String[] parts = relative.substring(slash + 1).split("\\.");
+            if (parts.length != 4 || !parts[0].equals("c")) {
+                return null;
+            }
+            try {
+                return relative.substring(0, slash + 1) + "r." + (Integer.parseInt(parts[1]) >> 5) + "."
+                        + (Integer.parseInt(parts[2]) >> 5) + ".mca";
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private boolean covers(String relative) {
+            if (MODE_WATCH.equals(mode)) {
+                return true;
+            }
+            String[] parts = relative.split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                if (HOOKED_DIRECTORIES.contains(parts[i] + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isExcluded(String relative, ExcludeFilter excludes) {
+            Path path = Path.of(relative);
+            for (int i = 1; i <= path.getNameCount(); i++) {
+                Path part = path.subpath(0, i);
+                if (part.getFileName().toString().startsWith(".") || excludes.excludes(part, i < path.getNameCount())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static ChangeTracker getInstance() {
+        return INSTANCE;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    // Tracks the given worlds from now on, forgetting whatever was tracked before
+    public synchronized void start(List<Path> roots, String mode, int rescanHours) {
+        stopWatching();
+        worlds.clear();
+        locations.clear();
+        this.mode = mode;
+        this.rescanInterval = rescanHours * 3600_000L;
+        if (MODE_OFF.equals(mode)) {
+            return;
+        }
+        for (Path root : roots) {
+            Path normalized = root.toAbsolutePath().normalize();
+            worlds.put(normalized, new World(normalized));
+        }
+        if (MODE_WATCH.equals(mode)) {
+            startWatching();
+        }
+        LOGGER.info("Tracking changes to {} worlds with {}", worlds.size(), mode);
+    }
+
+    public synchronized void stop() {
+        start(List.of(), MODE_OFF, 0);
+    }
+
+    public synchronized void setRescanHours(int rescanHours) {
+        rescanInterval = rescanHours * 3600_000L;
+    }
+
+    // Takes the files reported for a world so far, when its backup is queued. Whatever is saved
+    // while the job waits and by the flush before the snapshot is added by Changes.topUp().
+    public synchronized Changes begin(Path root) {
+        World world = worlds.get(root.toAbsolutePath().normalize());
+        if (world == null) {
+            return new Changes(new World(root), Set.of(), mode, false);
+        }
+        Set<String> dirty = world.dirty;
+        world.dirty = ConcurrentHashMap.newKeySet();
+        // A second backup of the same world diffs against a manifest the first may not have
+        // committed yet, so only one at a time trusts the tracker
+        boolean tracked = world.complete && world.outstanding == 0
+                && System.currentTimeMillis() - world.lastFullScan < rescanInterval;
+        world.outstanding++;
+        return new Changes(world, dirty, mode, tracked);
+    }
+
+    private synchronized void topUp(Changes changes) {
+        World world = changes.world;
+        if (worlds.get(world.root) != world) {
+            return; // Not tracked, or restarted in between
+        }
+        changes.dirty.addAll(world.dirty);
+        world.dirty = ConcurrentHashMap.newKeySet();
+    }
+
+    // Called once the backup that took these changes has finished
+    public synchronized void finish(Changes changes, boolean success) {
+        World world = changes.world;
+        if (worlds.get(world.root) != world) {
+            return; // Restarted in between
+        }
+        world.outstanding--;
+        if (!changes.used) {
+            // Never ran, e.g. coalesced with a job that was already queued
+            world.dirty.addAll(changes.dirty);
+        } else if (!success) {
+            world.complete = false;
+        } else if (changes.fullScan) {
+            world.complete = true;
+            world.lastFullScan = changes.takenAt;
+        }
+    }
+
+    // The next backup of every world walks it again
+    public synchronized void requestRescan() {
+        for (World world : worlds.values()) {
+            world.complete = false;
+        }
+    }
+
+    // From the region file hook, when a chunk too big for the region goes to a .mcc file of its
+    // own. Reported along with the region once the whole save is done.
+    public void noteExternalChunk(Path file) {
+        if (!worlds.isEmpty()) {
+            externalChunk.set(file);
+        }
+    }
+
+    // From the region storage hook, after a chunk was written
+    public void markChunk(Path directory, int regionX, int regionZ) {
+        Path external = externalChunk.get();
+        if (external != null) {
+            externalChunk.remove();
+            markPath(external);
+        }
+        Location location = locate(directory);
+        if (location != null) {
+            location.world.dirty.add(location.prefix + "r." + regionX + "." + regionZ + ".mca");
+        }
+    }
+
+    // From the player data, stats and advancements hooks, after the file was written
+    public void markFile(Path directory, String... names) {
+        Location location = locate(directory);
+        if (location != null) {
+            for (String name : names) {
+                location.world.dirty.add(location.prefix + name);
+            }
+        }
+    }
+
+    private void markPath(Path file) {
+        Path parent = file.getParent();
+        if (parent != null) {
+            markFile(parent, file.getFileName().toString());
+        }
+    }
+
+    // Hooks fire for every chunk saved, so the world of a directory is only worked out once
+    private Location locate(Path directory) {
+        if (worlds.isEmpty()) {
+            return null;
+        }
+        Location location = locations.get(directory);
+        if (location != null) {
+            return location.world != null ? location : null;
+        }
+        Path normalized = directory.toAbsolutePath().normalize();
+        location = new Location(null, "");
+        for (World world : worlds.values()) {
+            if (normalized.startsWith(world.root)) {
+                String relative = world.root.relativize(normalized).toString().replace('\\', '/');
+                location = new Location(world, relative.isEmpty() ? "" : relative + "/");
+                break;
+            }
+        }
+        locations.put(directory, location);
+        return location.world != null ? location : null;
+    }
+
+    private void startWatching() {
+        try {
+            watchService = worlds.isEmpty() ? null : worlds.values().iterator().next().root.getFileSystem().newWatchService();
+            if (watchService == null) {
+                return;
+            }
+            for (World world : worlds.values()) {
+                register(watchService, world.root, false);
+            }
+        } catch (IOException e) {
+            // e.g. out of inotify watches, every backup walks the worlds then
+            LOGGER.warn("Failed to watch the worlds, falling back to full scans", e);
+            stopWatching();
+            return;
+        }
+        WatchService service = watchService;
+        Thread thread = new Thread(() -> watch(service), "DriveBackup-Watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void stopWatching() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close the world watcher", e);
+            }
+            watchService = null;
+        }
+        watchedKeys.clear();
+        watchedDirectories.clear();
+    }
+
+    // Watches every directory below dir, and with markFiles reports the files already in them,
+    // for directories created after the last backup
+    private void register(WatchService service, Path dir, boolean markFiles) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedKeys.put(key, directory);
+                watchedDirectories.add(directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (markFiles) {
+                    markPath(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir = watchedKeys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        LOGGER.warn("Missed changes to the worlds, the next backups scan them in full");
+                        requestRescan();
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && watchedDirectories.remove(child)) {
+                        // A removed or renamed directory doesn't report the files it took along
+                        requestRescan();
+                    } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            register(service, child, true);
+                        }
+                    } else {
+                        markPath(child);
+                    }
+                }
+                if (!key.reset()) {
+                    watchedKeys.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.warn("Stopped watching the worlds, falling back to full scans", e);
+            synchronized (this) {
+                if (watchService == service) {
+                    // Untracked until the tracker is started again
+                    stopWatching();
+                    worlds.clear();
+                    locations.clear();
+                }
+            }
+        }
+    }
+}
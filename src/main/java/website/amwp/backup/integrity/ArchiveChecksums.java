@@ -0,0 +1,76 @@
+package website.amwp.backup.integrity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Hashes recorded while an archive is written: the MD5 of the archive as stored (encrypted, if
+// it is), which Google Drive reports back as md5Checksum, and the SHA-256 of every entry's contents. An entry larger than
+// one compression block is hashed block by block and the block hashes are hashed again, so the
+// blocks can be hashed on the compression workers like they are compressed.
+public class ArchiveChecksums {
+    public String archive;
+    public long size;
+    public String md5;
+    public long created;
+    public Map<String, EntryChecksum> entries = new LinkedHashMap<>();
+
+    public static class EntryChecksum {
+        public String sha256;
+        public int blockSize; // 0 when the entry was hashed in one piece
+
+        public EntryChecksum(String sha256, int blockSize) {
+            this.sha256 = sha256;
+            this.blockSize = blockSize;
+        }
+    }
+
+    // Hashes contents the same way the compressor did, for an entry recorded with blockSize
+    public static String hash(InputStream in, int blockSize) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[blockSize > 0 ? Math.min(blockSize, 1024 * 1024) : 64 * 1024];
+        if (blockSize <= 0) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        MessageDigest block = sha256();
+        long inBlock = 0;
+        int n;
+        while ((n = in.read(buffer, 0, (int) Math.min(buffer.length, blockSize - inBlock))) >= 0) {
+            block.update(buffer, 0, n);
+            inBlock += n;
+            if (inBlock == blockSize) {
+                digest.update(block.digest());
+                inBlock = 0;
+            }
+        }
+        if (inBlock > 0) {
+            digest.update(block.digest());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package website.amwp.backup.integrity;
+
+import website.amwp.backup.archive.ZipArchiveReader;
+import website.amwp.backup.crypto.BackupKeyring;
+import website.amwp.backup.crypto.EncryptedArchive;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Downloads stored archives again and checks them against what was recorded when they were
+// written: the archive's size and MD5, the MD5 the storage reports, every entry's CRC and the
+// SHA-256 of every entry's contents. Encrypted archives are decrypted first, which authenticates
+// every segment. Downloads are paced to a byte rate and yield to the game, so a check can run in
+// the background on a busy server.
+public class BackupVerifier {
+    private static final int HISTORY_SIZE = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ChecksumStore checksums;
+    private final Remote remote;
+    private final Path workDir;
+    private final Throttle throttle;
+    private final Deque<Result> history = new ArrayDeque<>();
+    private volatile long bytesPerSecond;
+    private volatile BackupKeyring keyring;
+
+    // An archive as the storage lists it. md5 is what the storage reports, null if it doesn't.
+    public record StoredArchive(String name, String id, long size, String md5) {
+    }
+
+    public interface Remote {
+        List<StoredArchive> list() throws IOException;
+
+        InputStream open(StoredArchive archive) throws IOException;
+    }
+
+    public record Result(String archive, boolean ok, String message, long checkedAt) {
+    }
+
+    public BackupVerifier(ChecksumStore checksums, Remote remote, Path workDir, Throttle throttle) {
+        this.checksums = checksums;
+        this.remote = remote;
+        this.workDir = workDir;
+        this.throttle = throttle;
+    }
+
+    // 0 for unlimited
+    public void setRateLimit(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void setKeyring(BackupKeyring keyring) {
+        this.keyring = keyring;
+    }
+
+    // Checks up to count archives picked at random, preferring ones with recorded checksums
+    public List<Result> verifySample(int count) throws IOException {
+        List<StoredArchive> withChecksums = new ArrayList<>();
+        List<StoredArchive> without = new ArrayList<>();
+        for (StoredArchive archive : remote.list()) {
+            (checksums.get(archive.name()) != null ? withChecksums : without).add(archive);
+        }
+        Collections.shuffle(withChecksums, ThreadLocalRandom.current());
+        Collections.shuffle(without, ThreadLocalRandom.current());
+        withChecksums.addAll(without);
+
+        List<Result> results = new ArrayList<>();
+        for (StoredArchive archive : withChecksums.subList(0, Math.min(count, withChecksums.size()))) {
+            results.add(verify(archive));
+        }
+        return results;
+    }
+
+    public Result verify(String name) throws IOException {
+        for (StoredArchive archive : remote.list()) {
+            if (archive.name().equals(name)) {
+                return verify(archive);
+            }
+        }
+        throw new IOException(name + " is not stored");
+    }
+
+    public Result verify(StoredArchive archive) throws IOException {
+        Result result;
+        Path temp = null;
+        Path decrypted = null;
+        try {
+            Files.createDirectories(workDir);
+            temp = Files.createTempFile(workDir, "verify-", ".zip");
+            if (EncryptedArchive.isEncrypted(archive.name())) {
+                decrypted = Files.createTempFile(workDir, "verify-", ".zip");
+            }
+            result = check(archive, temp, decrypted);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            result = new Result(archive.name(), false, e.getMessage(), System.currentTimeMillis());
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            if (decrypted != null) {
+                Files.deleteIfExists(decrypted);
+            }
+        }
+        synchronized (history) {
+            history.addFirst(result);
+            while (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+        }
+        return result;
+    }
+
+    // Newest first
+    public List<Result> getRecentResults() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    private Result check(StoredArchive archive, Path temp, Path decrypted) throws IOException {
+        ArchiveChecksums expected = checksums.get(archive.name());
+        String md5 = download(archive, temp);
+        long size = Files.size(temp);
+        long now = System.currentTimeMillis();
+
+        if (archive.size() >= 0 && size != archive.size()) {
+            return new Result(archive.name(), false, "downloaded " + size + " bytes, storage lists " + archive.size(), now);
+        }
+        if (archive.md5() != null && !archive.md5().equalsIgnoreCase(md5)) {
+            return new Result(archive.name(), false, "MD5 " + md5 + " differs from the stored " + archive.md5(), now);
+        }
+        if (expected != null && (expected.size != size || !expected.md5.equalsIgnoreCase(md5))) {
+            return new Result(archive.name(), false, "archive differs from the one written (MD5 " + md5
+                    + ", expected " + expected.md5 + ")", now);
+        }
+
+        Path zipFile = temp;
+        if (decrypted != null) {
+            BackupKeyring keys = keyring;
+            if (keys == null || !keys.exists()) {
+                return new Result(archive.name(), false, "encrypted and no keyfile is available", now);
+            }
+            EncryptedArchive.decrypt(temp, decrypted, keys, null);
+            zipFile = decrypted;
+        }
+
+        // Reading every entry to the end checks its CRC as well
+        int entries = 0;
+        try (ZipArchiveReader zip = new ZipArchiveReader(zipFile.toFile())) {
+            for (ZipArchiveReader.Entry entry : zip.getEntries()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                ArchiveChecksums.EntryChecksum recorded = expected != null ? expected.entries.get(entry.getName()) : null;
+                long entryStart = System.nanoTime();
+                String hash;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    hash = ArchiveChecksums.hash(in, recorded != null ? recorded.blockSize : 0);
+                }
+                if (recorded != null && !recorded.sha256.equals(hash)) {
+                    return new Result(archive.name(), false, "contents of " + entry.getName() + " differ", now);
+                }
+                entries++;
+                throttle.pace(System.nanoTime() - entryStart);
+            }
+            if (expected != null) {
+                for (String name : expected.entries.keySet()) {
+                    if (zip.getEntry(name) == null) {
+                        return new Result(archive.name(), false, name + " is missing", now);
+                    }
+                }
+            }
+        }
+        return new Result(archive.name(), true, entries + " entries " + (expected != null ? "match" : "readable, no checksums recorded"), now);
+    }
+
+    private String download(StoredArchive archive, Path temp) throws IOException {
+        MessageDigest md5 = ArchiveChecksums.md5();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long total = 0;
+        try (InputStream in = remote.open(archive); OutputStream out = Files.newOutputStream(temp)) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                long chunkStart = System.nanoTime();
+                out.write(buffer, 0, n);
+                md5.update(buffer, 0, n);
+                total += n;
+                throttle.pace(System.nanoTime() - chunkStart);
+                pace(start, total);
+            }
+        }
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    private void pace(long start, long total) throws InterruptedIOException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long ahead = (long) (total * 1e9 / rate) - (System.nanoTime() - start);
+        if (ahead > 0) {
+            try {
+                Thread.sleep(ahead / 1_000_000L, (int) (ahead % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Verification interrupted");
+            }
+        }
+    }
+}
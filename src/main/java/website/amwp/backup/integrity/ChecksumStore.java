@@ -0,0 +1,91 @@
+package website.amwp.backup.integrity;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Sidecar checksum files, one per archive, kept in the config folder so they outlive the local
+// copy of the archive they describe
+public class ChecksumStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final Gson GSON = new GsonBuilder().create();
+    private static final String SUFFIX = ".sums.json";
+
+    private final Path directory;
+
+    public ChecksumStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public synchronized void save(ArchiveChecksums checksums) {
+        try {
+            Files.createDirectories(directory);
+            Path path = directory.resolve(checksums.archive + SUFFIX);
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(checksums, writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save checksums of {}: {}", checksums.archive, e.getMessage());
+        }
+    }
+
+    // Null when the archive was made before checksums were recorded
+    public synchronized ArchiveChecksums get(String archive) {
+        Path path = directory.resolve(archive + SUFFIX);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, ArchiveChecksums.class);
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable checksums of {}: {}", archive, e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized List<String> list() {
+        List<String> archives = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return archives;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> archives.add(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to list checksums: {}", e.getMessage());
+        }
+        return archives;
+    }
+
+    // Drops the checksums of archives no longer kept anywhere
+    public synchronized int retainOnly(Collection<String> archives) {
+        int removed = 0;
+        for (String archive : list()) {
+            if (!archives.contains(archive)) {
+                try {
+                    Files.deleteIfExists(directory.resolve(archive + SUFFIX));
+                    removed++;
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to remove checksums of {}: {}", archive, e.getMessage());
+                }
+            }
+        }
+        return removed;
+    }
+}
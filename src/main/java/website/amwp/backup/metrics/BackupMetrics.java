@@ -0,0 +1,131 @@
+package website.amwp.backup.metrics;
+
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters and histograms for the backup pipeline, rendered in the Prometheus text format.
+// Stages are timed per run through BackupRun, values owned by other components (queue
+// depths, retry totals) are sampled from suppliers when scraped.
+public class BackupMetrics {
+    private static final double[] PAUSE_BUCKETS = {0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    private static BackupMetrics instance;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesCompressed = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder runsSucceeded = new LongAdder();
+    private final LongAdder runsFailed = new LongAdder();
+    private final Histogram savingPaused = new Histogram(PAUSE_BUCKETS);
+    private final Map<String, Histogram> stages = new ConcurrentSkipListMap<>();
+    private final Map<String, Sampled> sampled = new ConcurrentHashMap<>();
+    private final MetricsHistory history;
+    private volatile long lastSuccessSeconds;
+
+    private record Sampled(String type, String help, LongSupplier value) {
+    }
+
+    private BackupMetrics(MetricsHistory history) {
+        this.history = history;
+    }
+
+    public static synchronized BackupMetrics getInstance() {
+        if (instance == null) {
+            instance = new BackupMetrics(new MetricsHistory(
+                    FabricLoader.getInstance().getConfigDir().resolve("drivebackup/metrics-history.json")));
+        }
+        return instance;
+    }
+
+    public BackupRun startRun(String target) {
+        return new BackupRun(this, target);
+    }
+
+    public MetricsHistory getHistory() {
+        return history;
+    }
+
+    public void registerGauge(String name, String help, LongSupplier value) {
+        sampled.put(name, new Sampled("gauge", help, value));
+    }
+
+    public void registerCounter(String name, String help, LongSupplier value) {
+        sampled.put(name, new Sampled("counter", help, value));
+    }
+
+    void observeStage(String stage, long nanos) {
+        stages.computeIfAbsent(stage, s -> new Histogram(Histogram.DURATION_BUCKETS)).observe(nanos / 1e9);
+    }
+
+    void observeSavingPaused(long millis) {
+        savingPaused.observe(millis / 1000.0);
+    }
+
+    void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void addBytesCompressed(long bytes) {
+        bytesCompressed.add(bytes);
+    }
+
+    void addBytesUploaded(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    void finishRun(BackupRun run, Throwable error) {
+        if (error == null) {
+            runsSucceeded.increment();
+            lastSuccessSeconds = System.currentTimeMillis() / 1000;
+        } else {
+            runsFailed.increment();
+        }
+        history.add(run.toRecord(error));
+    }
+
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "drivebackup_read_bytes_total", "Bytes read from disk for archives", bytesRead.sum());
+        counter(out, "drivebackup_compressed_bytes_total", "Archive bytes written after compression", bytesCompressed.sum());
+        counter(out, "drivebackup_uploaded_bytes_total", "Archive bytes uploaded to Drive", bytesUploaded.sum());
+
+        out.append("# HELP drivebackup_runs_total Finished backup runs by outcome\n");
+        out.append("# TYPE drivebackup_runs_total counter\n");
+        out.append("drivebackup_runs_total{result=\"success\"} ").append(runsSucceeded.sum()).append('\n');
+        out.append("drivebackup_runs_total{result=\"failure\"} ").append(runsFailed.sum()).append('\n');
+
+        gauge(out, "drivebackup_last_success_timestamp_seconds", "Unix time of the last successful run", lastSuccessSeconds);
+
+        out.append("# HELP drivebackup_stage_duration_seconds Time spent in each backup stage\n");
+        out.append("# TYPE drivebackup_stage_duration_seconds histogram\n");
+        stages.forEach((stage, histogram) ->
+                histogram.write(out, "drivebackup_stage_duration_seconds", "stage=\"" + stage + "\""));
+
+        out.append("# HELP drivebackup_saving_paused_seconds Time the server had saving switched off per snapshot\n");
+        out.append("# TYPE drivebackup_saving_paused_seconds histogram\n");
+        savingPaused.write(out, "drivebackup_saving_paused_seconds", "");
+
+        new ConcurrentSkipListMap<>(sampled).forEach((name, metric) -> {
+            out.append("# HELP ").append(name).append(' ').append(metric.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(metric.type()).append('\n');
+            out.append(name).append(' ').append(metric.value().getAsLong()).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,81 @@
+package website.amwp.backup.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Measurements of one backup target's run, reported to BackupMetrics when it finishes
+public class BackupRun {
+    private final BackupMetrics metrics;
+    private final String target;
+    private final long startedMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private volatile long bytesRead;
+    private volatile long bytesCompressed;
+    private volatile long bytesUploaded;
+    private volatile long savingPausedMillis;
+    private boolean finished;
+
+    BackupRun(BackupMetrics metrics, String target) {
+        this.metrics = metrics;
+        this.target = target;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    // Adds to the stage's latency histogram and to this run's breakdown
+    public synchronized void recordStage(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+        metrics.observeStage(stage, nanos);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead += bytes;
+        metrics.addBytesRead(bytes);
+    }
+
+    public void addBytesCompressed(long bytes) {
+        bytesCompressed += bytes;
+        metrics.addBytesCompressed(bytes);
+    }
+
+    public void addBytesUploaded(long bytes) {
+        bytesUploaded += bytes;
+        metrics.addBytesUploaded(bytes);
+    }
+
+    public void setSavingPausedMillis(long millis) {
+        savingPausedMillis = millis;
+        metrics.observeSavingPaused(millis);
+    }
+
+    // Records the outcome once, later calls are ignored
+    public synchronized void finish(Throwable error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long durationNanos = System.nanoTime() - startNanos;
+        metrics.observeStage("total", durationNanos);
+        metrics.finishRun(this, error);
+    }
+
+    synchronized MetricsHistory.Record toRecord(Throwable error) {
+        MetricsHistory.Record record = new MetricsHistory.Record();
+        record.target = target;
+        record.started = startedMillis;
+        record.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        record.success = error == null;
+        record.error = error == null ? null : String.valueOf(error.getMessage());
+        record.stagesMs = new LinkedHashMap<>();
+        stageNanos.forEach((stage, nanos) -> record.stagesMs.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        record.bytesRead = bytesRead;
+        record.bytesCompressed = bytesCompressed;
+        record.bytesUploaded = bytesUploaded;
+        record.savingPausedMs = savingPausedMillis;
+        return record;
+    }
+}
@@ -0,0 +1,61 @@
+package website.amwp.backup.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed bucket histogram in the Prometheus cumulative "le" layout
+public class Histogram {
+    // Seconds, from a quick region file up to a multi hour upload
+    public static final double[] DURATION_BUCKETS = {0.1, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800, 3600, 7200};
+
+    private final double[] bounds;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder count = new LongAdder();
+
+    public Histogram(double[] bounds) {
+        this.bounds = bounds;
+        this.counts = new LongAdder[bounds.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double value) {
+        for (int i = 0; i < bounds.length; i++) {
+            if (value <= bounds[i]) {
+                counts[i].increment();
+                break;
+            }
+        }
+        sum.add(value);
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(formatBound(bounds[i])).append("\"} ").append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count.sum()).append('\n');
+        out.append(name).append("_sum").append(suffix).append(' ').append(sum.sum()).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(count.sum()).append('\n');
+    }
+
+    private static String formatBound(double bound) {
+        return bound == Math.rint(bound) ? String.format(Locale.ROOT, "%.1f", bound) : Double.toString(bound);
+    }
+}
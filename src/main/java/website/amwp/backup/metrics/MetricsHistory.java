@@ -0,0 +1,85 @@
+package website.amwp.backup.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// The last MAX_RECORDS backup runs as JSON, for comparing runs over time
+public class MetricsHistory {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type LIST_TYPE = new TypeToken<List<Record>>() {}.getType();
+    private static final int MAX_RECORDS = 500;
+
+    private final Path path;
+    private final List<Record> records = new ArrayList<>();
+
+    public static class Record {
+        public String target;
+        public long started;
+        public long durationMs;
+        public boolean success;
+        public String error;
+        public Map<String, Long> stagesMs;
+        public long bytesRead;
+        public long bytesCompressed;
+        public long bytesUploaded;
+        public long savingPausedMs;
+    }
+
+    public MetricsHistory(Path path) {
+        this.path = path;
+        load();
+    }
+
+    public synchronized List<Record> list() {
+        return new ArrayList<>(records);
+    }
+
+    public synchronized void add(Record record) {
+        records.add(record);
+        while (records.size() > MAX_RECORDS) {
+            records.remove(0);
+        }
+        save();
+    }
+
+    public synchronized String toJson() {
+        return GSON.toJson(records);
+    }
+
+    private void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Reader reader = new FileReader(path.toFile())) {
+            List<Record> loaded = GSON.fromJson(reader, LIST_TYPE);
+            if (loaded != null) {
+                records.addAll(loaded);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = new FileWriter(temp.toFile())) {
+                GSON.toJson(records, writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package website.amwp.backup.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Serves /metrics (Prometheus text format) and /history (JSON) on the loopback interface only
+public class MetricsServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+
+    private final BackupMetrics metrics;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MetricsServer(BackupMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void start(int port) {
+        stop();
+        if (port <= 0) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange ->
+                    respond(exchange, "text/plain; version=0.0.4; charset=utf-8", metrics::render));
+            server.createContext("/history", exchange ->
+                    respond(exchange, "application/json; charset=utf-8", metrics.getHistory()::toJson));
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "DriveBackup-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(executor);
+            server.start();
+            LOGGER.info("Serving backup metrics on http://127.0.0.1:{}/metrics", port);
+        } catch (IOException e) {
+            server = null;
+            LOGGER.warn("Could not start metrics endpoint on port {}: {}", port, e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package website.amwp.backup.mixin;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.storage.RegionBasedStorage;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import website.amwp.backup.incremental.ChangeTracker;
+
+import java.nio.file.Path;
+
+// Chunks, entities and POIs all end up here. Reported after the write, so a backup that took
+// its changes in between still sees the chunk on the next one.
+@Mixin(RegionBasedStorage.class)
+public class RegionBasedStorageMixin {
+	@Shadow
+	@Final
+	private Path directory;
+
+	@Inject(at = @At("RETURN"), method = "write")
+	private void onWrite(ChunkPos pos, NbtCompound nbt, CallbackInfo info) {
+		ChangeTracker.getInstance().markChunk(directory, pos.getRegionX(), pos.getRegionZ());
+	}
+}
@@ -0,0 +1,20 @@
+package website.amwp.backup.mixin;
+
+import net.minecraft.world.storage.RegionFile;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import website.amwp.backup.incremental.ChangeTracker;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+@Mixin(RegionFile.class)
+public class RegionFileMixin {
+	// Only called for chunks too big for the region, which are written to a .mcc file instead
+	@Inject(at = @At("HEAD"), method = "writeSafely")
+	private void onWriteExternal(Path path, ByteBuffer buf, CallbackInfoReturnable<?> info) {
+		ChangeTracker.getInstance().noteExternalChunk(path);
+	}
+}
@@ -0,0 +1,24 @@
+package website.amwp.backup.mixin;
+
+import net.minecraft.stat.ServerStatHandler;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import website.amwp.backup.incremental.ChangeTracker;
+
+import java.io.File;
+
+@Mixin(ServerStatHandler.class)
+public class ServerStatHandlerMixin {
+	@Shadow
+	@Final
+	private File file;
+
+	@Inject(at = @At("RETURN"), method = "save")
+	private void onSave(CallbackInfo info) {
+		ChangeTracker.getInstance().markFile(file.toPath().getParent(), file.getName());
+	}
+}
@@ -0,0 +1,27 @@
+package website.amwp.backup.mixin;
+
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.world.WorldSaveHandler;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import website.amwp.backup.incremental.ChangeTracker;
+
+import java.io.File;
+
+@Mixin(WorldSaveHandler.class)
+public class WorldSaveHandlerMixin {
+	@Shadow
+	@Final
+	private File playerDataDir;
+
+	// The previous file is kept as .dat_old by the same save
+	@Inject(at = @At("RETURN"), method = "savePlayerData")
+	private void onSavePlayerData(PlayerEntity player, CallbackInfo info) {
+		String uuid = player.getUuidAsString();
+		ChangeTracker.getInstance().markFile(playerDataDir.toPath(), uuid + ".dat", uuid + ".dat_old");
+	}
+}
@@ -0,0 +1,168 @@
+package website.amwp.backup.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed size in-memory ring buffer between one producer thread (compression) and one
+// consumer thread (upload). The producer blocks when the consumer falls behind, so memory
+// use stays at the configured capacity no matter how large the archive is.
+public class BoundedPipe {
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int readPos = 0;
+    private int count = 0;
+    private boolean writerClosed = false;
+    private boolean readerClosed = false;
+    private Throwable failure;
+
+    private final OutputStream outputStream = new PipeOutputStream();
+    private final InputStream inputStream = new PipeInputStream();
+
+    public BoundedPipe(int capacity) {
+        this.buffer = new byte[Math.max(64 * 1024, capacity)];
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    // Aborts both ends, used when either side fails so the other one doesn't block forever
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Pipe aborted: " + failure.getMessage(), failure);
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    checkFailure();
+                    if (writerClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Pipe reader closed");
+                    }
+                    if (count == buffer.length) {
+                        notFull.await();
+                        continue;
+                    }
+
+                    int writePos = (readPos + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                    System.arraycopy(b, off, buffer, writePos, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to pipe");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (count == 0) {
+                    checkFailure();
+                    if (writerClosed) {
+                        return -1;
+                    }
+                    notEmpty.await();
+                }
+
+                int n = Math.min(len, Math.min(count, buffer.length - readPos));
+                System.arraycopy(buffer, readPos, b, off, n);
+                readPos = (readPos + n) % buffer.length;
+                count -= n;
+                notFull.signal();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading from pipe");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package website.amwp.backup.progress;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// How far a job has got with its current stage. The backup and compression threads add to the
+// counters without locking, the reporter reads them once a second, so a reading can be a block
+// behind but never holds up the threads doing the work.
+public class BackupProgress {
+    private final String label;
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder filesDone = new LongAdder();
+    private volatile String stage = "";
+    private volatile long bytesTotal;
+    private volatile long filesTotal;
+    private volatile LongSupplier bytesSource;
+
+    public BackupProgress(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Starts a stage, 0 for totals that aren't known up front
+    public void begin(String stage, long bytesTotal, long filesTotal) {
+        bytesDone.reset();
+        filesDone.reset();
+        this.bytesSource = null;
+        this.bytesTotal = bytesTotal;
+        this.filesTotal = filesTotal;
+        this.stage = stage == null ? "" : stage;
+    }
+
+    // For stages whose bytes are counted elsewhere, such as an upload
+    public void trackBytes(LongSupplier source) {
+        this.bytesSource = source;
+    }
+
+    public void addBytes(long bytes) {
+        bytesDone.add(bytes);
+    }
+
+    public void addFile() {
+        filesDone.increment();
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getBytesDone() {
+        LongSupplier source = bytesSource;
+        return source != null ? source.getAsLong() : bytesDone.sum();
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public long getFilesDone() {
+        return filesDone.sum();
+    }
+
+    public long getFilesTotal() {
+        return filesTotal;
+    }
+
+    // Share of the stage done from 0 to 1, -1 when the size isn't known
+    public double getFraction() {
+        long total = bytesTotal;
+        if (total > 0) {
+            return Math.min(1.0, (double) getBytesDone() / total);
+        }
+        long files = filesTotal;
+        return files > 0 ? Math.min(1.0, (double) getFilesDone() / files) : -1;
+    }
+
+    // "compressing 45% (120/300 files)"
+    public String describe() {
+        StringBuilder text = new StringBuilder(stage);
+        double fraction = getFraction();
+        if (fraction >= 0) {
+            text.append(' ').append((int) (fraction * 100)).append('%');
+        }
+        long files = filesTotal;
+        if (files > 0) {
+            text.append(" (").append(Math.min(getFilesDone(), files)).append('/').append(files).append(" files)");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package website.amwp.backup.progress;
+
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.entity.boss.BossBar;
+import net.minecraft.entity.boss.ServerBossBar;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import website.amwp.backup.config.BackupConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+// What backups tell players goes through here. Messages from the backup threads are queued and
+// sent from the server tick instead of scheduling a task each, and running jobs are shown to
+// operators as a single boss bar or action bar line refreshed once a second, rather than a chat
+// line for every step of every job.
+public class ProgressReporter {
+    public static final String DISPLAY_BOSSBAR = "bossbar";
+    public static final String DISPLAY_ACTIONBAR = "actionbar";
+    public static final String DISPLAY_OFF = "off";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final int UPDATE_INTERVAL_TICKS = 20;
+    private static final int OPERATOR_LEVEL = 4; // Who may run /drivebackup
+    private static final int MAX_SHOWN = 3;
+
+    private static final ProgressReporter INSTANCE = new ProgressReporter();
+
+    private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+    private volatile MinecraftServer server;
+    private volatile Supplier<Collection<BackupProgress>> source = Collections::emptyList;
+
+    // Server thread only
+    private ServerBossBar bar;
+    private int ticks;
+
+    public static ProgressReporter getInstance() {
+        return INSTANCE;
+    }
+
+    // source lists the progress of the jobs currently running
+    public void register(Supplier<Collection<BackupProgress>> source) {
+        this.source = source;
+        ServerLifecycleEvents.SERVER_STARTED.register(started -> server = started);
+        ServerLifecycleEvents.SERVER_STOPPING.register(stopping -> {
+            server = null;
+            sendMessages(stopping);
+            hideBar();
+        });
+        ServerTickEvents.END_SERVER_TICK.register(this::tick);
+    }
+
+    // Can be called from any thread. While no server is running, e.g. during the final backup
+    // after it stopped, the message is only logged.
+    public void broadcast(String message) {
+        if (server == null) {
+            LOGGER.info(message);
+            return;
+        }
+        messages.add(message);
+    }
+
+    private void tick(MinecraftServer server) {
+        sendMessages(server);
+        if (++ticks % UPDATE_INTERVAL_TICKS == 0) {
+            update(server);
+        }
+    }
+
+    private void sendMessages(MinecraftServer server) {
+        String message;
+        while ((message = messages.poll()) != null) {
+            server.getPlayerManager().broadcast(Text.literal(message), false);
+        }
+    }
+
+    private void update(MinecraftServer server) {
+        String display = BackupConfig.getInstance().getProgressDisplay();
+        List<BackupProgress> active = new ArrayList<>();
+        for (BackupProgress progress : source.get()) {
+            if (!progress.getStage().isEmpty()) {
+                active.add(progress);
+            }
+        }
+        if (active.isEmpty() || !DISPLAY_BOSSBAR.equals(display)) {
+            hideBar();
+        }
+        if (active.isEmpty() || DISPLAY_OFF.equals(display)) {
+            return;
+        }
+
+        List<ServerPlayerEntity> operators = new ArrayList<>();
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            if (player.hasPermissionLevel(OPERATOR_LEVEL)) {
+                operators.add(player);
+            }
+        }
+        String title = describe(active);
+        if (DISPLAY_ACTIONBAR.equals(display)) {
+            Text text = Text.literal("§6[Backup] §7" + title);
+            for (ServerPlayerEntity player : operators) {
+                player.sendMessage(text, true);
+            }
+            return;
+        }
+
+        if (bar == null) {
+            bar = new ServerBossBar(Text.literal(title), BossBar.Color.BLUE, BossBar.Style.PROGRESS);
+        } else {
+            bar.setName(Text.literal(title));
+        }
+        bar.setPercent((float) Math.max(0, fraction(active)));
+        for (ServerPlayerEntity player : new ArrayList<>(bar.getPlayers())) {
+            if (!operators.contains(player)) {
+                bar.removePlayer(player);
+            }
+        }
+        for (ServerPlayerEntity player : operators) {
+            if (!bar.getPlayers().contains(player)) {
+                bar.addPlayer(player);
+            }
+        }
+    }
+
+    private void hideBar() {
+        if (bar != null) {
+            bar.clearPlayers();
+        }
+    }
+
+    // "Backup worlds/world: compressing 45% (120/300 files) | mods: uploading 80%"
+    private static String describe(List<BackupProgress> active) {
+        StringBuilder title = new StringBuilder("Backup ");
+        for (int i = 0; i < Math.min(MAX_SHOWN, active.size()); i++) {
+            if (i > 0) {
+                title.append(" | ");
+            }
+            title.append(active.get(i).getLabel()).append(": ").append(active.get(i).describe());
+        }
+        if (active.size() > MAX_SHOWN) {
+            title.append(" | +").append(active.size() - MAX_SHOWN).append(" more");
+        }
+        return title.toString();
+    }
+
+    // Average over the jobs whose progress is known
+    private static double fraction(List<BackupProgress> active) {
+        double sum = 0;
+        int known = 0;
+        for (BackupProgress progress : active) {
+            double fraction = progress.getFraction();
+            if (fraction >= 0) {
+                sum += fraction;
+                known++;
+            }
+        }
+        return known == 0 ? -1 : sum / known;
+    }
+}
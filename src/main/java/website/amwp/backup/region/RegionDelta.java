@@ -0,0 +1,98 @@
+package website.amwp.backup.region;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Changed chunks of one region file relative to the previous backup. Stored in incremental
+// archives as "<region>.mca" + SUFFIX in place of the whole region file.
+public class RegionDelta {
+    public static final String SUFFIX = ".mcadelta";
+    private static final int MAGIC = 0x4D434144; // "MCAD"
+    private static final int VERSION = 1;
+
+    // Compares the region against its state in the previous backup and updates state in place.
+    // Every chunk is hashed: timestamps only have a resolution of seconds, so a chunk saved again
+    // within the second of the previous backup keeps its timestamp but not its contents.
+    public static byte[] diff(RegionFile region, RegionIndex.RegionState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        ByteArrayOutputStream changedBytes = new ByteArrayOutputStream();
+        DataOutputStream changed = new DataOutputStream(changedBytes);
+        int changedCount = 0;
+        ByteArrayOutputStream removedBytes = new ByteArrayOutputStream();
+        DataOutputStream removed = new DataOutputStream(removedBytes);
+        int removedCount = 0;
+
+        for (int i = 0; i < RegionFile.CHUNKS; i++) {
+            byte[] payload = region.getPayload(i);
+            if (payload == null) {
+                if (state.hashes[i] != 0 || state.timestamps[i] != 0) {
+                    removed.writeShort(i);
+                    removedCount++;
+                    state.timestamps[i] = 0;
+                    state.hashes[i] = 0;
+                }
+                continue;
+            }
+
+            int timestamp = region.getTimestamp(i);
+            long hash = RegionFile.hashPayload(payload);
+            state.timestamps[i] = timestamp;
+            if (hash == state.hashes[i]) {
+                continue; // Saved again without any actual change
+            }
+            state.hashes[i] = hash;
+
+            changed.writeShort(i);
+            changed.writeInt(timestamp);
+            changed.writeInt(payload.length);
+            changed.write(payload);
+            changedCount++;
+        }
+
+        out.writeInt(changedCount);
+        changedBytes.writeTo(out);
+        out.writeInt(removedCount);
+        removedBytes.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static void apply(RegionFile region, byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a region delta");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported region delta version " + version);
+        }
+
+        int changedCount = in.readInt();
+        for (int n = 0; n < changedCount; n++) {
+            int index = in.readUnsignedShort();
+            int timestamp = in.readInt();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            region.setChunk(checkIndex(index), payload, timestamp);
+        }
+
+        int removedCount = in.readInt();
+        for (int n = 0; n < removedCount; n++) {
+            region.setChunk(checkIndex(in.readUnsignedShort()), null, 0);
+        }
+    }
+
+    private static int checkIndex(int index) throws IOException {
+        if (index >= RegionFile.CHUNKS) {
+            throw new IOException("Chunk index " + index + " out of range");
+        }
+        return index;
+    }
+}
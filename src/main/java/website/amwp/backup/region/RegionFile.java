@@ -0,0 +1,112 @@
+package website.amwp.backup.region;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// In-memory view of an Anvil region file (.mca): an 8KB header of 1024 chunk locations and
+// timestamps followed by 4KB sectors of chunk data. Each chunk payload is kept as stored on
+// disk (compression type byte + compressed NBT), it is never decompressed here.
+public class RegionFile {
+    public static final int CHUNKS = 1024;
+    public static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    private final byte[][] payloads = new byte[CHUNKS][];
+    private final int[] timestamps = new int[CHUNKS];
+
+    public static RegionFile read(File file) throws IOException {
+        return parse(Files.readAllBytes(file.toPath()));
+    }
+
+    public static RegionFile parse(byte[] data) {
+        RegionFile region = new RegionFile();
+        if (data.length < HEADER_SIZE) {
+            return region; // Empty or truncated region, the game treats it the same way
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0; i < CHUNKS; i++) {
+            int location = buf.getInt(i * 4);
+            int sectorOffset = location >>> 8;
+            int sectorCount = location & 0xFF;
+            if (sectorOffset < 2 || sectorCount == 0) {
+                continue;
+            }
+
+            long start = (long) sectorOffset * SECTOR_SIZE;
+            if (start + 5 > data.length) {
+                continue;
+            }
+            int length = buf.getInt((int) start);
+            if (length <= 0 || start + 4 + length > data.length) {
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            System.arraycopy(data, (int) start + 4, payload, 0, length);
+            region.payloads[i] = payload;
+            region.timestamps[i] = buf.getInt(SECTOR_SIZE + i * 4);
+        }
+        return region;
+    }
+
+    public byte[] getPayload(int index) {
+        return payloads[index];
+    }
+
+    public int getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public void setChunk(int index, byte[] payload, int timestamp) {
+        payloads[index] = payload;
+        timestamps[index] = payload == null ? 0 : timestamp;
+    }
+
+    // Lays the chunks out again back to back, which also drops any fragmentation
+    public byte[] toBytes() {
+        int sectors = 2;
+        int[] counts = new int[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++) {
+            if (payloads[i] != null) {
+                counts[i] = (payloads[i].length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                sectors += counts[i];
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+        int sector = 2;
+        for (int i = 0; i < CHUNKS; i++) {
+            if (payloads[i] == null) {
+                continue;
+            }
+            buf.putInt(i * 4, (sector << 8) | Math.min(counts[i], 255));
+            buf.putInt(SECTOR_SIZE + i * 4, timestamps[i]);
+            buf.putInt(sector * SECTOR_SIZE, payloads[i].length);
+            buf.put(sector * SECTOR_SIZE + 4, payloads[i]);
+            sector += counts[i];
+        }
+        return buf.array();
+    }
+
+    public void write(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, toBytes());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static long hashPayload(byte[] payload) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(payload)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package website.amwp.backup.region;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Per-chunk timestamps and hashes of every region file in the last backup of one backup type.
+// Kept as a compact binary file per backup type since it holds 1024 entries per region.
+public class RegionIndex {
+    private static final int MAGIC = 0x52494458; // "RIDX"
+
+    private final Path path;
+    private final Map<String, RegionState> regions = new HashMap<>();
+
+    public static class RegionState {
+        public final int[] timestamps = new int[RegionFile.CHUNKS];
+        public final long[] hashes = new long[RegionFile.CHUNKS];
+
+        // State of a region as it went into a full backup
+        public static RegionState of(RegionFile region) {
+            RegionState state = new RegionState();
+            for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                byte[] payload = region.getPayload(i);
+                if (payload != null) {
+                    state.timestamps[i] = region.getTimestamp(i);
+                    state.hashes[i] = RegionFile.hashPayload(payload);
+                }
+            }
+            return state;
+        }
+
+        public RegionState copy() {
+            RegionState copy = new RegionState();
+            System.arraycopy(timestamps, 0, copy.timestamps, 0, RegionFile.CHUNKS);
+            System.arraycopy(hashes, 0, copy.hashes, 0, RegionFile.CHUNKS);
+            return copy;
+        }
+    }
+
+    private RegionIndex(Path path) {
+        this.path = path;
+    }
+
+    public static RegionIndex load(Path path) throws IOException {
+        RegionIndex index = new RegionIndex(path);
+        if (!Files.exists(path)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC) {
+                return index; // Unknown format, the next backup rebuilds it
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                String name = in.readUTF();
+                RegionState state = new RegionState();
+                for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                    state.timestamps[i] = in.readInt();
+                }
+                for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                    state.hashes[i] = in.readLong();
+                }
+                index.regions.put(name, state);
+            }
+        }
+        return index;
+    }
+
+    public void save() throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(regions.size());
+            for (Map.Entry<String, RegionState> entry : regions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                for (int timestamp : entry.getValue().timestamps) {
+                    out.writeInt(timestamp);
+                }
+                for (long hash : entry.getValue().hashes) {
+                    out.writeLong(hash);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public RegionState get(String name) {
+        return regions.get(name);
+    }
+
+    public void put(String name, RegionState state) {
+        regions.put(name, state);
+    }
+
+    public void remove(String name) {
+        regions.remove(name);
+    }
+
+    public void clear() {
+        regions.clear();
+    }
+}
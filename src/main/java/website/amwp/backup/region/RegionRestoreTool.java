@@ -0,0 +1,34 @@
+package website.amwp.backup.region;
+
+import website.amwp.backup.restore.ArchiveExtractor;
+import website.amwp.backup.restore.RestoreFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Replays a full backup and the incremental backups on top of it into a directory, rebuilding
+// complete region files from the chunk deltas. Runs without the game:
+//   java -cp drivebackup.jar website.amwp.backup.region.RegionRestoreTool <target> <full.zip> [incr.zip...]
+public class RegionRestoreTool {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RegionRestoreTool <target-dir> <full.zip> [incremental.zip...]");
+            System.exit(1);
+        }
+
+        Path target = Paths.get(args[0]);
+        Files.createDirectories(target);
+        for (int i = 1; i < args.length; i++) {
+            System.out.println("Applying " + args[i]);
+            applyArchive(new File(args[i]), target);
+        }
+        System.out.println("Restored into " + target.toAbsolutePath());
+    }
+
+    public static void applyArchive(File archive, Path target) throws IOException {
+        new ArchiveExtractor(null).extract(archive, target, RestoreFilter.ALL);
+    }
+}
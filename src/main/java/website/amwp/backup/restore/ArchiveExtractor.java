@@ -0,0 +1,140 @@
+package website.amwp.backup.restore;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import website.amwp.backup.archive.ZipArchiveReader;
+import website.amwp.backup.incremental.BackupManifest;
+import website.amwp.backup.region.RegionDelta;
+import website.amwp.backup.region.RegionFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Applies one backup archive (full, incremental or with region deltas) to a directory. Entries
+// are written on the worker pool, each file by exactly one task, so archives of a chain have to
+// be applied one after the other but everything inside an archive runs in parallel.
+public class ArchiveExtractor {
+    private final ExecutorService workers;
+
+    // Without a pool everything runs on the calling thread
+    public ArchiveExtractor(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    // Entry names keep their leading world folder, the filter sees the path below it.
+    // Returns the number of files written.
+    public int extract(File archive, Path target, RestoreFilter filter) throws IOException {
+        Path root = target.toAbsolutePath().normalize();
+        try (ZipArchiveReader zip = new ZipArchiveReader(archive)) {
+            // Deletions recorded by an incremental backup go first
+            ZipArchiveReader.Entry metadataEntry = zip.getEntry(BackupManifest.METADATA_ENTRY);
+            if (metadataEntry != null) {
+                try (InputStream in = zip.getInputStream(metadataEntry)) {
+                    JsonObject metadata = JsonParser.parseReader(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
+                    if (metadata.has("deleted")) {
+                        for (JsonElement deleted : metadata.getAsJsonArray("deleted")) {
+                            String name = deleted.getAsString();
+                            if (filter.includes(belowRoot(name))) {
+                                Files.deleteIfExists(resolve(root, name));
+                            }
+                        }
+                    }
+                }
+            }
+
+            List<Future<?>> tasks = new ArrayList<>();
+            int files = 0;
+            try {
+                for (ZipArchiveReader.Entry entry : zip.getEntries()) {
+                    String name = entry.getName();
+                    if (name.equals(BackupManifest.METADATA_ENTRY) || name.endsWith("/session.lock")) {
+                        continue;
+                    }
+                    String relative = belowRoot(name);
+                    if (entry.isDirectory()) {
+                        if (filter.isEverything()) {
+                            Files.createDirectories(resolve(root, name));
+                        }
+                        continue;
+                    }
+                    if (!filter.includes(relative)) {
+                        continue;
+                    }
+                    files++;
+                    if (workers == null) {
+                        write(zip, entry, root);
+                    } else {
+                        tasks.add(workers.submit(() -> {
+                            write(zip, entry, root);
+                            return null;
+                        }));
+                    }
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Restore interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException("Restore failed: " + cause.getMessage(), cause);
+            } finally {
+                for (Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+            return files;
+        }
+    }
+
+    private static void write(ZipArchiveReader zip, ZipArchiveReader.Entry entry, Path root) throws IOException {
+        String name = entry.getName();
+        if (name.endsWith(RegionDelta.SUFFIX)) {
+            Path region = resolve(root, name.substring(0, name.length() - RegionDelta.SUFFIX.length()));
+            RegionFile file = Files.exists(region) ? RegionFile.read(region.toFile()) : new RegionFile();
+            try (InputStream in = zip.getInputStream(entry)) {
+                RegionDelta.apply(file, in.readAllBytes());
+            }
+            Files.createDirectories(region.getParent());
+            file.write(region);
+            return;
+        }
+
+        Path out = resolve(root, name);
+        Files.createDirectories(out.getParent());
+        Path temp = out.resolveSibling(out.getFileName() + ".tmp");
+        try (InputStream in = zip.getInputStream(entry)) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING);
+        out.toFile().setLastModified(entry.getTime());
+    }
+
+    private static String belowRoot(String name) {
+        int slash = name.indexOf('/');
+        return slash < 0 ? name : name.substring(slash + 1);
+    }
+
+    // Refuses entry names that would escape the target directory
+    static Path resolve(Path root, String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Archive entry outside of target directory: " + name);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,81 @@
+package website.amwp.backup.restore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Archive names as backupDirectory writes them: "<type with / as ->_<yyyy-MM-dd_HH-mm-ss>.zip",
+// with "_incr.zip" instead of ".zip" for incremental backups and ".enc" appended to encrypted
+// ones. The timestamp doubles as the snapshot name and sorts chronologically. Snapshots in the
+// deduplicating chunk store are named the same way without any extension.
+public class BackupNames {
+    private static final Pattern NAME = Pattern.compile("^(.+)_(\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2})(_incr)?\\.zip(\\.enc)?$");
+
+    public record ArchiveName(String name, String prefix, String timestamp, boolean incremental, boolean encrypted,
+                              boolean chunked) {
+    }
+
+    private BackupNames() {
+    }
+
+    public static String prefix(String backupType) {
+        return backupType.replace('/', '-');
+    }
+
+    // Null for names that don't follow the convention
+    public static ArchiveName parse(String name) {
+        Matcher matcher = NAME.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new ArchiveName(name, matcher.group(1), matcher.group(2), matcher.group(3) != null, matcher.group(4) != null, false);
+    }
+
+    // A chunk store snapshot is always complete, so it can start a chain like a full backup
+    public static ArchiveName snapshot(String name) {
+        ArchiveName archive = parse(name + ".zip");
+        if (archive == null) {
+            throw new IllegalArgumentException("Not a snapshot name: " + name);
+        }
+        return new ArchiveName(name, archive.prefix(), archive.timestamp(), false, false, true);
+    }
+
+    // Archives belonging to exactly this backup type, oldest first. "worlds-world" does not
+    // pick up "worlds-world_nether".
+    public static List<ArchiveName> filter(List<String> names, String prefix) {
+        List<ArchiveName> result = new ArrayList<>();
+        for (String name : names) {
+            ArchiveName parsed = parse(name);
+            if (parsed != null && parsed.prefix().equals(prefix)) {
+                result.add(parsed);
+            }
+        }
+        result.sort(Comparator.comparing(ArchiveName::timestamp));
+        return result;
+    }
+
+    // The archives to apply, in order, to get the world as it was at the snapshot: the last full
+    // backup at or before it followed by every incremental up to it. "latest" picks the newest.
+    public static List<ArchiveName> chain(List<ArchiveName> archives, String snapshot) {
+        int target = -1;
+        for (int i = 0; i < archives.size(); i++) {
+            if (snapshot.equals("latest") || archives.get(i).timestamp().equals(snapshot)) {
+                target = i;
+            }
+        }
+        if (target < 0) {
+            throw new IllegalArgumentException("No backup named " + snapshot);
+        }
+
+        int base = target;
+        while (base >= 0 && archives.get(base).incremental()) {
+            base--;
+        }
+        if (base < 0) {
+            throw new IllegalArgumentException("No full backup before " + archives.get(target).timestamp());
+        }
+        return new ArrayList<>(archives.subList(base, target + 1));
+    }
+}
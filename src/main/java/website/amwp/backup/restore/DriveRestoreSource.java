@@ -0,0 +1,126 @@
+package website.amwp.backup.restore;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import website.amwp.backup.drive.ResumableUpload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Archives in the Drive folder the backups are uploaded to. Talks to the REST API directly
+// so the offline restore tool only needs an access token, not the whole game.
+public class DriveRestoreSource implements RestoreSource {
+    private final HttpClient client;
+    private final String rootUrl;
+    private final ResumableUpload.TokenSource tokens;
+    private final String folderName;
+    private final ParallelDownloader downloader;
+    private final Map<String, RemoteFile> files = new HashMap<>();
+
+    private record RemoteFile(String id, long size) {
+    }
+
+    public DriveRestoreSource(HttpClient client, String rootUrl, ResumableUpload.TokenSource tokens,
+                              String folderName, ParallelDownloader downloader) {
+        this.client = client;
+        this.rootUrl = rootUrl.endsWith("/") ? rootUrl : rootUrl + "/";
+        this.tokens = tokens;
+        this.folderName = folderName;
+        this.downloader = downloader;
+    }
+
+    @Override
+    public synchronized List<String> list() throws IOException {
+        files.clear();
+        String folderId = findFolder();
+        if (folderId == null) {
+            return new ArrayList<>();
+        }
+
+        String query = "'" + folderId + "' in parents and trashed=false";
+        String pageToken = null;
+        do {
+            JsonObject page = get("drive/v3/files?q=" + encode(query)
+                    + "&fields=" + encode("nextPageToken,files(id,name,size)") + "&pageSize=1000"
+                    + (pageToken != null ? "&pageToken=" + encode(pageToken) : ""));
+            for (JsonElement element : page.getAsJsonArray("files")) {
+                JsonObject file = element.getAsJsonObject();
+                long size = file.has("size") ? file.get("size").getAsLong() : -1;
+                files.put(file.get("name").getAsString(), new RemoteFile(file.get("id").getAsString(), size));
+            }
+            pageToken = page.has("nextPageToken") ? page.get("nextPageToken").getAsString() : null;
+        } while (pageToken != null);
+        return new ArrayList<>(files.keySet());
+    }
+
+    @Override
+    public Path fetch(String name, Path downloadDir) throws IOException {
+        RemoteFile file;
+        synchronized (this) {
+            if (files.isEmpty()) {
+                list();
+            }
+            file = files.get(name);
+        }
+        if (file == null) {
+            throw new IOException(name + " is not in the Drive folder " + folderName);
+        }
+        Path target = downloadDir.resolve(name);
+        downloader.download(rootUrl + "drive/v3/files/" + file.id() + "?alt=media", file.size(), target);
+        return target;
+    }
+
+    @Override
+    public boolean isTemporary(String name) {
+        return true;
+    }
+
+    private String findFolder() throws IOException {
+        String query = "mimeType='application/vnd.google-apps.folder' and name='" + folderName + "' and trashed=false";
+        JsonObject result = get("drive/v3/files?q=" + encode(query) + "&spaces=drive&fields=" + encode("files(id)"));
+        if (result.getAsJsonArray("files").isEmpty()) {
+            return null;
+        }
+        return result.getAsJsonArray("files").get(0).getAsJsonObject().get("id").getAsString();
+    }
+
+    private JsonObject get(String path) throws IOException {
+        try {
+            HttpResponse<String> response = client.send(request(path, tokens.getAccessToken(false)),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 401) {
+                response = client.send(request(path, tokens.getAccessToken(true)), HttpResponse.BodyHandlers.ofString());
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("Drive request failed: HTTP " + response.statusCode() + " " + response.body());
+            }
+            return JsonParser.parseString(response.body()).getAsJsonObject();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Drive request interrupted");
+        }
+    }
+
+    private HttpRequest request(String path, String token) {
+        return HttpRequest.newBuilder(URI.create(rootUrl + path))
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
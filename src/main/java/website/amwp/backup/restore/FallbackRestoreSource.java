@@ -0,0 +1,49 @@
+package website.amwp.backup.restore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Reads an archive from the first source that has it, so local copies save a download
+public class FallbackRestoreSource implements RestoreSource {
+    private final RestoreSource primary;
+    private final RestoreSource secondary;
+    private Set<String> primaryNames;
+
+    public FallbackRestoreSource(RestoreSource primary, RestoreSource secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    @Override
+    public synchronized List<String> list() throws IOException {
+        primaryNames = new LinkedHashSet<>(primary.list());
+        Set<String> names = new LinkedHashSet<>(primaryNames);
+        names.addAll(secondary.list());
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public Path fetch(String name, Path downloadDir) throws IOException {
+        return hasPrimary(name) ? primary.fetch(name, downloadDir) : secondary.fetch(name, downloadDir);
+    }
+
+    @Override
+    public boolean isTemporary(String name) {
+        try {
+            return hasPrimary(name) ? primary.isTemporary(name) : secondary.isTemporary(name);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized boolean hasPrimary(String name) throws IOException {
+        if (primaryNames == null) {
+            primaryNames = new LinkedHashSet<>(primary.list());
+        }
+        return primaryNames.contains(name);
+    }
+}
@@ -0,0 +1,44 @@
+package website.amwp.backup.restore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The copies kept in the server's backups folder
+public class LocalRestoreSource implements RestoreSource {
+    private final Path backupsDir;
+
+    public LocalRestoreSource(Path backupsDir) {
+        this.backupsDir = backupsDir;
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(backupsDir)) {
+            return names;
+        }
+        try (Stream<Path> files = Files.list(backupsDir)) {
+            files.filter(Files::isRegularFile).forEach(file -> names.add(file.getFileName().toString()));
+        }
+        return names;
+    }
+
+    @Override
+    public Path fetch(String name, Path downloadDir) throws IOException {
+        Path file = backupsDir.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException(file.toString());
+        }
+        return file;
+    }
+
+    @Override
+    public boolean isTemporary(String name) {
+        return false;
+    }
+}
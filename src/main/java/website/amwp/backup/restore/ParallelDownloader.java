@@ -0,0 +1,166 @@
+package website.amwp.backup.restore;
+
+import website.amwp.backup.drive.ResumableUpload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Downloads one file as several ranged GETs at once, each written straight to its place in the
+// target file. A failed range is retried from where it stopped, not from the start.
+public class ParallelDownloader {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 64000;
+
+    private final HttpClient client;
+    private final ResumableUpload.TokenSource tokens;
+    private final ExecutorService workers;
+    private final int segmentSize;
+    private final int maxRetries;
+
+    public ParallelDownloader(HttpClient client, ResumableUpload.TokenSource tokens, ExecutorService workers,
+                              int segmentSize, int maxRetries) {
+        this.client = client;
+        this.tokens = tokens;
+        this.workers = workers;
+        this.segmentSize = segmentSize;
+        this.maxRetries = maxRetries;
+    }
+
+    // size may be -1 when unknown, the file is then fetched with a single request
+    public void download(String url, long size, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (size < 0) {
+                long written = fetchRange(url, channel, 0, -1);
+                channel.truncate(written);
+                return;
+            }
+
+            List<Future<Long>> ranges = new ArrayList<>();
+            for (long start = 0; start < size; start += segmentSize) {
+                long from = start;
+                long to = Math.min(size, start + segmentSize) - 1;
+                ranges.add(workers.submit(() -> fetchRange(url, channel, from, to)));
+            }
+            try {
+                for (Future<Long> range : ranges) {
+                    range.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException("Download failed: " + cause.getMessage(), cause);
+            } finally {
+                for (Future<Long> range : ranges) {
+                    range.cancel(true);
+                }
+            }
+            if (channel.size() != size) {
+                throw new IOException("Downloaded " + channel.size() + " bytes of " + target.getFileName() + ", expected " + size);
+            }
+        }
+    }
+
+    // Writes bytes from..to (inclusive, to = -1 for everything) and returns how many arrived
+    private long fetchRange(String url, FileChannel channel, long from, long to) throws IOException {
+        long position = from;
+        int failures = 0;
+        boolean refresh = false;
+        while (true) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                    .header("Authorization", "Bearer " + tokens.getAccessToken(refresh))
+                    .timeout(Duration.ofMinutes(5))
+                    .GET();
+            if (to >= 0 || position > 0) {
+                request.header("Range", "bytes=" + position + "-" + (to >= 0 ? to : ""));
+            }
+
+            try {
+                HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+                int status = response.statusCode();
+                if (status == 401 && !refresh) {
+                    // Access token expired, refresh once and retry
+                    response.body().close();
+                    refresh = true;
+                    continue;
+                }
+                if (status == 200 && position > 0) {
+                    response.body().close();
+                    throw new FatalDownloadException("Server ignored the Range header");
+                }
+                if (status != 200 && status != 206) {
+                    response.body().close();
+                    if (status == 429 || status >= 500) {
+                        failures = backoff(failures, "HTTP " + status);
+                        continue;
+                    }
+                    throw new FatalDownloadException("Download failed: HTTP " + status);
+                }
+
+                try (InputStream in = response.body()) {
+                    byte[] buffer = new byte[256 * 1024];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                        while (data.hasRemaining()) {
+                            position += channel.write(data, position);
+                        }
+                    }
+                }
+                if (to < 0 || position > to) {
+                    return position - from;
+                }
+                failures = backoff(failures, "connection closed early");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            } catch (InterruptedIOException | FatalDownloadException e) {
+                throw e;
+            } catch (IOException e) {
+                failures = backoff(failures, e.toString()); // Connection dropped, continue from position
+            }
+        }
+    }
+
+    private int backoff(int failures, String reason) throws IOException {
+        if (failures >= maxRetries) {
+            throw new IOException("Download failed after " + failures + " retries: " + reason);
+        }
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures, 16));
+        delay += ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+        return failures + 1;
+    }
+
+    private static class FatalDownloadException extends IOException {
+        FatalDownloadException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package website.amwp.backup.restore;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Restores that are staged and wait for the server to stop before the world is swapped.
+// Survives a crash, the next clean stop (or the offline tool) still applies them.
+public class PendingRestoreStore {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type LIST_TYPE = new TypeToken<List<PendingRestore>>() {}.getType();
+
+    private final Path path;
+    private final List<PendingRestore> restores = new ArrayList<>();
+
+    public static class PendingRestore {
+        public String world;
+        public String snapshot;
+        public String stagedPath;
+        public String filter;
+        public long created;
+    }
+
+    public PendingRestoreStore(Path path) {
+        this.path = path;
+        load();
+    }
+
+    public synchronized List<PendingRestore> list() {
+        return new ArrayList<>(restores);
+    }
+
+    // Replaces an earlier pending restore of the same world
+    public synchronized void add(PendingRestore restore) {
+        restores.removeIf(existing -> existing.world.equals(restore.world));
+        restores.add(restore);
+        save();
+    }
+
+    public synchronized PendingRestore remove(String world) {
+        for (PendingRestore restore : restores) {
+            if (restore.world.equals(world)) {
+                restores.remove(restore);
+                save();
+                return restore;
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Reader reader = new FileReader(path.toFile())) {
+            List<PendingRestore> loaded = GSON.fromJson(reader, LIST_TYPE);
+            if (loaded != null) {
+                restores.addAll(loaded);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = new FileWriter(temp.toFile())) {
+                GSON.toJson(restores, writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
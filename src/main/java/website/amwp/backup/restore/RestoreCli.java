@@ -0,0 +1,154 @@
+package website.amwp.backup.restore;
+
+import website.amwp.backup.crypto.BackupKeyring;
+import website.amwp.backup.dedup.ChunkStore;
+import website.amwp.backup.drive.DriveService;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+// Restores a world while the server is down, run from the server directory with the mod jar
+// on the classpath:
+//   java -cp mods/drivebackup.jar website.amwp.backup.restore.RestoreCli world latest
+public class RestoreCli {
+    private static final String USAGE = """
+            Usage: RestoreCli [options] <world> <snapshot|latest>
+                   RestoreCli [options] --list <world>
+            Options:
+              --server <dir>     server directory, defaults to the current one
+              --only <filter>    restore part of the world, e.g. "dim=nether region=-2,-2:1,1"
+              --threads <n>      download and extraction threads
+              --drive            also look for archives and chunk packs in Google Drive, using the server's login
+              --drive-url <url>  Drive API root, defaults to https://www.googleapis.com/
+              --keys <file>      keyfile for encrypted backups, defaults to config/drivebackup/backup-keys.json
+              --no-swap          only stage the restore and print where it went""";
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (Exception e) {
+            System.err.println("Restore failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static int run(String[] args) throws Exception {
+        Path serverDir = Paths.get(".");
+        RestoreFilter filter = RestoreFilter.ALL;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        boolean useDrive = false;
+        String driveUrl = "https://www.googleapis.com/";
+        Path keyFile = null;
+        boolean swap = true;
+        boolean list = false;
+        String world = null;
+        String snapshot = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server" -> serverDir = Paths.get(value(args, ++i));
+                case "--only" -> filter = RestoreFilter.parse(value(args, ++i));
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(value(args, ++i)));
+                case "--drive" -> useDrive = true;
+                case "--drive-url" -> driveUrl = value(args, ++i);
+                case "--keys" -> keyFile = Paths.get(value(args, ++i));
+                case "--no-swap" -> swap = false;
+                case "--list" -> list = true;
+                case "-h", "--help" -> {
+                    System.out.println(USAGE);
+                    return 0;
+                }
+                default -> {
+                    if (world == null) {
+                        world = args[i];
+                    } else if (snapshot == null) {
+                        snapshot = args[i];
+                    } else {
+                        throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                    }
+                }
+            }
+        }
+        if (world == null || (!list && snapshot == null)) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            RestoreSource source = new LocalRestoreSource(serverDir.resolve("backups"));
+            RestoreSource chunks = null;
+            if (useDrive) {
+                DriveService.setConfigDir(serverDir.resolve("config"));
+                HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+                ParallelDownloader downloader = new ParallelDownloader(client, DriveService::getAccessToken, workers,
+                        ParallelDownloader.DEFAULT_SEGMENT_SIZE, 8);
+                source = new FallbackRestoreSource(source,
+                        new DriveRestoreSource(client, driveUrl, DriveService::getAccessToken, "MinecraftBackups", downloader));
+                chunks = new DriveRestoreSource(client, driveUrl, DriveService::getAccessToken, "chunks", downloader);
+            }
+            WorldRestore restore = new WorldRestore(source, serverDir.resolve("backups").resolve(".restore"), workers);
+            restore.setKeyring(new BackupKeyring(keyFile != null ? keyFile
+                    : serverDir.resolve("config").resolve("drivebackup").resolve("backup-keys.json")));
+            // Deduplicated backups, rebuilt from Drive's packs if the local store is gone
+            Path dedupDir = serverDir.resolve("backups").resolve("dedup");
+            if (chunks != null || Files.isDirectory(dedupDir)) {
+                restore.setChunkStore(new ChunkStore(dedupDir, new SourceChunkRemote(chunks), Deflater.DEFAULT_COMPRESSION));
+            }
+            String backupType = "worlds/" + world;
+
+            if (list) {
+                List<BackupNames.ArchiveName> snapshots = restore.listSnapshots(backupType);
+                if (snapshots.isEmpty()) {
+                    System.out.println("No backups of " + world);
+                }
+                for (BackupNames.ArchiveName name : snapshots) {
+                    System.out.println(name.timestamp() + (name.chunked() ? "  deduplicated" : name.incremental() ? "  incremental" : "  full"));
+                }
+                return 0;
+            }
+
+            Path worldDir = serverDir.resolve(world);
+            if (swap && WorldRestore.isLocked(worldDir)) {
+                System.err.println("World " + world + " is in use, stop the server first or use --no-swap");
+                return 1;
+            }
+            long start = System.currentTimeMillis();
+            Path staged = restore.stage(backupType, snapshot, filter, System.out::println);
+            if (!swap) {
+                System.out.println("Staged " + world + " (" + filter + ") in " + staged);
+                return 0;
+            }
+            Path previous = restore.swap(worldDir, staged, filter);
+            deleteQuietly(staged.getParent().getParent());
+            System.out.printf("Restored %s (%s) in %.1fs%n", world, filter, (System.currentTimeMillis() - start) / 1000.0);
+            if (previous != null) {
+                System.out.println("The previous world was kept in " + previous);
+            }
+            return 0;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            WorldRestore.deleteRecursively(path);
+        } catch (Exception ignored) {
+        }
+    }
+}
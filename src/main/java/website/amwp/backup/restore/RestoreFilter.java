@@ -0,0 +1,187 @@
+package website.amwp.backup.restore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Which parts of a world a restore touches, parsed from e.g. "dim=nether,end region=-2,-2:1,1".
+// Dimensions are overworld, nether, end or a namespaced id like "mymod:mining". A region range
+// (region coordinates, inclusive) limits the restore to those region files in the chosen
+// dimensions. Paths are relative to the world directory.
+public class RestoreFilter {
+    public static final RestoreFilter ALL = new RestoreFilter(Set.of(), null);
+
+    private static final Pattern REGION_FILE = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca.*$");
+    private static final String[] REGION_DIRS = {"region", "entities", "poi"};
+
+    private final Set<String> dimensions;
+    private final int[] regions; // minX, minZ, maxX, maxZ
+
+    private RestoreFilter(Set<String> dimensions, int[] regions) {
+        this.dimensions = dimensions;
+        this.regions = regions;
+    }
+
+    public static RestoreFilter parse(String spec) {
+        if (spec == null || spec.isBlank() || spec.trim().equals("all")) {
+            return ALL;
+        }
+        Set<String> dimensions = new LinkedHashSet<>();
+        int[] regions = null;
+        for (String part : spec.trim().split("\\s+")) {
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected dim=... or region=..., got " + part);
+            }
+            String key = part.substring(0, eq).toLowerCase(Locale.ROOT);
+            String value = part.substring(eq + 1);
+            if (key.equals("dim")) {
+                for (String dimension : value.split(",")) {
+                    dimensions.add(normalizeDimension(dimension));
+                }
+            } else if (key.equals("region")) {
+                regions = parseRange(value);
+            } else {
+                throw new IllegalArgumentException("Unknown filter " + key);
+            }
+        }
+        if (regions != null && dimensions.isEmpty()) {
+            dimensions.add("overworld");
+        }
+        return new RestoreFilter(dimensions, regions);
+    }
+
+    public boolean isEverything() {
+        return dimensions.isEmpty();
+    }
+
+    public boolean includes(String relativePath) {
+        if (isEverything()) {
+            return true;
+        }
+        String path = relativePath.replace('\\', '/');
+        for (String dimension : dimensions) {
+            String root = dimensionRoot(dimension);
+            String rest = root.isEmpty() ? path : path.startsWith(root + "/") ? path.substring(root.length() + 1) : null;
+            if (rest == null) {
+                continue;
+            }
+            int slash = rest.indexOf('/');
+            String dir = slash < 0 ? "" : rest.substring(0, slash);
+            if (!isRegionDir(dir)) {
+                // Outside the region folders only whole (non overworld) dimensions bring their other files
+                if (regions == null && !root.isEmpty()) {
+                    return true;
+                }
+                continue;
+            }
+            if (regions == null) {
+                return true;
+            }
+            Matcher matcher = REGION_FILE.matcher(rest.substring(slash + 1));
+            if (matcher.matches()) {
+                int x = Integer.parseInt(matcher.group(1));
+                int z = Integer.parseInt(matcher.group(2));
+                if (x >= regions[0] && z >= regions[1] && x <= regions[2] && z <= regions[3]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Folders whose old contents are replaced completely rather than overlaid, which is every
+    // chosen dimension when no region range narrows it down
+    public List<String> getReplacedDirectories() {
+        List<String> result = new ArrayList<>();
+        if (regions != null) {
+            return result;
+        }
+        for (String dimension : dimensions) {
+            String root = dimensionRoot(dimension);
+            if (root.isEmpty()) {
+                for (String dir : REGION_DIRS) {
+                    result.add(dir);
+                }
+            } else {
+                result.add(root);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (isEverything()) {
+            return "all";
+        }
+        String result = "dim=" + String.join(",", dimensions);
+        if (regions != null) {
+            result += " region=" + regions[0] + "," + regions[1] + ":" + regions[2] + "," + regions[3];
+        }
+        return result;
+    }
+
+    private static boolean isRegionDir(String dir) {
+        for (String regionDir : REGION_DIRS) {
+            if (regionDir.equals(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String dimensionRoot(String dimension) {
+        switch (dimension) {
+            case "overworld":
+                return "";
+            case "nether":
+                return "DIM-1";
+            case "end":
+                return "DIM1";
+            default:
+                int colon = dimension.indexOf(':');
+                return "dimensions/" + dimension.substring(0, colon) + "/" + dimension.substring(colon + 1);
+        }
+    }
+
+    private static String normalizeDimension(String dimension) {
+        String name = dimension.trim().toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "overworld", "minecraft:overworld":
+                return "overworld";
+            case "nether", "the_nether", "minecraft:the_nether":
+                return "nether";
+            case "end", "the_end", "minecraft:the_end":
+                return "end";
+            default:
+                if (!name.matches("[a-z0-9_.-]+:[a-z0-9_./-]+")) {
+                    throw new IllegalArgumentException("Unknown dimension " + dimension);
+                }
+                return name;
+        }
+    }
+
+    // "x1,z1:x2,z2" in region coordinates, corners in any order
+    private static int[] parseRange(String value) {
+        String[] corners = value.split(":");
+        if (corners.length != 2) {
+            throw new IllegalArgumentException("Region range must look like x1,z1:x2,z2");
+        }
+        try {
+            String[] a = corners[0].split(",");
+            String[] b = corners[1].split(",");
+            int x1 = Integer.parseInt(a[0].trim());
+            int z1 = Integer.parseInt(a[1].trim());
+            int x2 = Integer.parseInt(b[0].trim());
+            int z2 = Integer.parseInt(b[1].trim());
+            return new int[]{Math.min(x1, x2), Math.min(z1, z2), Math.max(x1, x2), Math.max(z1, z2)};
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Region range must look like x1,z1:x2,z2");
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package website.amwp.backup.restore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// Where backup archives can be read from during a restore
+public interface RestoreSource {
+    // Names of all archives the source has
+    List<String> list() throws IOException;
+
+    // A local file with the archive's contents, downloaded into the directory if needed
+    Path fetch(String name, Path downloadDir) throws IOException;
+
+    // Whether fetch() created a file that can be deleted after use
+    boolean isTemporary(String name);
+}
@@ -0,0 +1,51 @@
+package website.amwp.backup.restore;
+
+import website.amwp.backup.dedup.ChunkStore;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// The chunk store's remote files as the offline restore tool reads them, through a restore
+// source pointed at the chunks folder. A restore never changes the store's remote copies, so
+// uploads and deletes are refused. Without a source only the local store can be used.
+public class SourceChunkRemote implements ChunkStore.Remote {
+    private final RestoreSource source;
+
+    public SourceChunkRemote(RestoreSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public void upload(String name, File file) throws IOException {
+        throw new IOException("The chunk store is read only during a restore");
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        throw new IOException("The chunk store is read only during a restore");
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        return source != null ? source.list() : new ArrayList<>();
+    }
+
+    @Override
+    public void download(String name, Path target) throws IOException {
+        if (source == null) {
+            throw new FileNotFoundException(name + " is not in the local chunk store");
+        }
+        Path file = source.fetch(name, target.getParent());
+        if (source.isTemporary(name)) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package website.amwp.backup.restore;
+
+import website.amwp.backup.crypto.BackupKeyring;
+import website.amwp.backup.crypto.EncryptedArchive;
+import website.amwp.backup.dedup.ChunkStore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Restores a world from its backup archives in two steps. stage() fetches the archive chain and
+// extracts it into a work directory while the server keeps running. swap() then puts the staged
+// world in place of the live one, which must not be in use; the old world is kept next to it
+// as "<world>.pre-restore-<time>". Snapshots of the deduplicating chunk store are listed and
+// staged alongside the archives when a store is set.
+public class WorldRestore {
+    private final RestoreSource source;
+    private final Path workRoot;
+    private final ExecutorService workers;
+    private BackupKeyring keyring;
+    private ChunkStore chunkStore;
+
+    public WorldRestore(RestoreSource source, Path workRoot, ExecutorService workers) {
+        this.source = source;
+        this.workRoot = workRoot;
+        this.workers = workers;
+    }
+
+    // Needed for encrypted archives
+    public void setKeyring(BackupKeyring keyring) {
+        this.keyring = keyring;
+    }
+
+    public void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+    // Every backup of the type, oldest first
+    public List<BackupNames.ArchiveName> listSnapshots(String backupType) throws IOException {
+        String prefix = BackupNames.prefix(backupType);
+        List<BackupNames.ArchiveName> snapshots = BackupNames.filter(source != null ? source.list() : List.of(), prefix);
+        if (chunkStore != null) {
+            for (String name : chunkStore.listSnapshots(prefix)) {
+                snapshots.add(BackupNames.snapshot(name));
+            }
+            snapshots.sort(Comparator.comparing(BackupNames.ArchiveName::timestamp));
+        }
+        return snapshots;
+    }
+
+    // Returns the staged world directory
+    public Path stage(String backupType, String snapshot, RestoreFilter filter, Consumer<String> progress) throws IOException {
+        List<BackupNames.ArchiveName> chain = BackupNames.chain(listSnapshots(backupType), snapshot);
+        Path work = workRoot.resolve(BackupNames.prefix(backupType) + "_" + chain.get(chain.size() - 1).timestamp());
+        deleteRecursively(work);
+        Path downloads = Files.createDirectories(work.resolve("downloads"));
+        Path staged = Files.createDirectories(work.resolve("staged"));
+
+        ArchiveExtractor extractor = new ArchiveExtractor(workers);
+        for (int i = 0; i < chain.size(); i++) {
+            String name = chain.get(i).name();
+            if (chain.get(i).chunked()) {
+                progress.accept("rebuilding " + name + " from chunks (" + (i + 1) + "/" + chain.size() + ")");
+                chunkStore.restore(name, staged, path -> filter.includes(belowRoot(path)));
+                continue;
+            }
+            progress.accept("fetching " + name + " (" + (i + 1) + "/" + chain.size() + ")");
+            Path archive = source.fetch(name, downloads);
+            Path decrypted = null;
+            try {
+                if (chain.get(i).encrypted()) {
+                    if (keyring == null || !keyring.exists()) {
+                        throw new IOException(name + " is encrypted and no keyfile is available");
+                    }
+                    progress.accept("decrypting " + name + " (" + (i + 1) + "/" + chain.size() + ")");
+                    decrypted = downloads.resolve(EncryptedArchive.plainName(name));
+                    EncryptedArchive.decrypt(archive, decrypted, keyring, workers);
+                }
+                progress.accept("extracting " + name + " (" + (i + 1) + "/" + chain.size() + ")");
+                extractor.extract((decrypted != null ? decrypted : archive).toFile(), staged, filter);
+            } finally {
+                if (decrypted != null) {
+                    Files.deleteIfExists(decrypted);
+                }
+                if (source.isTemporary(name)) {
+                    Files.deleteIfExists(archive);
+                }
+            }
+        }
+        deleteRecursively(downloads);
+
+        // Archives hold a single top level folder named after the world directory
+        try (Stream<Path> children = Files.list(staged)) {
+            List<Path> roots = children.filter(Files::isDirectory).toList();
+            if (roots.size() != 1) {
+                throw new IOException("Expected one world folder in the backup, found " + roots.size());
+            }
+            return roots.get(0);
+        }
+    }
+
+    // Puts the staged world in place. A full restore uses the staged folder as it is, a
+    // selective one is laid over a copy of the live world. Returns where the old world went.
+    public Path swap(Path worldDir, Path stagedWorld, RestoreFilter filter) throws IOException {
+        if (isLocked(worldDir)) {
+            throw new IOException("World " + worldDir.getFileName() + " is in use, stop the server first");
+        }
+
+        Path replacement = stagedWorld;
+        if (!filter.isEverything() && Files.exists(worldDir)) {
+            replacement = stagedWorld.resolveSibling(stagedWorld.getFileName() + ".merged");
+            deleteRecursively(replacement);
+            copyTree(worldDir, replacement);
+            for (String dir : filter.getReplacedDirectories()) {
+                deleteRecursively(replacement.resolve(dir));
+            }
+            overlay(stagedWorld, replacement);
+        }
+        Files.deleteIfExists(replacement.resolve("session.lock"));
+
+        // Renames are only atomic within a filesystem, so get the new world next to the old one first
+        Path incoming = worldDir.resolveSibling(worldDir.getFileName() + ".restoring");
+        deleteRecursively(incoming);
+        moveTree(replacement, incoming);
+
+        String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+        Path previous = worldDir.resolveSibling(worldDir.getFileName() + ".pre-restore-" + stamp);
+        for (int i = 2; Files.exists(previous); i++) {
+            previous = worldDir.resolveSibling(worldDir.getFileName() + ".pre-restore-" + stamp + "-" + i);
+        }
+        boolean hadWorld = Files.exists(worldDir);
+        if (hadWorld) {
+            try {
+                Files.move(worldDir, previous, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                deleteRecursively(incoming);
+                throw e;
+            }
+        }
+        try {
+            Files.move(incoming, worldDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (hadWorld) {
+                Files.move(previous, worldDir, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        return hadWorld ? previous : null;
+    }
+
+    // The game holds a lock on session.lock for as long as the world is open
+    public static boolean isLocked(Path worldDir) {
+        Path lockFile = worldDir.resolve("session.lock");
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return true; // Can't tell, assume the worst
+        }
+    }
+
+    private void copyTree(Path source, Path target) throws IOException {
+        List<Future<?>> copies = new ArrayList<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path destination = target.resolve(source.relativize(file));
+                    copies.add(workers.submit(() -> {
+                        Files.copy(file, destination, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                        return null;
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Restore interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to copy world: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<?> copy : copies) {
+                copy.cancel(true);
+            }
+        }
+    }
+
+    // Moves every file of source into target, replacing what is there
+    private static void overlay(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.move(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void moveTree(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different filesystem, copy across instead
+            copyTree(source, target);
+            deleteRecursively(source);
+        }
+    }
+
+    private static String belowRoot(String name) {
+        int slash = name.indexOf('/');
+        return slash < 0 ? name : name.substring(slash + 1);
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package website.amwp.backup.retention;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// What a policy keeps and deletes, with the reason for each decision
+public class RetentionPlan {
+    private final List<Snapshot> keep;
+    private final List<Snapshot> delete;
+    private final Map<String, String> reasons;
+
+    RetentionPlan(List<Snapshot> keep, List<Snapshot> delete, Map<String, String> reasons) {
+        this.keep = keep;
+        this.delete = delete;
+        this.reasons = reasons;
+    }
+
+    public List<Snapshot> getKeep() {
+        return Collections.unmodifiableList(keep);
+    }
+
+    public List<Snapshot> getDelete() {
+        return Collections.unmodifiableList(delete);
+    }
+
+    public String getReason(Snapshot snapshot) {
+        return reasons.getOrDefault(snapshot.name(), "");
+    }
+
+    public long getKeptBytes() {
+        return keep.stream().mapToLong(snapshot -> Math.max(0, snapshot.size())).sum();
+    }
+}
@@ -0,0 +1,142 @@
+package website.amwp.backup.retention;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.util.*;
+import java.util.function.Function;
+
+// Decides which backups of one type a RetentionPolicy keeps. An incremental backup needs the
+// full backup and the incrementals before it, so those are kept along with it. When the kept
+// backups exceed the quota, the least valuable are dropped first: the ones kept by the
+// shortest tier, oldest first, and never the newest backup or one something else depends on.
+public class RetentionPlanner {
+    private static final int RANK_DEPENDENCY = 0;
+    private static final int RANK_LAST = 1;
+    private static final int RANK_HOURLY = 2;
+    private static final int RANK_DAILY = 3;
+    private static final int RANK_WEEKLY = 4;
+    private static final int RANK_MONTHLY = 5;
+    private static final int RANK_PINNED = 6;
+
+    private RetentionPlanner() {
+    }
+
+    // pinned names are always kept, e.g. archives that still have to be uploaded
+    public static RetentionPlan plan(List<Snapshot> snapshots, RetentionPolicy policy, Set<String> pinned) {
+        List<Snapshot> sorted = new ArrayList<>(snapshots);
+        sorted.sort(Comparator.comparing(Snapshot::time).thenComparing(Snapshot::name));
+        List<Snapshot> newestFirst = new ArrayList<>(sorted);
+        Collections.reverse(newestFirst);
+
+        Map<Snapshot, Integer> ranks = new HashMap<>();
+        Map<String, String> reasons = new HashMap<>();
+        int keepLast = Math.min(Math.max(1, policy.keepLast), newestFirst.size());
+        for (Snapshot snapshot : newestFirst.subList(0, keepLast)) {
+            keep(snapshot, RANK_LAST, "last " + policy.keepLast, ranks, reasons);
+        }
+        tier(newestFirst, policy.hourly, time -> time.truncatedTo(ChronoUnit.HOURS), RANK_HOURLY, "hourly", ranks, reasons);
+        tier(newestFirst, policy.daily, LocalDateTime::toLocalDate, RANK_DAILY, "daily", ranks, reasons);
+        tier(newestFirst, policy.weekly, time -> time.get(IsoFields.WEEK_BASED_YEAR) * 100
+                + time.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR), RANK_WEEKLY, "weekly", ranks, reasons);
+        tier(newestFirst, policy.monthly, YearMonth::from, RANK_MONTHLY, "monthly", ranks, reasons);
+        for (Snapshot snapshot : sorted) {
+            if (pinned.contains(snapshot.name())) {
+                keep(snapshot, RANK_PINNED, "pending upload", ranks, reasons);
+            }
+        }
+
+        // Everything a kept incremental builds on, back to its full backup
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            Snapshot snapshot = sorted.get(i);
+            if (ranks.containsKey(snapshot) && snapshot.incremental() && i > 0 && !ranks.containsKey(sorted.get(i - 1))) {
+                keep(sorted.get(i - 1), RANK_DEPENDENCY, "needed by " + snapshot.name(), ranks, reasons);
+            }
+        }
+
+        if (policy.maxTotalMb > 0) {
+            enforceQuota(sorted, policy.maxTotalMb * 1024 * 1024, ranks, reasons);
+        }
+
+        List<Snapshot> keep = new ArrayList<>();
+        List<Snapshot> delete = new ArrayList<>();
+        for (Snapshot snapshot : sorted) {
+            if (ranks.containsKey(snapshot)) {
+                keep.add(snapshot);
+            } else {
+                reasons.putIfAbsent(snapshot.name(), "not kept by any tier");
+                delete.add(snapshot);
+            }
+        }
+        return new RetentionPlan(keep, delete, reasons);
+    }
+
+    // Keeps one backup for each of the newest count periods: the newest full backup of the
+    // period, so a day doesn't drag in its whole incremental chain, or the newest one if the
+    // period has no full backup
+    private static void tier(List<Snapshot> newestFirst, int count, Function<LocalDateTime, Object> period, int rank,
+                             String name, Map<Snapshot, Integer> ranks, Map<String, String> reasons) {
+        Map<Object, Snapshot> chosen = new LinkedHashMap<>();
+        for (Snapshot snapshot : newestFirst) {
+            Object key = period.apply(snapshot.time());
+            Snapshot current = chosen.get(key);
+            if (current == null) {
+                if (chosen.size() >= count) {
+                    break;
+                }
+                chosen.put(key, snapshot);
+            } else if (current.incremental() && !snapshot.incremental()) {
+                chosen.put(key, snapshot);
+            }
+        }
+        for (Snapshot snapshot : chosen.values()) {
+            keep(snapshot, rank, name, ranks, reasons);
+        }
+    }
+
+    private static void keep(Snapshot snapshot, int rank, String reason, Map<Snapshot, Integer> ranks, Map<String, String> reasons) {
+        Integer current = ranks.get(snapshot);
+        if (current == null || rank > current) {
+            ranks.put(snapshot, rank);
+            reasons.put(snapshot.name(), reason);
+        }
+    }
+
+    private static void enforceQuota(List<Snapshot> sorted, long limit, Map<Snapshot, Integer> ranks, Map<String, String> reasons) {
+        long total = 0;
+        for (Snapshot snapshot : ranks.keySet()) {
+            total += Math.max(0, snapshot.size());
+        }
+        Snapshot newest = sorted.isEmpty() ? null : sorted.get(sorted.size() - 1);
+        while (total > limit) {
+            Snapshot victim = null;
+            for (int i = 0; i < sorted.size(); i++) {
+                Snapshot candidate = sorted.get(i);
+                Integer rank = ranks.get(candidate);
+                if (rank == null || rank == RANK_PINNED || candidate == newest || hasKeptDependent(sorted, i, ranks)) {
+                    continue;
+                }
+                // sorted is oldest first, so the first one of the lowest rank wins
+                if (victim == null || rank < ranks.get(victim)) {
+                    victim = candidate;
+                }
+            }
+            if (victim == null) {
+                return; // Everything left is needed, the quota can't be met
+            }
+            ranks.remove(victim);
+            reasons.put(victim.name(), "over quota");
+            total -= Math.max(0, victim.size());
+        }
+    }
+
+    private static boolean hasKeptDependent(List<Snapshot> sorted, int index, Map<Snapshot, Integer> ranks) {
+        for (int i = index + 1; i < sorted.size() && sorted.get(i).incremental(); i++) {
+            if (ranks.containsKey(sorted.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
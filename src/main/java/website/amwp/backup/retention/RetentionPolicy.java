@@ -0,0 +1,27 @@
+package website.amwp.backup.retention;
+
+// Grandfather-father-son retention: the newest keepLast backups, plus one backup from each of
+// the last N hours, days, ISO weeks and months that have one. maxTotalMb caps what the kept
+// backups may use, 0 for no cap.
+public class RetentionPolicy {
+    public int keepLast;
+    public int hourly;
+    public int daily;
+    public int weekly;
+    public int monthly;
+    public long maxTotalMb;
+
+    public RetentionPolicy(int keepLast, int hourly, int daily, int weekly, int monthly, long maxTotalMb) {
+        this.keepLast = keepLast;
+        this.hourly = hourly;
+        this.daily = daily;
+        this.weekly = weekly;
+        this.monthly = monthly;
+        this.maxTotalMb = maxTotalMb;
+    }
+
+    public String describe() {
+        return "last " + keepLast + ", " + hourly + " hourly, " + daily + " daily, " + weekly + " weekly, "
+                + monthly + " monthly, " + (maxTotalMb > 0 ? "quota " + maxTotalMb + " MB" : "no quota");
+    }
+}
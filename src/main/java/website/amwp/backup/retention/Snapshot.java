@@ -0,0 +1,21 @@
+package website.amwp.backup.retention;
+
+import website.amwp.backup.restore.BackupNames;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// One backup archive as retention sees it. location is the local path or the Drive file id.
+public record Snapshot(String name, String prefix, LocalDateTime time, boolean incremental, long size, String location) {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    // Null for names that don't follow the archive naming convention
+    public static Snapshot of(String name, long size, String location) {
+        BackupNames.ArchiveName parsed = BackupNames.parse(name);
+        if (parsed == null) {
+            return null;
+        }
+        return new Snapshot(name, parsed.prefix(), LocalDateTime.parse(parsed.timestamp(), TIMESTAMP),
+                parsed.incremental(), size, location);
+    }
+}
@@ -0,0 +1,119 @@
+package website.amwp.backup.retention;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Index of the archives in the local backups folder. Archives are added as they are written
+// and removed as they are deleted, so retention can plan without listing the folder. The
+// folder is scanned once when there is no index yet, or on request.
+public class SnapshotCatalog {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type LIST_TYPE = new TypeToken<List<Entry>>() {}.getType();
+
+    private final Path path;
+    private final Path backupsDir;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private static class Entry {
+        String name;
+        long size;
+    }
+
+    public SnapshotCatalog(Path path, Path backupsDir) {
+        this.path = path;
+        this.backupsDir = backupsDir;
+        if (!load()) {
+            rescan();
+        }
+    }
+
+    public synchronized void add(File archive) {
+        if (Snapshot.of(archive.getName(), 0, null) == null) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.name = archive.getName();
+        entry.size = archive.length();
+        entries.put(entry.name, entry);
+        save();
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            save();
+        }
+    }
+
+    // Archives of one backup type
+    public synchronized List<Snapshot> list(String prefix) {
+        List<Snapshot> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            Snapshot snapshot = Snapshot.of(entry.name, entry.size, backupsDir.resolve(entry.name).toString());
+            if (snapshot != null && snapshot.prefix().equals(prefix)) {
+                result.add(snapshot);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void rescan() {
+        entries.clear();
+        if (Files.isDirectory(backupsDir)) {
+            try (Stream<Path> files = Files.list(backupsDir)) {
+                files.filter(Files::isRegularFile).forEach(file -> {
+                    if (Snapshot.of(file.getFileName().toString(), 0, null) != null) {
+                        Entry entry = new Entry();
+                        entry.name = file.getFileName().toString();
+                        entry.size = file.toFile().length();
+                        entries.put(entry.name, entry);
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        save();
+    }
+
+    private boolean load() {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (Reader reader = new FileReader(path.toFile())) {
+            List<Entry> loaded = GSON.fromJson(reader, LIST_TYPE);
+            if (loaded == null) {
+                return false;
+            }
+            loaded.forEach(entry -> entries.put(entry.name, entry));
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = new FileWriter(temp.toFile())) {
+                GSON.toJson(new ArrayList<>(entries.values()), writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
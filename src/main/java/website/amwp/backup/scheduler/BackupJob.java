@@ -0,0 +1,120 @@
+package website.amwp.backup.scheduler;
+
+import website.amwp.backup.progress.BackupProgress;
+
+import java.util.concurrent.CompletableFuture;
+
+// One unit of scheduled work, normally the backup of a single world or the mods folder.
+// A job is RUNNING while it holds a worker and UPLOADING while only its upload is left,
+// which no longer blocks the next job.
+public class BackupJob {
+    public enum State { QUEUED, RUNNING, UPLOADING, DONE, FAILED, CANCELLED }
+
+    public interface Work {
+        // Returns a future for work that continues after the worker is released, e.g. an upload
+        CompletableFuture<Void> run(BackupJob job) throws Exception;
+    }
+
+    private final int id;
+    private final String target;
+    private final int priority;
+    private final long sequence;
+    private final Work work;
+    private final long queuedAt = System.currentTimeMillis();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final BackupProgress progress;
+    private volatile State state = State.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean cancelRequested;
+    volatile Thread thread;
+
+    BackupJob(int id, String target, int priority, long sequence, Work work) {
+        this.id = id;
+        this.target = target;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.work = work;
+        this.progress = new BackupProgress(target);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Work getWork() {
+        return work;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+        if (state == State.RUNNING) {
+            startedAt = System.currentTimeMillis();
+        } else if (state == State.DONE || state == State.FAILED || state == State.CANCELLED) {
+            finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    public String getProgress() {
+        return progress.describe();
+    }
+
+    public void setProgress(String stage) {
+        progress.begin(stage, 0, 0);
+    }
+
+    // A stage whose counters the workers advance while it runs
+    public BackupProgress setProgress(String stage, long bytesTotal, long filesTotal) {
+        progress.begin(stage, bytesTotal, filesTotal);
+        return progress;
+    }
+
+    public BackupProgress getTracker() {
+        return progress;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    // Completes when the job reaches DONE, FAILED or CANCELLED
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+}
@@ -0,0 +1,301 @@
+package website.amwp.backup.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fires backup runs from a cron expression or a fixed interval and runs the resulting jobs
+// on a worker pool in priority order. A job for a target that is already waiting in the
+// queue is coalesced into the waiting one instead of piling up a duplicate, and jobs for the
+// same target never run side by side: a job whose target is busy waits for that one to end.
+public class BackupScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final int HISTORY_SIZE = 20;
+
+    private final Runnable trigger;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DriveBackup-Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ThreadPoolExecutor workers;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Guarded by this
+    private final Map<Integer, BackupJob> active = new LinkedHashMap<>();
+    private final Map<Integer, JobTask> queued = new LinkedHashMap<>();
+    private final Map<String, Integer> runningTargets = new HashMap<>(); // Target to the job holding it
+    private final Map<String, JobTask> waiting = new HashMap<>(); // Queued jobs held back by a busy target
+    private final Deque<BackupJob> history = new ArrayDeque<>();
+    // What getJobs() returns, replaced whenever the two above change. The progress display polls
+    // it from the server thread, which must never wait for this lock.
+    private volatile List<BackupJob> jobs = List.of();
+    private ScheduledFuture<?> nextTrigger;
+    private LocalDateTime nextRun;
+    private String cron;
+    private long intervalMillis;
+    private int generation; // Bumped by schedule(), so a trigger that already fired can tell it was replaced
+
+    public BackupScheduler(Runnable trigger, int concurrency) {
+        this.trigger = trigger;
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, concurrency);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "DriveBackup-Worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setConcurrency(int concurrency) {
+        int threads = Math.max(1, concurrency);
+        if (threads > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(threads);
+            workers.setCorePoolSize(threads);
+        } else {
+            workers.setCorePoolSize(threads);
+            workers.setMaximumPoolSize(threads);
+        }
+    }
+
+    // (Re)arms the trigger: the cron expression when set, otherwise every intervalMillis
+    public synchronized void schedule(String cron, long intervalMillis) {
+        this.cron = cron;
+        this.intervalMillis = intervalMillis;
+        generation++;
+        arm();
+    }
+
+    // Guarded by this
+    private void arm() {
+        if (nextTrigger != null) {
+            nextTrigger.cancel(false);
+        }
+        // Zoned, so the delay stays right when the clocks change before the next run
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime fireAt;
+        if (cron != null && !cron.isBlank()) {
+            fireAt = CronExpression.parse(cron).next(now);
+        } else {
+            fireAt = now.plus(Duration.ofMillis(Math.max(60000, intervalMillis)));
+        }
+        nextRun = fireAt != null ? fireAt.toLocalDateTime() : null;
+        if (fireAt == null) {
+            LOGGER.warn("Backup schedule '{}' never fires", cron);
+            return;
+        }
+
+        long delay = Math.max(0, Duration.between(now, fireAt).toMillis());
+        int armedGeneration = generation;
+        nextTrigger = timer.schedule(() -> {
+            try {
+                trigger.run();
+            } catch (Exception e) {
+                LOGGER.error("Scheduled backup failed to start: {}", e.getMessage());
+            }
+            // A schedule() while the backup was starting has armed the new schedule already
+            synchronized (this) {
+                if (generation == armedGeneration) {
+                    arm();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized LocalDateTime getNextRun() {
+        return nextRun;
+    }
+
+    // Queues a job, or returns the job already waiting for the same target
+    public synchronized BackupJob submit(String target, int priority, BackupJob.Work work) {
+        for (JobTask task : queued.values()) {
+            if (task.job.getTarget().equals(target)) {
+                return task.job;
+            }
+        }
+
+        BackupJob job = new BackupJob(ids.incrementAndGet(), target, priority, sequence.incrementAndGet(), work);
+        JobTask task = new JobTask(job);
+        active.put(job.getId(), job);
+        queued.put(job.getId(), task);
+        workers.execute(task);
+        publishJobs();
+        return job;
+    }
+
+    public boolean cancel(int id) {
+        BackupJob cancelled;
+        synchronized (this) {
+            BackupJob job = active.get(id);
+            if (job == null) {
+                return false;
+            }
+            JobTask task = queued.remove(id);
+            if (task == null) {
+                if (job.getState() == BackupJob.State.RUNNING) {
+                    job.requestCancel();
+                    Thread thread = job.thread;
+                    if (thread != null) {
+                        thread.interrupt();
+                    }
+                    return true;
+                }
+                return false; // Uploading jobs finish on their own
+            }
+            workers.remove(task);
+            cancelled = record(job, BackupJob.State.CANCELLED) ? job : null;
+        }
+        if (cancelled != null) {
+            cancelled.getCompletion().complete(null);
+        }
+        return true;
+    }
+
+    public void cancelAll() {
+        List<Integer> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(active.keySet());
+        }
+        for (Integer id : ids) {
+            cancel(id);
+        }
+    }
+
+    // Active jobs first, then recently finished ones, newest first
+    public List<BackupJob> getJobs() {
+        return jobs;
+    }
+
+    // Guarded by this
+    private void publishJobs() {
+        List<BackupJob> list = new ArrayList<>(active.values());
+        list.addAll(history);
+        jobs = List.copyOf(list);
+    }
+
+    // Waits for every queued, running and uploading job; false if the timeout hit first
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (!active.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private synchronized boolean start(JobTask task) {
+        if (!queued.containsKey(task.job.getId())) {
+            return false; // Cancelled while waiting
+        }
+        String target = task.job.getTarget();
+        if (runningTargets.containsKey(target)) {
+            waiting.put(target, task); // Coalescing keeps this to one job per target
+            return false;
+        }
+        queued.remove(task.job.getId());
+        runningTargets.put(target, task.job.getId());
+        task.job.setState(BackupJob.State.RUNNING);
+        task.job.thread = Thread.currentThread();
+        return true;
+    }
+
+    // Callbacks on the job's completion run outside the lock, they may be slow or call back in
+    private void finish(BackupJob job, BackupJob.State state) {
+        if (record(job, state)) {
+            job.getCompletion().complete(null);
+        }
+    }
+
+    private synchronized boolean record(BackupJob job, BackupJob.State state) {
+        if (job.isFinished()) {
+            return false;
+        }
+        job.setState(job.isCancelRequested() && state != BackupJob.State.DONE ? BackupJob.State.CANCELLED : state);
+        active.remove(job.getId());
+        if (runningTargets.remove(job.getTarget(), job.getId())) {
+            JobTask next = waiting.remove(job.getTarget());
+            if (next != null) {
+                workers.execute(next);
+            }
+        }
+        history.addFirst(job);
+        while (history.size() > HISTORY_SIZE) {
+            history.removeLast();
+        }
+        publishJobs();
+        notifyAll();
+        return true;
+    }
+
+    private class JobTask implements Runnable, Comparable<JobTask> {
+        final BackupJob job;
+
+        JobTask(BackupJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            if (!start(this)) {
+                return;
+            }
+            CompletableFuture<Void> remaining;
+            try {
+                remaining = job.getWork().run(job);
+            } catch (Exception e) {
+                LOGGER.error("Backup job #{} ({}) failed: {}", job.getId(), job.getTarget(), e.getMessage());
+                finish(job, BackupJob.State.FAILED);
+                return;
+            } finally {
+                job.thread = null;
+                Thread.interrupted(); // Don't carry a cancel into the next job
+            }
+
+            if (remaining == null || remaining.isDone()) {
+                finish(job, remaining != null && remaining.isCompletedExceptionally()
+                        ? BackupJob.State.FAILED : BackupJob.State.DONE);
+                return;
+            }
+            job.setState(BackupJob.State.UPLOADING);
+            remaining.whenComplete((result, error) ->
+                    finish(job, error != null ? BackupJob.State.FAILED : BackupJob.State.DONE));
+        }
+
+        // Higher priority first, then in submission order
+        @Override
+        public int compareTo(JobTask other) {
+            int byPriority = Integer.compare(other.job.getPriority(), job.getPriority());
+            return byPriority != 0 ? byPriority : Long.compare(job.getSequence(), other.job.getSequence());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package website.amwp.backup.scheduler;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+// Standard five field cron expression: minute hour day-of-month month day-of-week.
+// Fields accept *, numbers, ranges (1-5), lists (1,15,30) and steps (*/15, 0-30/10).
+// Day of week is 0-7 with both 0 and 7 meaning Sunday. Like cron, when both day fields are
+// restricted a time matches if either of them does; as in Vixie cron a field starting with *
+// is never restricted, so "*/2" days of month still have to fall on the day of week too.
+// @hourly, @daily, @weekly and @monthly are accepted as shorthands.
+//
+// Expressions match wall-clock time. When clocks go forward, a time in the skipped hour runs
+// as much later as the clocks moved (02:30 runs at 03:30). When they go back, a time in the
+// repeated hour runs at its first occurrence only, unless the search starts in the repeated
+// hour itself.
+public class CronExpression {
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean dayOfMonthRestricted;
+    private final boolean dayOfWeekRestricted;
+
+    private CronExpression(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59);
+        this.hours = parseField(fields[1], 0, 23);
+        this.daysOfMonth = parseField(fields[2], 1, 31);
+        this.months = parseField(fields[3], 1, 12);
+        BitSet dow = parseField(fields[4], 0, 7);
+        if (dow.get(7)) {
+            dow.set(0);
+        }
+        this.daysOfWeek = dow;
+        this.dayOfMonthRestricted = !fields[2].startsWith("*");
+        this.dayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    public static CronExpression parse(String expression) {
+        String trimmed = expression.trim();
+        String expanded = switch (trimmed) {
+            case "@hourly" -> "0 * * * *";
+            case "@daily", "@midnight" -> "0 0 * * *";
+            case "@weekly" -> "0 0 * * 0";
+            case "@monthly" -> "0 0 1 * *";
+            default -> trimmed;
+        };
+        String[] fields = expanded.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression needs 5 fields: " + expression);
+        }
+        return new CronExpression(trimmed, fields);
+    }
+
+    // First matching minute strictly after the given time, or null if none within five years
+    public LocalDateTime next(LocalDateTime after) {
+        LocalDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = after.plusYears(5);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).withHour(0).withMinute(0).plusMonths(1);
+                continue;
+            }
+            if (!matchesDay(time)) {
+                time = time.withHour(0).withMinute(0).plusDays(1);
+                continue;
+            }
+            if (!hours.get(time.getHour())) {
+                time = time.withMinute(0).plusHours(1);
+                continue;
+            }
+            if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+                continue;
+            }
+            return time;
+        }
+        return null;
+    }
+
+    // First matching time strictly after the given one, on the wall clock of its zone
+    public ZonedDateTime next(ZonedDateTime after) {
+        LocalDateTime next = next(after.toLocalDateTime());
+        if (next == null) {
+            return null;
+        }
+        // atZone moves a time in a gap forward and picks the first of two in an overlap
+        ZonedDateTime time = next.atZone(after.getZone());
+        return time.isAfter(after) ? time : time.withLaterOffsetAtOverlap();
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dom = daysOfMonth.get(time.getDayOfMonth());
+        boolean dow = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (dayOfMonthRestricted && dayOfWeekRestricted) {
+            return dom || dow;
+        }
+        return dom && dow;
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max);
+                part = part.substring(0, slash);
+            }
+
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else if (part.contains("-")) {
+                String[] range = part.split("-", 2);
+                from = parseNumber(range[0], min, max);
+                to = parseNumber(range[1], min, max);
+                if (from > to) {
+                    throw new IllegalArgumentException("Invalid range " + part);
+                }
+            } else {
+                from = parseNumber(part, min, max);
+                to = slash >= 0 ? max : from;
+            }
+
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int parseNumber(String text, int min, int max) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value < min || value > max) {
+                throw new IllegalArgumentException("Value " + value + " outside " + min + "-" + max);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cron value '" + text + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,82 @@
+package website.amwp.backup.snapshot;
+
+import net.minecraft.server.MinecraftServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Snapshots of several worlds taken at one point in time, for worlds that only make sense
+// together. The first world job to need its snapshot stages all of them in one save-off
+// window, the others pick up their copy when they get to run.
+public class SnapshotGroup {
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final MinecraftServer server;
+    private final List<Path> worlds;
+    private final Path stagingRoot;
+    private final String mode;
+    private final Consumer<Path> frozen;
+    private Map<Path, WorldSnapshot> unclaimed;
+    private IOException failure;
+
+    // Staged under a directory of its own, a world's regular snapshot may be in use meanwhile.
+    // frozen is called for every world of the group inside the save-off window, see takeAll.
+    public SnapshotGroup(MinecraftServer server, List<Path> worlds, Path stagingRoot, String mode, Consumer<Path> frozen) {
+        this.server = server;
+        this.worlds = worlds;
+        this.stagingRoot = stagingRoot.resolve("group-" + ids.incrementAndGet());
+        this.mode = mode;
+        this.frozen = frozen;
+    }
+
+    // The world's snapshot, staging the whole group on first use. Closing it is up to the caller.
+    public synchronized WorldSnapshot claim(Path worldDir) throws IOException {
+        if (unclaimed == null && failure == null) {
+            try {
+                List<WorldSnapshot> snapshots = WorldSnapshot.takeAll(server, worlds, stagingRoot, mode, frozen);
+                unclaimed = new HashMap<>();
+                for (int i = 0; i < worlds.size(); i++) {
+                    unclaimed.put(worlds.get(i), snapshots.get(i));
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Coordinated snapshot failed: " + failure.getMessage(), failure);
+        }
+        WorldSnapshot snapshot = unclaimed.remove(worldDir);
+        if (snapshot == null) {
+            throw new IOException("No coordinated snapshot of " + worldDir.getFileName());
+        }
+        return snapshot;
+    }
+
+    // Removes the copies of worlds whose job never ran, once every job of the group is over
+    public synchronized void discardUnclaimed() {
+        if (unclaimed != null) {
+            for (WorldSnapshot snapshot : unclaimed.values()) {
+                try {
+                    snapshot.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to remove staged snapshot: {}", e.getMessage());
+                }
+            }
+            unclaimed.clear();
+        }
+        try {
+            Files.deleteIfExists(stagingRoot);
+        } catch (IOException e) {
+            // Still holds a snapshot some job is reading, it removes its own copy
+        }
+    }
+}
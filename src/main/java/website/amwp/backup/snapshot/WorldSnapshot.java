@@ -0,0 +1,291 @@
+package website.amwp.backup.snapshot;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Point-in-time copy of a world directory. Saving is flushed and switched off on the server
+// thread (like save-all flush + save-off), the world is staged as fast as the filesystem
+// allows, and saving is switched back on. The backup then reads the staged copy at its own pace.
+public class WorldSnapshot implements AutoCloseable {
+    public static final String MODE_AUTO = "auto";   // reflink if the filesystem can, otherwise link + copy
+    public static final String MODE_COPY = "copy";   // always link + parallel copy
+    public static final String MODE_LIVE = "live";   // no snapshot, read the live world
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("drivebackup");
+    private static final long SERVER_TIMEOUT_SECONDS = 30;
+    private static final int COPY_THREADS = 4;
+
+    // Jobs for different worlds can stage at the same time. Saving is switched off by the first
+    // of them and back on by the last, with the flags the worlds had before the first.
+    private static final Object FREEZE_LOCK = new Object();
+    private static int freezeCount;
+    private static Map<ServerWorld, Boolean> savedFlags;
+
+    private final Path directory;
+    private final long frozenMillis;
+
+    private WorldSnapshot(Path directory, long frozenMillis) {
+        this.directory = directory;
+        this.frozenMillis = frozenMillis;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // How long the server had saving switched off for this snapshot
+    public long getFrozenMillis() {
+        return frozenMillis;
+    }
+
+    public static WorldSnapshot take(MinecraftServer server, Path worldDir, Path stagingRoot, String mode,
+                                     Consumer<Path> frozen) throws IOException {
+        return takeAll(server, List.of(worldDir), stagingRoot, mode, frozen).get(0);
+    }
+
+    // Stages every world within one save-off window, so together they show a single moment.
+    // Saving stays off until the last of them is staged. frozen is called for each world once
+    // its saves are flushed and before it is copied, nothing is written to it in between.
+    public static List<WorldSnapshot> takeAll(MinecraftServer server, List<Path> worldDirs, Path stagingRoot,
+                                              String mode, Consumer<Path> frozen) throws IOException {
+        List<Path> stagings = new ArrayList<>();
+        for (Path worldDir : worldDirs) {
+            Path staging = stagingRoot.resolve(worldDir.getFileName());
+            deleteRecursively(staging);
+            stagings.add(staging);
+        }
+        Files.createDirectories(stagingRoot);
+
+        // A stopping server no longer runs queued tasks, it has saved everything by then anyway
+        boolean paused = server != null && server.isRunning() && freeze(server);
+        if (!paused) {
+            LOGGER.warn("Could not pause saving, staging {} from the live world", worldDirs.size() == 1
+                    ? worldDirs.get(0).getFileName() : worldDirs.size() + " worlds");
+        }
+        long start = System.nanoTime();
+        try {
+            for (Path worldDir : worldDirs) {
+                frozen.accept(worldDir);
+            }
+            for (int i = 0; i < worldDirs.size(); i++) {
+                stage(worldDirs.get(i), stagings.get(i), mode);
+            }
+        } catch (IOException e) {
+            for (Path staging : stagings) {
+                try {
+                    deleteRecursively(staging);
+                } catch (IOException cleanupError) {
+                    e.addSuppressed(cleanupError);
+                }
+            }
+            throw e;
+        } finally {
+            if (paused) {
+                thaw(server);
+            }
+        }
+        long frozenMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<WorldSnapshot> snapshots = new ArrayList<>();
+        for (Path staging : stagings) {
+            Files.deleteIfExists(staging.resolve("session.lock"));
+            snapshots.add(new WorldSnapshot(staging, frozenMillis));
+        }
+        return snapshots;
+    }
+
+    private static void stage(Path worldDir, Path staging, String mode) throws IOException {
+        if (!MODE_COPY.equals(mode) && reflinkCopy(worldDir, staging)) {
+            LOGGER.debug("Staged {} with reflinks", worldDir.getFileName());
+        } else {
+            deleteRecursively(staging);
+            linkAndCopy(worldDir, staging);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deleteRecursively(directory);
+    }
+
+    // Runs save-all flush and save-off on the server thread, unless another snapshot already did
+    private static boolean freeze(MinecraftServer server) {
+        synchronized (FREEZE_LOCK) {
+            if (freezeCount == 0) {
+                Map<ServerWorld, Boolean> previous = new IdentityHashMap<>();
+                // Once the wait times out the task either never runs or must not turn saving off,
+                // unless it got that far already, then it is counted like any other freeze
+                AtomicBoolean claimed = new AtomicBoolean();
+                boolean done = runOnServer(server, () -> {
+                    server.saveAll(true, true, true);
+                    if (!claimed.compareAndSet(false, true)) {
+                        return;
+                    }
+                    for (ServerWorld world : server.getWorlds()) {
+                        previous.put(world, world.savingDisabled);
+                        world.savingDisabled = true;
+                    }
+                });
+                if (!done && claimed.compareAndSet(false, true)) {
+                    return false;
+                }
+                savedFlags = previous;
+            }
+            freezeCount++;
+            return true;
+        }
+    }
+
+    private static void thaw(MinecraftServer server) {
+        synchronized (FREEZE_LOCK) {
+            if (--freezeCount > 0) {
+                return;
+            }
+            Map<ServerWorld, Boolean> previous = savedFlags;
+            savedFlags = null;
+            if (!runOnServer(server, () -> previous.forEach((world, disabled) -> world.savingDisabled = disabled))) {
+                // Better to flip the flags from here than to leave saving off
+                previous.forEach((world, disabled) -> world.savingDisabled = disabled);
+            }
+        }
+    }
+
+    private static boolean runOnServer(MinecraftServer server, Runnable task) {
+        if (server.isOnThread()) {
+            task.run();
+            return true;
+        }
+        CompletableFuture<Void> future = server.submit(task);
+        try {
+            future.get(SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            future.cancel(false); // Skipped if still queued
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(false);
+            LOGGER.warn("Server thread did not run snapshot task: {}", e.toString());
+            return false;
+        }
+    }
+
+    // Copy-on-write clone of the whole tree in one go, only where the filesystem supports it
+    private static boolean reflinkCopy(Path source, Path target) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("cp", "-a", "--reflink=always",
+                    source.toString(), target.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Files the game replaces by writing a temp file and renaming it get hard linked, since a
+    // later save creates a new inode and leaves the link alone. Files written in place (region
+    // files, data/*.dat, stats, ...) are copied in parallel.
+    private static void linkAndCopy(Path source, Path target) throws IOException {
+        ExecutorService copyPool = Executors.newFixedThreadPool(COPY_THREADS, r -> {
+            Thread thread = new Thread(r, "DriveBackup-Snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> copies = new ArrayList<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().equals("session.lock")) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path destination = target.resolve(source.relativize(file));
+                    if (isReplacedAtomically(source.relativize(file)) && tryLink(destination, file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    copies.add(copyPool.submit(() -> {
+                        Files.copy(file, destination, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                        return null;
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Snapshot interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NoSuchFileException) {
+                throw new IOException("File vanished while staging: " + e.getCause().getMessage(), e.getCause());
+            }
+            throw new IOException("Failed to stage world: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            copyPool.shutdownNow();
+        }
+    }
+
+    private static boolean isReplacedAtomically(Path relative) {
+        String name = relative.getFileName().toString();
+        return name.equals("level.dat") || name.equals("level.dat_old")
+                || (relative.getParent() != null && relative.getParent().endsWith("playerdata") && name.endsWith(".dat"));
+    }
+
+    private static boolean tryLink(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false; // Different filesystem or no hard link support, copy instead
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
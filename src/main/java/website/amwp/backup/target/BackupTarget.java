@@ -0,0 +1,27 @@
+package website.amwp.backup.target;
+
+import website.amwp.backup.retention.Snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Somewhere finished archives are kept. Every target does its work on its own threads, so a
+// backup can hand the same archive to all of them at once and a slow or unreachable one only
+// holds up its own copy.
+public interface BackupTarget {
+    String getName();
+
+    // Completes once the archive is stored under fileName, exceptionally if that failed
+    CompletableFuture<Void> store(File archive, String fileName);
+
+    // Archives whose name starts with the prefix. A snapshot's location is whatever delete() needs.
+    List<Snapshot> list(String prefix) throws IOException;
+
+    void delete(List<Snapshot> snapshots) throws IOException;
+
+    // Lets queued work finish, then releases the target's threads
+    default void shutdown() {
+    }
+}
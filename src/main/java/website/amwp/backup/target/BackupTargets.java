@@ -0,0 +1,40 @@
+package website.amwp.backup.target;
+
+import website.amwp.backup.config.BackupConfig;
+import website.amwp.backup.throttle.BandwidthLimiter;
+
+import java.nio.file.Path;
+
+public final class BackupTargets {
+    public static final String TYPE_DIRECTORY = "directory";
+    public static final String TYPE_S3 = "s3";
+
+    private BackupTargets() {
+    }
+
+    public static BackupTarget create(BackupConfig.TargetConfig config) {
+        if (config.name == null || config.name.isEmpty()) {
+            throw new IllegalArgumentException("Target has no name");
+        }
+        String type = config.type != null ? config.type : "";
+        switch (type) {
+            case TYPE_DIRECTORY -> {
+                if (config.path == null || config.path.isEmpty()) {
+                    throw new IllegalArgumentException("Target " + config.name + " has no path");
+                }
+                return new DirectoryTarget(config.name, Path.of(config.path));
+            }
+            case TYPE_S3 -> {
+                if (config.endpoint == null || config.bucket == null) {
+                    throw new IllegalArgumentException("Target " + config.name + " needs an endpoint and a bucket");
+                }
+                S3Target target = new S3Target(config.name, config.endpoint,
+                        config.region != null ? config.region : "us-east-1", config.bucket, config.prefix,
+                        config.accessKey, config.secretKey, config.pathStyle, BackupConfig.getInstance().getUploadMaxRetries());
+                target.setBandwidthLimiter(BandwidthLimiter.getInstance());
+                return target;
+            }
+            default -> throw new IllegalArgumentException("Unknown type " + type + " for target " + config.name);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package website.amwp.backup.target;
+
+import website.amwp.backup.retention.Snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+// Copies archives into a directory, typically a NAS mount. A copy is written next to its final
+// name and renamed once complete, so an interrupted copy never looks like a finished archive.
+public class DirectoryTarget implements BackupTarget {
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final String name;
+    private final Path directory;
+    private final ExecutorService executor;
+
+    public DirectoryTarget(String name, Path directory) {
+        this.name = name;
+        this.directory = directory;
+        this.executor = TargetExecutors.create(name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public CompletableFuture<Void> store(File archive, String fileName) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                copy(archive, fileName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private void copy(File archive, String fileName) throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(fileName);
+        if (Files.exists(target) && Files.size(target) == archive.length()) {
+            return; // Copied by an earlier attempt of the same backup
+        }
+        Path partial = directory.resolve(fileName + PARTIAL_SUFFIX);
+        try {
+            Files.copy(archive.toPath(), partial, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    @Override
+    public List<Snapshot> list(String prefix) throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Snapshot snapshot = Snapshot.of(file.getFileName().toString(), Files.size(file), file.toString());
+                if (snapshot != null && snapshot.prefix().equals(prefix)) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void delete(List<Snapshot> snapshots) throws IOException {
+        for (Snapshot snapshot : snapshots) {
+            Files.deleteIfExists(Path.of(snapshot.location()));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,324 @@
+package website.amwp.backup.target;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import website.amwp.backup.retention.Snapshot;
+import website.amwp.backup.throttle.BandwidthLimiter;
+import website.amwp.backup.throttle.TransferMeter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Stores archives in an S3-compatible bucket (AWS, MinIO, Backblaze, Wasabi...) over plain
+// HTTP requests signed with SigV4. Archives up to one part are sent with a single PUT, larger
+// ones as a multipart upload whose parts are retried on their own. A multipart upload that
+// fails is aborted so the bucket doesn't keep paying for its parts.
+public class S3Target implements BackupTarget {
+    private static final int PART_SIZE = 16 * 1024 * 1024; // S3 wants at least 5 MB for all but the last part
+    private static final int MAX_DELETE_BATCH = 1000; // DeleteObjects limit
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 32000;
+
+    private final String name;
+    private final URI endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final boolean pathStyle;
+    private final S3Signer signer;
+    private final int maxRetries;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final TransferMeter meter = new TransferMeter();
+    private BandwidthLimiter limiter;
+
+    public S3Target(String name, String endpoint, String region, String bucket, String prefix,
+                    String accessKey, String secretKey, boolean pathStyle, int maxRetries) {
+        this.name = name;
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.bucket = bucket;
+        this.prefix = prefix != null ? prefix : "";
+        this.pathStyle = pathStyle;
+        this.signer = new S3Signer(accessKey, secretKey, region);
+        this.maxRetries = maxRetries;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+        this.executor = TargetExecutors.create(name);
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public CompletableFuture<Void> store(File archive, String fileName) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                upload(archive, prefix + fileName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private void upload(File archive, String key) throws IOException {
+        long size = archive.length();
+        HttpResponse<String> head = request("HEAD", objectUri(key, null), null, new LinkedHashMap<>());
+        if (head.statusCode() == 200 && head.headers().firstValueAsLong("Content-Length").orElse(-1) == size) {
+            return; // Stored by an earlier attempt of the same backup
+        }
+
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            if (size <= PART_SIZE) {
+                byte[] body = readPart(channel, 0, (int) size);
+                check(request("PUT", objectUri(key, null), body, contentMd5(body)), "upload " + key);
+                return;
+            }
+
+            String uploadId = text(parse(check(request("POST", objectUri(key, "uploads="), null, new LinkedHashMap<>()),
+                    "start upload of " + key)), "UploadId");
+            String encodedId = S3Signer.encode(uploadId, false);
+            try {
+                StringBuilder complete = new StringBuilder("<CompleteMultipartUpload>");
+                int partNumber = 1;
+                for (long offset = 0; offset < size; offset += PART_SIZE, partNumber++) {
+                    byte[] part = readPart(channel, offset, (int) Math.min(PART_SIZE, size - offset));
+                    HttpResponse<String> response = check(request("PUT",
+                            objectUri(key, "partNumber=" + partNumber + "&uploadId=" + encodedId), part, contentMd5(part)),
+                            "upload part " + partNumber + " of " + key);
+                    String etag = response.headers().firstValue("ETag")
+                            .orElseThrow(() -> new IOException("No ETag for part of " + key));
+                    complete.append("<Part><PartNumber>").append(partNumber).append("</PartNumber><ETag>")
+                            .append(escapeXml(etag)).append("</ETag></Part>");
+                }
+                complete.append("</CompleteMultipartUpload>");
+
+                // Completion can fail with a 200 whose body is an error
+                Document result = parse(check(request("POST", objectUri(key, "uploadId=" + encodedId),
+                        complete.toString().getBytes(StandardCharsets.UTF_8), new LinkedHashMap<>()), "complete upload of " + key));
+                if ("Error".equals(result.getDocumentElement().getTagName())) {
+                    throw new IOException("Failed to complete upload of " + key + ": " + text(result, "Message"));
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    request("DELETE", objectUri(key, "uploadId=" + encodedId), null, new LinkedHashMap<>());
+                } catch (IOException abortError) {
+                    e.addSuppressed(abortError);
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public List<Snapshot> list(String archivePrefix) throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        String token = null;
+        do {
+            String query = "list-type=2&prefix=" + S3Signer.encode(prefix + archivePrefix, false)
+                    + (token != null ? "&continuation-token=" + S3Signer.encode(token, false) : "");
+            Document page = parse(check(request("GET", bucketUri(query), null, new LinkedHashMap<>()), "list " + bucket));
+            NodeList contents = page.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element object = (Element) contents.item(i);
+                String key = text(object, "Key");
+                Snapshot snapshot = Snapshot.of(key.substring(prefix.length()), Long.parseLong(text(object, "Size")), key);
+                if (snapshot != null && snapshot.prefix().equals(archivePrefix)) {
+                    snapshots.add(snapshot);
+                }
+            }
+            token = "true".equals(text(page, "IsTruncated")) ? text(page, "NextContinuationToken") : null;
+        } while (token != null);
+        return snapshots;
+    }
+
+    @Override
+    public void delete(List<Snapshot> snapshots) throws IOException {
+        for (int i = 0; i < snapshots.size(); i += MAX_DELETE_BATCH) {
+            StringBuilder body = new StringBuilder("<Delete><Quiet>true</Quiet>");
+            for (Snapshot snapshot : snapshots.subList(i, Math.min(snapshots.size(), i + MAX_DELETE_BATCH))) {
+                body.append("<Object><Key>").append(escapeXml(snapshot.location())).append("</Key></Object>");
+            }
+            body.append("</Delete>");
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+            // Quiet mode only lists the keys that could not be deleted
+            Document result = parse(check(request("POST", bucketUri("delete="), bytes, contentMd5(bytes)), "delete from " + bucket));
+            NodeList errors = result.getElementsByTagName("Error");
+            if (errors.getLength() > 0) {
+                Element error = (Element) errors.item(0);
+                throw new IOException("Failed to delete " + errors.getLength() + " objects from " + bucket + ": "
+                        + text(error, "Key") + " " + text(error, "Message"));
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private URI objectUri(String key, String query) {
+        String path = pathStyle ? "/" + bucket + "/" + S3Signer.encode(key, true) : "/" + S3Signer.encode(key, true);
+        return build(path, query);
+    }
+
+    private URI bucketUri(String query) {
+        return build(pathStyle ? "/" + bucket : "/", query);
+    }
+
+    private URI build(String path, String query) {
+        String host = pathStyle ? endpoint.getHost() : bucket + "." + endpoint.getHost();
+        String authority = endpoint.getPort() != -1 ? host + ":" + endpoint.getPort() : host;
+        return URI.create(endpoint.getScheme() + "://" + authority + endpoint.getRawPath() + path
+                + (query != null ? "?" + query : ""));
+    }
+
+    // Signs and sends the request, retrying throttling, server errors and dropped connections
+    private HttpResponse<String> request(String method, URI uri, byte[] body, Map<String, String> headers) throws IOException {
+        String payloadHash = body != null ? S3Signer.sha256Hex(body) : S3Signer.EMPTY_PAYLOAD_HASH;
+        for (int attempt = 0; ; attempt++) {
+            Map<String, String> signedHeaders = new LinkedHashMap<>(headers);
+            String authorization = signer.sign(method, uri, signedHeaders, payloadHash, Instant.now());
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(5))
+                    .header("Authorization", authorization)
+                    .method(method, body(body));
+            signedHeaders.forEach(builder::header);
+
+            HttpResponse<String> response;
+            try {
+                response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("S3 request interrupted");
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                backoff(attempt);
+                continue;
+            }
+            int status = response.statusCode();
+            if ((status == 429 || status == 408 || status >= 500) && attempt < maxRetries) {
+                backoff(attempt);
+                continue;
+            }
+            return response;
+        }
+    }
+
+    // With a limiter the body is fed to the connection at the allowed rate, like Drive uploads
+    private HttpRequest.BodyPublisher body(byte[] body) {
+        if (body == null || body.length == 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        if (limiter == null) {
+            return HttpRequest.BodyPublishers.ofByteArray(body);
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(
+                () -> limiter.limit(new ByteArrayInputStream(body), meter)), body.length);
+    }
+
+    private static HttpResponse<String> check(HttpResponse<String> response, String action) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            String code = "";
+            try {
+                code = " " + text(parse(response), "Code");
+            } catch (IOException ignored) {
+                // Not every error comes with an XML body
+            }
+            throw new IOException("Failed to " + action + ": HTTP " + response.statusCode() + code);
+        }
+        return response;
+    }
+
+    private static Document parse(HttpResponse<String> response) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(response.body().getBytes(StandardCharsets.UTF_8)));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Unreadable S3 response: " + e.getMessage(), e);
+        }
+    }
+
+    private static String text(Document document, String tag) {
+        return text(document.getDocumentElement(), tag);
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : "";
+    }
+
+    private static byte[] readPart(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Archive changed while uploading");
+            }
+        }
+        return buffer.array();
+    }
+
+    // S3 rejects a body that doesn't hash to this, so corruption in transit fails the request
+    private static Map<String, String> contentMd5(byte[] body) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("content-md5", Base64.getEncoder().encodeToString(md5(body)));
+        return headers;
+    }
+
+    private static byte[] md5(byte[] data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        delay += ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("S3 request interrupted");
+        }
+    }
+}
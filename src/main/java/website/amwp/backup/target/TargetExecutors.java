@@ -0,0 +1,22 @@
+package website.amwp.backup.target;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+final class TargetExecutors {
+    private TargetExecutors() {
+    }
+
+    // One archive at a time per target, the thread goes away while the target is idle
+    static ExecutorService create(String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "DriveBackup-Target-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,98 @@
+package website.amwp.backup.throttle;
+
+import website.amwp.backup.config.BackupConfig;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+// Token bucket shared by every upload, so the limit applies to the server's total egress.
+// The rate comes from the time-of-day windows in the config and is looked up again every
+// second, so config changes and window boundaries take effect in the middle of an upload.
+public class BandwidthLimiter {
+    private static final long RATE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int MAX_READ = 64 * 1024; // Keeps bursts on the wire small
+
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    private final TransferMeter meter = new TransferMeter();
+    private long rate = 0; // Bytes per second, 0 for unlimited
+    private long rateCheckedAt = 0;
+    private boolean rateChecked = false;
+    private long nextFree = System.nanoTime();
+
+    public static BandwidthLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    // Blocks until the given number of bytes may be sent
+    public void acquire(int count) throws InterruptedIOException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long current = currentRate(now);
+            meter.add(count);
+            if (current <= 0) {
+                nextFree = now;
+                return;
+            }
+            // Unused time up to BURST_NANOS can be spent at once, beyond that it is lost
+            long start = Math.max(nextFree, now - BURST_NANOS);
+            nextFree = start + count * 1_000_000_000L / current;
+            wait = nextFree - now;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload interrupted");
+            }
+        }
+    }
+
+    public synchronized long getRate() {
+        return currentRate(System.nanoTime());
+    }
+
+    public double getBytesPerSecond() {
+        return meter.getBytesPerSecond();
+    }
+
+    public InputStream limit(InputStream in, TransferMeter uploadMeter) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                    uploadMeter.add(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int n = super.read(buffer, off, Math.min(len, MAX_READ));
+                if (n > 0) {
+                    acquire(n);
+                    uploadMeter.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    private long currentRate(long now) {
+        if (!rateChecked || now - rateCheckedAt >= RATE_REFRESH_NANOS) {
+            rate = (long) (BackupConfig.getInstance().getUploadRateLimit(LocalTime.now()) * 1024 * 1024);
+            rateCheckedAt = now;
+            rateChecked = true;
+        }
+        return rate;
+    }
+}
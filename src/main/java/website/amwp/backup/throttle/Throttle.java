@@ -0,0 +1,18 @@
+package website.amwp.backup.throttle;
+
+import java.io.InterruptedIOException;
+
+// Lets backup work yield to the game. Workers call pace() after each unit of work with the
+// time it took, and bracket CPU heavy work with acquireWorker()/releaseWorker().
+public interface Throttle {
+    Throttle NONE = new Throttle() {};
+
+    default void pace(long busyNanos) throws InterruptedIOException {
+    }
+
+    default void acquireWorker() throws InterruptedIOException {
+    }
+
+    default void releaseWorker() {
+    }
+}
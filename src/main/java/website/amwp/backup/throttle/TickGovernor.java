@@ -0,0 +1,165 @@
+package website.amwp.backup.throttle;
+
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import website.amwp.backup.config.BackupConfig;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Adapts backup throughput to the server's tick times. Tick durations of the last few seconds
+// are sampled from the server thread; when the average or p99 MSPT gets close to the configured
+// budget the backup's share of time is halved, and while there is headroom it grows back to
+// full speed. The share is applied as a duty cycle to reads, compression and upload chunks, and
+// scales the number of compression workers allowed to run at once.
+public class TickGovernor implements Throttle {
+    private static final int WINDOW = 100; // 5 seconds at 20 TPS
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long MAX_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final double MIN_SHARE = 0.05;
+
+    private static final TickGovernor INSTANCE = new TickGovernor();
+
+    // Written by the server thread only
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+    private volatile long sampleCount = 0;
+    private volatile long tickStartedAt = 0;
+    private volatile long lastTickEndedAt = 0;
+
+    private final Object lock = new Object();
+    private long lastUpdate = 0;
+    private int runningWorkers = 0;
+    private volatile double share = 1.0;
+    private volatile double averageMspt = 0;
+    private volatile double p99Mspt = 0;
+
+    public static TickGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    public void register() {
+        ServerTickEvents.START_SERVER_TICK.register(server -> tickStartedAt = System.nanoTime());
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            long now = System.nanoTime();
+            long started = tickStartedAt;
+            if (started != 0) {
+                long count = sampleCount;
+                samples.set((int) (count % WINDOW), now - started);
+                sampleCount = count + 1;
+            }
+            tickStartedAt = 0;
+            lastTickEndedAt = now;
+        });
+    }
+
+    @Override
+    public void pace(long busyNanos) throws InterruptedIOException {
+        update();
+        double current = share;
+        if (current >= 1.0 || busyNanos <= 0) {
+            return;
+        }
+        // Work for busyNanos, rest long enough that the work only takes `share` of the time
+        long pause = Math.min(MAX_PAUSE_NANOS, (long) (busyNanos * (1.0 - current) / current));
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted");
+        }
+    }
+
+    @Override
+    public void acquireWorker() throws InterruptedIOException {
+        synchronized (lock) {
+            try {
+                while (runningWorkers >= getAllowedWorkers()) {
+                    lock.wait(UPDATE_INTERVAL_NANOS / 1_000_000);
+                    update();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Backup interrupted");
+            }
+            runningWorkers++;
+        }
+    }
+
+    @Override
+    public void releaseWorker() {
+        synchronized (lock) {
+            runningWorkers--;
+            lock.notifyAll();
+        }
+    }
+
+    public int getAllowedWorkers() {
+        int max = BackupConfig.getInstance().getCompressionThreads();
+        return Math.max(1, Math.min(max, (int) Math.ceil(max * share)));
+    }
+
+    public double getShare() {
+        update();
+        return share;
+    }
+
+    public double getAverageMspt() {
+        return averageMspt;
+    }
+
+    public double getP99Mspt() {
+        return p99Mspt;
+    }
+
+    private void update() {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            if (now - lastUpdate < UPDATE_INTERVAL_NANOS) {
+                return;
+            }
+            lastUpdate = now;
+
+            int count = (int) Math.min(sampleCount, WINDOW);
+            long started = tickStartedAt;
+            long inProgress = started != 0 ? now - started : 0;
+            boolean idle = count == 0 || (started == 0 && now - lastTickEndedAt > IDLE_NANOS);
+            if (idle) {
+                // No server ticking (not started yet, or already stopped): nothing to protect
+                share = 1.0;
+                averageMspt = 0;
+                p99Mspt = 0;
+                lock.notifyAll();
+                return;
+            }
+
+            long[] sorted = new long[count];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                sorted[i] = samples.get(i);
+                total += sorted[i];
+            }
+            Arrays.sort(sorted);
+            double average = total / (double) count;
+            double p99 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)];
+            averageMspt = average / 1_000_000.0;
+            p99Mspt = p99 / 1_000_000.0;
+
+            double budget = BackupConfig.getInstance().getTickBudgetMs() * 1_000_000.0;
+            if (p99 > budget || average > budget * 0.8 || inProgress > budget) {
+                share = Math.max(MIN_SHARE, share * 0.5);
+            } else if (p99 < budget * 0.7) {
+                share = Math.min(1.0, share * 1.25 + 0.05);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public String describe() {
+        double current = getShare();
+        return String.format("%.0f%% speed, %d/%d threads (avg %.1f ms, p99 %.1f ms, budget %d ms)",
+                current * 100, getAllowedWorkers(), BackupConfig.getInstance().getCompressionThreads(),
+                averageMspt, p99Mspt, BackupConfig.getInstance().getTickBudgetMs());
+    }
+}
@@ -0,0 +1,36 @@
+package website.amwp.backup.throttle;
+
+// Bytes per second over the last few seconds, kept in one-second buckets
+public class TransferMeter {
+    private static final int SECONDS = 10;
+
+    private final long[] bytes = new long[SECONDS];
+    private final long[] seconds = new long[SECONDS];
+    private final long startSecond = currentSecond();
+
+    public synchronized void add(long count) {
+        long second = currentSecond();
+        int slot = (int) (second % SECONDS);
+        if (seconds[slot] != second) {
+            seconds[slot] = second;
+            bytes[slot] = 0;
+        }
+        bytes[slot] += count;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        long now = currentSecond();
+        long total = 0;
+        for (int i = 0; i < SECONDS; i++) {
+            if (now - seconds[i] < SECONDS) {
+                total += bytes[i];
+            }
+        }
+        long window = Math.max(1, Math.min(SECONDS, now - startSecond + 1));
+        return total / (double) window;
+    }
+
+    private static long currentSecond() {
+        return System.nanoTime() / 1_000_000_000L;
+    }
+}
@@ -0,0 +1,179 @@
+package website.amwp.backup.archive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Archives have to open in standard unzip tools, so they are read back with java.util.zip,
+// through the central directory and, for deflated archives, streamed through the local headers
+class ParallelZipCompressorTest {
+    @TempDir
+    Path root;
+
+    private ExecutorService workers;
+    private Path world;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        workers = Executors.newFixedThreadPool(4);
+        world = root.resolve("world");
+        Random random = new Random(42);
+
+        // Incompressible and several blocks long, so its blocks are compressed on different workers
+        byte[] region = new byte[3 * 1024 * 1024 + 12345];
+        random.nextBytes(region);
+        Files.createDirectories(world.resolve("region"));
+        Files.write(world.resolve("region/r.0.0.mca"), region);
+
+        Files.writeString(world.resolve("level.dat"), "level data ".repeat(5000));
+        Files.createDirectories(world.resolve("data"));
+        Files.write(world.resolve("data/empty.dat"), new byte[0]);
+        Files.createDirectories(world.resolve("datapacks"));
+        Files.write(world.resolve("icon.png"), new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void deflatedArchiveOpensWithJavaUtilZip() throws IOException {
+        Path archive = compress(CodecPolicy.parse("deflate", Map.of("png", "store"), 1, 0), 4);
+        assertMatchesWorld(archive);
+        assertStreamsLikeWorld(archive);
+    }
+
+    @Test
+    void singleWorkerWritesTheSameArchive() throws IOException {
+        Path archive = compress(CodecPolicy.parse("deflate:6", Map.of(), 6, 0), 1);
+        assertMatchesWorld(archive);
+        assertStreamsLikeWorld(archive);
+    }
+
+    @Test
+    void storedEntriesAreReadableToo() throws IOException {
+        Path archive = compress(CodecPolicy.parse("store", Map.of(), 1, 0), 4);
+        assertMatchesWorld(archive);
+    }
+
+    @Test
+    void probeStoresIncompressibleFiles() throws IOException {
+        Path archive = compress(CodecPolicy.parse("deflate", Map.of(), 1, 5), 4);
+        assertMatchesWorld(archive);
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(ZipEntry.STORED, zip.getEntry("world/region/r.0.0.mca").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("world/level.dat").getMethod());
+        }
+    }
+
+    @Test
+    void inMemoryEntriesAreWritten() throws IOException {
+        byte[] metadata = "{\"type\":\"full\"}".getBytes(StandardCharsets.UTF_8);
+        List<ArchiveEntry> entries = new ArrayList<>();
+        entries.add(ArchiveEntry.bytes(".drivebackup/backup.json", metadata, System.currentTimeMillis()));
+        Path archive = root.resolve("metadata.zip");
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            new ParallelZipCompressor(workers, 2, CodecPolicy.parse("deflate", Map.of(), 1, 0), Throttle.NONE)
+                    .compress(entries, out);
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile());
+             InputStream in = zip.getInputStream(zip.getEntry(".drivebackup/backup.json"))) {
+            assertArrayEquals(metadata, in.readAllBytes());
+        }
+    }
+
+    private Path compress(CodecPolicy policy, int parallelism) throws IOException {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        Path archive = root.resolve("world.zip");
+        ParallelZipCompressor compressor = new ParallelZipCompressor(workers, parallelism, policy, Throttle.NONE);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(archive))) {
+            compressor.compress(entries, out);
+        }
+        assertEquals(Files.size(archive), compressor.getBytesWritten());
+        return archive;
+    }
+
+    private Map<String, byte[]> worldFiles() throws IOException {
+        Map<String, byte[]> expected = new HashMap<>();
+        try (var files = Files.walk(world)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    expected.put("world/" + world.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+                }
+            }
+        }
+        return expected;
+    }
+
+    private void assertMatchesWorld(Path archive) throws IOException {
+        Map<String, byte[]> expected = worldFiles();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertNotNull(zip.getEntry("world/datapacks/"));
+            for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+                ZipEntry entry = zip.getEntry(file.getKey());
+                assertNotNull(entry, file.getKey());
+                assertEquals(file.getValue().length, entry.getSize(), file.getKey());
+                assertEquals(crc(file.getValue()), entry.getCrc(), file.getKey());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(file.getValue(), in.readAllBytes(), file.getKey());
+                }
+            }
+        }
+    }
+
+    // Streaming readers only see the local headers and data descriptors. ZipInputStream refuses
+    // stored entries that carry a descriptor, which multi-block stored files do, so this is only
+    // checked for deflated archives; unzip and the central directory read both kinds
+    private void assertStreamsLikeWorld(Path archive) throws IOException {
+        Map<String, byte[]> expected = worldFiles();
+        Map<String, byte[]> streamed = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    streamed.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        assertEquals(expected.keySet(), streamed.keySet());
+        for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+            assertTrue(Arrays.equals(file.getValue(), streamed.get(file.getKey())), file.getKey());
+        }
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,179 @@
+package website.amwp.backup.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackupCatalogTest {
+    private static final String LEVEL = "world/level.dat";
+    private static final String REGION = "world/region/r.0.0.mca";
+
+    @TempDir
+    Path root;
+
+    @Test
+    void listsSnapshotsNewestFirst() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        add(catalog, "worlds-world_1", "worlds/world", 1000, 0, sha("aa"), sha("bb"));
+        add(catalog, "mods_2", "mods", 2000, 0, sha("cc"), null);
+        add(catalog, "worlds-world_3", "worlds/world", 3000, BackupCatalog.FLAG_INCREMENTAL, sha("aa"), sha("dd"));
+        add(catalog, "worlds-world_3", "worlds/world", 4000, 0, sha("ee"), sha("ee")); // Already recorded
+
+        assertEquals(List.of("worlds-world_3", "mods_2", "worlds-world_1"), names(catalog.list(null, 0, 10)));
+        assertEquals(List.of("worlds-world_3", "worlds-world_1"), names(catalog.list("worlds/world", 0, 10)));
+        assertEquals(List.of("worlds-world_3", "mods_2"), names(catalog.list(null, 2000, 10)));
+        assertEquals(List.of("worlds-world_3"), names(catalog.list(null, 0, 1)));
+        assertTrue(catalog.list("worlds/world", 0, 1).get(0).hasFlag(BackupCatalog.FLAG_INCREMENTAL));
+        assertEquals(3, catalog.getSnapshotCount());
+        assertEquals(2, catalog.getPathCount());
+    }
+
+    @Test
+    void findsFilesByPathAndHash() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        add(catalog, "worlds-world_1", "worlds/world", 1000, 0, sha("aa01"), sha("f001"));
+        add(catalog, "worlds-world_2", "worlds/world", 2000, 0, sha("aa01"), sha("f002"));
+        add(catalog, "worlds-world_3", "worlds/world", 3000, 0, sha("aa02"), null);
+
+        List<BackupCatalog.FileHit> hits = catalog.findPath(LEVEL, null, 10);
+        assertEquals(List.of("worlds-world_3", "worlds-world_2", "worlds-world_1"), snapshots(hits));
+        assertEquals(sha("aa02").substring(0, 16), hits.get(0).hashPrefix());
+        assertEquals(List.of("worlds-world_2", "worlds-world_1"), snapshots(catalog.findPath(REGION, null, 10)));
+        assertEquals(List.of("worlds-world_2"), snapshots(catalog.findPath(REGION, "F002", 10)));
+        assertEquals(List.of("worlds-world_3"), snapshots(catalog.findPath(LEVEL, sha("aa02") + "ffff", 10)));
+        assertTrue(catalog.findPath("world/missing.dat", null, 10).isEmpty());
+
+        // High hashes compare unsigned, after low ones
+        assertEquals(List.of("worlds-world_2", "worlds-world_1"), snapshots(catalog.findHash("aa01", 10)));
+        assertEquals(List.of("worlds-world_3", "worlds-world_2", "worlds-world_1"), snapshots(catalog.findHash("aa", 10)));
+        assertEquals(List.of("worlds-world_2", "worlds-world_1"), snapshots(catalog.findHash("f", 10)));
+        assertEquals(REGION, catalog.findHash("f001", 10).get(0).path());
+        assertThrows(IllegalArgumentException.class, () -> catalog.findHash("", 10));
+        assertThrows(IllegalArgumentException.class, () -> catalog.findHash("xyz", 10));
+    }
+
+    @Test
+    void usageCountsContentsOnce() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        add(catalog, "worlds-world_1", "worlds/world", 1000, 0, sha("aa"), sha("bb"));
+        add(catalog, "worlds-world_2", "worlds/world", 2000, 0, sha("aa"), sha("cc"));
+        catalog.add("worlds-world_3", "worlds/world", 3000, 50, BackupCatalog.FLAG_DEDUP,
+                List.of(new BackupCatalog.FileRecord(REGION, 300, null)),
+                List.of(new BackupCatalog.ChunkRecord(sha("c1"), 100), new BackupCatalog.ChunkRecord(sha("c2"), 200),
+                        new BackupCatalog.ChunkRecord(sha("c1"), 100)));
+
+        // Files are 10 bytes (level.dat) and 100 bytes (region) each
+        BackupCatalog.Usage usage = catalog.usage(0);
+        assertEquals(3, usage.snapshots());
+        assertEquals(5, usage.files());
+        assertEquals(110 + 110 + 300, usage.totalBytes());
+        assertEquals(10 + 100 + 100 + 300, usage.uniqueBytes());
+
+        BackupCatalog.Usage recent = catalog.usage(2000);
+        assertEquals(2, recent.snapshots());
+        assertEquals(110 + 300, recent.uniqueBytes());
+    }
+
+    @Test
+    void removedSnapshotsDisappearAndAreMergedAway() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        for (int i = 0; i < 8; i++) {
+            add(catalog, "worlds-world_" + i, "worlds/world", i * 1000, 0, sha("a" + i), sha("b" + i));
+        }
+        catalog.remove("worlds-world_0");
+        catalog.remove("worlds-world_1");
+        assertFalse(catalog.contains("worlds-world_0"));
+        assertEquals(6, catalog.getSnapshotCount());
+        assertTrue(catalog.findHash("a0", 10).isEmpty());
+        assertEquals(16, catalog.getRecordCount());
+
+        // Enough new segments to merge everything, which leaves the removed entries out
+        for (int i = 8; i < 16; i++) {
+            add(catalog, "worlds-world_" + i, "worlds/world", i * 1000, 0, sha("a" + i), sha("b" + i));
+        }
+        assertEquals(28, catalog.getRecordCount());
+        assertEquals(14, catalog.findPath(LEVEL, null, 100).size());
+
+        BackupCatalog reopened = new BackupCatalog(root);
+        assertEquals(14, reopened.getSnapshotCount());
+        assertEquals(28, reopened.getRecordCount());
+        assertEquals(List.of("worlds-world_15"), snapshots(reopened.findHash("b15", 10)));
+        assertTrue(reopened.findHash("a1", 100).stream().noneMatch(hit -> hit.snapshot().name().equals("worlds-world_1")));
+    }
+
+    @Test
+    void reindexesCommittedRecordsTheSegmentsMissed() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        add(catalog, "worlds-world_1", "worlds/world", 1000, 0, sha("aa"), sha("bb"));
+        Path manifest = root.resolve("index/segments");
+        Path saved = root.resolve("segments.saved");
+        Files.copy(manifest, saved);
+        add(catalog, "worlds-world_2", "worlds/world", 2000, 0, sha("cc"), sha("dd"));
+
+        // As if the server stopped after the log write but before the segment was recorded
+        Files.copy(saved, manifest, StandardCopyOption.REPLACE_EXISTING);
+        BackupCatalog reopened = new BackupCatalog(root);
+        assertEquals(2, reopened.getSnapshotCount());
+        assertEquals(List.of("worlds-world_2"), snapshots(reopened.findHash("dd", 10)));
+        assertEquals(4, reopened.getRecordCount());
+    }
+
+    @Test
+    void unfinishedWriteIsDropped() throws IOException {
+        BackupCatalog catalog = new BackupCatalog(root);
+        add(catalog, "worlds-world_1", "worlds/world", 1000, 0, sha("aa"), sha("bb"));
+        Path log = root.resolve("catalog.log");
+        long committed = Files.size(log);
+        // A path record and half a snapshot record, without a commit
+        Files.write(log, new byte[]{1, 0, 0, 0, 9, 0, 3, 'a', 'b', 'c', 2, 0, 0}, StandardOpenOption.APPEND);
+
+        BackupCatalog reopened = new BackupCatalog(root);
+        assertEquals(1, reopened.getSnapshotCount());
+        assertEquals(2, reopened.getPathCount());
+        assertEquals(committed, Files.size(log));
+
+        add(reopened, "worlds-world_2", "worlds/world", 2000, 0, sha("cc"), sha("dd"));
+        assertEquals(2, new BackupCatalog(root).getSnapshotCount());
+    }
+
+    @Test
+    void refusesOtherFiles() throws IOException {
+        Files.writeString(root.resolve("catalog.log"), "not a catalog");
+        assertThrows(IOException.class, () -> new BackupCatalog(root).getSnapshotCount());
+    }
+
+    private static void add(BackupCatalog catalog, String name, String type, long created, int flags,
+                            String levelHash, String regionHash) throws IOException {
+        List<BackupCatalog.FileRecord> files = new ArrayList<>();
+        files.add(new BackupCatalog.FileRecord(LEVEL, 10, levelHash));
+        if (regionHash != null) {
+            files.add(new BackupCatalog.FileRecord(REGION, 100, regionHash));
+        }
+        catalog.add(name, type, created, 110, flags, files, List.of());
+    }
+
+    // A SHA-256 starting with the given hex digits
+    private static String sha(String prefix) {
+        return (prefix + "0".repeat(64)).substring(0, 64);
+    }
+
+    private static List<String> names(List<BackupCatalog.SnapshotInfo> snapshots) {
+        return snapshots.stream().map(BackupCatalog.SnapshotInfo::name).toList();
+    }
+
+    private static List<String> snapshots(List<BackupCatalog.FileHit> hits) {
+        return hits.stream().map(hit -> hit.snapshot().name()).toList();
+    }
+}
@@ -0,0 +1,96 @@
+package website.amwp.backup.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CatalogSegmentTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void findsRecordsInSortedFiles() throws IOException {
+        // path id, snapshot id, size, hash
+        ByteBuffer files = ByteBuffer.allocate(4 * CatalogSegment.FILE_RECORD);
+        files.putInt(1).putInt(0).putLong(10).putLong(0x10L);
+        files.putInt(1).putInt(1).putLong(11).putLong(0xF0L << 56);
+        files.putInt(3).putInt(0).putLong(30).putLong(0x30L);
+        files.putInt(5).putInt(1).putLong(50).putLong(0x10L);
+        write(0, files, sortedByHash(files), ByteBuffer.allocate(0));
+
+        CatalogSegment segment = CatalogSegment.open(root, 0);
+        assertEquals(4, segment.fileCount());
+        assertEquals(0, segment.findPath(0));
+        assertEquals(0, segment.findPath(1));
+        assertEquals(2, segment.findPath(2));
+        assertEquals(3, segment.findPath(5));
+        assertEquals(4, segment.findPath(6));
+
+        assertEquals(0, segment.findHash(0));
+        assertEquals(2, segment.findHash(0x11L));
+        assertEquals(3, segment.findHash(0x31L)); // Unsigned, so the high hash is last
+        assertEquals(1L, segment.hashes.getInt(3 * CatalogSegment.FILE_RECORD + 4));
+    }
+
+    @Test
+    void mergeKeepsOrderAndDropsFilteredRecords() throws IOException {
+        ByteBuffer first = chunks(0x01L, 0, 0x05L, 0, -1L, 0);
+        ByteBuffer second = chunks(0x01L, 1, 0x03L, 1, 0x7FL << 56, 1);
+        write(0, ByteBuffer.allocate(0), ByteBuffer.allocate(0), first);
+        write(1, ByteBuffer.allocate(0), ByteBuffer.allocate(0), second);
+        List<ByteBuffer> inputs = List.of(CatalogSegment.open(root, 0).chunks, CatalogSegment.open(root, 1).chunks);
+
+        List<String> merged = new ArrayList<>();
+        CatalogSegment.merge(inputs, CatalogSegment.CHUNK_RECORD, CatalogSegment.BY_CHUNK,
+                (buffer, position) -> merged.add(Long.toHexString(buffer.getLong(position)) + "/" + buffer.getInt(position + 8)));
+        assertEquals(List.of("1/0", "1/1", "3/1", "5/0", "7f00000000000000/1", "ffffffffffffffff/0"), merged);
+
+        // Without snapshot 1
+        CatalogSegment.merge(root.resolve("2" + CatalogSegment.CHUNKS), inputs, CatalogSegment.CHUNK_RECORD,
+                CatalogSegment.BY_CHUNK, (buffer, position) -> buffer.getInt(position + 8) != 1);
+        write(2, ByteBuffer.allocate(0), ByteBuffer.allocate(0), null);
+        CatalogSegment result = CatalogSegment.open(root, 2);
+        assertEquals(3, result.chunkCount());
+        assertEquals(-1L, result.chunks.getLong(2 * CatalogSegment.CHUNK_RECORD));
+    }
+
+    // hash, snapshot id, size for each pair of values
+    private static ByteBuffer chunks(long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length / 2 * CatalogSegment.CHUNK_RECORD);
+        for (int i = 0; i < values.length; i += 2) {
+            buffer.putLong(values[i]).putInt((int) values[i + 1]).putInt(100);
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer sortedByHash(ByteBuffer files) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < files.position(); i += CatalogSegment.FILE_RECORD) {
+            positions.add(i);
+        }
+        positions.sort((a, b) -> CatalogSegment.BY_HASH.compare(files, a, files, b));
+        ByteBuffer sorted = ByteBuffer.allocate(files.position());
+        byte[] record = new byte[CatalogSegment.FILE_RECORD];
+        for (int position : positions) {
+            files.get(position, record);
+            sorted.put(record);
+        }
+        return sorted;
+    }
+
+    // A null buffer leaves that file as it is
+    private void write(long generation, ByteBuffer files, ByteBuffer hashes, ByteBuffer chunks) throws IOException {
+        CatalogSegment.write(root.resolve(generation + CatalogSegment.FILES), files);
+        CatalogSegment.write(root.resolve(generation + CatalogSegment.HASHES), hashes);
+        if (chunks != null) {
+            CatalogSegment.write(root.resolve(generation + CatalogSegment.CHUNKS), chunks);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package website.amwp.backup.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncryptedArchiveTest {
+    private static final int SEGMENT = 64;
+
+    @TempDir
+    Path root;
+
+    private BackupKeyring keyring;
+    private ExecutorService workers;
+
+    @BeforeEach
+    void setUp() {
+        keyring = new BackupKeyring(root.resolve("backup-keys.json"));
+        workers = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void roundTripsAroundSegmentBoundaries() throws IOException {
+        for (int size : new int[]{0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT, 50 * SEGMENT + 7}) {
+            byte[] plain = data(size);
+            byte[] encrypted = encrypt(plain, keyring.current());
+            try (FileChannel channel = FileChannel.open(write("size.enc", encrypted))) {
+                EncryptedArchive.Header header = EncryptedArchive.readHeader(channel);
+                assertEquals(EncryptedArchive.encryptedSize(size, header), encrypted.length, "size " + size);
+            }
+
+            assertArrayEquals(plain, decrypt(encrypted, null), "size " + size);
+            assertArrayEquals(plain, decrypt(encrypted, workers), "size " + size + " in parallel");
+        }
+    }
+
+    @Test
+    void singleByteWritesMatchArrayWrites() throws IOException {
+        byte[] plain = data(2 * SEGMENT + 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EncryptingOutputStream encrypting = new EncryptingOutputStream(out, keyring.current(), SEGMENT)) {
+            for (byte b : plain) {
+                encrypting.write(b);
+            }
+        }
+        assertArrayEquals(plain, decrypt(out.toByteArray(), null));
+    }
+
+    @Test
+    void finishLeavesTheStreamOpen() throws IOException {
+        boolean[] closed = {false};
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                sink.write(b);
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        EncryptingOutputStream encrypting = new EncryptingOutputStream(out, keyring.current(), SEGMENT);
+        encrypting.write(data(100));
+        encrypting.finish();
+        assertEquals(sink.size(), encrypting.getBytesWritten());
+        assertFalse(closed[0]);
+        assertThrows(IOException.class, () -> encrypting.write(1));
+        encrypting.close();
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    void truncationIsDetected() throws IOException {
+        byte[] encrypted = encrypt(data(3 * SEGMENT), keyring.current());
+        int stride = SEGMENT + EncryptedArchive.TAG_BYTES;
+
+        // Whole segments dropped from the end, the new last one was not written as the last
+        byte[] segmentsDropped = Arrays.copyOf(encrypted, encrypted.length - stride);
+        assertThrows(IOException.class, () -> decrypt(segmentsDropped, null));
+        // Part of the last segment gone
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, encrypted.length - 10), null));
+        // Less than a tag left
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, encrypted.length - stride * 2 - 70), null));
+        // Header only
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, encrypted.length - 3 * stride), null));
+    }
+
+    @Test
+    void reorderedSegmentsAreDetected() throws IOException {
+        byte[] encrypted = encrypt(data(3 * SEGMENT), keyring.current());
+        int stride = SEGMENT + EncryptedArchive.TAG_BYTES;
+        int headerLength = encrypted.length - 3 * stride;
+
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, headerLength, swapped, headerLength + stride, stride);
+        System.arraycopy(encrypted, headerLength + stride, swapped, headerLength, stride);
+        IOException failure = assertThrows(IOException.class, () -> decrypt(swapped, null));
+        assertTrue(failure.getMessage().contains("failed authentication"), failure.getMessage());
+    }
+
+    @Test
+    void segmentsCantMoveBetweenArchives() throws IOException {
+        BackupKeyring.Key key = keyring.current();
+        byte[] first = encrypt(data(2 * SEGMENT), key);
+        byte[] second = encrypt(data(2 * SEGMENT), key);
+        int headerLength = first.length - 2 * (SEGMENT + EncryptedArchive.TAG_BYTES);
+
+        byte[] mixed = first.clone();
+        System.arraycopy(second, headerLength, mixed, headerLength, SEGMENT + EncryptedArchive.TAG_BYTES);
+        assertThrows(IOException.class, () -> decrypt(mixed, null));
+    }
+
+    @Test
+    void tamperingIsDetected() throws IOException {
+        byte[] encrypted = encrypt(data(2 * SEGMENT), keyring.current());
+
+        byte[] body = encrypted.clone();
+        body[body.length - 30] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(body, null));
+
+        // The salt is in the header, changing it derives another key
+        byte[] header = encrypted.clone();
+        header[5 + 1 + 4 + 1 + "key-1".length()] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(header, null));
+
+        byte[] notEncrypted = encrypted.clone();
+        notEncrypted[0] = 'X';
+        assertThrows(IOException.class, () -> decrypt(notEncrypted, null));
+    }
+
+    @Test
+    void rotatedKeysStillDecryptOlderArchives() throws IOException {
+        byte[] plain = data(SEGMENT * 2);
+        byte[] old = encrypt(plain, keyring.current());
+        keyring.rotate();
+        byte[] current = encrypt(plain, keyring.current());
+
+        BackupKeyring reloaded = new BackupKeyring(root.resolve("backup-keys.json"));
+        assertEquals("key-2", reloaded.current().id());
+        assertArrayEquals(plain, decrypt(old, null, reloaded));
+        assertArrayEquals(plain, decrypt(current, null, reloaded));
+
+        BackupKeyring other = new BackupKeyring(root.resolve("other-keys.json"));
+        other.current();
+        IOException failure = assertThrows(IOException.class, () -> decrypt(current, null, other));
+        assertTrue(failure.getMessage().contains("key-2"), failure.getMessage());
+    }
+
+    @Test
+    void namesAndSizes() {
+        assertTrue(EncryptedArchive.isEncrypted("worlds-world_2026-10-18_12-00-00_incr.zip.enc"));
+        assertEquals("worlds-world_2026-10-18_12-00-00_incr.zip", EncryptedArchive.plainName("worlds-world_2026-10-18_12-00-00_incr.zip.enc"));
+        assertEquals("mods.zip", EncryptedArchive.plainName("mods.zip"));
+    }
+
+    private byte[] encrypt(byte[] plain, BackupKeyring.Key key) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EncryptingOutputStream encrypting = new EncryptingOutputStream(out, key, SEGMENT)) {
+            // Odd write sizes so writes straddle segments
+            for (int offset = 0; offset < plain.length; offset += 37) {
+                encrypting.write(plain, offset, Math.min(37, plain.length - offset));
+            }
+            encrypting.finish();
+            assertEquals(out.size(), encrypting.getBytesWritten());
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted, ExecutorService workers) throws IOException {
+        return decrypt(encrypted, workers, keyring);
+    }
+
+    private byte[] decrypt(byte[] encrypted, ExecutorService workers, BackupKeyring keys) throws IOException {
+        Path source = write("archive.zip.enc", encrypted);
+        Path target = root.resolve("archive.zip");
+        EncryptedArchive.decrypt(source, target, keys, workers);
+        return Files.readAllBytes(target);
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(root.resolve(name), data);
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
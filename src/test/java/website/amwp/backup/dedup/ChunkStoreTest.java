@@ -0,0 +1,226 @@
+package website.amwp.backup.dedup;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+import website.amwp.backup.restore.LocalRestoreSource;
+import website.amwp.backup.restore.RestoreFilter;
+import website.amwp.backup.restore.WorldRestore;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkStoreTest {
+    @TempDir
+    Path root;
+
+    private Path world;
+    private Path store;
+    private DirectoryRemote remote;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        world = root.resolve("world");
+        store = root.resolve("dedup");
+        remote = new DirectoryRemote(Files.createDirectories(root.resolve("remote")));
+
+        Files.createDirectories(world.resolve("region"));
+        Files.createDirectories(world.resolve("data"));
+        byte[] region = new byte[6 * 1024 * 1024];
+        new Random(4).nextBytes(region);
+        Files.write(world.resolve("region/r.0.0.mca"), region);
+        Files.write(world.resolve("region/r.1.0.mca"), region); // Every chunk again
+        Files.writeString(world.resolve("level.dat"), "level");
+    }
+
+    @Test
+    void restoresFromThePacksOnceTheLocalStoreIsGone() throws IOException {
+        ChunkStore.Result result = new ChunkStore(store, remote, Deflater.BEST_SPEED).backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        assertTrue(result.reusedChunks > 0); // The second region is made of the first one's chunks
+        deleteRecursively(store);
+
+        ChunkStore fresh = new ChunkStore(store, remote, Deflater.BEST_SPEED);
+        assertEquals(List.of("worlds-world_2026-10-18_12-00-00"), fresh.listSnapshots("worlds-world"));
+        Path target = root.resolve("restored");
+        fresh.restore("worlds-world_2026-10-18_12-00-00", target, path -> true);
+
+        assertSameTree(world, target.resolve("world"));
+        assertTrue(Files.isDirectory(target.resolve("world/data")));
+        assertEquals(1, remote.downloads.stream().filter(name -> name.startsWith(ChunkStore.PACK_PREFIX)).count());
+        assertTrue(isEmpty(store.resolve("packs"))); // Downloaded packs are dropped afterwards
+    }
+
+    @Test
+    void restoresOnlyTheFilteredFiles() throws IOException {
+        new ChunkStore(store, remote, Deflater.BEST_SPEED).backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        deleteRecursively(store);
+
+        Path target = root.resolve("restored");
+        new ChunkStore(store, remote, Deflater.BEST_SPEED).restore("worlds-world_2026-10-18_12-00-00", target,
+                path -> path.startsWith("world/region/r.1"));
+        assertTrue(Files.exists(target.resolve("world/region/r.1.0.mca")));
+        assertFalse(Files.exists(target.resolve("world/region/r.0.0.mca")));
+        assertFalse(Files.exists(target.resolve("world/level.dat")));
+    }
+
+    @Test
+    void chunksAlreadyInThePacksAreNotUploadedAgain() throws IOException {
+        new ChunkStore(store, remote, Deflater.BEST_SPEED).backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        deleteRecursively(store);
+        remote.uploads.clear();
+
+        ChunkStore.Result result = new ChunkStore(store, remote, Deflater.BEST_SPEED)
+                .backup("worlds-world_2026-10-18_13-00-00", "worlds/world", entries());
+        assertEquals(0, result.newChunks);
+        assertEquals(0, result.uploadedBytes);
+        assertTrue(remote.uploads.stream().noneMatch(name -> name.startsWith(ChunkStore.PACK_PREFIX)));
+    }
+
+    @Test
+    void newestIndexIsUsedAndOlderCopiesAreRemoved() throws IOException {
+        ChunkStore first = new ChunkStore(store, remote, Deflater.BEST_SPEED);
+        first.backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        List<String> indexes = remote.indexes();
+        assertEquals(1, indexes.size());
+
+        // An upload that crashed before the old copy was deleted, leaving a stale copy next to it
+        Files.writeString(world.resolve("level.dat"), "changed");
+        Path stale = root.resolve("stale.json.gz");
+        Files.copy(remote.dir.resolve(indexes.get(0)), stale);
+        first.backup("worlds-world_2026-10-18_13-00-00", "worlds/world", entries());
+        Files.copy(stale, remote.dir.resolve(ChunkStore.INDEX_NAME));
+        assertEquals(2, remote.indexes().size());
+
+        deleteRecursively(store);
+        ChunkStore fresh = new ChunkStore(store, remote, Deflater.BEST_SPEED);
+        Path target = root.resolve("restored");
+        fresh.restore("worlds-world_2026-10-18_13-00-00", target, path -> true);
+        assertEquals("changed", Files.readString(target.resolve("world/level.dat")));
+
+        fresh.collectGarbage();
+        assertEquals(1, remote.indexes().size());
+        assertFalse(remote.indexes().contains(ChunkStore.INDEX_NAME));
+    }
+
+    @Test
+    void damagedPackIsReported() throws IOException {
+        new ChunkStore(store, remote, Deflater.BEST_SPEED).backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        deleteRecursively(store);
+        try (Stream<Path> files = Files.list(remote.dir)) {
+            Path pack = files.filter(file -> file.getFileName().toString().startsWith(ChunkStore.PACK_PREFIX)).findFirst().orElseThrow();
+            try (RandomAccessFile file = new RandomAccessFile(pack.toFile(), "rw")) {
+                file.setLength(file.length() / 2);
+            }
+        }
+
+        ChunkStore fresh = new ChunkStore(store, remote, Deflater.BEST_SPEED);
+        assertThrows(IOException.class, () -> fresh.restore("worlds-world_2026-10-18_12-00-00", root.resolve("restored"), path -> true));
+    }
+
+    @Test
+    void worldRestoreStagesChunkSnapshots() throws IOException {
+        new ChunkStore(store, remote, Deflater.BEST_SPEED).backup("worlds-world_2026-10-18_12-00-00", "worlds/world", entries());
+        deleteRecursively(store);
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            WorldRestore restore = new WorldRestore(new LocalRestoreSource(root.resolve("backups")), root.resolve("work"), workers);
+            restore.setChunkStore(new ChunkStore(store, remote, Deflater.BEST_SPEED));
+            assertTrue(restore.listSnapshots("worlds/world").get(0).chunked());
+
+            Path staged = restore.stage("worlds/world", "latest", RestoreFilter.ALL, progress -> {
+            });
+            assertSameTree(world, staged);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private List<ArchiveEntry> entries() {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        return entries;
+    }
+
+    private static void assertSameTree(Path expected, Path actual) throws IOException {
+        try (Stream<Path> files = Files.walk(expected)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path copy = actual.resolve(expected.relativize(file).toString());
+                assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(copy), file.toString());
+                assertEquals(Files.getLastModifiedTime(file).toMillis(), Files.getLastModifiedTime(copy).toMillis(), file.toString());
+            }
+        }
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.findAny().isEmpty();
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        WorldRestore.deleteRecursively(path);
+    }
+
+    // The store's remote as a plain directory, recording what goes up and comes down
+    private static class DirectoryRemote implements ChunkStore.Remote {
+        final Path dir;
+        final List<String> uploads = new ArrayList<>();
+        final List<String> downloads = new ArrayList<>();
+
+        DirectoryRemote(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void upload(String name, File file) throws IOException {
+            uploads.add(name);
+            Files.copy(file.toPath(), dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void delete(String name) throws IOException {
+            Files.deleteIfExists(dir.resolve(name));
+        }
+
+        @Override
+        public List<String> list() throws IOException {
+            try (Stream<Path> files = Files.list(dir)) {
+                return files.map(file -> file.getFileName().toString()).sorted().toList();
+            }
+        }
+
+        @Override
+        public void download(String name, Path target) throws IOException {
+            if (!Files.exists(dir.resolve(name))) {
+                throw new FileNotFoundException(name);
+            }
+            downloads.add(name);
+            Files.copy(dir.resolve(name), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        List<String> indexes() throws IOException {
+            return list().stream().filter(name -> ChunkStore.indexVersion(name) >= 0).toList();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package website.amwp.backup.drive;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Batch responses are parsed by the Google client, these check that every part ends up as a
+// success, a retry or a failure of the right request
+@Timeout(60)
+class DriveBatchTest {
+    private StubDriveServer stub;
+    private Drive drive;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubDriveServer();
+        drive = new Drive.Builder(new NetHttpTransport(), GsonFactory.getDefaultInstance(), null)
+                .setApplicationName("DriveBatchTest")
+                .setRootUrl(stub.getRootUrl())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void deletesEverythingInOneRequest() throws IOException {
+        stub.addFile("a");
+        stub.addFile("b");
+        DriveBatch.Result result = new DriveBatch(drive, 3).delete("a").delete("b").delete("gone").execute();
+
+        // A file that is already gone counts as deleted
+        assertEquals(Set.of("a", "b", "gone"), result.getSucceeded().keySet());
+        assertTrue(result.getFailed().isEmpty());
+        assertFalse(stub.hasFile("a"));
+        assertFalse(stub.hasFile("b"));
+        assertEquals(List.of(List.of("a", "b", "gone")), stub.getBatches());
+    }
+
+    @Test
+    void retriesOnlyTheRateLimitedParts() throws IOException {
+        for (String id : List.of("a", "b", "c", "d")) {
+            stub.addFile(id);
+        }
+        stub.failRequests("b", "429 Too Many Requests");
+        stub.failRequests("c", "403 User Rate Limit Exceeded");
+        stub.failRequests("d", "503 Backend Error");
+        DriveBatch.Result result = new DriveBatch(drive, 3)
+                .delete("a").delete("b").delete("c").delete("d").execute();
+
+        assertEquals(Set.of("a", "b", "c", "d"), result.getSucceeded().keySet());
+        assertTrue(result.getFailed().isEmpty());
+        assertEquals(List.of(List.of("a", "b", "c", "d"), List.of("b", "c", "d")), stub.getBatches());
+    }
+
+    @Test
+    void reportsFailuresWithoutHoldingUpTheRest() throws IOException {
+        stub.addFile("a");
+        stub.addFile("locked");
+        stub.addFile("flaky");
+        stub.failRequests("locked", "403 The user does not have sufficient permissions for this file.");
+        stub.failRequests("flaky", "500 Internal Error", "500 Internal Error", "500 Internal Error");
+        DriveBatch.Result result = new DriveBatch(drive, 1)
+                .delete("a").delete("locked").delete("flaky").execute();
+
+        assertEquals(Set.of("a"), result.getSucceeded().keySet());
+        assertEquals("403 The user does not have sufficient permissions for this file.", result.getFailed().get("locked"));
+        assertEquals("500 Internal Error", result.getFailed().get("flaky"));
+        assertTrue(stub.hasFile("locked"));
+        assertEquals(List.of(List.of("a", "locked", "flaky"), List.of("flaky")), stub.getBatches());
+    }
+
+    @Test
+    void createdFoldersCarryTheirIds() throws IOException {
+        stub.addFile("renamed");
+        File rename = new File();
+        rename.setName("world-old.zip");
+        DriveBatch.Result result = new DriveBatch(drive, 0)
+                .createFolder("MinecraftBackups", null)
+                .createFolder("world", "parent")
+                .update("renamed", rename)
+                .execute();
+
+        File folder = assertInstanceOf(File.class, result.getSucceeded().get("MinecraftBackups"));
+        assertNotNull(folder.getId());
+        assertTrue(stub.hasFile(folder.getId()));
+        assertNotNull(((File) result.getSucceeded().get("world")).getId());
+        assertEquals("renamed", ((File) result.getSucceeded().get("renamed")).getId());
+    }
+
+    @Test
+    void splitsLargeBatches() throws IOException {
+        DriveBatch batch = new DriveBatch(drive, 0);
+        for (int i = 0; i < 250; i++) {
+            stub.addFile("file-" + i);
+            batch.delete("file-" + i);
+        }
+        DriveBatch.Result result = batch.execute();
+
+        assertEquals(250, result.getSucceeded().size());
+        assertEquals(List.of(100, 100, 50), stub.getBatches().stream().map(List::size).toList());
+    }
+}
@@ -0,0 +1,151 @@
+package website.amwp.backup.drive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(60)
+class ResumableUploadTest {
+    private static final int CHUNK = ResumableUpload.CHUNK_GRANULARITY;
+
+    private StubDriveServer drive;
+    private HttpClient client;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        drive = new StubDriveServer();
+        client = HttpClient.newHttpClient();
+        data = new byte[4 * CHUNK + 12345];
+        new Random(11).nextBytes(data);
+    }
+
+    @AfterEach
+    void tearDown() {
+        drive.close();
+    }
+
+    @Test
+    void uploadsChunksOfAStreamOfUnknownLength() throws IOException {
+        ResumableUpload upload = newUpload();
+        upload.start("world.zip", "folder", "application/zip");
+        String fileId = upload.upload(new ByteArrayInputStream(data));
+
+        assertArrayEquals(data, drive.getFile(fileId));
+        assertEquals(data.length, upload.getBytesUploaded());
+        assertEquals(0, drive.getStatusQueries());
+    }
+
+    @Test
+    void resendsOnlyWhatAnInterruptedChunkLost() throws IOException {
+        ResumableUpload upload = newUpload();
+        upload.start("world.zip", "folder", "application/zip");
+        long retries = ResumableUpload.getTotalRetries();
+        drive.interruptChunks(1, 100_000);
+        String fileId = upload.upload(new ByteArrayInputStream(data), 0, data.length);
+
+        // The client asked what had arrived and continued from byte 100000 of the chunk
+        assertArrayEquals(data, drive.getFile(fileId));
+        assertEquals(1, drive.getStatusQueries());
+        assertEquals(retries + 1, ResumableUpload.getTotalRetries());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws IOException {
+        ResumableUpload upload = newUpload();
+        upload.setMaxRetries(0);
+        upload.start("world.zip", "folder", "application/zip");
+        drive.interruptChunks(1, 0);
+
+        IOException failure = assertThrows(IOException.class, () -> upload.upload(new ByteArrayInputStream(data)));
+        assertTrue(failure.getMessage().contains("HTTP 503"), failure.getMessage());
+    }
+
+    @Test
+    void resumesTheSessionAfterARestart() throws IOException {
+        ResumableUpload first = newUpload();
+        String sessionUri = first.start("world.zip", "folder", "application/zip");
+        // The process dies while the third chunk is being read
+        InputStream dying = new FilterInputStream(new ByteArrayInputStream(data)) {
+            private int read;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (read >= 2 * CHUNK + 1000) {
+                    throw new IOException("server stopped");
+                }
+                int n = super.read(b, off, Math.min(len, 2 * CHUNK + 1000 - read));
+                read += Math.max(n, 0);
+                return n;
+            }
+        };
+        assertThrows(IOException.class, () -> first.upload(dying, 0, data.length));
+        assertEquals(2 * CHUNK, drive.getReceived(sessionUri));
+
+        // What UploadQueue.resumePending does with the stored session after the restart
+        ResumableUpload resumed = newUpload();
+        resumed.resume(sessionUri, "world.zip");
+        ResumableUpload.Status status = resumed.queryStatus(data.length);
+        assertNull(status.fileId);
+        assertEquals(2 * CHUNK, status.committed);
+        InputStream rest = new ByteArrayInputStream(data, (int) status.committed, data.length - (int) status.committed);
+        String fileId = resumed.upload(rest, status.committed, data.length);
+
+        assertArrayEquals(data, drive.getFile(fileId));
+        assertEquals(data.length, resumed.getBytesUploaded());
+    }
+
+    @Test
+    void finishedSessionReportsTheFile() throws IOException {
+        ResumableUpload upload = newUpload();
+        String sessionUri = upload.start("world.zip", "folder", "application/zip");
+        String fileId = upload.upload(new ByteArrayInputStream(data), 0, data.length);
+
+        ResumableUpload resumed = newUpload();
+        resumed.resume(sessionUri, "world.zip");
+        assertEquals(fileId, resumed.queryStatus(data.length).fileId);
+    }
+
+    @Test
+    void expiredSessionIsReported() {
+        ResumableUpload upload = newUpload();
+        upload.resume(drive.getUploadUrl().replace("/upload", "/session/404"), "world.zip");
+        assertThrows(ResumableUpload.SessionExpiredException.class, () -> upload.queryStatus(data.length));
+        assertThrows(ResumableUpload.SessionExpiredException.class,
+                () -> upload.upload(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    void refreshesAnExpiredAccessToken() throws IOException {
+        AtomicBoolean refreshed = new AtomicBoolean();
+        ResumableUpload upload = new ResumableUpload(client, drive.getUploadUrl(), forceRefresh -> {
+            refreshed.compareAndSet(false, forceRefresh);
+            return forceRefresh ? "fresh" : "stale";
+        }, CHUNK);
+        upload.start("world.zip", "folder", "application/zip");
+        drive.rejectTokens(1);
+        String fileId = upload.upload(new ByteArrayInputStream(data));
+
+        assertTrue(refreshed.get());
+        assertArrayEquals(data, drive.getFile(fileId));
+    }
+
+    private ResumableUpload newUpload() {
+        return new ResumableUpload(client, drive.getUploadUrl(), forceRefresh -> "token", CHUNK);
+    }
+}
@@ -0,0 +1,273 @@
+package website.amwp.backup.drive;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drive's resumable upload protocol on a loopback port. Unlike the benchmark stub it keeps
+// what it receives, so tests can compare the uploaded file with what was sent, and it can be
+// told to drop part of a chunk or reject a token to exercise the client's recovery. Batch
+// requests to /batch/drive/v3 are answered part by part, deleting, creating and updating
+// files, with errors queued per file id to test partial failures.
+public final class StubDriveServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, ByteArrayOutputStream> sessions = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final AtomicInteger statusQueries = new AtomicInteger();
+    private final AtomicInteger chunksToInterrupt = new AtomicInteger();
+    private final AtomicInteger tokensToReject = new AtomicInteger();
+    private volatile int interruptedChunkKeeps;
+    private final Map<String, Deque<String>> queuedErrors = new ConcurrentHashMap<>();
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    public StubDriveServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/upload", this::startSession);
+        server.createContext("/session/", this::receiveChunk);
+        server.createContext("/batch/drive/v3", this::receiveBatch);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "StubDrive");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    public String getUploadUrl() {
+        return baseUrl() + "/upload";
+    }
+
+    // For Drive.Builder.setRootUrl
+    public String getRootUrl() {
+        return baseUrl() + "/";
+    }
+
+    // A file that batch requests can update and delete
+    public void addFile(String fileId) {
+        files.put(fileId, new byte[0]);
+    }
+
+    public boolean hasFile(String fileId) {
+        return files.containsKey(fileId);
+    }
+
+    // The next batch parts for this file id (or folder name, for creates) fail with these errors
+    // in order, e.g. "429 Rate Limit Exceeded", before the file is handled normally
+    public void failRequests(String key, String... errors) {
+        queuedErrors.computeIfAbsent(key, k -> new ArrayDeque<>()).addAll(List.of(errors));
+    }
+
+    // The keys of the parts of every batch received, in order
+    public List<List<String>> getBatches() {
+        return batches;
+    }
+
+    // The next chunks carrying data only have their first keepBytes persisted and are answered
+    // with a 503, as if the connection broke part way through
+    public void interruptChunks(int count, int keepBytes) {
+        interruptedChunkKeeps = keepBytes;
+        chunksToInterrupt.set(count);
+    }
+
+    // The next requests are answered with a 401 as if the access token had expired
+    public void rejectTokens(int count) {
+        tokensToReject.set(count);
+    }
+
+    // Requests that carried no data and only asked how much of the upload had arrived
+    public int getStatusQueries() {
+        return statusQueries.get();
+    }
+
+    // Bytes persisted so far for an unfinished session
+    public long getReceived(String sessionUri) {
+        ByteArrayOutputStream received = sessions.get(sessionUri.substring(sessionUri.lastIndexOf('/') + 1));
+        return received == null ? -1 : received.size();
+    }
+
+    // Contents of a finished upload, or null
+    public byte[] getFile(String fileId) {
+        return files.get(fileId);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void startSession(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            String id = String.valueOf(nextSession.incrementAndGet());
+            sessions.put(id, new ByteArrayOutputStream());
+            exchange.getResponseHeaders().set("Location", baseUrl() + "/session/" + id);
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    // Content-Range is "bytes first-last/total" or "bytes */total", total may be "*"
+    private void receiveChunk(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String id = exchange.getRequestURI().getPath().substring("/session/".length());
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (tokensToReject.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            if (files.containsKey("file-" + id)) {
+                // Drive answers for a finished upload with the file, whatever the request
+                sendJson(exchange, 200, "{\"id\":\"file-" + id + "\"}");
+                return;
+            }
+            ByteArrayOutputStream received = sessions.get(id);
+            if (received == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Content-Range").substring("bytes ".length());
+            String total = range.substring(range.indexOf('/') + 1);
+            synchronized (received) {
+                if (range.startsWith("*")) {
+                    statusQueries.incrementAndGet();
+                } else {
+                    long first = Long.parseLong(range.substring(0, range.indexOf('-')));
+                    if (first > received.size()) {
+                        exchange.sendResponseHeaders(400, -1);
+                        return;
+                    }
+                    // Bytes the server already has are skipped, like Drive does on a resend
+                    int skip = (int) (received.size() - first);
+                    boolean interrupted = body.length > 0 && chunksToInterrupt.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+                    int end = interrupted ? Math.min(body.length, interruptedChunkKeeps) : body.length;
+                    if (skip < end) {
+                        received.write(body, skip, end - skip);
+                    }
+                    if (interrupted) {
+                        exchange.sendResponseHeaders(503, -1);
+                        return;
+                    }
+                }
+
+                if (!total.equals("*") && received.size() == Long.parseLong(total)) {
+                    files.put("file-" + id, received.toByteArray());
+                    sendJson(exchange, 200, "{\"id\":\"file-" + id + "\"}");
+                    return;
+                }
+                if (received.size() > 0) {
+                    exchange.getResponseHeaders().set("Range", "bytes=0-" + (received.size() - 1));
+                }
+                exchange.sendResponseHeaders(308, -1);
+            }
+        }
+    }
+
+    // Every part of a batch is a whole HTTP request, and the response has one part per request
+    // in the same order
+    private void receiveBatch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            List<String> keys = new ArrayList<>();
+            StringBuilder response = new StringBuilder();
+            for (String part : body.split("--" + boundary)) {
+                int request = part.indexOf("\r\n\r\n");
+                if (request < 0) {
+                    continue; // Preamble and the closing "--"
+                }
+                String[] lines = part.substring(request + 4).split("\r\n", -1);
+                String[] requestLine = lines[0].split(" ");
+                String method = requestLine[0];
+                for (int i = 1; i < lines.length && !lines[i].isEmpty(); i++) {
+                    // Transports without PATCH send it as a POST with an override header
+                    if (lines[i].regionMatches(true, 0, "X-HTTP-Method-Override:", 0, 23)) {
+                        method = lines[i].substring(23).trim();
+                    }
+                }
+                String path = URI.create(requestLine[1]).getPath();
+                String partBody = part.substring(part.indexOf("\r\n\r\n", request + 4) + 4).trim();
+                String key = path.endsWith("/files") ? folderName(partBody) : path.substring(path.lastIndexOf('/') + 1);
+                keys.add(key);
+                response.append("--").append(boundary).append("\r\n")
+                        .append("Content-Type: application/http\r\n\r\n")
+                        .append(answer(method, key)).append("\r\n");
+            }
+            batches.add(keys);
+            response.append("--").append(boundary).append("--\r\n");
+
+            byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + boundary);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private String answer(String method, String key) {
+        Deque<String> errors = queuedErrors.get(key);
+        String error = errors == null ? null : errors.poll();
+        if (error != null) {
+            int code = Integer.parseInt(error.substring(0, 3));
+            String message = error.substring(4);
+            return httpPart(code + " " + message, "{\"error\":{\"code\":" + code + ",\"message\":\"" + message
+                    + "\",\"errors\":[{\"message\":\"" + message + "\"}]}}");
+        }
+        switch (method) {
+            case "DELETE":
+                return files.remove(key) != null ? httpPart("204 No Content", null)
+                        : httpPart("404 Not Found", "{\"error\":{\"code\":404,\"message\":\"File not found: " + key + "\"}}");
+            case "POST":
+                String id = "folder-" + nextSession.incrementAndGet();
+                files.put(id, new byte[0]);
+                return httpPart("200 OK", "{\"id\":\"" + id + "\"}");
+            default:
+                return files.containsKey(key) ? httpPart("200 OK", "{\"id\":\"" + key + "\"}")
+                        : httpPart("404 Not Found", "{\"error\":{\"code\":404,\"message\":\"File not found: " + key + "\"}}");
+        }
+    }
+
+    private static String httpPart(String status, String json) {
+        if (json == null) {
+            return "HTTP/1.1 " + status + "\r\n\r\n";
+        }
+        return "HTTP/1.1 " + status + "\r\nContent-Type: application/json; charset=UTF-8\r\n\r\n" + json + "\r\n";
+    }
+
+    private static String folderName(String json) {
+        return JsonParser.parseString(json).getAsJsonObject().get("name").getAsString();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package website.amwp.backup.incremental;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackupManifestTest {
+    private static final String TYPE = "worlds/world";
+
+    @TempDir
+    Path root;
+
+    private Path world;
+    private Path manifestPath;
+    private BackupManifest manifest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        world = root.resolve("world");
+        Files.createDirectories(world.resolve("region"));
+        Files.writeString(world.resolve("level.dat"), "level");
+        Files.writeString(world.resolve("region/r.0.0.mca"), "region 0");
+        Files.writeString(world.resolve("region/r.1.0.mca"), "region 1");
+        manifestPath = root.resolve("config/drivebackup/manifest.json");
+        manifest = BackupManifest.load(manifestPath);
+    }
+
+    @Test
+    void firstBackupHasEverythingAndIsDue() throws IOException {
+        assertTrue(manifest.isFullBackupDue(TYPE, Long.MAX_VALUE));
+        BackupManifest.Diff diff = manifest.diff(TYPE, entries());
+        assertEquals(Set.of("world/level.dat", "world/region/r.0.0.mca", "world/region/r.1.0.mca"), names(diff.getChanged()));
+        assertTrue(diff.getDeleted().isEmpty());
+    }
+
+    @Test
+    void onlyChangedAndDeletedFilesAreReported() throws IOException {
+        manifest.commit(manifest.diff(TYPE, entries()), "worlds-world_2026-10-18_12-00-00.zip", true);
+        assertTrue(manifest.diff(TYPE, entries()).isEmpty());
+
+        Files.writeString(world.resolve("level.dat"), "level 2");
+        Files.delete(world.resolve("region/r.1.0.mca"));
+        Files.writeString(world.resolve("region/r.2.0.mca"), "region 2");
+        BackupManifest.Diff diff = manifest.diff(TYPE, entries());
+
+        assertEquals(Set.of("world/level.dat", "world/region/r.2.0.mca"), names(diff.getChanged()));
+        assertEquals(List.of("world/region/r.1.0.mca"), diff.getDeleted());
+    }
+
+    @Test
+    void touchedFileWithTheSameContentIsNotChanged() throws IOException {
+        manifest.commit(manifest.diff(TYPE, entries()), "worlds-world_2026-10-18_12-00-00.zip", true);
+        Path level = world.resolve("level.dat");
+        Files.setLastModifiedTime(level, FileTime.fromMillis(Files.getLastModifiedTime(level).toMillis() + 60000));
+
+        BackupManifest.Diff diff = manifest.diff(TYPE, entries());
+        assertTrue(diff.isEmpty());
+        manifest.commit(diff, "worlds-world_2026-10-18_13-00-00_incr.zip", false);
+        assertEquals(Files.getLastModifiedTime(level).toMillis(), manifest.get(TYPE).files.get("world/level.dat").lastModified);
+    }
+
+    @Test
+    void filesLeftOutAsUnchangedAreKept() throws IOException {
+        manifest.commit(manifest.diff(TYPE, entries()), "worlds-world_2026-10-18_12-00-00.zip", true);
+        List<ArchiveEntry> entries = entries();
+        entries.removeIf(entry -> entry.getName().equals("world/region/r.0.0.mca"));
+        entries.removeIf(entry -> entry.getName().equals("world/region/r.1.0.mca"));
+
+        BackupManifest.Diff diff = manifest.diff(TYPE, entries, name -> name.equals("world/region/r.0.0.mca"));
+        assertEquals(List.of("world/region/r.1.0.mca"), diff.getDeleted());
+        manifest.commit(diff, "worlds-world_2026-10-18_13-00-00_incr.zip", false);
+        assertEquals(Set.of("world/level.dat", "world/region/r.0.0.mca"), manifest.getRecordedNames(TYPE));
+    }
+
+    @Test
+    void commitIsSavedAndOnlyFullBackupsResetTheInterval() throws IOException {
+        manifest.commit(manifest.diff(TYPE, entries()), "worlds-world_2026-10-18_12-00-00.zip", true);
+        long fullTime = manifest.get(TYPE).lastFullBackupTime;
+        Files.writeString(world.resolve("level.dat"), "level 2");
+        manifest.commit(manifest.diff(TYPE, entries()), "worlds-world_2026-10-18_13-00-00_incr.zip", false);
+
+        BackupManifest loaded = BackupManifest.load(manifestPath);
+        BackupManifest.TypeManifest type = loaded.get(TYPE);
+        assertEquals("worlds-world_2026-10-18_12-00-00.zip", type.lastFullBackupName);
+        assertEquals("worlds-world_2026-10-18_13-00-00_incr.zip", type.lastBackupName);
+        assertEquals(fullTime, type.lastFullBackupTime);
+        assertEquals(BackupManifest.hash(world.resolve("level.dat").toFile()), type.files.get("world/level.dat").hash);
+        assertFalse(loaded.isFullBackupDue(TYPE, 3600000));
+        assertTrue(loaded.isFullBackupDue(TYPE, 0));
+        assertTrue(loaded.isFullBackupDue("worlds/world_nether", 3600000));
+    }
+
+    @Test
+    void unreadableManifestStartsOver() throws IOException {
+        Files.createDirectories(manifestPath.getParent());
+        Files.writeString(manifestPath, "{not json");
+        BackupManifest broken = BackupManifest.load(manifestPath);
+        assertTrue(broken.getRecordedNames(TYPE).isEmpty());
+
+        broken.commit(broken.diff(TYPE, entries()), "worlds-world_2026-10-18_12-00-00.zip", true);
+        assertEquals(3, BackupManifest.load(manifestPath).getRecordedNames(TYPE).size());
+    }
+
+    private List<ArchiveEntry> entries() {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        return entries;
+    }
+
+    private static Set<String> names(List<ArchiveEntry> entries) {
+        return entries.stream().map(ArchiveEntry::getName).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,174 @@
+package website.amwp.backup.incremental;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.snapshot.WorldSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeTrackerTest {
+    @TempDir
+    Path root;
+
+    private final ChangeTracker tracker = ChangeTracker.getInstance();
+    private Path world;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        world = root.resolve("world");
+        Files.createDirectories(world.resolve("region"));
+        Files.createDirectories(world.resolve("playerdata"));
+        Files.createDirectories(world.resolve("data"));
+        Files.write(world.resolve("region/r.0.0.mca"), new byte[]{1});
+        Files.write(world.resolve("region/r.1.0.mca"), new byte[]{2});
+        Files.write(world.resolve("region/c.33.1.mcc"), new byte[]{3});
+        Files.write(world.resolve("playerdata/steve.dat"), new byte[]{4});
+        Files.write(world.resolve("level.dat"), new byte[]{5});
+        Files.write(world.resolve("data/raids.dat"), new byte[]{6});
+        tracker.start(List.of(world), ChangeTracker.MODE_HOOKS, 24);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.stop();
+    }
+
+    @Test
+    void firstBackupWalksTheWorld() {
+        ChangeTracker.Changes changes = tracker.begin(world);
+        assertFalse(changes.isTracked());
+        changes.markFullScan();
+        tracker.finish(changes, true);
+
+        assertTrue(tracker.begin(world).isTracked());
+    }
+
+    @Test
+    void collectsReportedFilesAndTheUnhookedRest() {
+        fullScan();
+        tracker.markChunk(world.resolve("region"), 0, 0);
+        tracker.markFile(world.resolve("playerdata"), "steve.dat");
+        ChangeTracker.Changes changes = tracker.begin(world);
+
+        assertEquals(Set.of("world/region/r.0.0.mca", "world/playerdata/steve.dat", "world/level.dat", "world/data/raids.dat"),
+                collect(changes, world, List.of()));
+        assertTrue(changes.isUnchanged("region/r.1.0.mca"));
+        assertFalse(changes.isUnchanged("region/r.0.0.mca"));
+        assertFalse(changes.isUnchanged("level.dat")); // Not covered by the hooks, always walked
+    }
+
+    @Test
+    void fileSavedBeforeTheSnapshotIsInTheBackup() throws IOException {
+        fullScan();
+        ChangeTracker.Changes changes = tracker.begin(world);
+        // Saved while the job waits in the queue, or by the flush before staging
+        tracker.markChunk(world.resolve("region"), 1, 0);
+        Files.write(world.resolve("region/r.1.0.mca"), new byte[]{7});
+
+        try (WorldSnapshot snapshot = WorldSnapshot.take(null, world, root.resolve("staging"), WorldSnapshot.MODE_COPY,
+                dir -> changes.topUp())) {
+            assertTrue(collect(changes, snapshot.getDirectory(), List.of()).contains("world/region/r.1.0.mca"));
+            assertFalse(changes.isUnchanged("region/r.1.0.mca"));
+        }
+
+        // Saved after the copy, left for the next backup
+        tracker.markChunk(world.resolve("region"), 0, 0);
+        tracker.finish(changes, true);
+        ChangeTracker.Changes next = tracker.begin(world);
+        assertTrue(collect(next, world, List.of()).contains("world/region/r.0.0.mca"));
+        assertTrue(next.isUnchanged("region/r.1.0.mca"));
+    }
+
+    @Test
+    void recordedChunkFilesOfChangedRegionsAreRechecked() {
+        fullScan();
+        tracker.markChunk(world.resolve("region"), 1, 0);
+        ChangeTracker.Changes changes = tracker.begin(world);
+
+        Set<String> names = collect(changes, world, List.of("world/region/c.33.1.mcc"));
+        assertTrue(names.contains("world/region/c.33.1.mcc"));
+        assertFalse(changes.isUnchanged("region/c.33.1.mcc"));
+    }
+
+    @Test
+    void newChunkFileIsReportedWithItsRegion() {
+        fullScan();
+        tracker.noteExternalChunk(world.resolve("region/c.33.1.mcc"));
+        tracker.markChunk(world.resolve("region"), 1, 0);
+        ChangeTracker.Changes changes = tracker.begin(world);
+
+        assertTrue(collect(changes, world, List.of()).containsAll(Set.of("world/region/c.33.1.mcc", "world/region/r.1.0.mca")));
+    }
+
+    @Test
+    void unusedChangesGoBackToTheWorld() {
+        fullScan();
+        tracker.markChunk(world.resolve("region"), 0, 0);
+        ChangeTracker.Changes coalesced = tracker.begin(world);
+        tracker.finish(coalesced, true);
+
+        ChangeTracker.Changes changes = tracker.begin(world);
+        assertTrue(changes.isTracked());
+        assertFalse(changes.isUnchanged("region/r.0.0.mca"));
+    }
+
+    @Test
+    void failedBackupWalksAgainNextTime() {
+        fullScan();
+        ChangeTracker.Changes changes = tracker.begin(world);
+        collect(changes, world, List.of());
+        tracker.finish(changes, false);
+
+        assertFalse(tracker.begin(world).isTracked());
+    }
+
+    @Test
+    void onlyOneBackupOfAWorldAtATimeIsTracked() {
+        fullScan();
+        ChangeTracker.Changes first = tracker.begin(world);
+        ChangeTracker.Changes second = tracker.begin(world);
+        assertTrue(first.isTracked());
+        assertFalse(second.isTracked());
+    }
+
+    @Test
+    void rescanIntervalForcesAWalk() {
+        tracker.setRescanHours(0);
+        fullScan();
+        assertFalse(tracker.begin(world).isTracked());
+    }
+
+    @Test
+    void untrackedWorldIsWalked() {
+        Path other = root.resolve("other");
+        ChangeTracker.Changes changes = tracker.begin(other);
+        changes.topUp();
+        assertFalse(changes.isTracked());
+        assertEquals(0, changes.size());
+    }
+
+    private void fullScan() {
+        ChangeTracker.Changes changes = tracker.begin(world);
+        changes.markFullScan();
+        tracker.finish(changes, true);
+    }
+
+    private static Set<String> collect(ChangeTracker.Changes changes, Path source, List<String> recorded) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        changes.collect(source, "world", entries, List.of(), recorded);
+        return entries.stream().map(ArchiveEntry::getName).filter(name -> !name.endsWith("/")).collect(Collectors.toSet());
+    }
+}
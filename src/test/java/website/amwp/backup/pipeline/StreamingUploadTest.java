@@ -0,0 +1,156 @@
+package website.amwp.backup.pipeline;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.archive.ArchiveEntry;
+import website.amwp.backup.archive.DirectoryScanner;
+import website.amwp.backup.archive.ParallelZipCompressor;
+import website.amwp.backup.archive.codec.CodecPolicy;
+import website.amwp.backup.drive.ResumableUpload;
+import website.amwp.backup.drive.StubDriveServer;
+import website.amwp.backup.throttle.Throttle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The archive goes from the compressor through a BoundedPipe into a resumable upload, the way
+// streamToGoogleDrive wires it, with no local ZIP in between
+@Timeout(60)
+class StreamingUploadTest {
+    @TempDir
+    Path root;
+
+    private StubDriveServer drive;
+    private ExecutorService workers;
+    private ExecutorService uploader;
+    private Path world;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        drive = new StubDriveServer();
+        workers = Executors.newFixedThreadPool(4);
+        uploader = Executors.newSingleThreadExecutor();
+        world = root.resolve("world");
+
+        // Larger than both the pipe and an upload chunk, so both have to wait on each other
+        byte[] region = new byte[2 * 1024 * 1024];
+        new Random(7).nextBytes(region);
+        Files.createDirectories(world.resolve("region"));
+        Files.write(world.resolve("region/r.0.0.mca"), region);
+        Files.writeString(world.resolve("level.dat"), "level data ".repeat(20000));
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+        uploader.shutdownNow();
+        drive.close();
+    }
+
+    @Test
+    void uploadedArchiveMatchesTheWorld() throws Exception {
+        ResumableUpload upload = newUpload();
+        upload.start("world.zip", "folder", "application/zip");
+        BoundedPipe pipe = new BoundedPipe(64 * 1024);
+        Future<String> result = uploadFrom(pipe, upload);
+
+        ParallelZipCompressor compressor = newCompressor();
+        try (OutputStream out = pipe.getOutputStream()) {
+            compressor.compress(entries(), out);
+        }
+        String fileId = result.get();
+
+        byte[] uploaded = drive.getFile(fileId);
+        assertNotNull(uploaded);
+        assertEquals(compressor.getBytesWritten(), uploaded.length);
+        assertEquals(uploaded.length, upload.getBytesUploaded());
+
+        Path archive = root.resolve("uploaded.zip");
+        Files.write(archive, uploaded);
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (String name : List.of("region/r.0.0.mca", "level.dat")) {
+                try (InputStream in = zip.getInputStream(zip.getEntry("world/" + name))) {
+                    assertArrayEquals(Files.readAllBytes(world.resolve(name)), in.readAllBytes(), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    void compressionFailureAbortsTheUpload() throws Exception {
+        ResumableUpload upload = newUpload();
+        upload.start("world.zip", "folder", "application/zip");
+        BoundedPipe pipe = new BoundedPipe(64 * 1024);
+        Future<String> result = uploadFrom(pipe, upload);
+
+        OutputStream out = pipe.getOutputStream();
+        out.write(new byte[100 * 1024]);
+        pipe.fail(new IOException("disk read failed"));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, result::get);
+        assertEquals(IOException.class, failure.getCause().getClass());
+    }
+
+    @Test
+    void uploadFailureUnblocksTheCompressor() throws Exception {
+        ResumableUpload upload = newUpload();
+        upload.start("world.zip", "folder", "application/zip");
+        upload.resume(upload.getSessionUri() + "-gone", "world.zip");
+        BoundedPipe pipe = new BoundedPipe(64 * 1024);
+        Future<String> result = uploadFrom(pipe, upload);
+
+        // The pipe is far smaller than the archive, so without the failure this would block forever
+        try (OutputStream out = pipe.getOutputStream()) {
+            assertThrows(IOException.class, () -> newCompressor().compress(entries(), out));
+        }
+        ExecutionException failure = assertThrows(ExecutionException.class, result::get);
+        assertEquals(ResumableUpload.SessionExpiredException.class, failure.getCause().getClass());
+    }
+
+    private ResumableUpload newUpload() {
+        return new ResumableUpload(HttpClient.newHttpClient(), drive.getUploadUrl(), refresh -> "token",
+                ResumableUpload.CHUNK_GRANULARITY);
+    }
+
+    private ParallelZipCompressor newCompressor() {
+        return new ParallelZipCompressor(workers, 4, CodecPolicy.parse("deflate", Map.of(), 1, 0), Throttle.NONE);
+    }
+
+    private Future<String> uploadFrom(BoundedPipe pipe, ResumableUpload upload) {
+        return uploader.submit(() -> {
+            try (InputStream in = pipe.getInputStream()) {
+                return upload.upload(in);
+            } catch (Throwable t) {
+                pipe.fail(t);
+                throw t;
+            }
+        });
+    }
+
+    private List<ArchiveEntry> entries() throws IOException {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        DirectoryScanner.collect(world.toFile(), "world", entries);
+        return entries;
+    }
+}
@@ -0,0 +1,134 @@
+package website.amwp.backup.region;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// A delta is diffed against the previous backup's state and applied to the previous backup's
+// region file, which has to give back the region as it is now
+class RegionDeltaTest {
+    private final Random random = new Random(5);
+
+    @Test
+    void appliedDeltaGivesTheNewRegion() throws IOException {
+        RegionFile r1 = region(0, 1, 2, 3, 1000);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(r1);
+
+        RegionFile r2 = copy(r1);
+        r2.setChunk(1, payload(300), 200);   // Changed
+        r2.setChunk(2, null, 0);             // Removed
+        r2.setChunk(500, payload(9000), 200); // New, more than one sector
+        byte[] delta = RegionDelta.diff(r2, state);
+
+        RegionFile restored = copy(r1);
+        RegionDelta.apply(restored, delta);
+        assertSameChunks(r2, restored);
+        assertEquals(2, changedChunks(delta));
+    }
+
+    @Test
+    void unchangedRegionGivesAnEmptyDelta() throws IOException {
+        RegionFile r1 = region(0, 1, 2);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(r1);
+
+        byte[] delta = RegionDelta.diff(copy(r1), state);
+        assertEquals(0, changedChunks(delta));
+        RegionFile restored = copy(r1);
+        RegionDelta.apply(restored, delta);
+        assertSameChunks(r1, restored);
+    }
+
+    @Test
+    void resaveWithoutChangesIsNotShipped() throws IOException {
+        RegionFile r1 = region(0, 1);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(r1);
+
+        RegionFile r2 = copy(r1);
+        r2.setChunk(0, r1.getPayload(0).clone(), 999);
+        assertEquals(0, changedChunks(RegionDelta.diff(r2, state)));
+        assertEquals(999, state.timestamps[0]);
+    }
+
+    @Test
+    void chunkSavedAgainWithinTheSameSecondIsShipped() throws IOException {
+        RegionFile r1 = region(0, 1);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(r1);
+        RegionFile r2 = copy(r1);
+        r2.setChunk(1, payload(400), 300);
+        RegionDelta.diff(r2, state);
+
+        // Unloaded and saved again right after the previous backup, still at second 300
+        RegionFile r3 = copy(r2);
+        r3.setChunk(1, payload(400), 300);
+        byte[] delta = RegionDelta.diff(r3, state);
+
+        assertEquals(1, changedChunks(delta));
+        RegionFile restored = copy(r2);
+        RegionDelta.apply(restored, delta);
+        assertSameChunks(r3, restored);
+    }
+
+    @Test
+    void chainOfDeltasRebuildsTheLatestRegion() throws IOException {
+        RegionFile base = region(0, 1, 2, 3, 4);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(base);
+        RegionFile restored = copy(base);
+        RegionFile current = copy(base);
+        for (int backup = 1; backup <= 5; backup++) {
+            current.setChunk(random.nextInt(8), payload(100 + random.nextInt(5000)), 100 + backup / 2);
+            current.setChunk(random.nextInt(8), null, 0);
+            RegionDelta.apply(restored, RegionDelta.diff(current, state));
+            assertSameChunks(current, restored);
+        }
+    }
+
+    @Test
+    void rejectsForeignData() {
+        assertThrows(IOException.class, () -> RegionDelta.apply(new RegionFile(), new byte[16]));
+
+        byte[] outOfRange = ByteBuffer.allocate(18).putInt(0x4D434144).putInt(1).putInt(0).putInt(1).putShort((short) 1024).array();
+        assertThrows(IOException.class, () -> RegionDelta.apply(new RegionFile(), outOfRange));
+    }
+
+    private RegionFile region(int... chunks) {
+        RegionFile region = new RegionFile();
+        for (int chunk : chunks) {
+            region.setChunk(chunk, payload(200 + random.nextInt(3000)), 100);
+        }
+        return region;
+    }
+
+    // Compression type byte followed by "compressed" data
+    private byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        random.nextBytes(payload);
+        payload[0] = 2;
+        return payload;
+    }
+
+    private static RegionFile copy(RegionFile region) {
+        return RegionFile.parse(region.toBytes());
+    }
+
+    private static int changedChunks(byte[] delta) {
+        return ByteBuffer.wrap(delta).getInt(8);
+    }
+
+    static void assertSameChunks(RegionFile expected, RegionFile actual) {
+        for (int i = 0; i < RegionFile.CHUNKS; i++) {
+            if (expected.getPayload(i) == null) {
+                assertNull(actual.getPayload(i), "chunk " + i);
+            } else {
+                assertArrayEquals(expected.getPayload(i), actual.getPayload(i), "chunk " + i);
+                assertEquals(expected.getTimestamp(i), actual.getTimestamp(i), "chunk " + i);
+            }
+        }
+    }
+}
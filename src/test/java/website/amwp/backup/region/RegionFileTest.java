@@ -0,0 +1,80 @@
+package website.amwp.backup.region;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RegionFileTest {
+    @TempDir
+    Path root;
+
+    private final Random random = new Random(3);
+
+    @Test
+    void toBytesLaysChunksOutInSectors() {
+        RegionFile region = new RegionFile();
+        region.setChunk(0, payload(100), 11);
+        region.setChunk(1023, payload(4093), 12); // Needs a second sector with the length prefix
+        byte[] bytes = region.toBytes();
+
+        assertEquals(0, bytes.length % RegionFile.SECTOR_SIZE);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        assertEquals((2 << 8) | 1, buf.getInt(0));
+        assertEquals((3 << 8) | 2, buf.getInt(1023 * 4));
+        assertEquals(12, buf.getInt(RegionFile.SECTOR_SIZE + 1023 * 4));
+        assertEquals(5 * RegionFile.SECTOR_SIZE, bytes.length);
+        assertEquals(100, buf.getInt(2 * RegionFile.SECTOR_SIZE));
+    }
+
+    @Test
+    void parseReadsBackWhatToBytesWrote() {
+        RegionFile region = new RegionFile();
+        for (int i = 0; i < RegionFile.CHUNKS; i += 37) {
+            region.setChunk(i, payload(1 + random.nextInt(12000)), 1000 + i);
+        }
+        RegionDeltaTest.assertSameChunks(region, RegionFile.parse(region.toBytes()));
+    }
+
+    @Test
+    void writeAndReadAFile() throws IOException {
+        RegionFile region = new RegionFile();
+        region.setChunk(42, payload(5000), 7);
+        Path file = root.resolve("region/r.0.0.mca");
+        region.write(file);
+
+        RegionFile read = RegionFile.read(file.toFile());
+        assertArrayEquals(region.getPayload(42), read.getPayload(42));
+        assertEquals(7, read.getTimestamp(42));
+        assertEquals(1, Files.list(file.getParent()).count()); // No temp file left behind
+    }
+
+    @Test
+    void damagedRegionsKeepTheReadableChunks() {
+        RegionFile region = new RegionFile();
+        region.setChunk(0, payload(100), 1);
+        region.setChunk(1, payload(100), 1);
+        byte[] bytes = region.toBytes();
+        ByteBuffer.wrap(bytes).putInt(4, (500 << 8) | 1); // Chunk 1 points past the end
+
+        RegionFile parsed = RegionFile.parse(bytes);
+        assertNotNull(parsed.getPayload(0));
+        assertNull(parsed.getPayload(1));
+        assertNull(RegionFile.parse(new byte[100]).getPayload(0)); // Truncated header
+    }
+
+    private byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        random.nextBytes(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,56 @@
+package website.amwp.backup.region;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RegionIndexTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void savedStatesLoadBack() throws IOException {
+        RegionFile region = new RegionFile();
+        region.setChunk(3, new byte[]{2, 1, 2, 3}, 77);
+        RegionIndex.RegionState state = RegionIndex.RegionState.of(region);
+        assertNotEquals(0, state.hashes[3]);
+
+        Path path = root.resolve("regions/worlds-world.bin.gz");
+        RegionIndex index = RegionIndex.load(path);
+        index.put("world/region/r.0.0.mca", state);
+        index.save();
+
+        RegionIndex.RegionState loaded = RegionIndex.load(path).get("world/region/r.0.0.mca");
+        assertArrayEquals(state.timestamps, loaded.timestamps);
+        assertArrayEquals(state.hashes, loaded.hashes);
+    }
+
+    @Test
+    void unreadableIndexStartsEmpty() throws IOException {
+        Path path = root.resolve("index.bin.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 0});
+        }
+        assertNull(RegionIndex.load(path).get("world/region/r.0.0.mca"));
+        assertNull(RegionIndex.load(root.resolve("missing.bin.gz")).get("world/region/r.0.0.mca"));
+    }
+
+    @Test
+    void copiesAreIndependent() {
+        RegionIndex.RegionState state = new RegionIndex.RegionState();
+        RegionIndex.RegionState copy = state.copy();
+        copy.timestamps[0] = 5;
+        copy.hashes[0] = 6;
+        assertArrayEquals(new int[RegionFile.CHUNKS], state.timestamps);
+        assertArrayEquals(new long[RegionFile.CHUNKS], state.hashes);
+    }
+}
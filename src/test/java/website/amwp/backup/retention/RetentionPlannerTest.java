@@ -0,0 +1,143 @@
+package website.amwp.backup.retention;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetentionPlannerTest {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void keepsTheNewestBackups() {
+        List<Snapshot> snapshots = every(6, 5);
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(2, 0, 0, 0, 0, 0), Set.of());
+
+        assertEquals(snapshots.subList(3, 5), plan.getKeep());
+        assertEquals(snapshots.subList(0, 3), plan.getDelete());
+        assertEquals("not kept by any tier", plan.getReason(snapshots.get(0)));
+    }
+
+    @Test
+    void keepsOneBackupPerPeriod() {
+        // Every 6 hours for ten days, from 2026-10-01 00:00
+        List<Snapshot> snapshots = every(6, 40);
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 2, 3, 0, 0, 0), Set.of());
+
+        assertEquals(names("2026-10-08_18-00-00", "2026-10-09_18-00-00", "2026-10-10_12-00-00", "2026-10-10_18-00-00"),
+                names(plan.getKeep()));
+        assertEquals("daily", plan.getReason(snapshots.get(39))); // The most valuable reason wins
+        assertEquals("hourly", plan.getReason(snapshots.get(38)));
+        assertEquals("daily", plan.getReason(snapshots.get(31)));
+    }
+
+    @Test
+    void weeklyAndMonthlyTiers() {
+        // Daily from 2026-08-01 to 2026-10-29
+        List<Snapshot> snapshots = every(24, 90);
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 0, 0, 2, 3, 0), Set.of());
+
+        // Sundays end ISO weeks, the last day of the month ends it
+        assertEquals(names("2026-08-31_00-00-00", "2026-09-30_00-00-00", "2026-10-25_00-00-00", "2026-10-29_00-00-00"),
+                names(plan.getKeep()));
+        assertEquals("monthly", plan.getReason(snapshots.get(89)));
+    }
+
+    @Test
+    void periodKeepsItsFullBackupRatherThanAnIncremental() {
+        List<Snapshot> snapshots = List.of(
+                snapshot("2026-10-17_00-00-00", false, 1),
+                snapshot("2026-10-17_12-00-00", true, 1),
+                snapshot("2026-10-18_00-00-00", false, 1),
+                snapshot("2026-10-18_06-00-00", true, 1),
+                snapshot("2026-10-18_12-00-00", false, 1),
+                snapshot("2026-10-18_18-00-00", true, 1));
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 0, 2, 0, 0, 0), Set.of());
+
+        assertEquals(names("2026-10-17_00-00-00", "2026-10-18_12-00-00", "2026-10-18_18-00-00"), names(plan.getKeep()));
+    }
+
+    @Test
+    void keptIncrementalKeepsItsChain() {
+        List<Snapshot> snapshots = List.of(
+                snapshot("2026-10-18_00-00-00", false, 1),
+                snapshot("2026-10-18_06-00-00", false, 1),
+                snapshot("2026-10-18_12-00-00", true, 1),
+                snapshot("2026-10-18_18-00-00", true, 1));
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 0, 0, 0, 0, 0), Set.of());
+
+        assertEquals(snapshots.subList(1, 4), plan.getKeep());
+        assertEquals("needed by " + snapshots.get(2).name(), plan.getReason(snapshots.get(1)));
+        assertEquals("needed by " + snapshots.get(3).name(), plan.getReason(snapshots.get(2)));
+    }
+
+    @Test
+    void pinnedBackupsAreAlwaysKept() {
+        List<Snapshot> snapshots = every(6, 4);
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 0, 0, 0, 0, 1),
+                Set.of(snapshots.get(0).name()));
+
+        assertEquals(List.of(snapshots.get(0), snapshots.get(3)), plan.getKeep());
+        assertEquals("pending upload", plan.getReason(snapshots.get(0)));
+    }
+
+    @Test
+    void quotaDropsTheLeastValuableFirst() {
+        List<Snapshot> snapshots = List.of(
+                snapshot("2026-09-30_00-00-00", false, 100), // monthly
+                snapshot("2026-10-17_00-00-00", false, 100), // daily
+                snapshot("2026-10-18_00-00-00", false, 100), // not kept, the day has a newer one
+                snapshot("2026-10-18_12-00-00", false, 100), // last
+                snapshot("2026-10-18_18-00-00", false, 100)); // newest
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(2, 0, 2, 0, 2, 200), Set.of());
+
+        assertEquals(List.of(snapshots.get(0), snapshots.get(4)), plan.getKeep());
+        assertEquals("not kept by any tier", plan.getReason(snapshots.get(2)));
+        assertEquals("over quota", plan.getReason(snapshots.get(3)));
+        assertEquals("over quota", plan.getReason(snapshots.get(1)));
+        assertEquals(200 * MB, plan.getKeptBytes());
+    }
+
+    @Test
+    void quotaNeverBreaksAChainOrDropsTheNewest() {
+        List<Snapshot> snapshots = List.of(
+                snapshot("2026-10-18_00-00-00", false, 500),
+                snapshot("2026-10-18_06-00-00", true, 100),
+                snapshot("2026-10-18_12-00-00", true, 100));
+        RetentionPlan plan = RetentionPlanner.plan(snapshots, new RetentionPolicy(1, 0, 0, 0, 0, 100), Set.of());
+
+        // Over quota, but every backup is needed by the newest one
+        assertEquals(snapshots, plan.getKeep());
+        assertTrue(plan.getDelete().isEmpty());
+    }
+
+    // count full backups hours apart, from 2026-10-01, or 2026-08-01 for daily ones
+    private static List<Snapshot> every(int hours, int count) {
+        LocalDateTime start = hours >= 24 ? LocalDateTime.of(2026, 8, 1, 0, 0) : LocalDateTime.of(2026, 10, 1, 0, 0);
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            snapshots.add(snapshot(start.plusHours((long) hours * i).format(TIMESTAMP), false, 1));
+        }
+        return snapshots;
+    }
+
+    private static Snapshot snapshot(String timestamp, boolean incremental, long sizeMb) {
+        String name = "worlds-world_" + timestamp + (incremental ? "_incr.zip" : ".zip");
+        return Snapshot.of(name, sizeMb * MB, name);
+    }
+
+    private static List<String> names(String... timestamps) {
+        return List.of(timestamps);
+    }
+
+    private static List<String> names(List<Snapshot> snapshots) {
+        return snapshots.stream().map(snapshot -> snapshot.time().format(TIMESTAMP)).toList();
+    }
+}
@@ -0,0 +1,152 @@
+package website.amwp.backup.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class BackupSchedulerTest {
+    private final BackupScheduler scheduler = new BackupScheduler(() -> {
+    }, 1);
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void jobForAWaitingTargetIsCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BackupJob blocker = scheduler.submit("worlds/world", 0, blocking(release));
+        awaitState(blocker, BackupJob.State.RUNNING);
+
+        AtomicInteger runs = new AtomicInteger();
+        BackupJob first = scheduler.submit("worlds/world_nether", 0, job -> {
+            runs.incrementAndGet();
+            return null;
+        });
+        BackupJob second = scheduler.submit("worlds/world_nether", 0, job -> {
+            runs.incrementAndGet();
+            return null;
+        });
+        assertSame(first, second);
+
+        release.countDown();
+        assertTrue(scheduler.awaitIdle(10000));
+        assertEquals(1, runs.get());
+        assertEquals(BackupJob.State.DONE, first.getState());
+    }
+
+    @Test
+    void higherPriorityRunsFirstThenInSubmissionOrder() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        awaitState(scheduler.submit("blocker", 0, blocking(release)), BackupJob.State.RUNNING);
+
+        scheduler.submit("low", 0, recording("low"));
+        scheduler.submit("second", 5, recording("second"));
+        scheduler.submit("restore", Integer.MAX_VALUE, recording("restore"));
+        scheduler.submit("third", 5, recording("third"));
+
+        release.countDown();
+        assertTrue(scheduler.awaitIdle(10000));
+        assertEquals(List.of("restore", "second", "third", "low"), ran);
+    }
+
+    @Test
+    void sameTargetNeverRunsTwiceAtOnce() throws Exception {
+        scheduler.setConcurrency(2);
+        CountDownLatch release = new CountDownLatch(1);
+        BackupJob running = scheduler.submit("worlds/world", 0, blocking(release));
+        awaitState(running, BackupJob.State.RUNNING);
+
+        // Not coalesced, the first one has started already, but held back until it ends
+        BackupJob next = scheduler.submit("worlds/world", 0, recording("next"));
+        assertNotSame(running, next);
+        scheduler.submit("mods", 0, recording("mods")).getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(BackupJob.State.QUEUED, next.getState());
+
+        release.countDown();
+        next.getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("mods", "next"), ran);
+    }
+
+    @Test
+    void awaitIdleWaitsForUploads() throws Exception {
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        BackupJob job = scheduler.submit("worlds/world", 0, j -> upload);
+        awaitState(job, BackupJob.State.UPLOADING);
+
+        // The worker is free again while the upload runs
+        scheduler.submit("mods", 0, recording("mods")).getCompletion().get(10, TimeUnit.SECONDS);
+        assertFalse(scheduler.awaitIdle(100));
+
+        upload.complete(null);
+        assertTrue(scheduler.awaitIdle(10000));
+        assertEquals(BackupJob.State.DONE, job.getState());
+    }
+
+    @Test
+    void failuresAndCancellationsEndTheJob() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        awaitState(scheduler.submit("blocker", 0, blocking(release)), BackupJob.State.RUNNING);
+        BackupJob failing = scheduler.submit("failing", 0, job -> {
+            throw new IllegalStateException("broken");
+        });
+        BackupJob failedUpload = scheduler.submit("upload", 0, job -> CompletableFuture.failedFuture(new RuntimeException()));
+        BackupJob cancelled = scheduler.submit("cancelled", 0, recording("cancelled"));
+
+        assertTrue(scheduler.cancel(cancelled.getId()));
+        assertEquals(BackupJob.State.CANCELLED, cancelled.getState());
+        assertTrue(cancelled.getCompletion().isDone());
+
+        release.countDown();
+        assertTrue(scheduler.awaitIdle(10000));
+        assertEquals(BackupJob.State.FAILED, failing.getState());
+        assertEquals(BackupJob.State.FAILED, failedUpload.getState());
+        assertTrue(ran.isEmpty());
+        assertEquals(4, scheduler.getJobs().size()); // History only
+    }
+
+    @Test
+    void cronScheduleHasANextRun() {
+        scheduler.schedule("@daily", 0);
+        assertEquals(0, scheduler.getNextRun().getHour());
+        scheduler.schedule("0 0 30 2 *", 0);
+        assertNull(scheduler.getNextRun());
+    }
+
+    private static BackupJob.Work blocking(CountDownLatch release) {
+        return job -> {
+            release.await();
+            return null;
+        };
+    }
+
+    private BackupJob.Work recording(String name) {
+        return job -> {
+            ran.add(name);
+            return null;
+        };
+    }
+
+    private static void awaitState(BackupJob job, BackupJob.State state) throws InterruptedException {
+        while (job.getState() != state) {
+            Thread.sleep(5);
+        }
+    }
+}
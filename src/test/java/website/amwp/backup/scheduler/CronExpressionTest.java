@@ -0,0 +1,107 @@
+package website.amwp.backup.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CronExpressionTest {
+    // Clocks go forward on 2026-03-08 at 02:00 and back on 2026-11-01 at 02:00
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    void stepsAndLists() {
+        assertEquals(at("2026-10-18T12:15"), next("*/15 * * * *", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-18T12:15"), next("*/15 * * * *", "2026-10-18T12:14:59"));
+        assertEquals(at("2026-10-18T18:00"), next("0 6,18 * * *", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-19T06:00"), next("0 6,18 * * *", "2026-10-18T18:00"));
+        assertEquals(at("2026-10-18T12:20"), next("0-30/10 12 * * *", "2026-10-18T12:10"));
+        assertEquals(at("2026-10-19T12:00"), next("0-30/10 12 * * *", "2026-10-18T12:30"));
+    }
+
+    @Test
+    void skipsToMatchingMonthsAndDays() {
+        assertEquals(at("2027-01-01T00:00"), next("0 0 1 1 *", "2026-10-18T12:00"));
+        assertEquals(at("2028-02-29T03:00"), next("0 3 29 2 *", "2026-10-18T12:00"));
+        assertNull(next("0 0 30 2 *", "2026-10-18T12:00"));
+    }
+
+    @Test
+    void sundayIsZeroAndSeven() {
+        assertEquals(at("2026-10-25T04:00"), next("0 4 * * 0", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-25T04:00"), next("0 4 * * 7", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-19T04:00"), next("0 4 * * 1-5", "2026-10-18T12:00"));
+    }
+
+    @Test
+    void restrictedDayFieldsMatchEitherDay() {
+        // The 1st of the month or any Monday
+        assertEquals(at("2026-10-19T00:00"), next("0 0 1 * 1", "2026-10-18T12:00"));
+        assertEquals(at("2026-11-01T00:00"), next("0 0 1 * 1", "2026-10-26T12:00"));
+    }
+
+    @Test
+    void dayFieldStartingWithStarIsNotRestricted() {
+        // Odd days of the month that are also Mondays, not any odd day or any Monday
+        assertEquals(at("2026-11-09T00:00"), next("0 0 */2 * 1", "2026-10-19T12:00"));
+        // The 1st of the month when it falls on an even day of the week
+        assertEquals(at("2026-11-01T00:00"), next("0 0 1 * */2", "2026-10-18T12:00"));
+    }
+
+    @Test
+    void shorthands() {
+        assertEquals(at("2026-10-18T13:00"), next("@hourly", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-19T00:00"), next("@daily", "2026-10-18T12:00"));
+        assertEquals(at("2026-10-25T00:00"), next("@weekly", "2026-10-18T12:00"));
+        assertEquals(at("2026-11-01T00:00"), next("@monthly", "2026-10-18T12:00"));
+        assertEquals("@daily", CronExpression.parse(" @daily ").toString());
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("* * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("60 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("0 5-1 * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("0 0 0 * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("x * * * *"));
+    }
+
+    @Test
+    void skippedHourRunsOnceTheClocksHaveMoved() {
+        CronExpression cron = CronExpression.parse("30 2 * * *");
+        assertEquals(zoned("2026-03-08T03:30-04:00"), cron.next(zoned("2026-03-08T01:00-05:00")));
+        assertEquals(zoned("2026-03-09T02:30-04:00"), cron.next(zoned("2026-03-08T03:30-04:00")));
+
+        CronExpression hourly = CronExpression.parse("@hourly");
+        assertEquals(zoned("2026-03-08T03:00-04:00"), hourly.next(zoned("2026-03-08T01:00-05:00")));
+        assertEquals(zoned("2026-03-08T04:00-04:00"), hourly.next(zoned("2026-03-08T03:00-04:00")));
+    }
+
+    @Test
+    void repeatedHourRunsOnce() {
+        CronExpression cron = CronExpression.parse("30 1 * * *");
+        ZonedDateTime first = cron.next(zoned("2026-11-01T00:00-04:00"));
+        assertEquals(zoned("2026-11-01T01:30-04:00"), first);
+        assertEquals(zoned("2026-11-02T01:30-05:00"), cron.next(first));
+
+        // Searching from inside the repeated hour finds the second occurrence, not a past one
+        assertEquals(zoned("2026-11-01T01:30-05:00"), cron.next(zoned("2026-11-01T01:10-05:00")));
+    }
+
+    private static LocalDateTime next(String cron, String after) {
+        return CronExpression.parse(cron).next(LocalDateTime.parse(after));
+    }
+
+    private static LocalDateTime at(String time) {
+        return LocalDateTime.parse(time);
+    }
+
+    private static ZonedDateTime zoned(String time) {
+        return ZonedDateTime.parse(time).withZoneSameInstant(NEW_YORK);
+    }
+}
@@ -0,0 +1,144 @@
+package website.amwp.backup.target;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import website.amwp.backup.retention.Snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(120)
+class S3TargetTest {
+    private static final String WORLD = "worlds-world_2026-10-18_12-00-00.zip";
+
+    @TempDir
+    Path root;
+
+    private StubS3Server s3;
+    private S3Target target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        s3 = new StubS3Server();
+        target = newTarget(StubS3Server.SECRET_KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        target.shutdown();
+        s3.close();
+    }
+
+    @Test
+    void smallArchiveIsOnePut() throws Exception {
+        byte[] data = archive(WORLD, 100 * 1024);
+        target.store(root.resolve(WORLD).toFile(), WORLD).get();
+
+        assertArrayEquals(data, s3.getObjects().get("server/" + WORLD));
+        assertEquals(List.of("HEAD ", "PUT "), s3.getRequests());
+    }
+
+    @Test
+    void archiveAlreadyStoredIsNotSentAgain() throws Exception {
+        archive(WORLD, 1000);
+        File file = root.resolve(WORLD).toFile();
+        target.store(file, WORLD).get();
+        target.store(file, WORLD).get();
+
+        assertEquals(List.of("HEAD ", "PUT ", "HEAD "), s3.getRequests());
+    }
+
+    @Test
+    void largeArchiveIsAMultipartUpload() throws Exception {
+        byte[] data = archive(WORLD, 16 * 1024 * 1024 + 1000);
+        target.store(root.resolve(WORLD).toFile(), WORLD).get();
+
+        assertArrayEquals(data, s3.getObjects().get("server/" + WORLD));
+        assertEquals(List.of("HEAD ", "POST uploads=", "PUT partNumber=1&uploadId=upload-1",
+                "PUT partNumber=2&uploadId=upload-1", "POST uploadId=upload-1"), s3.getRequests());
+    }
+
+    @Test
+    void failedCompletionAbortsTheUpload() throws IOException {
+        archive(WORLD, 16 * 1024 * 1024 + 1000);
+        s3.failCompletion();
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> target.store(root.resolve(WORLD).toFile(), WORLD).get());
+        assertTrue(failure.getCause().getMessage().contains("Failed to complete upload"), failure.getCause().getMessage());
+        assertEquals(1, s3.getAborted());
+        assertEquals(0, s3.getOpenUploads());
+        assertTrue(s3.getObjects().isEmpty());
+    }
+
+    @Test
+    void throttledRequestsAreRetried() throws Exception {
+        byte[] data = archive(WORLD, 1000);
+        s3.failRequests(2);
+        target.store(root.resolve(WORLD).toFile(), WORLD).get();
+
+        assertArrayEquals(data, s3.getObjects().get("server/" + WORLD));
+    }
+
+    @Test
+    void wrongSecretIsRejected() throws IOException {
+        archive(WORLD, 1000);
+        S3Target wrong = newTarget("not-the-secret");
+        try {
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> wrong.store(root.resolve(WORLD).toFile(), WORLD).get());
+            assertTrue(failure.getCause().getMessage().contains("HTTP 403 SignatureDoesNotMatch"),
+                    failure.getCause().getMessage());
+        } finally {
+            wrong.shutdown();
+        }
+    }
+
+    @Test
+    void listsAndDeletesOnlyTheWorldsArchives() throws Exception {
+        List<String> names = List.of("worlds-world_2026-10-17_12-00-00.zip", "worlds-world_2026-10-18_12-00-00_incr.zip",
+                "worlds-world_nether_2026-10-18_12-00-00.zip", "worlds-world_notes.txt");
+        for (String name : names) {
+            archive(name, 100);
+            target.store(root.resolve(name).toFile(), name).get();
+        }
+        s3.setPageSize(1);
+
+        List<Snapshot> snapshots = target.list("worlds-world");
+        assertEquals(Set.of("worlds-world_2026-10-17_12-00-00.zip", "worlds-world_2026-10-18_12-00-00_incr.zip"),
+                Set.copyOf(snapshots.stream().map(Snapshot::name).toList()));
+        assertTrue(snapshots.stream().anyMatch(Snapshot::incremental));
+        assertTrue(snapshots.stream().allMatch(snapshot -> snapshot.size() == 100
+                && snapshot.location().equals("server/" + snapshot.name())));
+
+        target.delete(snapshots);
+        assertEquals(Set.of("server/worlds-world_nether_2026-10-18_12-00-00.zip", "server/worlds-world_notes.txt"),
+                s3.getObjects().keySet());
+    }
+
+    private S3Target newTarget(String secretKey) {
+        return new S3Target("stub", s3.getEndpoint(), StubS3Server.REGION, StubS3Server.BUCKET, "server/",
+                StubS3Server.ACCESS_KEY, secretKey, true, 3);
+    }
+
+    private byte[] archive(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(name.hashCode()).nextBytes(data);
+        Files.write(root.resolve(name), data);
+        return data;
+    }
+}